@@ -17,10 +17,11 @@ Contributors:
 **********************************************************************/
 package org.datanucleus;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.datanucleus.api.ApiAdapter;
 import org.datanucleus.api.ApiAdapterFactory;
@@ -32,7 +33,6 @@ import org.datanucleus.properties.CorePropertyValidator;
 import org.datanucleus.store.types.TypeManager;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
-import org.datanucleus.util.StringUtils;
 
 /**
  * Base implementation of a NucleusContext, providing configuration, metadata management, type management, plugin management and ClassLoader services.
@@ -60,8 +60,11 @@ public abstract class AbstractNucleusContext implements NucleusContext
     /** Name of the class providing the ClassLoaderResolver. */
     protected final String classLoaderResolverClassName;
 
-    /** Map of the ClassLoaderResolver, keyed by the clr class and the primaryLoader name. */
-    protected transient Map<String, ClassLoaderResolver> classLoaderResolverMap = new HashMap<String, ClassLoaderResolver>();
+    /** Map of the ClassLoaderResolver, keyed by the primaryLoader (ClassLoader equality is identity). */
+    protected transient ConcurrentMap<ClassLoader, ClassLoaderResolver> classLoaderResolverMap = new ConcurrentHashMap<ClassLoader, ClassLoaderResolver>();
+
+    /** ClassLoaderResolver for when there is no primaryLoader. */
+    protected transient volatile ClassLoaderResolver defaultClassLoaderResolver = null;
 
     public static final Set<String> STARTUP_PROPERTIES = new HashSet<String>();
 
@@ -140,6 +143,9 @@ public abstract class AbstractNucleusContext implements NucleusContext
         conf.addDefaultProperty(PropertyNames.PROPERTY_METADATA_JDO_SUFFIX, null, "jdo", null, false, false);
         conf.addDefaultProperty(PropertyNames.PROPERTY_METADATA_ORM_SUFFIX, null, "orm", null, false, false);
         conf.addDefaultProperty(PropertyNames.PROPERTY_METADATA_JDOQUERY_SUFFIX, null, "jdoquery", null, false, false);
+        conf.addDefaultProperty(PropertyNames.PROPERTY_METADATA_SNAPSHOT_FILE, null, null, null, false, false);
+        conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_METADATA_PARALLEL_LOAD, null, false, false, false);
+        conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_METADATA_LAZY_INITIALISATION, null, false, false, false);
         conf.addDefaultProperty(PropertyNames.PROPERTY_METADATA_DEFAULT_INHERITANCE_STRATEGY, null, "JDO2", 
             CorePropertyValidator.class.getName(), false, false);
     }
@@ -215,27 +221,23 @@ public abstract class AbstractNucleusContext implements NucleusContext
 
     public ClassLoaderResolver getClassLoaderResolver(ClassLoader primaryLoader)
     {
-        // Set the key we will refer to this loader by
-        String resolverName = config.getStringProperty(PropertyNames.PROPERTY_CLASSLOADER_RESOLVER_NAME);
-        String key = resolverName;
-        if (primaryLoader != null)
-        {
-            key += ":[" + StringUtils.toJVMIDString(primaryLoader) + "]"; 
-        }
-    
-        if (classLoaderResolverMap == null)
+        // The resolver name is a startup property, so the resolvers are only keyed by the primary loader
+        ConcurrentMap<ClassLoader, ClassLoaderResolver> clrMap = classLoaderResolverMap;
+        if (clrMap == null)
         {
-            classLoaderResolverMap = new HashMap<String, ClassLoaderResolver>();
+            clrMap = new ConcurrentHashMap<ClassLoader, ClassLoaderResolver>();
+            classLoaderResolverMap = clrMap;
         }
-    
-        ClassLoaderResolver clr = classLoaderResolverMap.get(key);
+
+        ClassLoaderResolver clr = (primaryLoader == null ? defaultClassLoaderResolver : clrMap.get(primaryLoader));
         if (clr != null)
         {
             // Return the cached loader resolver
             return clr;
         }
-    
+
         // Create the ClassLoaderResolver of this type with this primary loader
+        String resolverName = config.getStringProperty(PropertyNames.PROPERTY_CLASSLOADER_RESOLVER_NAME);
         try
         {
             clr = (ClassLoaderResolver)pluginManager.createExecutableExtension(
@@ -251,9 +253,20 @@ public abstract class AbstractNucleusContext implements NucleusContext
         {
             throw new NucleusUserException(LOCALISER.msg("001003", classLoaderResolverClassName), e).setFatal();
         }
-        classLoaderResolverMap.put(key, clr);
-    
-        return clr;
+
+        if (primaryLoader == null)
+        {
+            synchronized (this)
+            {
+                if (defaultClassLoaderResolver == null)
+                {
+                    defaultClassLoaderResolver = clr;
+                }
+                return defaultClassLoaderResolver;
+            }
+        }
+        ClassLoaderResolver existingClr = clrMap.putIfAbsent(primaryLoader, clr);
+        return (existingClr != null ? existingClr : clr);
     }
 
     /**
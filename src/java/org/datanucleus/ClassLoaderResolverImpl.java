@@ -19,20 +19,24 @@ Contributors:
 package org.datanucleus;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.datanucleus.exceptions.ClassNotResolvedException;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 import org.datanucleus.util.Localiser;
-import org.datanucleus.util.WeakValueMap;
 
 /**
  * A basic implementation of a ClassLoaderResolver. 
@@ -60,32 +64,38 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
     protected static final Localiser LOCALISER = Localiser.getInstance("org.datanucleus.Localisation",
         org.datanucleus.ClassConstants.NUCLEUS_CONTEXT_LOADER);
 
+    /** Classes of the primitive types (and String), keyed by their name. */
+    private static final Map<String, Class> PRIMITIVE_CLASSES = new HashMap<String, Class>();
+    static
+    {
+        PRIMITIVE_CLASSES.put(ClassNameConstants.BYTE, byte.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.CHAR, char.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.INT, int.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.LONG, long.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.DOUBLE, double.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.FLOAT, float.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.SHORT, short.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.BOOLEAN, boolean.class);
+        PRIMITIVE_CLASSES.put(ClassNameConstants.JAVA_LANG_STRING, String.class);
+    }
+
+    /** Maximum number of names of classes not found that are cached for a combination of loaders. */
+    private static final int MAX_NOT_FOUND_CLASS_NAMES = 1000;
+
     /** ClassLoader initialised by the context (ExecutionContext). */
     protected final ClassLoader contextLoader;
 
-    /** Hash code cache for performance improvement */
-    protected int contextLoaderHashCode = 0;
-
     /** ClassLoader registered to load runtime created classes. */
     protected ClassLoader runtimeLoader;
 
-    /** Hash code cache for performance improvement */
-    protected int runtimeLoaderHashCode = 0;
-
     /** ClassLoader registered to load classes (e.g set in the persistence properties as the primary loader). */
     protected ClassLoader userRegisteredLoader;
 
-    /** Hash code cache for performance improvement */
-    protected int userRegisteredLoaderHashCode = 0;
-
-    /** Cache for loaded classes */
-    protected Map<String, Class> loadedClasses = Collections.synchronizedMap(new WeakValueMap());
-
-    /** Cache for loaded classes */
-    protected Map<String, Class> unloadedClasses = Collections.synchronizedMap(new WeakValueMap());
+    /** Caches of classes, one for each combination of primary and thread context loaders used to resolve them. */
+    private volatile ClassCache[] classCaches = new ClassCache[0];
 
     /** Cache for resources */
-    protected Map<String, URL> resources = Collections.synchronizedMap(new WeakValueMap());
+    protected Map<String, URL> resources = ConcurrentReferenceValueMap.newWeakValueMap();
 
     /** The primary class */
     ThreadLocal primary = new ThreadLocal();
@@ -97,10 +107,6 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
     public ClassLoaderResolverImpl(ClassLoader ctxLoader)
     {
         contextLoader = ctxLoader;
-        if (contextLoader != null)
-        {
-            contextLoaderHashCode = contextLoader.hashCode();
-        }
     }
 
     /**
@@ -130,59 +136,35 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
             String msg = LOCALISER.msg("001000", null);
             throw new ClassNotResolvedException(msg);
         }
-        if (name.equals(ClassNameConstants.BYTE))
-        {
-            return byte.class;
-        }
-        else if (name.equals(ClassNameConstants.CHAR))
-        {
-            return char.class;
-        }
-        else if (name.equals(ClassNameConstants.INT))
-        {
-            return int.class;
-        }
-        else if (name.equals(ClassNameConstants.LONG))
-        {
-            return long.class;
-        }
-        else if (name.equals(ClassNameConstants.DOUBLE))
-        {
-            return double.class;
-        }
-        else if (name.equals(ClassNameConstants.FLOAT))
-        {
-            return float.class;
-        }
-        else if (name.equals(ClassNameConstants.SHORT))
-        {
-            return short.class;
-        }
-        else if (name.equals(ClassNameConstants.BOOLEAN))
-        {
-            return boolean.class;
-        }
-        else if (name.equals(ClassNameConstants.JAVA_LANG_STRING))
+        Class cls = PRIMITIVE_CLASSES.get(name);
+        if (cls != null)
         {
-            return String.class;
+            return cls;
         }
 
         ClassLoader threadClassLoader = Thread.currentThread().getContextClassLoader();
-        String cacheKey = newCacheKey(name, primary, threadClassLoader);
+        ClassCache cache = getClassCache(primary, threadClassLoader);
 
         //lookup in loaded and unloaded classes cache
-        Class cls = loadedClasses.get(cacheKey);
+        cls = cache.loadedClasses.get(name);
         if (cls != null)
         {
             return cls;
         }
 
-        cls = unloadedClasses.get(cacheKey);
+        cls = cache.unloadedClasses.get(name);
         if (cls != null)
         {
             return cls;
         }
 
+        // Only use the not found classes when there is no primary for this thread, since that isn't part of the cache
+        boolean useNotFoundClassNames = (this.primary.get() == null);
+        if (useNotFoundClassNames && cache.notFoundClassNames.contains(name))
+        {
+            throw new ClassNotResolvedException(LOCALISER.msg("001000", name));
+        }
+
         // Try the supplied loader first
         cls = classOrNull(name, primary);
 
@@ -214,11 +196,15 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
 
         if (cls == null)
         {
+            if (useNotFoundClassNames)
+            {
+                classNotFound(cache, name);
+            }
             throw new ClassNotResolvedException(LOCALISER.msg("001000", name));
         }
 
         //put in unloaded cache, since it was not loaded here
-        unloadedClasses.put(cacheKey, cls);
+        cache.unloadedClasses.put(name, cls);
 
         return cls;
     }
@@ -240,54 +226,29 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
             String msg = LOCALISER.msg("001000", null);
             throw new ClassNotResolvedException(msg);
         }
-        if (name.equals(ClassNameConstants.BYTE))
-        {
-            return byte.class;
-        }
-        else if (name.equals(ClassNameConstants.CHAR))
-        {
-            return char.class;
-        }
-        else if (name.equals(ClassNameConstants.INT))
-        {
-            return int.class;
-        }
-        else if (name.equals(ClassNameConstants.LONG))
-        {
-            return long.class;
-        }
-        else if (name.equals(ClassNameConstants.DOUBLE))
-        {
-            return double.class;
-        }
-        else if (name.equals(ClassNameConstants.FLOAT))
-        {
-            return float.class;
-        }
-        else if (name.equals(ClassNameConstants.SHORT))
-        {
-            return short.class;
-        }
-        else if (name.equals(ClassNameConstants.BOOLEAN))
-        {
-            return boolean.class;
-        }
-        else if (name.equals(ClassNameConstants.JAVA_LANG_STRING))
+        Class cls = PRIMITIVE_CLASSES.get(name);
+        if (cls != null)
         {
-            return String.class;
+            return cls;
         }
 
         ClassLoader threadClassLoader = Thread.currentThread().getContextClassLoader();
-        String cacheKey = newCacheKey(name, primary, threadClassLoader);
+        ClassCache cache = getClassCache(primary, threadClassLoader);
 
         //only lookup in loaded classes cache
-        Class cls = loadedClasses.get(cacheKey);
-
+        cls = cache.loadedClasses.get(name);
         if (cls != null)
         {
             return cls;
         }
 
+        // Only use the not found classes when there is no primary for this thread, since that isn't part of the cache
+        boolean useNotFoundClassNames = (this.primary.get() == null);
+        if (useNotFoundClassNames && cache.notFoundClassNames.contains(name))
+        {
+            throw new ClassNotResolvedException(LOCALISER.msg("001000", name));
+        }
+
         // Try the supplied loader first
         cls = ClassOrNullWithInitialize(name, primary);
 
@@ -319,36 +280,74 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
 
         if (cls == null)
         {
+            if (useNotFoundClassNames)
+            {
+                classNotFound(cache, name);
+            }
             String msg = LOCALISER.msg("001000", name);
             throw new ClassNotResolvedException(msg);
         }
-        loadedClasses.put(cacheKey, cls);
+        cache.loadedClasses.put(name, cls);
 
         return cls;
     }
 
     /**
-     * Compute the key hashCode based for all classLoaders
-     * @param prefix the key prefix
+     * Accessor for the cache of classes resolved with the specified loaders, creating it if not yet present.
      * @param primary the primary ClassLoader, or null
-     * @param contextClassLoader the context ClassLoader, or null
-     * @return the computed hashCode
+     * @param threadClassLoader the context ClassLoader of the thread, or null
+     * @return The cache
      */
-    private String newCacheKey(String prefix, ClassLoader primary, ClassLoader contextClassLoader)
+    private ClassCache getClassCache(ClassLoader primary, ClassLoader threadClassLoader)
     {
-        int h = 3;
-        if (primary != null)
+        ClassCache[] caches = classCaches;
+        for (int i=0;i<caches.length;i++)
+        {
+            if (caches[i].isFor(primary, threadClassLoader))
+            {
+                return caches[i];
+            }
+        }
+
+        synchronized (this)
         {
-            h = h ^ primary.hashCode();
+            caches = classCaches;
+            List<ClassCache> newCaches = new ArrayList<ClassCache>(caches.length+1);
+            for (int i=0;i<caches.length;i++)
+            {
+                if (caches[i].isFor(primary, threadClassLoader))
+                {
+                    return caches[i];
+                }
+                if (!caches[i].isStale())
+                {
+                    newCaches.add(caches[i]);
+                }
+            }
+            ClassCache cache = new ClassCache(primary, threadClassLoader);
+            newCaches.add(cache);
+            classCaches = newCaches.toArray(new ClassCache[newCaches.size()]);
+            return cache;
         }
-        if (contextClassLoader != null)
+    }
+
+    /**
+     * Method to record that the class wasn't found using the loaders of the cache, so subsequent lookups fail
+     * without trying the loaders. Not recorded when there is a loader for runtime created classes, since the
+     * class may be created later.
+     * @param cache The cache
+     * @param name Name of the class
+     */
+    private void classNotFound(ClassCache cache, String name)
+    {
+        if (runtimeLoader == null)
         {
-            h = h ^ contextClassLoader.hashCode();
+            if (cache.notFoundClassNames.size() >= MAX_NOT_FOUND_CLASS_NAMES)
+            {
+                cache.notFoundClassNames.clear();
+            }
+            cache.notFoundClassNames.add(name);
         }
-        h = h ^ contextLoaderHashCode;
-        h = h ^ runtimeLoaderHashCode;
-        h = h ^ userRegisteredLoaderHashCode;
-        return prefix + h;
     }
 
     /**
@@ -559,14 +558,7 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
     public void setRuntimeClassLoader(ClassLoader loader)
     {
         this.runtimeLoader = loader;
-        if (runtimeLoader == null)
-        {
-            runtimeLoaderHashCode = 0;
-        }
-        else
-        {
-            runtimeLoaderHashCode = loader.hashCode();
-        }
+        classCaches = new ClassCache[0];
     }
 
     /**
@@ -578,14 +570,7 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
     public void registerUserClassLoader(ClassLoader loader)
     {
         this.userRegisteredLoader = loader;
-        if (userRegisteredLoader == null)
-        {
-            userRegisteredLoaderHashCode = 0;
-        }
-        else
-        {
-            userRegisteredLoaderHashCode = loader.hashCode();
-        }
+        classCaches = new ClassCache[0];
     }
 
     /**
@@ -799,4 +784,46 @@ public class ClassLoaderResolverImpl implements ClassLoaderResolver
             " runtimeLoader=" + runtimeLoader + 
             " registeredLoader=" + userRegisteredLoader;
     }
-}
\ No newline at end of file
+
+    /**
+     * Cache of the classes resolved using a particular primary and thread context loader. The loaders are
+     * compared by identity, and both they and the classes are only weakly referenced so that the cache
+     * doesn't prevent them being garbage collected.
+     */
+    private static class ClassCache
+    {
+        private final WeakReference<ClassLoader> primary;
+
+        private final WeakReference<ClassLoader> threadClassLoader;
+
+        /** Classes that have been initialised, keyed by name. */
+        final Map<String, Class> loadedClasses = ConcurrentReferenceValueMap.newWeakValueMap();
+
+        /** Classes that may not have been initialised, keyed by name. */
+        final Map<String, Class> unloadedClasses = ConcurrentReferenceValueMap.newWeakValueMap();
+
+        /** Names of classes that weren't found. */
+        final Set<String> notFoundClassNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        ClassCache(ClassLoader primary, ClassLoader threadClassLoader)
+        {
+            this.primary = (primary != null ? new WeakReference<ClassLoader>(primary) : null);
+            this.threadClassLoader = (threadClassLoader != null ? new WeakReference<ClassLoader>(threadClassLoader) : null);
+        }
+
+        boolean isFor(ClassLoader primary, ClassLoader threadClassLoader)
+        {
+            return isLoader(this.primary, primary) && isLoader(this.threadClassLoader, threadClassLoader);
+        }
+
+        boolean isStale()
+        {
+            return (primary != null && primary.get() == null) || (threadClassLoader != null && threadClassLoader.get() == null);
+        }
+
+        private static boolean isLoader(WeakReference<ClassLoader> ref, ClassLoader loader)
+        {
+            return (ref == null ? loader == null : (loader != null && ref.get() == loader));
+        }
+    }
+}
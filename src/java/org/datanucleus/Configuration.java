@@ -165,6 +165,7 @@ public class Configuration extends PropertyStore implements Serializable
                 propKeyIter.remove();
             }
         }
+        propertiesChanged();
     }
 
     /**
@@ -285,6 +286,7 @@ public class Configuration extends PropertyStore implements Serializable
                 }
                 defaultProperties.put(((String)entry.getKey()).toLowerCase(Locale.ENGLISH), propValue);
             }
+            propertiesChanged();
         }
     }
 
@@ -328,6 +330,7 @@ public class Configuration extends PropertyStore implements Serializable
                     propValue = getValueForPropertyWithValidator(value, validatorName);
                 }
                 this.defaultProperties.put(storedName, propValue);
+                propertiesChanged();
             }
         }
     }
@@ -398,6 +401,7 @@ public class Configuration extends PropertyStore implements Serializable
         catch (NucleusUserException nue)
         {
             properties.remove("datanucleus.propertiesFile");
+            propertiesChanged();
             throw nue;
         }
         if (props != null && !props.isEmpty())
@@ -17,6 +17,7 @@ Contributors:
 **********************************************************************/
 package org.datanucleus;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,6 +34,7 @@ import org.datanucleus.management.ManagerStatistics;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.AbstractMemberMetaData;
 import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.properties.PropertyHandle;
 import org.datanucleus.state.CallbackHandler;
 import org.datanucleus.state.FetchPlanState;
 import org.datanucleus.state.LockManager;
@@ -178,6 +180,20 @@ public interface ExecutionContext
      */
     String getStringProperty(String name);
 
+    /**
+     * Accessor for a boolean property value, using a handle so the name is not processed on each call.
+     * @param handle Handle for the property
+     * @return the value (or null if not set for this context)
+     */
+    Boolean getBooleanProperty(PropertyHandle handle);
+
+    /**
+     * Accessor for a String property value, using a handle so the name is not processed on each call.
+     * @param handle Handle for the property
+     * @return The value (or null if not set for this context)
+     */
+    String getStringProperty(PropertyHandle handle);
+
     /**
      * Accessor for the defined properties.
      * @return Properties for this execution context
@@ -693,7 +709,7 @@ public interface ExecutionContext
      * @param id Id of the object
      * @param fields The fields to update
      */
-    void markFieldsForUpdateInLevel2Cache(Object id, boolean[] fields);
+    void markFieldsForUpdateInLevel2Cache(Object id, BitSet fields);
 
     /**
      * Whether an object with the specified identity exists in the cache(s).
@@ -42,6 +42,7 @@ import org.datanucleus.cache.CachedPC;
 import org.datanucleus.cache.L2CachePopulateFieldManager;
 import org.datanucleus.cache.Level1Cache;
 import org.datanucleus.cache.Level2Cache;
+import org.datanucleus.cache.Level2CacheLoadCoordinator;
 import org.datanucleus.exceptions.ClassNotDetachableException;
 import org.datanucleus.exceptions.ClassNotPersistableException;
 import org.datanucleus.exceptions.ClassNotResolvedException;
@@ -67,6 +68,7 @@ import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.identity.OID;
 import org.datanucleus.identity.OIDFactory;
 import org.datanucleus.identity.SCOID;
+import org.datanucleus.management.CacheStatistics;
 import org.datanucleus.management.ManagerStatistics;
 import org.datanucleus.management.jmx.ManagementManager;
 import org.datanucleus.metadata.AbstractClassMetaData;
@@ -75,6 +77,7 @@ import org.datanucleus.metadata.IdentityType;
 import org.datanucleus.metadata.MetaDataManager;
 import org.datanucleus.metadata.TransactionType;
 import org.datanucleus.properties.BasePropertyStore;
+import org.datanucleus.properties.PropertyHandle;
 import org.datanucleus.state.CallbackHandler;
 import org.datanucleus.state.DetachState;
 import org.datanucleus.state.FetchPlanState;
@@ -91,6 +94,7 @@ import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.query.Query;
 import org.datanucleus.store.scostore.Store;
 import org.datanucleus.store.types.TypeManager;
+import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 import org.datanucleus.util.StringUtils;
@@ -140,6 +144,24 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
     protected static final Localiser LOCALISER = Localiser.getInstance("org.datanucleus.Localisation",
         org.datanucleus.ClassConstants.NUCLEUS_CONTEXT_LOADER);
 
+    private static final PropertyHandle FIND_OBJECT_VALIDATE_WHEN_CACHED =
+        PropertyHandle.forName(PropertyNames.PROPERTY_FIND_OBJECT_VALIDATE_WHEN_CACHED);
+    private static final PropertyHandle FLUSH_AUTO_OBJECT_LIMIT = PropertyHandle.forName(PropertyNames.PROPERTY_FLUSH_AUTO_OBJECT_LIMIT);
+    private static final PropertyHandle CACHE_L2_BATCHSIZE = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_L2_BATCHSIZE);
+    private static final PropertyHandle CACHE_L2_RETRIEVE_MODE = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_L2_RETRIEVE_MODE);
+    private static final PropertyHandle CACHE_L2_STORE_MODE = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_L2_STORE_MODE);
+    private static final PropertyHandle MANAGE_RELATIONSHIPS = PropertyHandle.forName(PropertyNames.PROPERTY_MANAGE_RELATIONSHIPS);
+    private static final PropertyHandle MANAGE_RELATIONSHIPS_CHECKS =
+        PropertyHandle.forName(PropertyNames.PROPERTY_MANAGE_RELATIONSHIPS_CHECKS);
+    private static final PropertyHandle PERSISTENCE_BY_REACHABILITY_AT_COMMIT =
+        PropertyHandle.forName(PropertyNames.PROPERTY_PERSISTENCE_BY_REACHABILITY_AT_COMMIT);
+    private static final PropertyHandle SERIALIZE_READ = PropertyHandle.forName(PropertyNames.PROPERTY_SERIALIZE_READ);
+    private static final PropertyHandle NONTX_ATOMIC = PropertyHandle.forName(PropertyNames.PROPERTY_NONTX_ATOMIC);
+    private static final PropertyHandle ALLOW_CALLBACKS = PropertyHandle.forName(PropertyNames.PROPERTY_ALLOW_CALLBACKS);
+    private static final PropertyHandle DETACH_ALL_ON_COMMIT = PropertyHandle.forName(PropertyNames.PROPERTY_DETACH_ALL_ON_COMMIT);
+    private static final PropertyHandle DETACH_ALL_ON_ROLLBACK = PropertyHandle.forName(PropertyNames.PROPERTY_DETACH_ALL_ON_ROLLBACK);
+    private static final PropertyHandle COPY_ON_ATTACH = PropertyHandle.forName(PropertyNames.PROPERTY_COPY_ON_ATTACH);
+
     /** Context for the persistence process. */
     PersistenceNucleusContext nucCtx;
 
@@ -249,6 +271,12 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
     /** Statistics gatherer for this context. */
     ManagerStatistics statistics = null;
 
+    /** Statistics for the L1 caches (when statistics are enabled). */
+    CacheStatistics l1CacheStatistics = null;
+
+    /** Statistics for the L2 cache (when statistics are enabled). */
+    CacheStatistics l2CacheStatistics = null;
+
     /** Set of listeners who need to know when this ExecutionContext is closing, so they can clean up. */
     private Set<ExecutionContextListener> ecListeners = null;
 
@@ -373,6 +401,8 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 // Register the MBean with the active JMX manager
                 nucCtx.getJMXManager().registerMBean(this.statistics, name);
             }
+            l1CacheStatistics = nucCtx.getCacheStatistics(CacheStatistics.LEVEL1);
+            l2CacheStatistics = nucCtx.getCacheStatistics(CacheStatistics.LEVEL2);
         }
 
         contextInfoThreadLocal = new ThreadLocal()
@@ -464,6 +494,8 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 nucCtx.getJMXManager().deregisterMBean(statistics.getRegisteredName());
             }
             statistics = null;
+            l1CacheStatistics = null;
+            l2CacheStatistics = null;
         }
 
         cache.clear();
@@ -880,6 +912,26 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         return null;
     }
 
+    public Boolean getBooleanProperty(PropertyHandle handle)
+    {
+        Boolean value = properties.getBooleanObjectProperty(handle);
+        if (value != null)
+        {
+            assertIsOpen();
+        }
+        return value;
+    }
+
+    public String getStringProperty(PropertyHandle handle)
+    {
+        String value = properties.getStringProperty(handle);
+        if (value != null)
+        {
+            assertIsOpen();
+        }
+        return value;
+    }
+
     public Object getProperty(String name)
     {
         if (properties.hasProperty(name.toLowerCase(Locale.ENGLISH)))
@@ -911,7 +963,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
      */
     protected boolean getReachabilityAtCommit()
     {
-        return properties.getBooleanProperty(PropertyNames.PROPERTY_PERSISTENCE_BY_REACHABILITY_AT_COMMIT.toLowerCase(Locale.ENGLISH));
+        return properties.getBooleanProperty(PERSISTENCE_BY_REACHABILITY_AT_COMMIT);
     }
 
     /**
@@ -1415,7 +1467,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
      */
     private boolean isNonTxAtomic()
     {
-        return getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_NONTX_ATOMIC);
+        return getNucleusContext().getConfiguration().getBooleanProperty(NONTX_ATOMIC);
     }
 
     /**
@@ -1480,7 +1532,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 performLevel2CacheUpdateAtCommit();
             }
 
-            if (getBooleanProperty(PropertyNames.PROPERTY_DETACH_ALL_ON_COMMIT))
+            if (properties.getBooleanProperty(DETACH_ALL_ON_COMMIT))
             {
                 // "detach-on-commit"
                 performDetachAllOnTxnEndPreparation();
@@ -2042,7 +2094,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             {
                 // Detached : attach it
                 assertDetachable(obj);
-                if (getBooleanProperty(PropertyNames.PROPERTY_COPY_ON_ATTACH))
+                if (properties.getBooleanProperty(COPY_ON_ATTACH))
                 {
                     // Attach a copy and return the copy
                     persistedPc = attachObjectCopy(ownerOP, obj, api.getIdForObject(obj) == null);
@@ -3222,7 +3274,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         }
 
         boolean performValidationWhenCached = 
-            (nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_FIND_OBJECT_VALIDATE_WHEN_CACHED));
+            (nucCtx.getConfiguration().getBooleanProperty(FIND_OBJECT_VALIDATE_WHEN_CACHED));
         List<ObjectProvider> opsToValidate = new ArrayList<ObjectProvider>();
         if (validate)
         {
@@ -3554,6 +3606,59 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             // DataNucleus extension to translate input identities into valid persistent identities.
             id = translator.getIdentity(this, (String)id);
         }
+
+        Level2CacheLoadCoordinator loadCoordinator = (l2CacheEnabled ? nucCtx.getLevel2CacheLoadCoordinator() : null);
+        if (loadCoordinator == null || !nucCtx.isClassWithIdentityCacheable(id) ||
+            getLevel2CacheRetrieveMode().equalsIgnoreCase("bypass") || hasIdentityInCache(id))
+        {
+            return findObjectInternal(id, validate, checkInheritance, objectClassName);
+        }
+
+        // Not cached, so make sure only one thread loads this object from the datastore
+        Level2CacheLoadCoordinator.Load load = loadCoordinator.beginLoad(id);
+        if (!load.isOwner())
+        {
+            // Another thread is loading this object, so wait for it and use its CachedPC
+            CachedPC cachedPC = load.await();
+            if (cachedPC != null && cache != null && !cache.containsKey(id))
+            {
+                Object pc = getObjectForLevel2CachedPC(id, cachedPC);
+                putObjectIntoLevel1Cache(findObjectProvider(pc));
+            }
+            return findObjectInternal(id, validate, checkInheritance, objectClassName);
+        }
+
+        if (!isLevel2CachePutAllowed(id))
+        {
+            // This context won't put the object in the L2 cache, so don't make any others wait for it
+            load.completeNotCached();
+            return findObjectInternal(id, validate, checkInheritance, objectClassName);
+        }
+
+        CachedPC cachedPC = null;
+        try
+        {
+            Object pc = findObjectInternal(id, validate, checkInheritance, objectClassName);
+            cachedPC = nucCtx.getLevel2Cache().get(id);
+            return pc;
+        }
+        finally
+        {
+            load.complete(cachedPC);
+        }
+    }
+
+    /**
+     * Accessor for an object given the object id, looking in the cache(s) and then the datastore.
+     * @param id Id of the object.
+     * @param validate Whether to validate the object state
+     * @param checkInheritance Whether look to the database to determine which class this object is.
+     * @param objectClassName Class name for the object with this id (if known, optional)
+     * @return The Object with this id
+     * @throws NucleusObjectNotFoundException if the object doesn't exist in the datastore
+     */
+    private Object findObjectInternal(Object id, boolean validate, boolean checkInheritance, String objectClassName)
+    {
         ApiAdapter api = getApiAdapter();
         boolean fromCache = false;
 
@@ -3638,7 +3743,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         }
 
         boolean performValidationWhenCached = 
-            (nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_FIND_OBJECT_VALIDATE_WHEN_CACHED));
+            (nucCtx.getConfiguration().getBooleanProperty(FIND_OBJECT_VALIDATE_WHEN_CACHED));
         if (validate && (!fromCache || performValidationWhenCached))
         {
             // User requests validation of the instance so go to the datastore to validate it
@@ -3827,7 +3932,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         boolean isInDirty = dirtyOPs.contains(op);
         boolean isInIndirectDirty = indirectDirtyOPs.contains(op);
         if (!isDelayDatastoreOperationsEnabled() && !isInDirty && !isInIndirectDirty && 
-            dirtyOPs.size() >= getNucleusContext().getConfiguration().getIntProperty(PropertyNames.PROPERTY_FLUSH_AUTO_OBJECT_LIMIT))
+            dirtyOPs.size() >= getNucleusContext().getConfiguration().getIntProperty(FLUSH_AUTO_OBJECT_LIMIT))
         {
             // Reached flush limit so flush
             flushInternal(false);
@@ -3869,7 +3974,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
      */
     public boolean getManageRelations()
     {
-        return properties.getBooleanProperty(PropertyNames.PROPERTY_MANAGE_RELATIONSHIPS);
+        return properties.getBooleanProperty(MANAGE_RELATIONSHIPS);
     }
 
     /**
@@ -3878,7 +3983,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
      */
     public boolean getManageRelationsChecks()
     {
-        return properties.getBooleanProperty(PropertyNames.PROPERTY_MANAGE_RELATIONSHIPS_CHECKS);
+        return properties.getBooleanProperty(MANAGE_RELATIONSHIPS_CHECKS);
     }
 
     public RelationshipManager getRelationshipManager(ObjectProvider op)
@@ -4059,6 +4164,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             nontxProcessedOPs.addAll(indirectDirtyOPs);
         }
 
+        long startTime = (statistics != null ? System.currentTimeMillis() : 0);
         flushing++;
         try
         {
@@ -4093,6 +4199,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 NucleusLogger.PERSISTENCE.debug(LOCALISER.msg("010004"));
             }
             flushing--;
+            if (statistics != null)
+            {
+                statistics.flushExecuted(System.currentTimeMillis()-startTime);
+            }
         }
     }
 
@@ -4207,7 +4317,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 performLevel2CacheUpdateAtCommit();
             }
 
-            if (getBooleanProperty(PropertyNames.PROPERTY_DETACH_ALL_ON_COMMIT))
+            if (properties.getBooleanProperty(DETACH_ALL_ON_COMMIT))
             {
                 // "detach-on-commit"
                 performDetachAllOnTxnEndPreparation();
@@ -4238,9 +4348,9 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
     }
 
     /* (non-Javadoc)
-     * @see org.datanucleus.ExecutionContext#markFieldsForUpdateInLevel2Cache(java.lang.Object, boolean[])
+     * @see org.datanucleus.ExecutionContext#markFieldsForUpdateInLevel2Cache(java.lang.Object, java.util.BitSet)
      */
-    public void markFieldsForUpdateInLevel2Cache(Object id, boolean[] fields)
+    public void markFieldsForUpdateInLevel2Cache(Object id, BitSet fields)
     {
         if (l2CacheTxFieldsToUpdateById == null)
         {
@@ -4253,13 +4363,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             bits = new BitSet();
             l2CacheTxFieldsToUpdateById.put(id, bits);
         }
-        for (int i=0;i<fields.length;i++)
-        {
-            if (fields[i])
-            {
-                bits.set(i);
-            }
-        }
+        bits.or(fields);
     }
 
     /**
@@ -4345,6 +4449,11 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         {
             // Bulk evict from L2 cache
             nucCtx.getLevel2Cache().evictAll(idsToRemove);
+            if (l2CacheStatistics != null)
+            {
+                // Not known which of these were in the cache, so count as requests
+                l2CacheStatistics.evictRequested(null, idsToRemove.size());
+            }
         }
         if (opsToCache != null && !opsToCache.isEmpty())
         {
@@ -4657,7 +4766,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 lock.lock();
             }
 
-            if (getBooleanProperty(PropertyNames.PROPERTY_DETACH_ALL_ON_COMMIT))
+            if (properties.getBooleanProperty(DETACH_ALL_ON_COMMIT))
             {
                 // Detach-all-on-commit
                 performDetachAllOnTxnEnd();
@@ -4681,7 +4790,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                             ops[i].postCommit(getTransaction());
 
                             // TODO Change this check so that we remove all objects that are no longer suitable for caching
-                            if (getBooleanProperty(PropertyNames.PROPERTY_DETACH_ALL_ON_COMMIT) && api.isDetachable(ops[i].getObject()))
+                            if (properties.getBooleanProperty(DETACH_ALL_ON_COMMIT) && api.isDetachable(ops[i].getObject()))
                             {
                                 // "DetachAllOnCommit" - Remove the object from the L1 cache since it is now detached
                                 removeObjectProvider(ops[i]);
@@ -4762,7 +4871,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 throw new RollbackStateTransitionException((Exception[]) failures.toArray(new Exception[failures.size()]));
             }
 
-            if (getBooleanProperty(PropertyNames.PROPERTY_DETACH_ALL_ON_ROLLBACK))
+            if (properties.getBooleanProperty(DETACH_ALL_ON_ROLLBACK))
             {
                 // "detach-on-rollback"
                 performDetachAllOnTxnEndPreparation();
@@ -4790,7 +4899,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 lock.lock();
             }
 
-            if (getBooleanProperty(PropertyNames.PROPERTY_DETACH_ALL_ON_ROLLBACK))
+            if (properties.getBooleanProperty(DETACH_ALL_ON_ROLLBACK))
             {
                 // "detach-on-rollback"
                 performDetachAllOnTxnEnd();
@@ -4853,20 +4962,20 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
 
     protected String getLevel2CacheRetrieveMode()
     {
-        String setting = (String)getProperty(PropertyNames.PROPERTY_CACHE_L2_RETRIEVE_MODE);
+        String setting = properties.getStringProperty(CACHE_L2_RETRIEVE_MODE);
         if (setting == null)
         {
-            setting = nucCtx.getConfiguration().getStringProperty(PropertyNames.PROPERTY_CACHE_L2_RETRIEVE_MODE);
+            setting = nucCtx.getConfiguration().getStringProperty(CACHE_L2_RETRIEVE_MODE);
         }
         return setting;
     }
 
     protected String getLevel2CacheStoreMode()
     {
-        String setting = (String)getProperty(PropertyNames.PROPERTY_CACHE_L2_STORE_MODE);
+        String setting = properties.getStringProperty(CACHE_L2_STORE_MODE);
         if (setting == null)
         {
-            setting = nucCtx.getConfiguration().getStringProperty(PropertyNames.PROPERTY_CACHE_L2_STORE_MODE);
+            setting = nucCtx.getConfiguration().getStringProperty(CACHE_L2_STORE_MODE);
         }
         return setting;
     }
@@ -4896,6 +5005,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
 
             // Put into Level 1 Cache
             Object oldOP = cache.put(id, op);
+            if (l1CacheStatistics != null)
+            {
+                l1CacheStatistics.put(null);
+            }
             if (NucleusLogger.CACHE.isDebugEnabled())
             {
                 if (oldOP == null)
@@ -4923,17 +5036,27 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             return;
         }
 
-        String storeMode = getLevel2CacheStoreMode();
-        if (storeMode.equalsIgnoreCase("bypass"))
+        if (isLevel2CachePutAllowed(op.getInternalObjectId()))
         {
-            return;
+            // Object hasn't been modified in this transaction so put in the L2 cache
+            putObjectIntoLevel2CacheInternal(op, updateIfPresent);
         }
+    }
 
-        if (l2CacheTxIds != null && !l2CacheTxIds.contains(op.getInternalObjectId()))
+    /**
+     * Accessor for whether an object with the specified identity can be put into the L2 cache by this context,
+     * so the cache store mode isn't "bypass" and the object isn't modified in the current transaction.
+     * @param id The identity
+     * @return Whether it can be put in the L2 cache
+     */
+    private boolean isLevel2CachePutAllowed(Object id)
+    {
+        String storeMode = getLevel2CacheStoreMode();
+        if (storeMode.equalsIgnoreCase("bypass"))
         {
-            // Object hasn't been modified in this transaction so put in the L2 cache
-            putObjectIntoLevel2CacheInternal(op, updateIfPresent);
+            return false;
         }
+        return l2CacheTxIds != null && !l2CacheTxIds.contains(id);
     }
 
     /**
@@ -4950,29 +5073,14 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         if (currentCachedPC != null)
         {
             // Object already L2 cached, create copy of cached object and just update the fields changed here
+            // (the copy shares the unchanged field values with the cached object)
             cachedPC = currentCachedPC.getCopy();
             cachedPC.setVersion(op.getTransactionalVersion());
 
             BitSet fieldsToUpdateBitSet = l2CacheTxFieldsToUpdateById.get(op.getInternalObjectId());
             if (fieldsToUpdateBitSet != null)
             {
-                int num = 0;
-                for (int i=0;i<fieldsToUpdateBitSet.length();i++)
-                {
-                    if (fieldsToUpdateBitSet.get(i))
-                    {
-                        num++;
-                    }
-                }
-                fieldsToUpdate = new int[num];
-                int j = 0;
-                for (int i=0;i<fieldsToUpdateBitSet.length();i++)
-                {
-                    if (fieldsToUpdateBitSet.get(i))
-                    {
-                        fieldsToUpdate[j++] = i;
-                    }
-                }
+                fieldsToUpdate = ClassUtils.getFlagsSetTo(fieldsToUpdateBitSet);
             }
             if (fieldsToUpdate == null || fieldsToUpdate.length == 0)
             {
@@ -5023,7 +5131,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
      */
     protected void putObjectsIntoLevel2Cache(Set<ObjectProvider> ops)
     {
-        int batchSize = nucCtx.getConfiguration().getIntProperty(PropertyNames.PROPERTY_CACHE_L2_BATCHSIZE);
+        int batchSize = nucCtx.getConfiguration().getIntProperty(CACHE_L2_BATCHSIZE);
         Level2Cache l2Cache = nucCtx.getLevel2Cache();
         Map<Object, CachedPC> dataToUpdate = new HashMap<Object, CachedPC>();
         for (ObjectProvider op : ops)
@@ -5035,6 +5143,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             {
                 // Only cache if something to be cached and has identity
                 dataToUpdate.put(id, cachedPC);
+                if (l2CacheStatistics != null)
+                {
+                    l2CacheStatistics.put(getClassNameForLevel2CacheStatistics(id));
+                }
                 if (dataToUpdate.size() == batchSize)
                 {
                     l2Cache.putAll(dataToUpdate);
@@ -5075,6 +5187,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         if (cachedPC != null)
         {
             l2Cache.put(id, cachedPC);
+            if (l2CacheStatistics != null)
+            {
+                l2CacheStatistics.put(getClassNameForLevel2CacheStatistics(id));
+            }
         }
     }
 
@@ -5092,6 +5208,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                     IdentityUtils.getIdentityAsString(getApiAdapter(), id), String.valueOf(cache.size())));
             }
             Object pcRemoved = cache.remove(id);
+            if (pcRemoved != null && l1CacheStatistics != null)
+            {
+                l1CacheStatistics.evict(null, 1);
+            }
             if (pcRemoved == null && NucleusLogger.CACHE.isDebugEnabled())
             {
                 // For some reason the object isn't in the L1 cache - garbage collected maybe ?
@@ -5117,6 +5237,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                     NucleusLogger.CACHE.debug(LOCALISER.msg("004016", id));
                 }
                 l2Cache.evict(id);
+                if (l2CacheStatistics != null)
+                {
+                    l2CacheStatistics.evict(getClassNameForLevel2CacheStatistics(id), 1);
+                }
             }
         }
     }
@@ -5233,10 +5357,18 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 // Wipe the detach state that may have been added if the object has been serialised in the meantime
                 op.resetDetachState();
 
+                if (l1CacheStatistics != null)
+                {
+                    l1CacheStatistics.hit(null);
+                }
                 return pc;
             }
             else
             {
+                if (l1CacheStatistics != null)
+                {
+                    l1CacheStatistics.miss(null);
+                }
                 if (NucleusLogger.CACHE.isDebugEnabled())
                 {
                     NucleusLogger.CACHE.debug(LOCALISER.msg("003007", 
@@ -5247,6 +5379,32 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         return null;
     }
 
+    /**
+     * Accessor for the class name that the Level 2 cache statistics of an object are recorded against.
+     * This is resolved from the identity, rather than the cached object, so that puts, hits, misses and
+     * evictions of an object are recorded against the same class. For application identity with a
+     * user-defined PK class this is the root class of the classes using the PK class.
+     * @param id The identity
+     * @return The class name
+     */
+    private String getClassNameForLevel2CacheStatistics(Object id)
+    {
+        String className = IdentityUtils.getClassNameForIdentitySimple(getApiAdapter(), id);
+        if (className == null)
+        {
+            Collection<AbstractClassMetaData> cmds = getMetaDataManager().getClassMetaDataWithApplicationId(id.getClass().getName());
+            if (cmds != null && !cmds.isEmpty())
+            {
+                className = cmds.iterator().next().getBaseAbstractClassMetaData().getFullClassName();
+            }
+            else
+            {
+                className = id.getClass().getName();
+            }
+        }
+        return className;
+    }
+
     /**
      * Convenience method to access an object in the Level 2 cache.
      * @param id Id of the object
@@ -5254,8 +5412,6 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
      */
     protected Object getObjectFromLevel2Cache(Object id)
     {
-        Object pc = null;
-
         if (l2CacheEnabled)
         {
             if (!nucCtx.isClassWithIdentityCacheable(id))
@@ -5275,32 +5431,18 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
 
             if (cachedPC != null)
             {
-                // Create active version of cached object with ObjectProvider connected and same id
-                ObjectProvider op = newObjectProviderForCachedPC(id, cachedPC);
-                pc = op.getObject(); // Object in P_CLEAN state
-                if (NucleusLogger.CACHE.isDebugEnabled())
+                if (l2CacheStatistics != null)
                 {
-                    NucleusLogger.CACHE.debug(LOCALISER.msg("004006",
-                        IdentityUtils.getIdentityAsString(getApiAdapter(), id),
-                        StringUtils.intArrayToString(cachedPC.getLoadedFieldNumbers()), cachedPC.getVersion(),
-                        StringUtils.toJVMIDString(pc)));
+                    l2CacheStatistics.hit(getClassNameForLevel2CacheStatistics(id));
                 }
-
-                if (tx.isActive() && tx.getOptimistic())
-                {
-                    // Optimistic txns, so return as P_NONTRANS (as per JDO spec)
-                    op.makeNontransactional();
-                }
-                else if (!tx.isActive() && getApiAdapter().isTransactional(pc))
-                {
-                    // Non-tx context, so return as P_NONTRANS (as per JDO spec)
-                    op.makeNontransactional();
-                }
-
-                return pc;
+                return getObjectForLevel2CachedPC(id, cachedPC);
             }
             else
             {
+                if (l2CacheStatistics != null)
+                {
+                    l2CacheStatistics.miss(getClassNameForLevel2CacheStatistics(id));
+                }
                 if (NucleusLogger.CACHE.isDebugEnabled())
                 {
                     NucleusLogger.CACHE.debug(LOCALISER.msg("004005",
@@ -5312,6 +5454,38 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
         return null;
     }
 
+    /**
+     * Convenience method to create the active version of an object from its Level 2 cached form.
+     * @param id Id of the object
+     * @param cachedPC The cached form of the object
+     * @return Persistable object (with connected ObjectProvider).
+     */
+    private Object getObjectForLevel2CachedPC(Object id, CachedPC cachedPC)
+    {
+        // Create active version of cached object with ObjectProvider connected and same id
+        ObjectProvider op = newObjectProviderForCachedPC(id, cachedPC);
+        Object pc = op.getObject(); // Object in P_CLEAN state
+        if (NucleusLogger.CACHE.isDebugEnabled())
+        {
+            NucleusLogger.CACHE.debug(LOCALISER.msg("004006",
+                IdentityUtils.getIdentityAsString(getApiAdapter(), id),
+                StringUtils.intArrayToString(cachedPC.getLoadedFieldNumbers()), cachedPC.getVersion(),
+                StringUtils.toJVMIDString(pc)));
+        }
+
+        if (tx.isActive() && tx.getOptimistic())
+        {
+            // Optimistic txns, so return as P_NONTRANS (as per JDO spec)
+            op.makeNontransactional();
+        }
+        else if (!tx.isActive() && getApiAdapter().isTransactional(pc))
+        {
+            // Non-tx context, so return as P_NONTRANS (as per JDO spec)
+            op.makeNontransactional();
+        }
+        return pc;
+    }
+
     /**
      * Convenience method to access a collection of objects from the Level 2 cache.
      * @param ids Collection of ids to retrieve
@@ -5332,6 +5506,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 CachedPC cachedPC = entry.getValue();
                 if (cachedPC != null)
                 {
+                    if (l2CacheStatistics != null)
+                    {
+                        l2CacheStatistics.hit(getClassNameForLevel2CacheStatistics(id));
+                    }
                     // Create active version of cached object with ObjectProvider connected and same id
                     ObjectProvider op = newObjectProviderForCachedPC(id, cachedPC);
                     Object pc = op.getObject(); // Object in P_CLEAN state
@@ -5358,6 +5536,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                 }
                 else
                 {
+                    if (l2CacheStatistics != null)
+                    {
+                        l2CacheStatistics.miss(getClassNameForLevel2CacheStatistics(id));
+                    }
                     if (NucleusLogger.CACHE.isDebugEnabled())
                     {
                         NucleusLogger.CACHE.debug(LOCALISER.msg("004005",
@@ -5365,6 +5547,16 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
                     }
                 }
             }
+            if (l2CacheStatistics != null)
+            {
+                for (Object id : ids)
+                {
+                    if (!cachedPCs.containsKey(id))
+                    {
+                        l2CacheStatistics.miss(getClassNameForLevel2CacheStatistics(id));
+                    }
+                }
+            }
             return pcsById;
         }
 
@@ -5471,10 +5663,10 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             // Within a transaction, and serializeRead set for txn
             return tx.getSerializeRead();
         }
-        else if (getProperty(PropertyNames.PROPERTY_SERIALIZE_READ) != null)
+        else if (properties.getBooleanObjectProperty(SERIALIZE_READ) != null)
         {
             // Set for the context as a property
-            return properties.getBooleanProperty(PropertyNames.PROPERTY_SERIALIZE_READ);
+            return properties.getBooleanProperty(SERIALIZE_READ);
         }
         else if (className != null)
         {
@@ -5559,7 +5751,7 @@ public class ExecutionContextImpl implements ExecutionContext, TransactionEventL
             return callbacks;
         }
 
-        if (!getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_ALLOW_CALLBACKS))
+        if (!getNucleusContext().getConfiguration().getBooleanProperty(ALLOW_CALLBACKS))
         {
             callbacks = new NullCallbackHandler();
             return callbacks;
@@ -17,27 +17,40 @@ Contributors:
 **********************************************************************/
 package org.datanucleus;
 
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.management.FactoryStatistics;
 import org.datanucleus.util.NucleusLogger;
 
 /**
  * Pool of ExecutionContext objects.
  * By default will pool a maximum of 20 ExecutionContext objects for reuse.
- * Has an optional reaper thread that cleans out the unused pooled objects every 60 secs.
+ * The pooled objects are held in a lock-free queue, so check out and check in don't block other threads.
+ * Has an optional reaper thread that every 60 secs cleans out the pooled objects that weren't needed
+ * since its previous run.
  */
 public class ExecutionContextPool
 {
     private PersistenceNucleusContext nucCtx;
 
-    private long maxIdle = 20;
+    private int maxIdle = 20;
     private long expirationTime;
 
-    private Map<ExecutionContext, Long> recyclableECs;
+    /** ExecutionContexts available for reuse. */
+    private Queue<ExecutionContext> recyclableECs;
+
+    /** Number of ExecutionContexts available for reuse (since the size of the queue isn't a constant time operation). */
+    private AtomicInteger numRecyclableECs = new AtomicInteger();
+
+    /** Lowest number of ExecutionContexts available for reuse since the last clean up. */
+    private AtomicInteger minRecyclableECs = new AtomicInteger();
+
+    /** Statistics for the factory, if enabled. */
+    private FactoryStatistics statistics;
 
     private CleanUpThread cleaner;
 
@@ -46,7 +59,8 @@ public class ExecutionContextPool
         this.maxIdle = nucCtx.getConfiguration().getIntProperty(PropertyNames.PROPERTY_EXECUTION_CONTEXT_MAX_IDLE);
         this.nucCtx = nucCtx;
         this.expirationTime = 30000; // 30 seconds
-        this.recyclableECs = new ConcurrentHashMap<ExecutionContext, Long>();
+        this.recyclableECs = new ConcurrentLinkedQueue<ExecutionContext>();
+        this.statistics = (nucCtx.statisticsEnabled() ? nucCtx.getStatistics() : null);
 
         // Start cleanup thread to run every 60 secs
         if (nucCtx.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_EXECUTION_CONTEXT_REAPER_THREAD))
@@ -83,75 +97,117 @@ public class ExecutionContextPool
     {
     }
 
-    public synchronized ExecutionContext checkOut(Object owner, Map<String, Object> options)
+    public ExecutionContext checkOut(Object owner, Map<String, Object> options)
     {
-        long now = System.currentTimeMillis();
         ExecutionContext ec;
-        if (recyclableECs.size() > 0)
+        while ((ec = poll()) != null)
         {
-            Set<ExecutionContext> e = recyclableECs.keySet();
-            Iterator<ExecutionContext> eIter = e.iterator();
-            while (eIter.hasNext())
+            if (validate(ec))
             {
-                ec = eIter.next();
-                if ((now - recyclableECs.get(ec)) > expirationTime)
-                {
-                    // object has expired
-                    recyclableECs.remove(ec);
-                    expire(ec);
-                    ec = null;
-                }
-                else
+                if (statistics != null)
                 {
-                    if (validate(ec))
-                    {
-                        recyclableECs.remove(ec);
-                        ec.initialise(owner, options);
-                        return (ec);
-                    }
-                    else
-                    {
-                        // object failed validation
-                        recyclableECs.remove(ec);
-                        expire(ec);
-                        ec = null;
-                    }
+                    statistics.incrementExecutionContextPoolHits();
                 }
+                ec.initialise(owner, options);
+                return ec;
             }
+
+            // object failed validation
+            expire(ec);
         }
 
         // no objects available, create a new one
-        ec = create(owner, options);
-        return (ec);
+        if (statistics != null)
+        {
+            statistics.incrementExecutionContextPoolMisses();
+        }
+        return create(owner, options);
     }
 
-    public synchronized void cleanUp()
+    /**
+     * Method to expire the pooled objects that weren't needed since the last clean up.
+     */
+    public void cleanUp()
     {
-        ExecutionContext ec;
-        long now = System.currentTimeMillis();        
-        Set<ExecutionContext> e = recyclableECs.keySet();
-        Iterator<ExecutionContext> eIter = e.iterator();
-        while (eIter.hasNext())
+        int numUnused = Math.min(minRecyclableECs.get(), numRecyclableECs.get());
+        for (int i=0;i<numUnused;i++)
         {
-            ec = eIter.next();
-            if ((now - (recyclableECs.get(ec)).longValue()) > expirationTime)
+            ExecutionContext ec = poll();
+            if (ec == null)
             {
-                recyclableECs.remove(ec);
-                expire(ec);
-                ec = null;
+                break;
             }
+            expire(ec);
+        }
+        minRecyclableECs.set(numRecyclableECs.get());
+    }
+
+    public void checkIn(ExecutionContext ec)
+    {
+        // Reserve a place in the pool before adding, so it never exceeds the maximum
+        int num;
+        do
+        {
+            num = numRecyclableECs.get();
+            if (num >= maxIdle)
+            {
+                return;
+            }
+        }
+        while (!numRecyclableECs.compareAndSet(num, num+1));
+        recyclableECs.offer(ec);
+        if (statistics != null)
+        {
+            statistics.setExecutionContextPoolIdle(numRecyclableECs.get());
         }
-        System.gc();
     }
 
-    public synchronized void checkIn(ExecutionContext ec)
+    /**
+     * Method to close the pool, expiring all pooled objects and stopping any reaper thread.
+     */
+    public void close()
     {
-        if (recyclableECs.size() < maxIdle)
+        if (cleaner != null)
         {
-            recyclableECs.put(ec, System.currentTimeMillis());
+            cleaner.interrupt();
+            cleaner = null;
+        }
+        ExecutionContext ec;
+        while ((ec = poll()) != null)
+        {
+            expire(ec);
         }
     }
 
+    private ExecutionContext poll()
+    {
+        ExecutionContext ec = recyclableECs.poll();
+        if (ec != null)
+        {
+            int num = numRecyclableECs.decrementAndGet();
+            int min;
+            while (num < (min = minRecyclableECs.get()) && !minRecyclableECs.compareAndSet(min, num))
+            {
+                // Retry until the minimum is updated
+            }
+            if (statistics != null)
+            {
+                // Removed by check out, clean up or close
+                statistics.setExecutionContextPoolIdle(numRecyclableECs.get());
+            }
+        }
+        return ec;
+    }
+
+    /**
+     * Accessor for the number of ExecutionContexts available for reuse.
+     * @return The number idle in the pool
+     */
+    public int getNumberOfIdle()
+    {
+        return numRecyclableECs.get();
+    }
+
     class CleanUpThread extends Thread
     {
         private ExecutionContextPool pool;
@@ -159,13 +215,16 @@ public class ExecutionContextPool
 
         CleanUpThread(ExecutionContextPool pool, long sleepTime)
         {
+            super("DataNucleus-ExecutionContextPool-CleanUp");
+            setDaemon(true);
             this.pool = pool;
             this.sleepTime = sleepTime;
         }
         
         public void run()
         {
-            while (true)
+            boolean needsStopping = false;
+            while (!needsStopping)
             {
                 try
                 {
@@ -173,9 +232,10 @@ public class ExecutionContextPool
                 }
                 catch (InterruptedException e)
                 {
-                }         
+                    needsStopping = true;
+                }
                 pool.cleanUp();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -30,6 +30,7 @@ import org.datanucleus.metadata.AbstractMemberMetaData;
 import org.datanucleus.metadata.FetchGroupMemberMetaData;
 import org.datanucleus.metadata.FetchGroupMetaData;
 import org.datanucleus.metadata.FieldPersistenceModifier;
+import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 import org.datanucleus.util.StringUtils;
@@ -52,6 +53,9 @@ public class FetchPlanForClass
     /** Absolute numbers of fields/properties in the fetch plan for this class. */
     int[] memberNumbers;
 
+    /** Bits set at the absolute numbers of fields/properties in the fetch plan for this class. */
+    BitSet memberNumberBits;
+
     /** Whether the record is dirty and needs the fields recalculating. */
     boolean dirty = true;
 
@@ -113,6 +117,10 @@ public class FetchPlanForClass
                 fpCopy.memberNumbers[i] = this.memberNumbers[i];
             }
         }
+        if (this.memberNumberBits != null)
+        {
+            fpCopy.memberNumberBits = (BitSet)this.memberNumberBits.clone();
+        }
         fpCopy.dirty = this.dirty;
         return fpCopy;
     }
@@ -168,23 +176,7 @@ public class FetchPlanForClass
      */
     public boolean hasMember(int memberNumber)
     {
-        if (dirty)
-        {
-            BitSet fieldsNumber = getMemberNumbersByBitSet();
-            return fieldsNumber.get(memberNumber);
-        }
-        if (memberNumbers != null)
-        {
-            for (int i=0;i<memberNumbers.length;i++)
-            {
-                if (memberNumbers[i] == memberNumber)
-                {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        return getMemberNumberBits().get(memberNumber);
     }
 
     /**
@@ -195,32 +187,47 @@ public class FetchPlanForClass
     {
         if (dirty)
         {
-            dirty = false;
-
-            // Populate memberNumbers
+            // Populate memberNumbers, only marking as not dirty once they are set (so a failure leaves it dirty)
             BitSet fieldsNumber = getMemberNumbersByBitSet();
-            int count = 0;
-            for (int i = 0; i < fieldsNumber.length(); i++)
-            {
-                if (fieldsNumber.get(i))
-                {
-                    count++;
-                }
-            }
-
-            memberNumbers = new int[count];
+            int[] fieldNumbers = new int[fieldsNumber.cardinality()];
             int nextField = 0;
-            for (int i = 0; i < fieldsNumber.length(); i++)
+            for (int i = fieldsNumber.nextSetBit(0); i >= 0; i = fieldsNumber.nextSetBit(i+1))
             {
-                if (fieldsNumber.get(i))
-                {
-                    memberNumbers[nextField++] = i;
-                }
+                fieldNumbers[nextField++] = i;
             }
+            memberNumbers = fieldNumbers;
+            memberNumberBits = fieldsNumber;
+            dirty = false;
         }
         return memberNumbers;
     }
 
+    /**
+     * Accessor for the absolute numbers of the members in the fetch plan for this class, as bits.
+     * The returned BitSet is cached so must not be modified.
+     * @return BitSet with the bits set in the absolute position of the members
+     */
+    public BitSet getMemberNumberBits()
+    {
+        if (dirty)
+        {
+            getMemberNumbers();
+        }
+        return memberNumberBits;
+    }
+
+    /**
+     * Accessor for the absolute numbers of the members in the fetch plan for this class whose flag is
+     * set to the specified state, for example the fetch plan members that are not yet loaded.
+     * @param flags Flags for the members, by absolute member number
+     * @param state The state to search for
+     * @return The absolute member numbers, or null if there are none
+     */
+    public int[] getMemberNumbersWithFlagsSetTo(BitSet flags, boolean state)
+    {
+        return ClassUtils.getFlagsSetTo(flags, getMemberNumberBits(), state);
+    }
+
     /**
      * Get all members (of this class, and superclasses) in the fetch plan.
      * @return an BitSet with the bits set in the absolute position of the fields
@@ -423,12 +430,19 @@ public class FetchPlanForClass
      */
     public boolean isToCallPostLoadFetchPlan(boolean[] loadedMembers)
     {
-        BitSet cacheKey = new BitSet(loadedMembers.length);
-        for (int i = 0; i < loadedMembers.length; i++)
-        {
-            cacheKey.set(i, loadedMembers[i]);
-        }
-        Boolean result = plan.getCachedIsToCallPostLoadFetchPlan(cmd, cacheKey);
+        return isToCallPostLoadFetchPlan(ClassUtils.getBitSetForFlags(loadedMembers));
+    }
+
+    /**
+     * Whether to call the post load or not. 
+     * Checks if members in actual FetchPlan where not previouly loaded and the post-load is enabled 
+     * in the metadata.
+     * @param loadedMembers already loaded members, by absolute member number
+     * @return if is to call the postLoad
+     */
+    public boolean isToCallPostLoadFetchPlan(BitSet loadedMembers)
+    {
+        Boolean result = plan.getCachedIsToCallPostLoadFetchPlan(cmd, loadedMembers);
         
         if (result == null) 
         {
@@ -439,7 +453,7 @@ public class FetchPlanForClass
                 final int fieldNumber = fieldsInActualFetchPlan[i];
                 String fieldName = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber).getFullFieldName();
                 // if field in actual fetch plan was not previously loaded
-                if (!loadedMembers[fieldNumber])
+                if (!loadedMembers.get(fieldNumber))
                 {
                     if (cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber).isDefaultFetchGroup() &&
                         plan.getGroups().contains(FetchPlan.DEFAULT))
@@ -500,7 +514,8 @@ public class FetchPlanForClass
             {
                 result = Boolean.FALSE;
             }
-            plan.cacheIsToCallPostLoadFetchPlan(cmd, cacheKey, result);
+            // Copy the key since the loaded members may be the (mutable) bits of an ObjectProvider
+            plan.cacheIsToCallPostLoadFetchPlan(cmd, (BitSet)loadedMembers.clone(), result);
         }
         return result.booleanValue();
     }
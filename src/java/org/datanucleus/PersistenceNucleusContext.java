@@ -21,9 +21,11 @@ import java.util.Map;
 import java.util.Set;
 
 import org.datanucleus.cache.Level2Cache;
+import org.datanucleus.cache.Level2CacheLoadCoordinator;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityKeyTranslator;
 import org.datanucleus.identity.IdentityStringTranslator;
+import org.datanucleus.management.CacheStatistics;
 import org.datanucleus.management.FactoryStatistics;
 import org.datanucleus.management.jmx.ManagementManager;
 import org.datanucleus.metadata.AbstractClassMetaData;
@@ -86,6 +88,14 @@ public interface PersistenceNucleusContext extends StoreNucleusContext
 
     FactoryStatistics getStatistics();
 
+    /**
+     * Accessor for the statistics of a cache, creating them (and registering the MBean when using JMX)
+     * if not yet present.
+     * @param cacheName Name of the cache (CacheStatistics.LEVEL1 etc)
+     * @return The statistics for the cache, or null if statistics are not enabled
+     */
+    CacheStatistics getCacheStatistics(String cacheName);
+
     ImplementationCreator getImplementationCreator();
 
     TransactionManager getTransactionManager();
@@ -109,6 +119,13 @@ public interface PersistenceNucleusContext extends StoreNucleusContext
 
     Level2Cache getLevel2Cache();
 
+    /**
+     * Accessor for the coordinator of the loading of objects after misses in the L2 cache, for when
+     * concurrent loads of the same object are coalesced (persistence property "datanucleus.cache.level2.coalesceLoads").
+     * @return The coordinator, or null if not coalescing loads
+     */
+    Level2CacheLoadCoordinator getLevel2CacheLoadCoordinator();
+
     /**
      * Object the array of registered ExecutionContext listeners.
      * @return array of {@link org.datanucleus.ExecutionContext.LifecycleListener}
@@ -30,11 +30,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.validation.Validation;
 import javax.validation.ValidatorFactory;
 
 import org.datanucleus.cache.Level2Cache;
+import org.datanucleus.cache.Level2CacheLoadCoordinator;
 import org.datanucleus.cache.NullLevel2Cache;
 import org.datanucleus.enhancer.jdo.JDOImplementationCreator;
 import org.datanucleus.exceptions.ClassNotResolvedException;
@@ -43,6 +45,7 @@ import org.datanucleus.identity.DatastoreUniqueOID;
 import org.datanucleus.identity.IdentityKeyTranslator;
 import org.datanucleus.identity.IdentityStringTranslator;
 import org.datanucleus.identity.OID;
+import org.datanucleus.management.CacheStatistics;
 import org.datanucleus.management.FactoryStatistics;
 import org.datanucleus.management.jmx.ManagementManager;
 import org.datanucleus.metadata.AbstractClassMetaData;
@@ -100,6 +103,9 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
     /** Level 2 Cache, caching across ExecutionContexts. */
     protected Level2Cache cache;
 
+    /** Coordinator of loads after L2 cache misses, when coalescing concurrent loads of the same object. */
+    private transient volatile Level2CacheLoadCoordinator cacheLoadCoordinator;
+
     /** Transaction Manager. */
     private transient TransactionManager txManager = null;
 
@@ -115,6 +121,9 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
     /** Statistics gathering object. */
     transient FactoryStatistics statistics = null;
 
+    /** Statistics for the caches, keyed by the cache name. */
+    transient volatile Map<String, CacheStatistics> cacheStatistics = null;
+
     /** Class to use for datastore-identity. */
     protected Class datastoreIdentityClass = null;
 
@@ -349,9 +358,13 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
         conf.addDefaultIntegerProperty(PropertyNames.PROPERTY_CACHE_L2_BATCHSIZE, null, 100, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_CACHE_EMBEDDED, null, true, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_READ_THROUGH, null, true, false, false);
+        conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_COALESCE_LOADS, null, false, false, false);
+        conf.addDefaultIntegerProperty(PropertyNames.PROPERTY_CACHE_L2_COALESCE_LOADS_TIMEOUT, null, 5000, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_WRITE_THROUGH, null, true, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_STATISTICS_ENABLED, null, false, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_STORE_BY_VALUE, null, true, false, false);
+        conf.addDefaultIntegerProperty(PropertyNames.PROPERTY_CACHE_L2_OFFHEAP_MAXMEGABYTES, null, 64, false, false);
+        conf.addDefaultIntegerProperty(PropertyNames.PROPERTY_CACHE_L2_OFFHEAP_SLABSIZE, null, 1048576, false, false);
         conf.addDefaultProperty(PropertyNames.PROPERTY_CACHE_L2_RETRIEVE_MODE, null, "use",
             CorePropertyValidator.class.getName(), false, true);
         conf.addDefaultProperty(PropertyNames.PROPERTY_CACHE_L2_STORE_MODE, null, "use",
@@ -376,6 +389,8 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_COMPILATION_CACHED, null, true, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_RESULTS_CACHED, null, false, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_EVALUATE_IN_MEMORY, null, false, false, false);
+        conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_EVALUATE_IN_MEMORY_COMPILED, null, false, false, false);
+        conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_EVALUATE_IN_MEMORY_PARALLEL, null, false, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_RESULTCACHE_VALIDATEOBJECTS, null, true, false, false);
         conf.addDefaultProperty(PropertyNames.PROPERTY_QUERY_RESULT_SIZE_METHOD, null, "last", null, false, false);
         conf.addDefaultBooleanProperty(PropertyNames.PROPERTY_QUERY_COMPILE_NAMED_QUERIES_AT_STARTUP, null, false, false, false);
@@ -519,7 +534,7 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
         }
         if (ecPool != null)
         {
-            ecPool.cleanUp();
+            ecPool.close();
             ecPool = null;
         }
         if (fetchGrpMgr != null)
@@ -544,6 +559,17 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
             }
             statistics = null;
         }
+        if (cacheStatistics != null)
+        {
+            if (jmxManager != null)
+            {
+                for (CacheStatistics cacheStats : cacheStatistics.values())
+                {
+                    jmxManager.deregisterMBean(cacheStats.getRegisteredName());
+                }
+            }
+            cacheStatistics = null;
+        }
         if (jmxManager != null)
         {
             jmxManager.close();
@@ -554,6 +580,7 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
             // Close the L2 Cache
             cache.close();
             cache = null;
+            cacheLoadCoordinator = null;
             NucleusLogger.CACHE.debug(LOCALISER.msg("004009"));
         }
         if (classLoaderResolverMap != null)
@@ -561,6 +588,7 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
             classLoaderResolverMap.clear();
             classLoaderResolverMap = null;
         }
+        defaultClassLoaderResolver = null;
         if (typeManager != null)
         {
             typeManager = null;
@@ -1261,6 +1289,60 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
         return statistics;
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.PersistenceNucleusContext#getCacheStatistics(java.lang.String)
+     */
+    @Override
+    public CacheStatistics getCacheStatistics(String cacheName)
+    {
+        Map<String, CacheStatistics> stats = cacheStatistics;
+        CacheStatistics cacheStats = (stats != null ? stats.get(cacheName) : null);
+        return (cacheStats != null ? cacheStats : createCacheStatistics(cacheName));
+    }
+
+    private synchronized CacheStatistics createCacheStatistics(String cacheName)
+    {
+        if (!statisticsEnabled())
+        {
+            return null;
+        }
+
+        if (cacheStatistics == null)
+        {
+            cacheStatistics = new ConcurrentHashMap<String, CacheStatistics>();
+        }
+        CacheStatistics cacheStats = cacheStatistics.get(cacheName);
+        if (cacheStats == null)
+        {
+            String name = null;
+            if (getJMXManager() != null)
+            {
+                // Register the MBean with the active JMX manager
+                name = jmxManager.getDomainName() + ":InstanceName=" + jmxManager.getInstanceName() +
+                    ",Type=" + CacheStatistics.class.getName() + ",Name=" + cacheName;
+            }
+            cacheStats = new CacheStatistics(name, cacheName);
+            if (CacheStatistics.LEVEL2.equals(cacheName))
+            {
+                cacheStats.setSizeSource(new CacheStatistics.SizeSource()
+                {
+                    public int getSize()
+                    {
+                        Level2Cache l2Cache = cache;
+                        return (l2Cache != null ? l2Cache.getSize() : -1);
+                    }
+                });
+            }
+            cacheStatistics.put(cacheName, cacheStats);
+            if (jmxManager != null)
+            {
+                // Register the MBean with the active JMX manager
+                jmxManager.registerMBean(cacheStats, name);
+            }
+        }
+        return cacheStats;
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.NucleusContext#getImplementationCreator()
      */
@@ -1475,6 +1557,27 @@ public class PersistenceNucleusContextImpl extends AbstractNucleusContext implem
         return cache;
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.PersistenceNucleusContext#getLevel2CacheLoadCoordinator()
+     */
+    @Override
+    public Level2CacheLoadCoordinator getLevel2CacheLoadCoordinator()
+    {
+        if (cacheLoadCoordinator == null && config.getBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_COALESCE_LOADS) &&
+            hasLevel2Cache())
+        {
+            synchronized (this)
+            {
+                if (cacheLoadCoordinator == null)
+                {
+                    cacheLoadCoordinator = new Level2CacheLoadCoordinator(
+                        config.getIntProperty(PropertyNames.PROPERTY_CACHE_L2_COALESCE_LOADS_TIMEOUT));
+                }
+            }
+        }
+        return cacheLoadCoordinator;
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.NucleusContext#getExecutionContextListeners()
      */
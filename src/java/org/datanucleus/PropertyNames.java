@@ -44,6 +44,9 @@ public class PropertyNames
     public static final String PROPERTY_METADATA_ORM_SUFFIX = "datanucleus.metadata.ormFileExtension";
     public static final String PROPERTY_METADATA_JDOQUERY_SUFFIX = "datanucleus.metadata.jdoqueryFileExtension";
     public static final String PROPERTY_METADATA_SCANNER = "datanucleus.metadata.scanner";
+    public static final String PROPERTY_METADATA_SNAPSHOT_FILE = "datanucleus.metadata.snapshotFile";
+    public static final String PROPERTY_METADATA_PARALLEL_LOAD = "datanucleus.metadata.parallelLoad";
+    public static final String PROPERTY_METADATA_LAZY_INITIALISATION = "datanucleus.metadata.lazyInitialisation";
     public static final String PROPERTY_METADATA_DEFAULT_INHERITANCE_STRATEGY = "datanucleus.metadata.defaultInheritanceStrategy";
 
     public static final String PROPERTY_IGNORE_CACHE = "datanucleus.IgnoreCache";
@@ -130,12 +133,16 @@ public class PropertyNames
     public static final String PROPERTY_CACHE_L2_MODE = "datanucleus.cache.level2.mode";
     public static final String PROPERTY_CACHE_L2_CACHE_EMBEDDED = "datanucleus.cache.level2.cacheEmbedded";
     public static final String PROPERTY_CACHE_L2_READ_THROUGH = "datanucleus.cache.level2.readThrough";
+    public static final String PROPERTY_CACHE_L2_COALESCE_LOADS = "datanucleus.cache.level2.coalesceLoads";
+    public static final String PROPERTY_CACHE_L2_COALESCE_LOADS_TIMEOUT = "datanucleus.cache.level2.coalesceLoadsTimeout";
     public static final String PROPERTY_CACHE_L2_WRITE_THROUGH = "datanucleus.cache.level2.writeThrough";
     public static final String PROPERTY_CACHE_L2_STORE_BY_VALUE = "datanucleus.cache.level2.storeByValue";
     public static final String PROPERTY_CACHE_L2_STATISTICS_ENABLED = "datanucleus.cache.level2.statisticsEnabled";
     public static final String PROPERTY_CACHE_L2_RETRIEVE_MODE = "datanucleus.cache.level2.retrieveMode";
     public static final String PROPERTY_CACHE_L2_STORE_MODE = "datanucleus.cache.level2.storeMode";
     public static final String PROPERTY_CACHE_L2_UPDATE_MODE = "datanucleus.cache.level2.updateMode";
+    public static final String PROPERTY_CACHE_L2_OFFHEAP_MAXMEGABYTES = "datanucleus.cache.level2.offHeap.maxMegabytes";
+    public static final String PROPERTY_CACHE_L2_OFFHEAP_SLABSIZE = "datanucleus.cache.level2.offHeap.slabSize";
     public static final String PROPERTY_CACHE_QUERYCOMPILE_TYPE = "datanucleus.cache.queryCompilation.type";
     public static final String PROPERTY_CACHE_QUERYCOMPILEDATASTORE_TYPE = "datanucleus.cache.queryCompilationDatastore.type";
     public static final String PROPERTY_CACHE_QUERYRESULTS_TYPE = "datanucleus.cache.queryResults.type";
@@ -210,6 +217,8 @@ public class PropertyNames
     public static final String PROPERTY_QUERY_COMPILATION_CACHED = "datanucleus.query.compilation.cached";
     public static final String PROPERTY_QUERY_RESULTS_CACHED = "datanucleus.query.results.cached";
     public static final String PROPERTY_QUERY_EVALUATE_IN_MEMORY = "datanucleus.query.evaluateInMemory";
+    public static final String PROPERTY_QUERY_EVALUATE_IN_MEMORY_COMPILED = "datanucleus.query.evaluateInMemory.compiled";
+    public static final String PROPERTY_QUERY_EVALUATE_IN_MEMORY_PARALLEL = "datanucleus.query.evaluateInMemory.parallel";
     public static final String PROPERTY_QUERY_RESULTCACHE_VALIDATEOBJECTS = "datanucleus.query.resultCache.validateObjects";
     public static final String PROPERTY_QUERY_RESULT_SIZE_METHOD = "datanucleus.query.resultSizeMethod";
     public static final String PROPERTY_QUERY_COMPILE_NAMED_QUERIES_AT_STARTUP = "datanucleus.query.compileNamedQueriesAtStartup";
@@ -0,0 +1,627 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Store of CachedPC objects holding strong references to at most "maxSize" objects, used as the
+ * storage for bounded Level 2 caches.
+ * <p>
+ * Objects are held in a ConcurrentHashMap, so lookups do not block. The eviction policy is a
+ * "windowed TinyLFU" : newly put objects enter a small LRU window (1% of the capacity), and when
+ * the window overflows its least-recently-used object becomes a candidate for the main LRU region.
+ * The candidate is admitted only if it has been accessed more frequently than the main region's
+ * least-recently-used object (the victim), otherwise the candidate is dropped. Access frequencies
+ * are estimated using a compact count-min sketch that is periodically aged, so one-off accesses
+ * (e.g a scan over a large table) do not flush frequently used objects from the cache.
+ * </p>
+ * <p>
+ * When a timeout is specified, each object expires that many milliseconds after it was put.
+ * The region maintains counters for hits, misses, puts, evictions and expirations.
+ * </p>
+ * <p>
+ * Several regions can share a sketch, and a count of the objects they hold between them, so that a cache
+ * made up of regions can estimate frequencies across all regions and enforce a limit on its total size.
+ * </p>
+ */
+class BoundedCacheRegion
+{
+    /**
+     * Listener for objects being removed from the region due to the size limit or expiry.
+     */
+    interface RemovalListener
+    {
+        /**
+         * Method called when an object has been removed.
+         * @param oid Id of the object
+         */
+        void removed(Object oid);
+    }
+
+    /** The cached objects, keyed by the id. */
+    private final ConcurrentMap<Object, Entry> cache = new ConcurrentHashMap<Object, Entry>();
+
+    /** Window region, in LRU order. Guarded by policyLock. */
+    private final LinkedHashMap<Object, Entry> window = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    /** Main region, in LRU order. Guarded by policyLock. */
+    private final LinkedHashMap<Object, Entry> main = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    /** Lock used when changing the eviction policy structures. */
+    private final ReentrantLock policyLock = new ReentrantLock();
+
+    /** Estimate of the access frequency of the ids. */
+    private final FrequencySketch sketch;
+
+    private final int maxSize;
+
+    /** Timeout (millisecs) for objects in this region, or -1 if not expiring. */
+    private final long timeout;
+
+    /** Capacity of the window region. */
+    private final int windowMaxSize;
+
+    /** Capacity of the main region. */
+    private final int mainMaxSize;
+
+    private final RemovalListener listener;
+
+    /** Count of the objects held, shared with any other regions using it. Updated under policyLock. */
+    private final AtomicInteger totalSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong putCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expiryCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param maxSize Maximum number of objects to hold
+     * @param timeout Timeout (millisecs) for objects, or -1 if not expiring
+     * @param listener Optional listener for objects removed due to size limit or expiry
+     */
+    BoundedCacheRegion(int maxSize, long timeout, RemovalListener listener)
+    {
+        this(maxSize, timeout, listener, new FrequencySketch(maxSize), new AtomicInteger());
+    }
+
+    /**
+     * Constructor for a region sharing its frequency sketch and count of objects with other regions.
+     * @param maxSize Maximum number of objects to hold
+     * @param timeout Timeout (millisecs) for objects, or -1 if not expiring
+     * @param listener Optional listener for objects removed due to size limit or expiry
+     * @param sketch The frequency sketch
+     * @param totalSize The count of objects held, incremented and decremented by this region
+     */
+    BoundedCacheRegion(int maxSize, long timeout, RemovalListener listener, FrequencySketch sketch, AtomicInteger totalSize)
+    {
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+        this.listener = listener;
+        this.sketch = sketch;
+        this.totalSize = totalSize;
+        windowMaxSize = Math.max(1, maxSize / 100);
+        mainMaxSize = Math.max(1, maxSize - windowMaxSize);
+    }
+
+    int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Accessor for an object from the region.
+     * @param oid The Object ID
+     * @return The L2 cacheable object
+     */
+    CachedPC get(Object oid)
+    {
+        sketch.increment(oid);
+        Entry entry = cache.get(oid);
+        if (entry == null)
+        {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (entry.hasExpired(System.currentTimeMillis()))
+        {
+            if (removeEntry(oid, entry))
+            {
+                expiryCount.incrementAndGet();
+                if (listener != null)
+                {
+                    listener.removed(oid);
+                }
+            }
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        // Record the access in the LRU order if we can do so without waiting. Missing the odd reordering is acceptable
+        if (policyLock.tryLock())
+        {
+            try
+            {
+                if (entry.inWindow)
+                {
+                    window.get(oid);
+                }
+                else
+                {
+                    main.get(oid);
+                }
+            }
+            finally
+            {
+                policyLock.unlock();
+            }
+        }
+        hitCount.incrementAndGet();
+        return entry.pc;
+    }
+
+    /**
+     * Method to put an object in the region.
+     * @param oid The Object id for this object
+     * @param pc The L2 cacheable persistable object
+     * @return The value previously associated with this oid
+     */
+    CachedPC put(Object oid, CachedPC pc)
+    {
+        putCount.incrementAndGet();
+        sketch.increment(oid);
+        Entry entry = new Entry(oid, pc, (timeout > 0 ? System.currentTimeMillis() + timeout : -1));
+        Object removedOid = null;
+        policyLock.lock();
+        try
+        {
+            Entry previous = cache.put(oid, entry);
+            if (previous != null)
+            {
+                // Replace in the same region
+                entry.inWindow = previous.inWindow;
+                if (previous.inWindow)
+                {
+                    window.put(oid, entry);
+                }
+                else
+                {
+                    main.put(oid, entry);
+                }
+                return previous.pc;
+            }
+
+            entry.inWindow = true;
+            window.put(oid, entry);
+            totalSize.incrementAndGet();
+            if (window.size() > windowMaxSize)
+            {
+                // Window is full, so move its LRU entry across to the main region if it is worth admitting
+                Iterator<Entry> windowIter = window.values().iterator();
+                Entry candidate = windowIter.next();
+                windowIter.remove();
+                candidate.inWindow = false;
+                if (main.size() < mainMaxSize)
+                {
+                    main.put(candidate.oid, candidate);
+                }
+                else
+                {
+                    Iterator<Entry> mainIter = main.values().iterator();
+                    Entry victim = mainIter.next();
+                    if (sketch.frequency(candidate.oid) > sketch.frequency(victim.oid))
+                    {
+                        mainIter.remove();
+                        cache.remove(victim.oid, victim);
+                        main.put(candidate.oid, candidate);
+                        removedOid = victim.oid;
+                    }
+                    else
+                    {
+                        cache.remove(candidate.oid, candidate);
+                        removedOid = candidate.oid;
+                    }
+                    totalSize.decrementAndGet();
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+
+        if (removedOid != null && listener != null)
+        {
+            listener.removed(removedOid);
+        }
+        return null;
+    }
+
+    /**
+     * Method to evict the least-recently-used object of the main region (or of the window region when the
+     * main region is empty), for use when a limit across several regions is exceeded.
+     * @return Whether an object was evicted
+     */
+    boolean evictOne()
+    {
+        Object removedOid = null;
+        policyLock.lock();
+        try
+        {
+            Iterator<Entry> iter = (!main.isEmpty() ? main.values().iterator() : window.values().iterator());
+            if (iter.hasNext())
+            {
+                Entry victim = iter.next();
+                iter.remove();
+                cache.remove(victim.oid, victim);
+                totalSize.decrementAndGet();
+                evictionCount.incrementAndGet();
+                removedOid = victim.oid;
+            }
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+
+        if (removedOid != null && listener != null)
+        {
+            listener.removed(removedOid);
+        }
+        return removedOid != null;
+    }
+
+    /**
+     * Method to remove the specified entry (if still present) from the region.
+     * @param oid Id of the object
+     * @param entry The entry
+     * @return Whether it was removed
+     */
+    private boolean removeEntry(Object oid, Entry entry)
+    {
+        policyLock.lock();
+        try
+        {
+            if (cache.remove(oid, entry))
+            {
+                if (entry.inWindow)
+                {
+                    window.remove(oid);
+                }
+                else
+                {
+                    main.remove(oid);
+                }
+                totalSize.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Method to remove an object from the region.
+     * @param oid The id of the object
+     * @return Whether an object was removed
+     */
+    boolean remove(Object oid)
+    {
+        policyLock.lock();
+        try
+        {
+            Entry entry = cache.remove(oid);
+            if (entry != null)
+            {
+                if (entry.inWindow)
+                {
+                    window.remove(oid);
+                }
+                else
+                {
+                    main.remove(oid);
+                }
+                totalSize.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Method to remove all objects from the region.
+     */
+    void clear()
+    {
+        policyLock.lock();
+        try
+        {
+            totalSize.addAndGet(-(window.size() + main.size()));
+            cache.clear();
+            window.clear();
+            main.clear();
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Method to remove all objects of the specified class (and optionally subclasses) from the region.
+     * @param pcClass The class
+     * @param subclasses Whether to include subclasses
+     */
+    void removeAll(Class pcClass, boolean subclasses)
+    {
+        Iterator<Map.Entry<Object, Entry>> entryIter = cache.entrySet().iterator();
+        while (entryIter.hasNext())
+        {
+            Map.Entry<Object, Entry> mapEntry = entryIter.next();
+            Class objCls = mapEntry.getValue().pc.getObjectClass();
+            if (pcClass.getName().equals(objCls.getName()) || (subclasses && pcClass.isAssignableFrom(objCls)))
+            {
+                removeEntry(mapEntry.getKey(), mapEntry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Accessor for whether an (unexpired) object with the specified id is in the region.
+     * @param oid The object id
+     * @return Whether it is present
+     */
+    boolean containsOid(Object oid)
+    {
+        Entry entry = cache.get(oid);
+        return (entry != null && !entry.hasExpired(System.currentTimeMillis()));
+    }
+
+    /**
+     * Accessor for the ids of the objects in the region.
+     * @return The ids (live view)
+     */
+    Set<Object> getOids()
+    {
+        return cache.keySet();
+    }
+
+    int getSize()
+    {
+        return cache.size();
+    }
+
+    long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    long getPutCount()
+    {
+        return putCount.get();
+    }
+
+    long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    long getExpiryCount()
+    {
+        return expiryCount.get();
+    }
+
+    /**
+     * Entry in the region.
+     */
+    private static class Entry
+    {
+        final Object oid;
+        final CachedPC pc;
+
+        /** Time (millisecs) when this entry expires, or -1 if not expiring. */
+        final long expiryTime;
+
+        /** Whether the entry is in the window region (true) or main region (false). Guarded by policyLock. */
+        boolean inWindow;
+
+        Entry(Object oid, CachedPC pc, long expiryTime)
+        {
+            this.oid = oid;
+            this.pc = pc;
+            this.expiryTime = expiryTime;
+        }
+
+        boolean hasExpired(long now)
+        {
+            return expiryTime >= 0 && now >= expiryTime;
+        }
+    }
+
+    /**
+     * Count-min sketch with 4 bit counters (held 16 to a long) used to estimate the access
+     * frequency of ids. After a number of increments proportional to the cache size all counters
+     * are halved, so the estimates reflect recent history. Each counter is incremented with a CAS of its
+     * long, and only when below its maximum, so concurrent increments never carry into a neighbouring
+     * counter. An increment racing with the halving may be lost; this is acceptable for an estimate.
+     */
+    static class FrequencySketch
+    {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final AtomicLongArray table;
+
+        private final int tableMask;
+
+        private final int sampleSize;
+
+        /** Number of increments since the counters were last halved. */
+        private final AtomicInteger size = new AtomicInteger();
+
+        /** Whether a thread is currently halving the counters. */
+        private final AtomicBoolean resetting = new AtomicBoolean();
+
+        FrequencySketch(int maxSize)
+        {
+            int capacity = 1;
+            while (capacity < Math.max(maxSize, 16))
+            {
+                capacity <<= 1;
+            }
+            table = new AtomicLongArray(capacity);
+            tableMask = capacity - 1;
+            sampleSize = 10 * maxSize;
+        }
+
+        /**
+         * Method to return the estimated number of recent accesses of the specified id.
+         * @param oid The id
+         * @return The frequency (0-15)
+         */
+        int frequency(Object oid)
+        {
+            int hash = spread(oid.hashCode());
+            int freq = Integer.MAX_VALUE;
+            for (int i=0;i<4;i++)
+            {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                freq = Math.min(freq, (int)((table.get(index) >>> offset) & 0xfL));
+            }
+            return freq;
+        }
+
+        /**
+         * Method to record an access of the specified id.
+         * @param oid The id
+         */
+        void increment(Object oid)
+        {
+            int hash = spread(oid.hashCode());
+            boolean added = false;
+            for (int i=0;i<4;i++)
+            {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                long mask = 0xfL << offset;
+                while (true)
+                {
+                    long value = table.get(index);
+                    if ((value & mask) == mask)
+                    {
+                        // Counter is saturated
+                        break;
+                    }
+                    if (table.compareAndSet(index, value, value + (1L << offset)))
+                    {
+                        added = true;
+                        break;
+                    }
+                }
+            }
+
+            if (added && size.incrementAndGet() >= sampleSize && resetting.compareAndSet(false, true))
+            {
+                try
+                {
+                    reset();
+                }
+                finally
+                {
+                    resetting.set(false);
+                }
+            }
+        }
+
+        private void reset()
+        {
+            for (int i=0;i<table.length();i++)
+            {
+                while (true)
+                {
+                    long value = table.get(i);
+                    if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK))
+                    {
+                        break;
+                    }
+                }
+            }
+            while (true)
+            {
+                int value = size.get();
+                if (size.compareAndSet(value, value / 2))
+                {
+                    break;
+                }
+            }
+        }
+
+        private int indexOf(int hash, int i)
+        {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int)h) & tableMask;
+        }
+
+        private static int counterOffset(int hash, int i)
+        {
+            // Each row uses a different counter of the 16 within the long
+            return ((((hash >>> (i << 3)) & 3) << 2) + i) << 2;
+        }
+
+        private static int spread(int x)
+        {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.datanucleus.NucleusContext;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Bounded implementation of a Level 2 cache, holding strong references to at most "maxSize" objects.
+ * <p>
+ * The objects are stored in a {@link BoundedCacheRegion}, so lookups do not block, and eviction uses
+ * a "windowed TinyLFU" policy where frequently accessed objects are retained in preference to objects
+ * that are only accessed once (e.g by a scan over a large table).
+ * </p>
+ * <p>
+ * When "datanucleus.cache.level2.timeout" is set, each object expires that many milliseconds after
+ * it was put into the cache. The cache maintains counters for hits, misses, puts, evictions and
+ * expirations. Pinning of objects is not supported.
+ * </p>
+ */
+public class BoundedLevel2Cache extends AbstractLevel2Cache
+{
+    /** Size used when "datanucleus.cache.level2.maxSize" is not specified. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Store for the cached objects. */
+    private transient BoundedCacheRegion region;
+
+    /**
+     * Constructor.
+     * @param nucleusCtx Context
+     */
+    public BoundedLevel2Cache(NucleusContext nucleusCtx)
+    {
+        super(nucleusCtx);
+
+        if (maxSize <= 0)
+        {
+            NucleusLogger.CACHE.info("No 'datanucleus.cache.level2.maxSize' specified so using size of " + DEFAULT_MAX_SIZE);
+            maxSize = DEFAULT_MAX_SIZE;
+        }
+        region = new BoundedCacheRegion(maxSize, timeout, null);
+    }
+
+    /**
+     * Method to close the cache when no longer needed. Provides a hook to release resources etc.
+     */
+    public void close()
+    {
+        if (clearAtClose)
+        {
+            evictAll();
+        }
+    }
+
+    /**
+     * Accessor for an object from the cache.
+     * @param oid The Object ID
+     * @return The L2 cacheable object
+     */
+    public CachedPC get(Object oid)
+    {
+        if (oid == null)
+        {
+            return null;
+        }
+        return region.get(oid);
+    }
+
+    /**
+     * Method to put an object in the cache.
+     * @param oid The Object id for this object
+     * @param pc The L2 cacheable persistable object
+     * @return The value previously associated with this oid
+     */
+    public CachedPC put(Object oid, CachedPC pc)
+    {
+        if (oid == null || pc == null)
+        {
+            NucleusLogger.CACHE.warn(LOCALISER.msg("004011"));
+            return null;
+        }
+        return region.put(oid, pc);
+    }
+
+    /**
+     * Accessor for whether an object with the specified id is in the cache
+     * @param oid The object id
+     * @return Whether it is in the cache
+     */
+    public boolean containsOid(Object oid)
+    {
+        if (oid == null)
+        {
+            return false;
+        }
+        return region.containsOid(oid);
+    }
+
+    /**
+     * Accessor for the total number of objects in the L2 cache.
+     * @return Number of objects
+     */
+    public int getSize()
+    {
+        return region.getSize();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getNumberOfPinnedObjects()
+     */
+    public int getNumberOfPinnedObjects()
+    {
+        return 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getNumberOfUnpinnedObjects()
+     */
+    public int getNumberOfUnpinnedObjects()
+    {
+        return getSize();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getAll(java.util.Collection)
+     */
+    public Map<Object, CachedPC> getAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return null;
+        }
+        Map<Object, CachedPC> objs = new HashMap<Object, CachedPC>();
+        for (Object oid : oids)
+        {
+            CachedPC obj = get(oid);
+            if (obj != null)
+            {
+                objs.put(oid, obj);
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * Method to evict an object from the cache.
+     * @param oid The id of the object to evict
+     */
+    public void evict(Object oid)
+    {
+        if (oid == null)
+        {
+            return;
+        }
+        region.remove(oid);
+    }
+
+    /**
+     * Method to evict all objects from the L2 cache.
+     */
+    public void evictAll()
+    {
+        region.clear();
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Object[] oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<oids.length;i++)
+        {
+            evict(oids[i]);
+        }
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        Iterator iter = oids.iterator();
+        while (iter.hasNext())
+        {
+            evict(iter.next());
+        }
+    }
+
+    /**
+     * Method to evict all objects of the given types from the cache.
+     * @param pcClass The class to evict
+     * @param subclasses Whether to also evict subclasses
+     */
+    public void evictAll(Class pcClass, boolean subclasses)
+    {
+        if (pcClass == null)
+        {
+            return;
+        }
+        region.removeAll(pcClass, subclasses);
+    }
+
+    /**
+     * Accessor for the number of get() calls that found an object.
+     * @return Number of hits
+     */
+    public long getHitCount()
+    {
+        return region.getHitCount();
+    }
+
+    /**
+     * Accessor for the number of get() calls that didn't find an (unexpired) object.
+     * @return Number of misses
+     */
+    public long getMissCount()
+    {
+        return region.getMissCount();
+    }
+
+    /**
+     * Accessor for the number of put() calls.
+     * @return Number of puts
+     */
+    public long getPutCount()
+    {
+        return region.getPutCount();
+    }
+
+    /**
+     * Accessor for the number of objects evicted (or not admitted) due to the size limit.
+     * @return Number of evictions
+     */
+    public long getEvictionCount()
+    {
+        return region.getEvictionCount();
+    }
+
+    /**
+     * Accessor for the number of objects removed due to having expired.
+     * @return Number of expirations
+     */
+    public long getExpiryCount()
+    {
+        return region.getExpiryCount();
+    }
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        // our "pseudo-constructor"
+        in.defaultReadObject();
+        region = new BoundedCacheRegion(maxSize, timeout, null);
+    }
+}
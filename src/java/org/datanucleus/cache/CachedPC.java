@@ -18,34 +18,59 @@ Contributors:
 package org.datanucleus.cache;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.BitSet;
 
 import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.StringUtils;
 
 /**
  * An object that is stored in the Level2 Cache keyed by the identity of the persistable object.
- * Comprises a map of the field values keyed by the absolute field number in the class, the loaded fields array,
+ * Comprises the field values indexed by the absolute field number in the class, the loaded fields,
  * and the version of the object that is represented with these values.
  * Where the field is a relation field (PC, Map, Collection, array) we store the id of any referenced persistable 
  * object. This is used when regenerating the object, and recreating its relations. Note that the "id" is the OID
  * or SingleFieldIdentity where applicable otherwise is CachedId
+ * <p>
+ * The values are held in dense arrays indexed by the absolute field number; an Object[] for object fields,
+ * and a long[] for primitive fields (with the type of each primitive in a byte[]) so that primitives are not
+ * boxed. A copy of a CachedPC shares these arrays with the original until one of them is next updated, at
+ * which point that one takes its own copy of the arrays (copy-on-write).
+ * </p>
  */
 public class CachedPC implements Serializable
 {
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_BYTE = 2;
+    private static final byte TYPE_CHAR = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_INT = 5;
+    private static final byte TYPE_LONG = 6;
+    private static final byte TYPE_FLOAT = 7;
+    private static final byte TYPE_DOUBLE = 8;
+
     /** Class of the object being cached. */
     private Class cls;
 
-    /** Values for the fields, keyed by the abs field number. Any relation fields store the id of the related object. */
-    private Map<Integer, Object> fieldValues = null;
+    /** Number of fields of the class. */
+    private int numFields;
+
+    /** Values of the object fields, indexed by the abs field number. Relation fields store the id of the related object. */
+    private Object[] objectValues = null;
+
+    /** Values of the primitive fields, indexed by the abs field number. */
+    private long[] primitiveValues = null;
+
+    /** Type of the primitive value of each field (0 if not a primitive value), indexed by the abs field number. */
+    private byte[] primitiveTypes = null;
+
+    /** Whether the value arrays are shared with a copy, so need copying before being updated. */
+    private transient volatile boolean shared = false;
 
     /** Version of the cached object (if any) - Long, Timestamp etc. */
     private Object version;
 
-    /** The loaded fields array. TODO Note that this could be interpreted from the keys of fieldValues. */
-    private boolean[] loadedFields;
+    /** The loaded fields. */
+    private BitSet loadedFields;
 
     /**
      * Constructor.
@@ -54,13 +79,22 @@ public class CachedPC implements Serializable
      * @param vers The version (optional)
      */
     public CachedPC(Class cls, boolean[] loadedFields, Object vers)
+    {
+        this(cls, ClassUtils.getBitSetForFlags(loadedFields), loadedFields.length, vers);
+    }
+
+    /**
+     * Constructor.
+     * @param cls The class of the object
+     * @param loadedFields The loaded fields (copied)
+     * @param numFields Number of fields of the class
+     * @param vers The version (optional)
+     */
+    public CachedPC(Class cls, BitSet loadedFields, int numFields, Object vers)
     {
         this.cls = cls;
-        this.loadedFields = new boolean[loadedFields.length];
-        for (int i=0;i<loadedFields.length;i++)
-        {
-            this.loadedFields[i] = loadedFields[i];
-        }
+        this.loadedFields = (BitSet)loadedFields.clone();
+        this.numFields = numFields;
         this.version = vers;
     }
 
@@ -69,22 +103,179 @@ public class CachedPC implements Serializable
         return cls;
     }
 
-    public void setFieldValue(Integer fieldNumber, Object value)
+    /**
+     * Accessor for the number of fields of the class.
+     * @return The number of fields
+     */
+    public int getFieldCount()
+    {
+        return numFields;
+    }
+
+    public void setFieldValue(int fieldNumber, Object value)
     {
-        if (fieldValues == null)
+        prepareForUpdate(fieldNumber);
+        if (objectValues == null)
         {
-            fieldValues = new HashMap<Integer, Object>();
+            if (value == null)
+            {
+                clearPrimitive(fieldNumber);
+                return;
+            }
+            objectValues = new Object[numFields];
         }
-        fieldValues.put(fieldNumber, value);
+        objectValues[fieldNumber] = value;
+        clearPrimitive(fieldNumber);
     }
 
-    public Object getFieldValue(Integer fieldNumber)
+    /**
+     * Accessor for the value of a field. Primitive values are returned as their wrapper type.
+     * @param fieldNumber Absolute field number
+     * @return The value
+     */
+    public Object getFieldValue(int fieldNumber)
     {
-        if (fieldValues == null)
+        byte type = getPrimitiveType(fieldNumber);
+        if (type != 0)
+        {
+            long value = primitiveValues[fieldNumber];
+            switch (type)
+            {
+                case TYPE_BOOLEAN :
+                    return Boolean.valueOf(value != 0);
+                case TYPE_BYTE :
+                    return Byte.valueOf((byte)value);
+                case TYPE_CHAR :
+                    return Character.valueOf((char)value);
+                case TYPE_SHORT :
+                    return Short.valueOf((short)value);
+                case TYPE_INT :
+                    return Integer.valueOf((int)value);
+                case TYPE_LONG :
+                    return Long.valueOf(value);
+                case TYPE_FLOAT :
+                    return Float.valueOf(Float.intBitsToFloat((int)value));
+                default :
+                    return Double.valueOf(Double.longBitsToDouble(value));
+            }
+        }
+        if (objectValues == null || fieldNumber >= objectValues.length)
         {
             return null;
         }
-        return fieldValues.get(fieldNumber);
+        return objectValues[fieldNumber];
+    }
+
+    public void setBooleanFieldValue(int fieldNumber, boolean value)
+    {
+        setPrimitive(fieldNumber, TYPE_BOOLEAN, value ? 1 : 0);
+    }
+
+    public boolean getBooleanFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return primitiveValues[fieldNumber] != 0;
+        }
+        return ((Boolean)getFieldValue(fieldNumber)).booleanValue();
+    }
+
+    public void setByteFieldValue(int fieldNumber, byte value)
+    {
+        setPrimitive(fieldNumber, TYPE_BYTE, value);
+    }
+
+    public byte getByteFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return (byte)primitiveValues[fieldNumber];
+        }
+        return ((Byte)getFieldValue(fieldNumber)).byteValue();
+    }
+
+    public void setCharFieldValue(int fieldNumber, char value)
+    {
+        setPrimitive(fieldNumber, TYPE_CHAR, value);
+    }
+
+    public char getCharFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return (char)primitiveValues[fieldNumber];
+        }
+        return ((Character)getFieldValue(fieldNumber)).charValue();
+    }
+
+    public void setShortFieldValue(int fieldNumber, short value)
+    {
+        setPrimitive(fieldNumber, TYPE_SHORT, value);
+    }
+
+    public short getShortFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return (short)primitiveValues[fieldNumber];
+        }
+        return ((Short)getFieldValue(fieldNumber)).shortValue();
+    }
+
+    public void setIntFieldValue(int fieldNumber, int value)
+    {
+        setPrimitive(fieldNumber, TYPE_INT, value);
+    }
+
+    public int getIntFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return (int)primitiveValues[fieldNumber];
+        }
+        return ((Integer)getFieldValue(fieldNumber)).intValue();
+    }
+
+    public void setLongFieldValue(int fieldNumber, long value)
+    {
+        setPrimitive(fieldNumber, TYPE_LONG, value);
+    }
+
+    public long getLongFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return primitiveValues[fieldNumber];
+        }
+        return ((Long)getFieldValue(fieldNumber)).longValue();
+    }
+
+    public void setFloatFieldValue(int fieldNumber, float value)
+    {
+        setPrimitive(fieldNumber, TYPE_FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    public float getFloatFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return Float.intBitsToFloat((int)primitiveValues[fieldNumber]);
+        }
+        return ((Float)getFieldValue(fieldNumber)).floatValue();
+    }
+
+    public void setDoubleFieldValue(int fieldNumber, double value)
+    {
+        setPrimitive(fieldNumber, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    public double getDoubleFieldValue(int fieldNumber)
+    {
+        if (getPrimitiveType(fieldNumber) != 0)
+        {
+            return Double.longBitsToDouble(primitiveValues[fieldNumber]);
+        }
+        return ((Double)getFieldValue(fieldNumber)).doubleValue();
     }
 
     public void setVersion(Object ver)
@@ -103,41 +294,124 @@ public class CachedPC implements Serializable
      * @return The loaded fields flags
      */
     public boolean[] getLoadedFields()
+    {
+        return ClassUtils.getFlagsForBitSet(loadedFields, numFields);
+    }
+
+    /**
+     * Accessor for the loaded fields of this object as a BitSet. The returned BitSet must not be modified;
+     * use setLoadedField() if you want to update a flag.
+     * @return The loaded fields
+     */
+    public BitSet getLoadedFieldBits()
     {
         return loadedFields;
     }
 
     public int[] getLoadedFieldNumbers()
     {
-        return ClassUtils.getFlagsSetTo(loadedFields, true);
+        return ClassUtils.getFlagsSetTo(loadedFields);
     }
 
     public void setLoadedField(int fieldNumber, boolean loaded)
     {
-    	loadedFields[fieldNumber] = loaded;
+        if (loaded)
+        {
+            loadedFields.set(fieldNumber);
+        }
+        else
+        {
+            loadedFields.clear(fieldNumber);
+        }
     }
 
-    public synchronized CachedPC getCopy()
+    /**
+     * Method to return a copy of this object. The copy shares the field values with this object until
+     * either is updated.
+     * @return The copy
+     */
+    public CachedPC getCopy()
     {
-    	CachedPC copy = new CachedPC(cls, loadedFields, version);
-    	if (fieldValues != null)
-    	{
-    	    // TODO Some (mutable) field values may need copying
-    		copy.fieldValues = new HashMap<Integer, Object>(fieldValues.size());
-    		Iterator<Map.Entry<Integer, Object>> entryIter = fieldValues.entrySet().iterator();
-    		while (entryIter.hasNext())
-    		{
-    		    Map.Entry<Integer, Object> entry = entryIter.next();
-    		    Integer key = entry.getKey();
-    		    Object val = entry.getValue();
-    		    if (val != null && val instanceof CachedPC)
-    		    {
-    		        val = ((CachedPC)val).getCopy();
-    		    }
-    		    copy.fieldValues.put(key, val);
-    		}
-    	}
-    	return copy;
+        CachedPC copy = new CachedPC(cls, loadedFields, numFields, version);
+        if (objectValues != null || primitiveValues != null)
+        {
+            shared = true;
+            copy.objectValues = objectValues;
+            copy.primitiveValues = primitiveValues;
+            copy.primitiveTypes = primitiveTypes;
+            copy.shared = true;
+        }
+        return copy;
+    }
+
+    private byte getPrimitiveType(int fieldNumber)
+    {
+        if (primitiveTypes == null || fieldNumber >= primitiveTypes.length)
+        {
+            return 0;
+        }
+        return primitiveTypes[fieldNumber];
+    }
+
+    private void setPrimitive(int fieldNumber, byte type, long value)
+    {
+        prepareForUpdate(fieldNumber);
+        if (primitiveValues == null)
+        {
+            primitiveValues = new long[numFields];
+            primitiveTypes = new byte[numFields];
+        }
+        primitiveValues[fieldNumber] = value;
+        primitiveTypes[fieldNumber] = type;
+        if (objectValues != null)
+        {
+            objectValues[fieldNumber] = null;
+        }
+    }
+
+    private void clearPrimitive(int fieldNumber)
+    {
+        if (primitiveTypes != null)
+        {
+            primitiveTypes[fieldNumber] = 0;
+        }
+    }
+
+    /**
+     * Convenience method to make sure that the value arrays can hold the specified field, and are not shared
+     * with a copy of this object, prior to an update.
+     * @param fieldNumber The field that will be updated
+     */
+    private void prepareForUpdate(int fieldNumber)
+    {
+        if (fieldNumber >= numFields)
+        {
+            numFields = fieldNumber + 1;
+        }
+        if (shared || (objectValues != null && objectValues.length < numFields))
+        {
+            objectValues = (objectValues != null ? copyOf(objectValues) : null);
+        }
+        if (shared || (primitiveValues != null && primitiveValues.length < numFields))
+        {
+            if (primitiveValues != null)
+            {
+                long[] values = new long[numFields];
+                System.arraycopy(primitiveValues, 0, values, 0, primitiveValues.length);
+                primitiveValues = values;
+                byte[] types = new byte[numFields];
+                System.arraycopy(primitiveTypes, 0, types, 0, primitiveTypes.length);
+                primitiveTypes = types;
+            }
+        }
+        shared = false;
+    }
+
+    private Object[] copyOf(Object[] values)
+    {
+        Object[] copy = new Object[numFields];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
     }
 
     /**
@@ -158,9 +432,18 @@ public class CachedPC implements Serializable
      */
     public String toString(boolean debug)
     {
-        return "CachedPC : cls=" + cls.getName() + " version=" + version +
-            " loadedFlags=" + StringUtils.booleanArrayToString(loadedFields) +
-            (debug ? (" vals=" + StringUtils.mapToString(fieldValues)) : "");
+        StringBuilder str = new StringBuilder("CachedPC : cls=").append(cls.getName()).append(" version=").append(version)
+            .append(" loadedFlags=").append(StringUtils.booleanArrayToString(getLoadedFields()));
+        if (debug)
+        {
+            str.append(" vals=[");
+            for (int i=loadedFields.nextSetBit(0);i>=0;i=loadedFields.nextSetBit(i+1))
+            {
+                str.append(i).append('=').append(getFieldValue(i)).append(' ');
+            }
+            str.append(']');
+        }
+        return str.toString();
     }
 
     public static class CachedId implements Serializable, Comparable<CachedId>
@@ -0,0 +1,421 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.exceptions.NucleusException;
+
+/**
+ * Converter of CachedPC objects to/from a compact binary form, for use by caches that store their
+ * objects outside of the Java heap.
+ * <p>
+ * The binary form comprises the class (as an index into a table of classes held by this serialiser),
+ * the loaded fields (as a bitset), the version, and the values of the loaded fields. Values of primitive
+ * wrapper, String, Date and nested CachedPC types are written directly with a one byte type tag, and all
+ * other values fall back to Java serialisation.
+ * </p>
+ */
+class CachedPCSerialiser
+{
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_BYTE = 2;
+    private static final byte TYPE_CHAR = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_INT = 5;
+    private static final byte TYPE_LONG = 6;
+    private static final byte TYPE_FLOAT = 7;
+    private static final byte TYPE_DOUBLE = 8;
+    private static final byte TYPE_STRING = 9;
+    private static final byte TYPE_DATE = 10;
+    private static final byte TYPE_SQL_TIMESTAMP = 11;
+    private static final byte TYPE_CACHEDPC = 12;
+    private static final byte TYPE_SERIALISED = 13;
+
+    /** Classes of the objects serialised, indexed by the number written in the binary form. */
+    private final List<Class> classes = new ArrayList<Class>();
+
+    /** Lookup of the index of the class, keyed by the class. */
+    private final ConcurrentMap<Class, Integer> classIndexes = new ConcurrentHashMap<Class, Integer>();
+
+    /** Resolver for classes of any Java serialised values. */
+    private final ClassLoaderResolver clr;
+
+    /**
+     * Constructor.
+     * @param clr Resolver for classes of Java serialised values
+     */
+    CachedPCSerialiser(ClassLoaderResolver clr)
+    {
+        this.clr = clr;
+    }
+
+    /**
+     * Method to convert the CachedPC to its binary form.
+     * @param pc The cached object
+     * @return The bytes
+     */
+    byte[] serialise(CachedPC pc)
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(baos);
+        try
+        {
+            writeCachedPC(out, pc);
+            out.flush();
+        }
+        catch (IOException ioe)
+        {
+            throw new NucleusException("Error serialising cached object of type " + pc.getObjectClass().getName(), ioe);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Method to convert the binary form back into a CachedPC.
+     * @param bytes The bytes
+     * @return The cached object
+     */
+    CachedPC deserialise(byte[] bytes)
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return readCachedPC(in);
+        }
+        catch (IOException ioe)
+        {
+            throw new NucleusException("Error deserialising cached object", ioe);
+        }
+        catch (ClassNotFoundException cnfe)
+        {
+            throw new NucleusException("Error deserialising cached object", cnfe);
+        }
+        catch (RuntimeException re)
+        {
+            // Corrupt input can fail in the Java deserialisation of a value
+            throw new NucleusException("Error deserialising cached object", re);
+        }
+    }
+
+    /**
+     * Accessor for the class with the specified index in the binary form.
+     * @param index The index
+     * @return The class
+     */
+    Class getClassForIndex(int index)
+    {
+        synchronized (classes)
+        {
+            return classes.get(index);
+        }
+    }
+
+    /**
+     * Accessor for the index of the specified class in the binary form, registering it if not yet known.
+     * @param cls The class
+     * @return The index
+     */
+    int getIndexForClass(Class cls)
+    {
+        Integer index = classIndexes.get(cls);
+        if (index == null)
+        {
+            synchronized (classes)
+            {
+                index = classIndexes.get(cls);
+                if (index == null)
+                {
+                    index = Integer.valueOf(classes.size());
+                    classes.add(cls);
+                    classIndexes.put(cls, index);
+                }
+            }
+        }
+        return index.intValue();
+    }
+
+    private void writeCachedPC(DataOutputStream out, CachedPC pc)
+    throws IOException
+    {
+        out.writeInt(getIndexForClass(pc.getObjectClass()));
+
+        // Loaded fields as a bitset
+        BitSet loadedFields = pc.getLoadedFieldBits();
+        int numFields = pc.getFieldCount();
+        out.writeShort(numFields);
+        int bits = 0;
+        for (int i=0;i<numFields;i++)
+        {
+            if (loadedFields.get(i))
+            {
+                bits |= (1 << (i & 7));
+            }
+            if ((i & 7) == 7 || i == numFields-1)
+            {
+                out.writeByte(bits);
+                bits = 0;
+            }
+        }
+
+        writeValue(out, pc.getVersion());
+
+        // Values of loaded fields, in field number order
+        for (int i=loadedFields.nextSetBit(0);i>=0 && i<numFields;i=loadedFields.nextSetBit(i+1))
+        {
+            writeValue(out, pc.getFieldValue(i));
+        }
+    }
+
+    private CachedPC readCachedPC(DataInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        int classIndex = in.readInt();
+        synchronized (classes)
+        {
+            if (classIndex < 0 || classIndex >= classes.size())
+            {
+                throw new IOException("Invalid class index " + classIndex + " in serialised cached object");
+            }
+        }
+        Class cls = getClassForIndex(classIndex);
+
+        int numFields = in.readUnsignedShort();
+        BitSet loadedFields = new BitSet(numFields);
+        int bits = 0;
+        for (int i=0;i<numFields;i++)
+        {
+            if ((i & 7) == 0)
+            {
+                bits = in.readByte();
+            }
+            if ((bits & (1 << (i & 7))) != 0)
+            {
+                loadedFields.set(i);
+            }
+        }
+
+        Object version = readValue(in);
+        CachedPC pc = new CachedPC(cls, loadedFields, numFields, version);
+        for (int i=loadedFields.nextSetBit(0);i>=0;i=loadedFields.nextSetBit(i+1))
+        {
+            pc.setFieldValue(i, readValue(in));
+        }
+        return pc;
+    }
+
+    private void writeValue(DataOutputStream out, Object value)
+    throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(TYPE_NULL);
+        }
+        else if (value instanceof CachedPC)
+        {
+            out.writeByte(TYPE_CACHEDPC);
+            writeCachedPC(out, (CachedPC)value);
+        }
+        else
+        {
+            Class type = value.getClass();
+            if (type == String.class)
+            {
+                String str = (String)value;
+                if (str.length() <= 65535 / 3)
+                {
+                    // writeUTF is limited to 64k bytes, so only use it when guaranteed to fit
+                    out.writeByte(TYPE_STRING);
+                    out.writeUTF(str);
+                }
+                else
+                {
+                    writeSerialised(out, value);
+                }
+            }
+            else if (type == Integer.class)
+            {
+                out.writeByte(TYPE_INT);
+                out.writeInt(((Integer)value).intValue());
+            }
+            else if (type == Long.class)
+            {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(((Long)value).longValue());
+            }
+            else if (type == Boolean.class)
+            {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean(((Boolean)value).booleanValue());
+            }
+            else if (type == Double.class)
+            {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Double)value).doubleValue());
+            }
+            else if (type == Float.class)
+            {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat(((Float)value).floatValue());
+            }
+            else if (type == Short.class)
+            {
+                out.writeByte(TYPE_SHORT);
+                out.writeShort(((Short)value).shortValue());
+            }
+            else if (type == Byte.class)
+            {
+                out.writeByte(TYPE_BYTE);
+                out.writeByte(((Byte)value).byteValue());
+            }
+            else if (type == Character.class)
+            {
+                out.writeByte(TYPE_CHAR);
+                out.writeChar(((Character)value).charValue());
+            }
+            else if (type == java.util.Date.class)
+            {
+                out.writeByte(TYPE_DATE);
+                out.writeLong(((java.util.Date)value).getTime());
+            }
+            else if (type == java.sql.Timestamp.class)
+            {
+                out.writeByte(TYPE_SQL_TIMESTAMP);
+                out.writeLong(((java.sql.Timestamp)value).getTime());
+                out.writeInt(((java.sql.Timestamp)value).getNanos());
+            }
+            else
+            {
+                writeSerialised(out, value);
+            }
+        }
+    }
+
+    private void writeSerialised(DataOutputStream out, Object value)
+    throws IOException
+    {
+        out.writeByte(TYPE_SERIALISED);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(value);
+        oos.close();
+        out.writeInt(baos.size());
+        baos.writeTo(out);
+    }
+
+    private Object readValue(DataInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        byte type = in.readByte();
+        switch (type)
+        {
+            case TYPE_NULL :
+                return null;
+            case TYPE_BOOLEAN :
+                return Boolean.valueOf(in.readBoolean());
+            case TYPE_BYTE :
+                return Byte.valueOf(in.readByte());
+            case TYPE_CHAR :
+                return Character.valueOf(in.readChar());
+            case TYPE_SHORT :
+                return Short.valueOf(in.readShort());
+            case TYPE_INT :
+                return Integer.valueOf(in.readInt());
+            case TYPE_LONG :
+                return Long.valueOf(in.readLong());
+            case TYPE_FLOAT :
+                return Float.valueOf(in.readFloat());
+            case TYPE_DOUBLE :
+                return Double.valueOf(in.readDouble());
+            case TYPE_STRING :
+                return in.readUTF();
+            case TYPE_DATE :
+                return new java.util.Date(in.readLong());
+            case TYPE_SQL_TIMESTAMP :
+                java.sql.Timestamp ts = new java.sql.Timestamp(in.readLong());
+                ts.setNanos(in.readInt());
+                return ts;
+            case TYPE_CACHEDPC :
+                return readCachedPC(in);
+            case TYPE_SERIALISED :
+                int length = in.readInt();
+                if (length < 0 || length > in.available())
+                {
+                    // Don't allocate more than could be in the input (a byte array, so available() is what remains)
+                    throw new IOException("Invalid length " + length + " of serialised value in serialised cached object");
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                ObjectInputStream ois = new ResolverObjectInputStream(new ByteArrayInputStream(bytes), clr);
+                try
+                {
+                    return ois.readObject();
+                }
+                finally
+                {
+                    ois.close();
+                }
+            default :
+                throw new IOException("Invalid type " + type + " in serialised cached object");
+        }
+    }
+
+    /**
+     * ObjectInputStream that resolves classes using the ClassLoaderResolver.
+     */
+    private static class ResolverObjectInputStream extends ObjectInputStream
+    {
+        private final ClassLoaderResolver clr;
+
+        ResolverObjectInputStream(InputStream in, ClassLoaderResolver clr)
+        throws IOException
+        {
+            super(in);
+            this.clr = clr;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return clr.classForName(desc.getName());
+            }
+            catch (RuntimeException re)
+            {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
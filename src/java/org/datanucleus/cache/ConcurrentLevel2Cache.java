@@ -0,0 +1,737 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.datanucleus.ClassConstants;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Concurrent implementation of a Level 2 cache, using weak references for unpinned objects.
+ * <p>
+ * Provides the same behaviour as WeakLevel2Cache, except that no operation synchronizes on the cache
+ * itself. Operates with 2 ConcurrentHashMaps internally. One stores all pinned objects that have been
+ * selected to be retained by user's application. The other stores all other objects, wrapped in a
+ * reference (weak by default), with the references registered against a ReferenceQueue so that entries
+ * whose object has been garbage collected are removed as part of subsequent operations.
+ * </p>
+ * <p>
+ * Lookups (get, containsOid) never block, so read throughput scales with the number of threads.
+ * Moving an object between the pinned and unpinned maps is not atomic with respect to a concurrent get,
+ * so a reader can miss an object that is in the process of being pinned/unpinned; this is acceptable for
+ * a cache since the object will simply be retrieved from the datastore.
+ * </p>
+ */
+public class ConcurrentLevel2Cache implements Level2Cache
+{
+    /** Localiser for messages */
+    protected static final Localiser LOCALISER = Localiser.getInstance("org.datanucleus.Localisation",
+        ClassConstants.NUCLEUS_CONTEXT_LOADER);
+
+    /** Collection of pinned classes whose objects should be pinned if they ever reach the cache. */
+    protected Set<PinnedClass> pinnedClasses = Collections.newSetFromMap(new ConcurrentHashMap<PinnedClass, Boolean>());
+
+    /** Collection of ids whose objects should be pinned if they ever reach the cache. */
+    protected Set<Object> pinnedIds = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /** Pinned objects cache. */
+    protected ConcurrentMap<Object, CachedPC> pinnedCache = new ConcurrentHashMap<Object, CachedPC>();
+
+    /** Unpinned objects cache, storing references to the objects. */
+    protected transient ConcurrentMap<Object, Reference<CachedPC>> unpinnedCache; // transient since references are not serialisable
+
+    /** Queue of references whose objects have been garbage collected. */
+    protected transient ReferenceQueue<CachedPC> reaped;
+
+    /**
+     * Number of entries in the pinned and unpinned caches, updated as entries are added and removed (since the
+     * size of a ConcurrentHashMap isn't a constant time operation). Includes unpinned entries whose object
+     * has been garbage collected until they are reaped.
+     */
+    protected transient AtomicInteger numEntries;
+
+    protected int maxSize = -1;
+
+    /**
+     * Constructor.
+     * @param nucleusCtx Context
+     */
+    public ConcurrentLevel2Cache(NucleusContext nucleusCtx)
+    {
+        maxSize = nucleusCtx.getConfiguration().getIntProperty(PropertyNames.PROPERTY_CACHE_L2_MAXSIZE);
+        unpinnedCache = new ConcurrentHashMap<Object, Reference<CachedPC>>();
+        reaped = new ReferenceQueue<CachedPC>();
+        numEntries = new AtomicInteger();
+    }
+
+    /**
+     * Method to create the reference used to hold an unpinned object.
+     * Override this to change the strength of the reference used.
+     * @param oid The id of the object
+     * @param pc The cacheable object
+     * @param queue Queue to register the reference with
+     * @return The reference
+     */
+    protected Reference<CachedPC> newReference(Object oid, CachedPC pc, ReferenceQueue<CachedPC> queue)
+    {
+        return new WeakCachedPCReference(oid, pc, queue);
+    }
+
+    /**
+     * Reference to a CachedPC that knows the id it is stored under, so that it can be removed
+     * from the unpinned map once the object has been garbage collected.
+     */
+    protected interface CachedPCReference
+    {
+        /**
+         * Accessor for the id under which the referenced object was stored.
+         * @return The id
+         */
+        Object getOid();
+    }
+
+    private static class WeakCachedPCReference extends WeakReference<CachedPC> implements CachedPCReference
+    {
+        private final Object oid;
+
+        WeakCachedPCReference(Object oid, CachedPC pc, ReferenceQueue<CachedPC> queue)
+        {
+            super(pc, queue);
+            this.oid = oid;
+        }
+
+        public Object getOid()
+        {
+            return oid;
+        }
+    }
+
+    /**
+     * Method to remove from the unpinned cache any entries whose objects have been garbage collected.
+     * Only removes the entry if it is still mapped to the collected reference, so a newer object put
+     * under the same id is retained.
+     */
+    protected void reap()
+    {
+        Reference<? extends CachedPC> ref;
+        while ((ref = reaped.poll()) != null)
+        {
+            if (unpinnedCache.remove(((CachedPCReference)ref).getOid(), ref))
+            {
+                numEntries.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Convenience method to put an object in the pinned cache, maintaining the number of entries.
+     * @param oid The id
+     * @param pc The cacheable object
+     * @return The object previously pinned with this id
+     */
+    private CachedPC putPinned(Object oid, CachedPC pc)
+    {
+        CachedPC previous = pinnedCache.put(oid, pc);
+        if (previous == null)
+        {
+            numEntries.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Convenience method to put an object in the unpinned cache, maintaining the number of entries.
+     * @param oid The id
+     * @param pc The cacheable object
+     * @return The reference previously stored with this id
+     */
+    private Reference<CachedPC> putUnpinned(Object oid, CachedPC pc)
+    {
+        Reference<CachedPC> previous = unpinnedCache.put(oid, newReference(oid, pc, reaped));
+        if (previous == null)
+        {
+            numEntries.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Convenience method to remove an entry from the pinned cache, maintaining the number of entries.
+     * @param oid The id
+     * @param pc The object expected to be pinned with this id, or null for any
+     * @return The object removed, or null if not removed
+     */
+    private CachedPC removePinned(Object oid, CachedPC pc)
+    {
+        CachedPC removed = null;
+        if (pc == null)
+        {
+            removed = pinnedCache.remove(oid);
+        }
+        else if (pinnedCache.remove(oid, pc))
+        {
+            removed = pc;
+        }
+        if (removed != null)
+        {
+            numEntries.decrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Convenience method to remove an entry from the unpinned cache, maintaining the number of entries.
+     * @param oid The id
+     * @param ref The reference expected to be stored with this id, or null for any
+     * @return The reference removed, or null if not removed
+     */
+    private Reference<CachedPC> removeUnpinned(Object oid, Reference<CachedPC> ref)
+    {
+        Reference<CachedPC> removed = null;
+        if (ref == null)
+        {
+            removed = unpinnedCache.remove(oid);
+        }
+        else if (unpinnedCache.remove(oid, ref))
+        {
+            removed = ref;
+        }
+        if (removed != null)
+        {
+            numEntries.decrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Method to close the cache when no longer needed. Provides a hook to release resources etc.
+     */
+    public void close()
+    {
+        evictAll();
+    }
+
+    /**
+     * Method to evict an object from the cache.
+     * @param oid The id of the object to evict
+     */
+    public void evict(Object oid)
+    {
+        if (oid == null)
+        {
+            return;
+        }
+
+        removeUnpinned(oid, null);
+        removePinned(oid, null);
+    }
+
+    /**
+     * Method to evict all objects from the L2 cache.
+     */
+    public void evictAll()
+    {
+        // Remove each entry rather than clear, so the number of entries stays correct with concurrent puts
+        for (Object oid : unpinnedCache.keySet())
+        {
+            removeUnpinned(oid, null);
+        }
+        for (Object oid : pinnedCache.keySet())
+        {
+            removePinned(oid, null);
+        }
+        reap();
+    }
+
+    /**
+     * Method to evict all objects of the given types from the cache.
+     * @param pcClass The class to evict
+     * @param subclasses Whether to also evict subclasses
+     */
+    public void evictAll(Class pcClass, boolean subclasses)
+    {
+        if (pcClass == null)
+        {
+            return;
+        }
+
+        reap();
+
+        // Evict from pinned
+        Iterator<Map.Entry<Object, CachedPC>> pinnedIter = pinnedCache.entrySet().iterator();
+        while (pinnedIter.hasNext())
+        {
+            Map.Entry<Object, CachedPC> entry = pinnedIter.next();
+            if (classMatches(pcClass, subclasses, entry.getValue().getObjectClass()))
+            {
+                removePinned(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Evict from unpinned (also dropping any collected entries we come across)
+        Iterator<Map.Entry<Object, Reference<CachedPC>>> unpinnedIter = unpinnedCache.entrySet().iterator();
+        while (unpinnedIter.hasNext())
+        {
+            Map.Entry<Object, Reference<CachedPC>> entry = unpinnedIter.next();
+            CachedPC pc = entry.getValue().get();
+            if (pc == null || classMatches(pcClass, subclasses, pc.getObjectClass()))
+            {
+                removeUnpinned(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        Iterator iter = oids.iterator();
+        while (iter.hasNext())
+        {
+            evict(iter.next());
+        }
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Object[] oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<oids.length;i++)
+        {
+            evict(oids[i]);
+        }
+    }
+
+    /**
+     * Method to pin an object to the cache.
+     * @param oid The id of the object to pin
+     */
+    public void pin(Object oid)
+    {
+        if (oid == null)
+        {
+            return;
+        }
+
+        // Add this oid to the to-be-pinned collection
+        pinnedIds.add(oid);
+
+        Reference<CachedPC> ref = unpinnedCache.get(oid);
+        if (ref != null)
+        {
+            CachedPC pc = ref.get();
+            if (pc != null)
+            {
+                putPinned(oid, pc);
+            }
+            removeUnpinned(oid, ref);
+        }
+    }
+
+    /**
+     * Method to pin all objects of the given types.
+     * @param cls The class
+     * @param subs Whether to include subclasses
+     */
+    public void pinAll(Class cls, boolean subs)
+    {
+        if (cls == null)
+        {
+            return;
+        }
+
+        // Check if it already exists as a pinned class
+        if (!pinnedClasses.add(new PinnedClass(cls, subs)))
+        {
+            return;
+        }
+
+        // Update all currently unpinned objects to comply with the new class specification
+        Iterator<Map.Entry<Object, Reference<CachedPC>>> unpinnedIter = unpinnedCache.entrySet().iterator();
+        while (unpinnedIter.hasNext())
+        {
+            Map.Entry<Object, Reference<CachedPC>> entry = unpinnedIter.next();
+            CachedPC pc = entry.getValue().get();
+            if (pc != null && classMatches(cls, subs, pc.getObjectClass()))
+            {
+                putPinned(entry.getKey(), pc);
+                removeUnpinned(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Method to pin all of the supplied objects
+     * @param oids The Object ids to pin
+     */
+    public void pinAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        Iterator iter = oids.iterator();
+        while (iter.hasNext())
+        {
+            pin(iter.next());
+        }
+    }
+
+    /**
+     * Method to pin all of the supplied objects
+     * @param oids The object ids to pin
+     */
+    public void pinAll(Object[] oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<oids.length;i++)
+        {
+            pin(oids[i]);
+        }
+    }
+
+    /**
+     * Method to unpin an object
+     * @param oid The object id
+     */
+    public void unpin(Object oid)
+    {
+        if (oid == null)
+        {
+            return;
+        }
+
+        // Remove this oid from the to-be-pinned collection
+        pinnedIds.remove(oid);
+
+        CachedPC pc = removePinned(oid, null);
+        if (pc != null)
+        {
+            putUnpinned(oid, pc);
+        }
+    }
+
+    /**
+     * Method to unpin all objects of the specified types.
+     * @param cls Base class
+     * @param subs Whether to include subclasses
+     */
+    public void unpinAll(Class cls, boolean subs)
+    {
+        if (cls == null)
+        {
+            return;
+        }
+
+        // Remove the class from the pinned collection
+        pinnedClasses.remove(new PinnedClass(cls, subs));
+
+        // Unpin all objects of this type currently pinned
+        Iterator<Map.Entry<Object, CachedPC>> pinnedIter = pinnedCache.entrySet().iterator();
+        while (pinnedIter.hasNext())
+        {
+            Map.Entry<Object, CachedPC> entry = pinnedIter.next();
+            CachedPC pc = entry.getValue();
+            if (classMatches(cls, subs, pc.getObjectClass()))
+            {
+                putUnpinned(entry.getKey(), pc);
+                removePinned(entry.getKey(), pc);
+            }
+        }
+    }
+
+    /**
+     * Method to unpin all of the supplied objects
+     * @param oids The object ids to unpin
+     */
+    public void unpinAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        Iterator iter = oids.iterator();
+        while (iter.hasNext())
+        {
+            unpin(iter.next());
+        }
+    }
+
+    /**
+     * Method to unpin all of the specified objects
+     * @param oids The object ids to unpin
+     */
+    public void unpinAll(Object[] oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<oids.length;i++)
+        {
+            unpin(oids[i]);
+        }
+    }
+
+    /**
+     * Accessor for an object from the cache.
+     * The returned object will not have a ObjectProvider connected. This is
+     * because data stored in the Level 2 cache is ObjectProvider and
+     * PersistenceManager independent.
+     * @param oid The Object ID
+     * @return The L2 cacheable object
+     */
+    public CachedPC get(Object oid)
+    {
+        if (oid == null)
+        {
+            return null;
+        }
+
+        CachedPC pc = pinnedCache.get(oid);
+        if (pc != null)
+        {
+            return pc;
+        }
+        Reference<CachedPC> ref = unpinnedCache.get(oid);
+        return (ref != null ? ref.get() : null);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.Level2Cache#getAll(java.util.Collection)
+     */
+    public Map<Object, CachedPC> getAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return null;
+        }
+        Map<Object, CachedPC> objs = new HashMap<Object, CachedPC>();
+        for (Object oid : oids)
+        {
+            CachedPC obj = get(oid);
+            if (obj != null)
+            {
+                objs.put(oid, obj);
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * Accessor for the number of pinned objects in the cache.
+     * @return Number of pinned objects
+     */
+    public int getNumberOfPinnedObjects()
+    {
+        return pinnedCache.size();
+    }
+
+    /**
+     * Accessor for the number of unpinned objects in the cache.
+     * @return Number of unpinned objects
+     */
+    public int getNumberOfUnpinnedObjects()
+    {
+        reap();
+        return unpinnedCache.size();
+    }
+
+    /**
+     * Accessor for the total number of objects in the L2 cache.
+     * @return Number of objects
+     */
+    public int getSize()
+    {
+        reap();
+        return numEntries.get();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.Level2Cache#putAll(java.util.Map)
+     */
+    public void putAll(Map<Object, CachedPC> objs)
+    {
+        if (objs == null)
+        {
+            return;
+        }
+
+        Iterator<Map.Entry<Object, CachedPC>> entryIter = objs.entrySet().iterator();
+        while (entryIter.hasNext())
+        {
+            Map.Entry<Object, CachedPC> entry = entryIter.next();
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Method to put an object in the cache. Note that the pc object being
+     * passed in must NOT have a ObjectProvider connected. Data stored in
+     * the Level 2 cache has to be independent of PersistenceManager and ObjectProvider.
+     * @param oid The Object id for this object
+     * @param pc The cacheable object
+     * @return The value previously associated with this oid
+     */
+    public CachedPC put(Object oid, CachedPC pc)
+    {
+        if (oid == null || pc == null)
+        {
+            NucleusLogger.CACHE.warn(LOCALISER.msg("004011"));
+            return null;
+        }
+
+        reap();
+        if (maxSize >= 0 && numEntries.get() >= maxSize && !containsOid(oid))
+        {
+            return null;
+        }
+
+        if (pinnedCache.containsKey(oid) || isToBePinned(oid, pc.getObjectClass()))
+        {
+            CachedPC previous = putPinned(oid, pc);
+            Reference<CachedPC> ref = removeUnpinned(oid, null); // Just in case it was unpinned previously
+            if (previous == null && ref != null)
+            {
+                previous = ref.get();
+            }
+            return previous;
+        }
+
+        Reference<CachedPC> ref = putUnpinned(oid, pc);
+        return (ref != null ? ref.get() : null);
+    }
+
+    /**
+     * Method to check if an object with the specified id is in the cache
+     * @param oid The object ID
+     * @return Whether it is present
+     */
+    public boolean containsOid(Object oid)
+    {
+        if (oid == null)
+        {
+            return false;
+        }
+        if (pinnedCache.containsKey(oid))
+        {
+            return true;
+        }
+        Reference<CachedPC> ref = unpinnedCache.get(oid);
+        return (ref != null && ref.get() != null);
+    }
+
+    /**
+     * Accessor for whether the cache is empty.
+     * @return Whether it is empty.
+     */
+    public boolean isEmpty()
+    {
+        reap();
+        return (pinnedCache.isEmpty() && unpinnedCache.isEmpty());
+    }
+
+    /**
+     * Convenience method to return whether an object of the specified id and class should be pinned
+     * when put into the cache.
+     * @param oid The id
+     * @param cls The class of the object
+     * @return Whether to pin it
+     */
+    protected boolean isToBePinned(Object oid, Class cls)
+    {
+        if (pinnedIds.contains(oid))
+        {
+            return true;
+        }
+        if (!pinnedClasses.isEmpty())
+        {
+            Iterator<PinnedClass> pinnedClsIter = pinnedClasses.iterator();
+            while (pinnedClsIter.hasNext())
+            {
+                PinnedClass pinCls = pinnedClsIter.next();
+                if (classMatches(pinCls.cls, pinCls.subclasses, cls))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convenience method to return whether the class of a cached object matches the specified class.
+     * @param cls The class being matched against
+     * @param subclasses Whether to match subclasses of the class
+     * @param objCls Class of the cached object
+     * @return Whether it matches
+     */
+    protected static boolean classMatches(Class cls, boolean subclasses, Class objCls)
+    {
+        return cls.getName().equals(objCls.getName()) || (subclasses && cls.isAssignableFrom(objCls));
+    }
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        // our "pseudo-constructor"
+        in.defaultReadObject();
+        unpinnedCache = new ConcurrentHashMap<Object, Reference<CachedPC>>();
+        reaped = new ReferenceQueue<CachedPC>();
+        numEntries = new AtomicInteger(pinnedCache.size());
+    }
+}
@@ -0,0 +1,62 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+
+import org.datanucleus.NucleusContext;
+
+/**
+ * Concurrent implementation of a Level 2 cache using soft references for unpinned objects.
+ * The unpinned objects may be garbage collected only if necessary by the JVM.
+ */
+public class ConcurrentSoftLevel2Cache extends ConcurrentLevel2Cache
+{
+    /**
+     * Constructor.
+     * @param nucleusCtx Context
+     */
+    public ConcurrentSoftLevel2Cache(NucleusContext nucleusCtx)
+    {
+        super(nucleusCtx);
+    }
+
+    protected Reference<CachedPC> newReference(Object oid, CachedPC pc, ReferenceQueue<CachedPC> queue)
+    {
+        return new SoftCachedPCReference(oid, pc, queue);
+    }
+
+    private static class SoftCachedPCReference extends SoftReference<CachedPC> implements CachedPCReference
+    {
+        private final Object oid;
+
+        SoftCachedPCReference(Object oid, CachedPC pc, ReferenceQueue<CachedPC> queue)
+        {
+            super(pc, queue);
+            this.oid = oid;
+        }
+
+        public Object getOid()
+        {
+            return oid;
+        }
+    }
+}
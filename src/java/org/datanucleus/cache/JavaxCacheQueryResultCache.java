@@ -17,6 +17,7 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.cache;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -207,6 +208,15 @@ public class JavaxCacheQueryResultCache implements QueryResultsCache
         return results;
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.cache.QueryResultsCache#put(java.lang.String, java.util.List, java.util.Collection)
+     */
+    public List<Object> put(String queryKey, List<Object> results, Collection<Class> dependentClasses)
+    {
+        // Eviction by class is not supported by this cache, so the dependencies aren't needed
+        return put(queryKey, results);
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#size()
      */
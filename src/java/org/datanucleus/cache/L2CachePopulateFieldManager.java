@@ -82,7 +82,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setBooleanFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -106,7 +106,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setCharFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -130,7 +130,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setByteFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -154,7 +154,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setShortFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -178,7 +178,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setIntFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -202,7 +202,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setLongFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -226,7 +226,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setFloatFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
@@ -250,7 +250,7 @@ public class L2CachePopulateFieldManager extends AbstractFieldManager
         }
 
         cachedPC.setLoadedField(fieldNumber, true);
-        cachedPC.setFieldValue(fieldNumber, value);
+        cachedPC.setDoubleFieldValue(fieldNumber, value);
     }
 
     /* (non-Javadoc)
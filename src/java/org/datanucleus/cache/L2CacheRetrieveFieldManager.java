@@ -85,7 +85,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public boolean fetchBooleanField(int fieldNumber)
     {
-        return (Boolean)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getBooleanFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -94,7 +94,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public byte fetchByteField(int fieldNumber)
     {
-        return (Byte)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getByteFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -103,7 +103,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public char fetchCharField(int fieldNumber)
     {
-        return (Character)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getCharFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -112,7 +112,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public double fetchDoubleField(int fieldNumber)
     {
-        return (Double)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getDoubleFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -121,7 +121,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public float fetchFloatField(int fieldNumber)
     {
-        return (Float)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getFloatFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -130,7 +130,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public int fetchIntField(int fieldNumber)
     {
-        return (Integer)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getIntFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -139,7 +139,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public long fetchLongField(int fieldNumber)
     {
-        return (Long)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getLongFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -148,7 +148,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
     @Override
     public short fetchShortField(int fieldNumber)
     {
-        return (Short)cachedPC.getFieldValue(fieldNumber);
+        return cachedPC.getShortFieldValue(fieldNumber);
     }
 
     /* (non-Javadoc)
@@ -322,7 +322,7 @@ public class L2CacheRetrieveFieldManager extends AbstractFieldManager
                                 CachedPC valueCachedPC = (CachedPC)value;
                                 AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(
                                     valueCachedPC.getObjectClass(), ec.getClassLoaderResolver());
-                                int[] fieldsToLoad = ClassUtils.getFlagsSetTo(valueCachedPC.getLoadedFields(), cmd.getAllMemberPositions(), true);
+                                int[] fieldsToLoad = ClassUtils.getFlagsSetTo(valueCachedPC.getLoadedFieldBits(), cmd.getAllMemberPositions(), true);
                                 ObjectProvider valueOP = ec.newObjectProviderForEmbedded(cmd, op, mmd.getAbsoluteFieldNumber());
                                 valueOP.replaceFields(fieldsToLoad, new L2CacheRetrieveFieldManager(valueOP, valueCachedPC));
                                 return valueOP.getObject();
@@ -0,0 +1,204 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Coordinator of the loading of objects from the datastore after a miss in the Level2 cache, so that when
+ * several ExecutionContexts miss on the same id at the same time only one of them goes to the datastore.
+ * The first to call <i>beginLoad</i> for an id becomes the owner of the load; it loads the object, puts
+ * it in the Level2 cache, and then calls <i>Load.complete</i> with the CachedPC. Any others calling
+ * <i>beginLoad</i> for that id in the meantime wait (up to the timeout) and then share the CachedPC.
+ * If the load fails or times out, the waiters get null and load the object themselves. If the owner knows that
+ * it won't put the object in the Level2 cache (e.g its cache store mode is "bypass", or the object is modified
+ * in its transaction) it calls <i>Load.completeNotCached</i> before loading, so the waiters load the object
+ * themselves straight away rather than waiting for a load that is of no use to them.
+ * <p>
+ * Each call to <i>beginLoad</i> returns its own Load, so ownership belongs to that caller rather than to its
+ * thread. A caller on the thread that owns an in-flight load (e.g a re-entrant find, or another ExecutionContext
+ * used by that thread) doesn't wait, since it would wait for itself, and loads the object independently.
+ * </p>
+ * <p>
+ * Only the load of an object by its id (i.e a find) is coordinated. The load of unloaded fields of an object
+ * already in the Level1 cache of several ExecutionContexts isn't, so each loads the fields from the datastore.
+ * </p>
+ */
+public class Level2CacheLoadCoordinator
+{
+    /** In-flight loads, keyed by the id of the object. */
+    private final ConcurrentMap<Object, InFlightLoad> loadsById = new ConcurrentHashMap<Object, InFlightLoad>();
+
+    /** Timeout (milliseconds) for waiting for the load by another thread. */
+    private final long timeout;
+
+    /**
+     * Constructor.
+     * @param timeout Timeout (milliseconds) for waiting for the load of an object by another thread
+     */
+    public Level2CacheLoadCoordinator(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Method to register the intent to load the object with the specified id. If nobody is loading
+     * this object then the returned Load is owned by the caller, which must call <i>complete</i> on it after
+     * loading the object (successfully or not). Otherwise the caller should call <i>await</i> on the
+     * returned Load to get the CachedPC loaded by the owner.
+     * @param id Identity of the object
+     * @return The load, for use by this caller only
+     */
+    public Load beginLoad(Object id)
+    {
+        InFlightLoad inFlight = new InFlightLoad(id);
+        InFlightLoad existing = loadsById.putIfAbsent(id, inFlight);
+        return (existing != null ? new Load(existing, false) : new Load(inFlight, true));
+    }
+
+    /**
+     * Accessor for the number of objects currently being loaded.
+     * @return The number of in-flight loads
+     */
+    public int getNumberOfLoads()
+    {
+        return loadsById.size();
+    }
+
+    /**
+     * Handle on the load of an object from the datastore, returned to a caller of <i>beginLoad</i>.
+     */
+    public class Load
+    {
+        private final InFlightLoad inFlight;
+
+        private final boolean owner;
+
+        Load(InFlightLoad inFlight, boolean owner)
+        {
+            this.inFlight = inFlight;
+            this.owner = owner;
+        }
+
+        /**
+         * Accessor for whether the caller that was given this Load owns the load, so has to load the object.
+         * @return Whether the caller is the owner
+         */
+        public boolean isOwner()
+        {
+            return owner;
+        }
+
+        /**
+         * Method to wait for the owner to complete the load.
+         * @return The CachedPC that was loaded, or null if the load failed, didn't complete within the timeout,
+         *     was completed as NOT_CACHED, or is owned by the calling thread
+         */
+        public CachedPC await()
+        {
+            if (owner || inFlight.ownerThread == Thread.currentThread())
+            {
+                // Would wait for ourselves, so load it independently
+                return null;
+            }
+
+            try
+            {
+                if (!inFlight.completed.await(timeout, TimeUnit.MILLISECONDS))
+                {
+                    if (NucleusLogger.CACHE.isDebugEnabled())
+                    {
+                        NucleusLogger.CACHE.debug("Timed out waiting for the load of object with id " + inFlight.id +
+                            " by another thread, so loading it independently");
+                    }
+                    return null;
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (inFlight.notCached && NucleusLogger.CACHE.isDebugEnabled())
+            {
+                NucleusLogger.CACHE.debug("Object with id " + inFlight.id +
+                    " is not being put in the Level2 cache by the thread loading it, so loading it independently");
+            }
+            return inFlight.cachedPC;
+        }
+
+        /**
+         * Method for the owner to complete the load, releasing any waiting threads. Does nothing when the
+         * caller isn't the owner.
+         * @param cachedPC The CachedPC put in the Level2 cache for the object (or null if not loaded/cached)
+         */
+        public void complete(CachedPC cachedPC)
+        {
+            if (!owner)
+            {
+                return;
+            }
+            inFlight.cachedPC = cachedPC;
+            loadsById.remove(inFlight.id, inFlight);
+            inFlight.completed.countDown();
+        }
+
+        /**
+         * Method for the owner to complete the load with the result NOT_CACHED, since it won't put the object
+         * in the Level2 cache, releasing any waiting threads to load it themselves. Does nothing when the caller
+         * isn't the owner.
+         */
+        public void completeNotCached()
+        {
+            if (!owner)
+            {
+                return;
+            }
+            inFlight.notCached = true;
+            complete(null);
+        }
+    }
+
+    /**
+     * Load of an object from the datastore that is in progress.
+     */
+    private static class InFlightLoad
+    {
+        final Object id;
+
+        /** Thread of the owner, to detect a caller that would wait for itself. */
+        final Thread ownerThread = Thread.currentThread();
+
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        volatile CachedPC cachedPC;
+
+        /** Whether the owner completed the load without putting the object in the Level2 cache. */
+        volatile boolean notCached;
+
+        InFlightLoad(Object id)
+        {
+            this.id = id;
+        }
+    }
+}
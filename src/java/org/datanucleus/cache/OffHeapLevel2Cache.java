@@ -0,0 +1,477 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Level 2 cache that stores the objects in serialised form outside of the Java heap.
+ * <p>
+ * Each CachedPC is converted to a compact binary form (see {@link CachedPCSerialiser}) and written into
+ * a "slab" (direct ByteBuffer) of size "datanucleus.cache.level2.offHeap.slabSize" bytes, with slabs
+ * allocated as required up to a total of "datanucleus.cache.level2.offHeap.maxMegabytes". Only a small
+ * location record per object is held on the heap, so a large cache adds very little to GC pause times.
+ * Each get() deserialises a new CachedPC from the stored bytes.
+ * </p>
+ * <p>
+ * Objects are written into the current slab sequentially. When all slabs are full the oldest slab is
+ * reused, evicting all objects written to it (FIFO eviction at slab granularity). Replacing an object
+ * leaves its old bytes in place until the slab is reused. Note that the JVM limits the total size of
+ * direct buffers, so "-XX:MaxDirectMemorySize" may need to be set to allow for the cache.
+ * </p>
+ * <p>
+ * Readers do not take any lock; each slab has a generation number that is incremented when it is reused,
+ * and a reader that finds the generation changed while it was reading treats the object as not cached
+ * (a seqlock, with the reader only doing volatile reads of the generation so readers don't contend).
+ * Pinning of objects is not supported.
+ * </p>
+ */
+public class OffHeapLevel2Cache extends AbstractLevel2Cache
+{
+    /** Location of each cached object, keyed by the id. */
+    private final ConcurrentMap<Object, Location> locations = new ConcurrentHashMap<Object, Location>();
+
+    /** The slabs, allocated as required. */
+    private final Slab[] slabs;
+
+    /** Size of each slab (bytes). */
+    private final int slabSize;
+
+    /** Index of the slab currently being written to. Guarded by writeLock. */
+    private int currentSlab = -1;
+
+    /** Lock used when writing to the slabs. */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final CachedPCSerialiser serialiser;
+
+    /**
+     * Constructor.
+     * @param nucleusCtx Context
+     */
+    public OffHeapLevel2Cache(NucleusContext nucleusCtx)
+    {
+        super(nucleusCtx);
+
+        Configuration conf = nucleusCtx.getConfiguration();
+        slabSize = conf.getIntProperty(PropertyNames.PROPERTY_CACHE_L2_OFFHEAP_SLABSIZE);
+        long maxBytes = conf.getIntProperty(PropertyNames.PROPERTY_CACHE_L2_OFFHEAP_MAXMEGABYTES) * 1024L * 1024L;
+        if (slabSize <= 0 || maxBytes < slabSize)
+        {
+            throw new NucleusException("Off-heap L2 cache requires slabSize > 0 and maxMegabytes of at least one slab (slabSize=" +
+                slabSize + ", maxBytes=" + maxBytes + ")").setFatal();
+        }
+        slabs = new Slab[(int)(maxBytes / slabSize)];
+        serialiser = new CachedPCSerialiser(nucleusCtx.getClassLoaderResolver(null));
+
+        if (NucleusLogger.CACHE.isDebugEnabled())
+        {
+            NucleusLogger.CACHE.debug("Off-heap L2 cache using up to " + slabs.length + " slabs of " + slabSize + " bytes");
+        }
+    }
+
+    /**
+     * Method to close the cache when no longer needed. Provides a hook to release resources etc.
+     */
+    public void close()
+    {
+        if (clearAtClose)
+        {
+            evictAll();
+        }
+    }
+
+    /**
+     * Accessor for an object from the cache. Returns a new CachedPC deserialised from the stored form.
+     * @param oid The Object ID
+     * @return The L2 cacheable object
+     */
+    public CachedPC get(Object oid)
+    {
+        if (oid == null)
+        {
+            return null;
+        }
+
+        Location loc = locations.get(oid);
+        if (loc == null)
+        {
+            return null;
+        }
+
+        Slab slab = slabs[loc.slabIndex];
+        if (slab.generation != loc.generation)
+        {
+            // Slab has been reused since this object was written
+            locations.remove(oid, loc);
+            return null;
+        }
+        byte[] bytes = new byte[loc.length];
+        ByteBuffer buf = slab.buffer.duplicate();
+        buf.position(loc.offset);
+        buf.get(bytes);
+
+        // Check the slab wasn't reused while we were reading
+        if (slab.generation != loc.generation)
+        {
+            locations.remove(oid, loc);
+            return null;
+        }
+
+        try
+        {
+            return serialiser.deserialise(bytes);
+        }
+        catch (NucleusException ne)
+        {
+            // Stored form is not readable (e.g. class changed), so treat as not cached
+            NucleusLogger.CACHE.debug("Object with id " + oid + " not retrieved from cache since unable to deserialise : " +
+                ne.getMessage());
+            locations.remove(oid, loc);
+            return null;
+        }
+    }
+
+    /**
+     * Method to put an object in the cache. The object is serialised, so changes to it after this call
+     * are not reflected in the cache.
+     * @param oid The Object id for this object
+     * @param pc The L2 cacheable persistable object
+     * @return Always returns null since the previous value isn't deserialised
+     */
+    public CachedPC put(Object oid, CachedPC pc)
+    {
+        if (oid == null || pc == null)
+        {
+            NucleusLogger.CACHE.warn(LOCALISER.msg("004011"));
+            return null;
+        }
+
+        byte[] bytes;
+        try
+        {
+            bytes = serialiser.serialise(pc);
+        }
+        catch (RuntimeException re)
+        {
+            // Not cached due to some problem. Not serializable?
+            NucleusLogger.CACHE.info("Object with id " + oid +" not cached due to : " + re.getMessage());
+            return null;
+        }
+        if (bytes.length > slabSize)
+        {
+            NucleusLogger.CACHE.debug("Object with id " + oid + " not cached since its serialised size (" + bytes.length +
+                ") is larger than the slab size");
+            locations.remove(oid);
+            return null;
+        }
+
+        writeLock.lock();
+        try
+        {
+            Slab slab = (currentSlab >= 0 ? slabs[currentSlab] : null);
+            if (slab == null || slab.position + bytes.length > slabSize)
+            {
+                slab = nextSlab();
+            }
+
+            ByteBuffer buf = slab.buffer.duplicate();
+            buf.position(slab.position);
+            buf.put(bytes);
+            Location loc = new Location(currentSlab, slab.generation, slab.position, bytes.length,
+                serialiser.getIndexForClass(pc.getObjectClass()));
+            slab.position += bytes.length;
+            slab.oids.add(oid);
+            locations.put(oid, loc);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+        return null;
+    }
+
+    /**
+     * Method to move on to the next slab for writing, allocating it if not yet allocated, otherwise
+     * evicting all objects that were written to it. Must be called holding the writeLock.
+     * @return The slab
+     */
+    private Slab nextSlab()
+    {
+        currentSlab = (currentSlab + 1) % slabs.length;
+        Slab slab = slabs[currentSlab];
+        if (slab == null)
+        {
+            slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+            slabs[currentSlab] = slab;
+        }
+        else
+        {
+            // Reuse the slab, so evict whatever is in it. Incremented (a volatile write) before the buffer is
+            // written so that readers of the objects in it see the change
+            int generation = slab.generation++;
+            Iterator oidIter = slab.oids.iterator();
+            while (oidIter.hasNext())
+            {
+                Object oid = oidIter.next();
+                Location loc = locations.get(oid);
+                if (loc != null && loc.slabIndex == currentSlab && loc.generation == generation)
+                {
+                    locations.remove(oid, loc);
+                }
+            }
+            slab.oids.clear();
+            slab.position = 0;
+        }
+        return slab;
+    }
+
+    /**
+     * Accessor for whether an object with the specified id is in the cache
+     * @param oid The object id
+     * @return Whether it is in the cache
+     */
+    public boolean containsOid(Object oid)
+    {
+        if (oid == null)
+        {
+            return false;
+        }
+        Location loc = locations.get(oid);
+        return (loc != null && slabs[loc.slabIndex].generation == loc.generation);
+    }
+
+    /**
+     * Accessor for the total number of objects in the L2 cache.
+     * @return Number of objects
+     */
+    public int getSize()
+    {
+        return locations.size();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getNumberOfPinnedObjects()
+     */
+    public int getNumberOfPinnedObjects()
+    {
+        return 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getNumberOfUnpinnedObjects()
+     */
+    public int getNumberOfUnpinnedObjects()
+    {
+        return getSize();
+    }
+
+    /**
+     * Accessor for the number of bytes of off-heap memory allocated by the cache.
+     * @return The number of bytes
+     */
+    public long getAllocatedBytes()
+    {
+        long bytes = 0;
+        for (int i=0;i<slabs.length;i++)
+        {
+            if (slabs[i] != null)
+            {
+                bytes += slabSize;
+            }
+        }
+        return bytes;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getAll(java.util.Collection)
+     */
+    public Map<Object, CachedPC> getAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return null;
+        }
+        Map<Object, CachedPC> objs = new HashMap<Object, CachedPC>();
+        for (Object oid : oids)
+        {
+            CachedPC obj = get(oid);
+            if (obj != null)
+            {
+                objs.put(oid, obj);
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * Method to evict an object from the cache. The space it occupies is reclaimed when its slab is reused.
+     * @param oid The id of the object to evict
+     */
+    public void evict(Object oid)
+    {
+        if (oid == null)
+        {
+            return;
+        }
+        locations.remove(oid);
+    }
+
+    /**
+     * Method to evict all objects from the L2 cache. The slabs are retained for reuse.
+     */
+    public void evictAll()
+    {
+        writeLock.lock();
+        try
+        {
+            locations.clear();
+            for (int i=0;i<slabs.length;i++)
+            {
+                if (slabs[i] != null)
+                {
+                    slabs[i].generation++;
+                    slabs[i].oids.clear();
+                    slabs[i].position = 0;
+                }
+            }
+            currentSlab = (slabs[0] != null ? 0 : -1);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Object[] oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<oids.length;i++)
+        {
+            evict(oids[i]);
+        }
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        Iterator iter = oids.iterator();
+        while (iter.hasNext())
+        {
+            evict(iter.next());
+        }
+    }
+
+    /**
+     * Method to evict all objects of the given types from the cache.
+     * @param pcClass The class to evict
+     * @param subclasses Whether to also evict subclasses
+     */
+    public void evictAll(Class pcClass, boolean subclasses)
+    {
+        if (pcClass == null)
+        {
+            return;
+        }
+
+        Iterator<Location> locIter = locations.values().iterator();
+        while (locIter.hasNext())
+        {
+            Class objCls = serialiser.getClassForIndex(locIter.next().classIndex);
+            if (pcClass.getName().equals(objCls.getName()) || (subclasses && pcClass.isAssignableFrom(objCls)))
+            {
+                locIter.remove();
+            }
+        }
+    }
+
+    /**
+     * Location of a serialised object.
+     */
+    private static class Location
+    {
+        final int slabIndex;
+        final int generation;
+        final int offset;
+        final int length;
+        final int classIndex;
+
+        Location(int slabIndex, int generation, int offset, int length, int classIndex)
+        {
+            this.slabIndex = slabIndex;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+            this.classIndex = classIndex;
+        }
+    }
+
+    /**
+     * Slab of off-heap memory that objects are written to.
+     */
+    private static class Slab
+    {
+        final ByteBuffer buffer;
+
+        /** Incremented each time the slab is reused. Only updated holding writeLock. */
+        volatile int generation;
+
+        /** Position to write the next object at. Guarded by writeLock. */
+        int position;
+
+        /** Ids of the objects written to this slab. Guarded by writeLock. */
+        final List<Object> oids = new ArrayList<Object>();
+
+        Slab(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+}
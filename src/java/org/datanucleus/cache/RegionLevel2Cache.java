@@ -0,0 +1,484 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Level 2 cache partitioned into a region per persistable class.
+ * <p>
+ * Each region is a {@link BoundedCacheRegion}, with its own size limit and expiry, so objects of a class
+ * that is read frequently (e.g reference data) can't be evicted by churn of objects of other classes.
+ * An index of id to region is maintained so that get/evict find the region directly, and
+ * evictAll(Class, boolean) only has to process the regions of the class (and subclasses), rather than
+ * every object in the cache.
+ * </p>
+ * <p>
+ * The size limit and timeout of a region default to "datanucleus.cache.level2.maxSize" and
+ * "datanucleus.cache.level2.timeout", and can be overridden for a class using the metadata extensions
+ * "cache-max-size" and "cache-timeout" (millisecs) respectively. Pinning of objects is not supported.
+ * </p>
+ * <p>
+ * "datanucleus.cache.level2.maxSize" also limits the total number of objects across all regions. When a put
+ * takes the total over this limit, the least-recently-used object of the largest region is evicted. The regions
+ * share a single frequency sketch, sized for this total.
+ * </p>
+ */
+public class RegionLevel2Cache extends AbstractLevel2Cache
+{
+    /** Metadata extension for the maximum number of objects of a class to cache. */
+    public static final String EXTENSION_CACHE_MAX_SIZE = "cache-max-size";
+
+    /** Metadata extension for the timeout (millisecs) for objects of a class. */
+    public static final String EXTENSION_CACHE_TIMEOUT = "cache-timeout";
+
+    /** Regions of the cache, keyed by the class name. */
+    private transient ConcurrentMap<String, ClassRegion> regions;
+
+    /** Region that each cached object is in, keyed by the id. */
+    private transient ConcurrentMap<Object, BoundedCacheRegion> regionByOid;
+
+    /** Estimate of the access frequency of the ids, shared by all regions. */
+    private transient BoundedCacheRegion.FrequencySketch sketch;
+
+    /** Number of objects held across all regions. */
+    private transient AtomicInteger totalSize;
+
+    /**
+     * Constructor.
+     * @param nucleusCtx Context
+     */
+    public RegionLevel2Cache(NucleusContext nucleusCtx)
+    {
+        super(nucleusCtx);
+
+        if (maxSize <= 0)
+        {
+            NucleusLogger.CACHE.info("No 'datanucleus.cache.level2.maxSize' specified so using size of " +
+                BoundedLevel2Cache.DEFAULT_MAX_SIZE + " for each class region");
+            maxSize = BoundedLevel2Cache.DEFAULT_MAX_SIZE;
+        }
+        regions = new ConcurrentHashMap<String, ClassRegion>();
+        regionByOid = new ConcurrentHashMap<Object, BoundedCacheRegion>();
+        sketch = new BoundedCacheRegion.FrequencySketch(maxSize);
+        totalSize = new AtomicInteger();
+    }
+
+    /**
+     * Accessor for the region for the specified class, creating it if not yet present.
+     * @param cls The class
+     * @return The region
+     */
+    private BoundedCacheRegion getRegion(Class cls)
+    {
+        ClassRegion region = regions.get(cls.getName());
+        if (region == null)
+        {
+            ClassRegion newRegion = createRegion(cls);
+            region = regions.putIfAbsent(cls.getName(), newRegion);
+            if (region == null)
+            {
+                region = newRegion;
+                if (NucleusLogger.CACHE.isDebugEnabled())
+                {
+                    NucleusLogger.CACHE.debug("Level 2 cache region created for class " + cls.getName() +
+                        " with maxSize=" + region.getMaxSize() + " timeout=" + region.getTimeout());
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Method to create the region for a class, taking the size limit and timeout from the class metadata
+     * extensions where specified.
+     * @param cls The class
+     * @return The region
+     */
+    private ClassRegion createRegion(final Class cls)
+    {
+        int regionMaxSize = maxSize;
+        long regionTimeout = timeout;
+
+        AbstractClassMetaData cmd = getMetaDataForClass(cls);
+        if (cmd != null)
+        {
+            try
+            {
+                if (cmd.hasExtension(EXTENSION_CACHE_MAX_SIZE))
+                {
+                    regionMaxSize = Integer.parseInt(cmd.getValueForExtension(EXTENSION_CACHE_MAX_SIZE));
+                }
+                if (cmd.hasExtension(EXTENSION_CACHE_TIMEOUT))
+                {
+                    regionTimeout = Long.parseLong(cmd.getValueForExtension(EXTENSION_CACHE_TIMEOUT));
+                }
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new NucleusException("Class " + cls.getName() + " has invalid value for extension \"" +
+                    EXTENSION_CACHE_MAX_SIZE + "\" or \"" + EXTENSION_CACHE_TIMEOUT + "\"", nfe);
+            }
+        }
+
+        return new ClassRegion(cls, regionMaxSize, regionTimeout, new BoundedCacheRegion.RemovalListener()
+        {
+            public void removed(Object oid)
+            {
+                BoundedCacheRegion region = regions.get(cls.getName());
+                if (region != null)
+                {
+                    regionByOid.remove(oid, region);
+                }
+            }
+        }, sketch, totalSize);
+    }
+
+    /**
+     * Method to evict objects from the largest regions until the total number of objects is within maxSize.
+     */
+    private void enforceTotalSize()
+    {
+        while (totalSize.get() > maxSize)
+        {
+            ClassRegion largest = null;
+            int largestSize = 0;
+            Iterator<ClassRegion> regionIter = regions.values().iterator();
+            while (regionIter.hasNext())
+            {
+                ClassRegion region = regionIter.next();
+                int regionSize = region.getSize();
+                if (regionSize > largestSize)
+                {
+                    largest = region;
+                    largestSize = regionSize;
+                }
+            }
+            if (largest == null || !largest.evictOne())
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Accessor for the metadata for the class of objects being cached.
+     * @param cls The class
+     * @return The metadata (if any)
+     */
+    protected AbstractClassMetaData getMetaDataForClass(Class cls)
+    {
+        ClassLoaderResolver clr = nucleusCtx.getClassLoaderResolver(cls.getClassLoader());
+        return nucleusCtx.getMetaDataManager().getMetaDataForClass(cls, clr);
+    }
+
+    /**
+     * Region for the objects of a particular class.
+     */
+    private static class ClassRegion extends BoundedCacheRegion
+    {
+        final Class cls;
+
+        ClassRegion(Class cls, int maxSize, long timeout, RemovalListener listener, FrequencySketch sketch,
+                AtomicInteger totalSize)
+        {
+            super(maxSize, timeout, listener, sketch, totalSize);
+            this.cls = cls;
+        }
+    }
+
+    /**
+     * Method to close the cache when no longer needed. Provides a hook to release resources etc.
+     */
+    public void close()
+    {
+        if (clearAtClose)
+        {
+            evictAll();
+        }
+    }
+
+    /**
+     * Accessor for an object from the cache.
+     * @param oid The Object ID
+     * @return The L2 cacheable object
+     */
+    public CachedPC get(Object oid)
+    {
+        if (oid == null)
+        {
+            return null;
+        }
+        BoundedCacheRegion region = regionByOid.get(oid);
+        return (region != null ? region.get(oid) : null);
+    }
+
+    /**
+     * Method to put an object in the cache.
+     * @param oid The Object id for this object
+     * @param pc The L2 cacheable persistable object
+     * @return The value previously associated with this oid
+     */
+    public CachedPC put(Object oid, CachedPC pc)
+    {
+        if (oid == null || pc == null)
+        {
+            NucleusLogger.CACHE.warn(LOCALISER.msg("004011"));
+            return null;
+        }
+
+        BoundedCacheRegion region = getRegion(pc.getObjectClass());
+        BoundedCacheRegion previousRegion = regionByOid.put(oid, region);
+        CachedPC previous = null;
+        if (previousRegion != null && previousRegion != region)
+        {
+            // Object previously cached as a different class
+            previous = previousRegion.get(oid);
+            previousRegion.remove(oid);
+        }
+        CachedPC replaced = region.put(oid, pc);
+        enforceTotalSize();
+        return (replaced != null ? replaced : previous);
+    }
+
+    /**
+     * Accessor for whether an object with the specified id is in the cache
+     * @param oid The object id
+     * @return Whether it is in the cache
+     */
+    public boolean containsOid(Object oid)
+    {
+        if (oid == null)
+        {
+            return false;
+        }
+        BoundedCacheRegion region = regionByOid.get(oid);
+        return (region != null && region.containsOid(oid));
+    }
+
+    /**
+     * Accessor for the total number of objects in the L2 cache.
+     * @return Number of objects
+     */
+    public int getSize()
+    {
+        int size = 0;
+        Iterator<ClassRegion> regionIter = regions.values().iterator();
+        while (regionIter.hasNext())
+        {
+            size += regionIter.next().getSize();
+        }
+        return size;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getNumberOfPinnedObjects()
+     */
+    public int getNumberOfPinnedObjects()
+    {
+        return 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getNumberOfUnpinnedObjects()
+     */
+    public int getNumberOfUnpinnedObjects()
+    {
+        return getSize();
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.cache.AbstractLevel2Cache#getAll(java.util.Collection)
+     */
+    public Map<Object, CachedPC> getAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return null;
+        }
+        Map<Object, CachedPC> objs = new HashMap<Object, CachedPC>();
+        for (Object oid : oids)
+        {
+            CachedPC obj = get(oid);
+            if (obj != null)
+            {
+                objs.put(oid, obj);
+            }
+        }
+        return objs;
+    }
+
+    /**
+     * Method to evict an object from the cache.
+     * @param oid The id of the object to evict
+     */
+    public void evict(Object oid)
+    {
+        if (oid == null)
+        {
+            return;
+        }
+        BoundedCacheRegion region = regionByOid.remove(oid);
+        if (region != null)
+        {
+            region.remove(oid);
+        }
+    }
+
+    /**
+     * Method to evict all objects from the L2 cache.
+     */
+    public void evictAll()
+    {
+        Iterator<ClassRegion> regionIter = regions.values().iterator();
+        while (regionIter.hasNext())
+        {
+            regionIter.next().clear();
+        }
+        regionByOid.clear();
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Object[] oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        for (int i=0;i<oids.length;i++)
+        {
+            evict(oids[i]);
+        }
+    }
+
+    /**
+     * Method to evict the objects with the specified ids.
+     * @param oids The ids of the objects to evict
+     */
+    public void evictAll(Collection oids)
+    {
+        if (oids == null)
+        {
+            return;
+        }
+
+        Iterator iter = oids.iterator();
+        while (iter.hasNext())
+        {
+            evict(iter.next());
+        }
+    }
+
+    /**
+     * Method to evict all objects of the given types from the cache.
+     * Only processes the region(s) of the specified class (and subclasses when required).
+     * @param pcClass The class to evict
+     * @param subclasses Whether to also evict subclasses
+     */
+    public void evictAll(Class pcClass, boolean subclasses)
+    {
+        if (pcClass == null)
+        {
+            return;
+        }
+
+        if (!subclasses)
+        {
+            evictRegion(regions.get(pcClass.getName()));
+            return;
+        }
+
+        Iterator<ClassRegion> regionIter = regions.values().iterator();
+        while (regionIter.hasNext())
+        {
+            ClassRegion region = regionIter.next();
+            if (region.cls.getName().equals(pcClass.getName()) || pcClass.isAssignableFrom(region.cls))
+            {
+                evictRegion(region);
+            }
+        }
+    }
+
+    /**
+     * Method to remove all objects from the specified region.
+     * @param region The region
+     */
+    private void evictRegion(BoundedCacheRegion region)
+    {
+        if (region == null)
+        {
+            return;
+        }
+        Iterator oidIter = region.getOids().iterator();
+        while (oidIter.hasNext())
+        {
+            regionByOid.remove(oidIter.next(), region);
+        }
+        region.clear();
+    }
+
+    /**
+     * Accessor for the classes that have a region in this cache.
+     * @return Names of the classes
+     */
+    public Collection<String> getRegionClassNames()
+    {
+        return regions.keySet();
+    }
+
+    /**
+     * Accessor for the number of objects cached for the specified class (excluding subclasses).
+     * @param className Name of the class
+     * @return The number of objects
+     */
+    public int getSize(String className)
+    {
+        BoundedCacheRegion region = regions.get(className);
+        return (region != null ? region.getSize() : 0);
+    }
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        // our "pseudo-constructor"
+        in.defaultReadObject();
+        regions = new ConcurrentHashMap<String, ClassRegion>();
+        regionByOid = new ConcurrentHashMap<Object, BoundedCacheRegion>();
+        sketch = new BoundedCacheRegion.FrequencySketch(maxSize);
+        totalSize = new AtomicInteger();
+    }
+}
@@ -60,6 +60,7 @@ public class EnhancementNucleusContextImpl extends AbstractNucleusContext
             classLoaderResolverMap.clear();
             classLoaderResolverMap = null;
         }
+        defaultClassLoaderResolver = null;
         if (typeManager != null)
         {
             typeManager = null;
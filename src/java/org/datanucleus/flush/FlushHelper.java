@@ -0,0 +1,353 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.flush;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusOptimisticException;
+import org.datanucleus.state.ObjectProvider;
+
+/**
+ * Helper for flush processes, providing the flush of updated objects in batches. The updated objects of the
+ * same class with the same dirty fields are passed to <i>StorePersistenceHandler.updateObjects</i> together,
+ * when the StoreManager has the supported option "BulkUpdate".
+ */
+public class FlushHelper
+{
+    /** Supported option of a StoreManager whose persistence handler can update objects in bulk. */
+    public static final String OPTION_BULK_UPDATE = "BulkUpdate";
+
+    private FlushHelper()
+    {
+    }
+
+    /**
+     * Convenience method to return whether the StoreManager of the ExecutionContext supports bulk updates.
+     * @param ec ExecutionContext
+     * @return Whether updates should be passed to the persistence handler in batches
+     */
+    public static boolean supportsBulkUpdate(ExecutionContext ec)
+    {
+        return ec.getStoreManager().getSupportedOptions().contains(OPTION_BULK_UPDATE);
+    }
+
+    /**
+     * Method to flush the passed ObjectProviders, where the (updated) objects of the same class with the same
+     * dirty fields are updated in one batch, regardless of their position. Any ObjectProvider that can't be
+     * updated in a batch is flushed by itself, as it is reached. As with the grouped inserts and deletes of
+     * <i>FlushNonReferential</i>, the pre-store callbacks of all of the updated objects are run before any of
+     * the batches is written, and the post-store callbacks after their batch is written.
+     * @param ec ExecutionContext
+     * @param ops The ObjectProviders to flush
+     * @param optimisticFailures Optimistic verification exceptions so far (or null)
+     * @return The optimistic verification exceptions (or null if none)
+     */
+    public static List<NucleusOptimisticException> flushUpdatesGrouped(ExecutionContext ec,
+        Collection<ObjectProvider> ops, List<NucleusOptimisticException> optimisticFailures)
+    {
+        Map<UpdateBatchKey, List<ObjectProvider>> batches = new LinkedHashMap<UpdateBatchKey, List<ObjectProvider>>();
+        try
+        {
+            for (ObjectProvider op : ops)
+            {
+                int[] fieldNumbers = null;
+                try
+                {
+                    fieldNumbers = op.prepareFlushUpdate();
+                    if (fieldNumbers == null)
+                    {
+                        op.flush();
+                        continue;
+                    }
+                }
+                catch (NucleusOptimisticException oe)
+                {
+                    optimisticFailures = addFailure(optimisticFailures, oe);
+                    continue;
+                }
+
+                UpdateBatchKey key = new UpdateBatchKey(op.getObject().getClass(), fieldNumbers);
+                List<ObjectProvider> batch = batches.get(key);
+                if (batch == null)
+                {
+                    batch = new ArrayList<ObjectProvider>();
+                    batches.put(key, batch);
+                }
+                batch.add(op);
+            }
+
+            Iterator<Map.Entry<UpdateBatchKey, List<ObjectProvider>>> batchIter = batches.entrySet().iterator();
+            while (batchIter.hasNext())
+            {
+                Map.Entry<UpdateBatchKey, List<ObjectProvider>> entry = batchIter.next();
+                batchIter.remove();
+                optimisticFailures = updateBatch(ec, entry.getValue(), entry.getKey().fieldNumbers,
+                    optimisticFailures, null);
+            }
+        }
+        catch (RuntimeException re)
+        {
+            // Don't leave any prepared ObjectProviders flushing
+            for (List<ObjectProvider> batch : batches.values())
+            {
+                abandonBatch(batch);
+            }
+            throw re;
+        }
+        return optimisticFailures;
+    }
+
+    /**
+     * Method to flush the passed ObjectProviders in the order provided, where consecutive (updated) objects
+     * of the same class with the same dirty fields are updated in one batch. This maintains the order of the
+     * changes in the datastore, for datastores using referential integrity.
+     * <p>
+     * The pre-store callbacks of the objects in a batch are run before the batch is written. The pending batch
+     * is written before the pre-store callbacks of an object that won't be in it, so those callbacks see the
+     * earlier objects written as they would without batching. An object that has the dirty fields of the batch
+     * before its callbacks only ends the batch after its callbacks if they dirty other fields.
+     * </p>
+     * @param ec ExecutionContext
+     * @param ops The ObjectProviders to flush
+     * @param optimisticFailures Optimistic verification exceptions so far (or null)
+     * @param flushedClasses Set to add the classes of the objects flushed successfully to (or null)
+     * @return The optimistic verification exceptions (or null if none)
+     */
+    public static List<NucleusOptimisticException> flushUpdatesOrdered(ExecutionContext ec,
+        ObjectProvider[] ops, List<NucleusOptimisticException> optimisticFailures, Set<Class> flushedClasses)
+    {
+        List<ObjectProvider> batch = new ArrayList<ObjectProvider>();
+        UpdateBatchKey batchKey = null;
+        for (int i=0;i<ops.length;i++)
+        {
+            ObjectProvider op = ops[i];
+            if (batchKey != null)
+            {
+                int[] dirtyFieldNumbers = op.getDirtyFieldNumbers();
+                if (dirtyFieldNumbers == null ||
+                    !batchKey.equals(new UpdateBatchKey(op.getObject().getClass(), dirtyFieldNumbers)))
+                {
+                    // Won't be in the run of similar updates, so update them before running its callbacks
+                    List<ObjectProvider> runOps = new ArrayList<ObjectProvider>(batch);
+                    int[] runFieldNumbers = batchKey.fieldNumbers;
+                    batch.clear();
+                    batchKey = null;
+                    optimisticFailures = updateBatch(ec, runOps, runFieldNumbers, optimisticFailures,
+                        flushedClasses);
+                }
+            }
+
+            int[] fieldNumbers = null;
+            try
+            {
+                fieldNumbers = op.prepareFlushUpdate();
+            }
+            catch (NucleusOptimisticException oe)
+            {
+                optimisticFailures = addFailure(optimisticFailures, oe);
+                continue;
+            }
+            catch (RuntimeException re)
+            {
+                abandonBatch(batch);
+                throw re;
+            }
+
+            UpdateBatchKey key = (fieldNumbers != null ? new UpdateBatchKey(op.getObject().getClass(), fieldNumbers) : null);
+            if (batchKey != null && !batchKey.equals(key))
+            {
+                // Callbacks changed the dirty fields so end of the run of similar updates; update them before this
+                List<ObjectProvider> runOps = new ArrayList<ObjectProvider>(batch);
+                int[] runFieldNumbers = batchKey.fieldNumbers;
+                batch.clear();
+                batchKey = null;
+                try
+                {
+                    optimisticFailures = updateBatch(ec, runOps, runFieldNumbers, optimisticFailures,
+                        flushedClasses);
+                }
+                catch (RuntimeException re)
+                {
+                    if (key != null)
+                    {
+                        op.completeFlushUpdate(false);
+                    }
+                    throw re;
+                }
+            }
+
+            if (key != null)
+            {
+                batch.add(op);
+                batchKey = key;
+            }
+            else
+            {
+                try
+                {
+                    op.flush();
+                    if (flushedClasses != null)
+                    {
+                        flushedClasses.add(op.getObject().getClass());
+                    }
+                }
+                catch (NucleusOptimisticException oe)
+                {
+                    optimisticFailures = addFailure(optimisticFailures, oe);
+                }
+            }
+        }
+        if (batchKey != null)
+        {
+            optimisticFailures = updateBatch(ec, batch, batchKey.fieldNumbers, optimisticFailures,
+                flushedClasses);
+        }
+        return optimisticFailures;
+    }
+
+    /**
+     * Method to update a batch of prepared ObjectProviders in the datastore, and complete their flush.
+     * The ObjectProviders whose objects failed optimistic verification are not marked as flushed.
+     * @param ec ExecutionContext
+     * @param ops ObjectProviders of the batch, all of the same class with the same dirty fields
+     * @param fieldNumbers The dirty fields
+     * @param optimisticFailures Optimistic verification exceptions so far (or null)
+     * @param flushedClasses Set to add the classes of the objects updated successfully to (or null)
+     * @return The optimistic verification exceptions (or null if none)
+     */
+    private static List<NucleusOptimisticException> updateBatch(ExecutionContext ec,
+        List<ObjectProvider> ops, int[] fieldNumbers, List<NucleusOptimisticException> optimisticFailures,
+        Set<Class> flushedClasses)
+    {
+        Set<Object> failedObjects = null;
+        boolean allFailed = false;
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            ec.getStoreManager().getPersistenceHandler().updateObjects(ops.toArray(new ObjectProvider[ops.size()]), fieldNumbers);
+            if (ec.getStatistics() != null)
+            {
+                ec.getStatistics().datastoreWriteExecuted(System.currentTimeMillis()-startTime);
+            }
+        }
+        catch (NucleusOptimisticException noe)
+        {
+            failedObjects = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            Throwable[] nestedExcs = noe.getNestedExceptions();
+            if (nestedExcs != null && nestedExcs.length > 1)
+            {
+                for (int i=0;i<nestedExcs.length;i++)
+                {
+                    NucleusOptimisticException nested = (NucleusOptimisticException)nestedExcs[i];
+                    optimisticFailures = addFailure(optimisticFailures, nested);
+                    allFailed |= (nested.getFailedObject() == null);
+                    failedObjects.add(nested.getFailedObject());
+                }
+            }
+            else
+            {
+                optimisticFailures = addFailure(optimisticFailures, noe);
+                allFailed = (noe.getFailedObject() == null);
+                failedObjects.add(noe.getFailedObject());
+            }
+        }
+        catch (RuntimeException re)
+        {
+            abandonBatch(ops);
+            throw re;
+        }
+
+        for (ObjectProvider op : ops)
+        {
+            boolean failed = allFailed || (failedObjects != null && failedObjects.contains(op.getObject()));
+            op.completeFlushUpdate(!failed);
+            if (!failed && flushedClasses != null)
+            {
+                flushedClasses.add(op.getObject().getClass());
+            }
+        }
+        return optimisticFailures;
+    }
+
+    /**
+     * Method to complete the flush of a batch of prepared ObjectProviders that won't be updated.
+     * @param ops ObjectProviders of the batch
+     */
+    private static void abandonBatch(List<ObjectProvider> ops)
+    {
+        for (ObjectProvider op : ops)
+        {
+            op.completeFlushUpdate(false);
+        }
+    }
+
+    private static List<NucleusOptimisticException> addFailure(List<NucleusOptimisticException> optimisticFailures,
+        NucleusOptimisticException oe)
+    {
+        if (optimisticFailures == null)
+        {
+            optimisticFailures = new ArrayList<NucleusOptimisticException>();
+        }
+        optimisticFailures.add(oe);
+        return optimisticFailures;
+    }
+
+    /**
+     * Key of a batch of updates, being the class of the objects and the numbers of their dirty fields.
+     */
+    private static class UpdateBatchKey
+    {
+        final Class cls;
+        final int[] fieldNumbers;
+
+        UpdateBatchKey(Class cls, int[] fieldNumbers)
+        {
+            this.cls = cls;
+            this.fieldNumbers = fieldNumbers;
+        }
+
+        public int hashCode()
+        {
+            return cls.hashCode() ^ Arrays.hashCode(fieldNumbers);
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (obj == this)
+            {
+                return true;
+            }
+            if (!(obj instanceof UpdateBatchKey))
+            {
+                return false;
+            }
+            UpdateBatchKey other = (UpdateBatchKey)obj;
+            return cls == other.cls && Arrays.equals(fieldNumbers, other.fieldNumbers);
+        }
+    }
+}
@@ -62,7 +62,8 @@ public class FlushNonReferential implements FlushProcess
     /**
      * Method that does the flushing of the passed ObjectProviders, grouping them into all DELETEs, then all INSERTs,
      * finally all UPDATEs. The StorePersistenceHandler will get calls to <i>deleteObjects</i>, <i>insertObjects</i>
-     * and <i>updateObject</i> (for each other one). Note that this is in a separate method to allow calls by
+     * and <i>updateObject</i> (for each other one, or <i>updateObjects</i> for each group of the same class with
+     * the same dirty fields when the datastore supports bulk updates). Note that this is in a separate method to allow calls by
      * other FlushProcesses that want to take advantage of the basic flush method without 
      * @param opsToFlush The ObjectProviders to process
      * @param ec ExecutionContext
@@ -136,7 +137,12 @@ public class FlushNonReferential implements FlushProcess
             }
             try
             {
+                long startTime = System.currentTimeMillis();
                 persistenceHandler.deleteObjects(opsToDelete.toArray(new ObjectProvider[opsToDelete.size()]));
+                if (ec.getStatistics() != null)
+                {
+                    ec.getStatistics().datastoreWriteExecuted(System.currentTimeMillis()-startTime);
+                }
             }
             catch (NucleusOptimisticException noe)
             {
@@ -174,7 +180,12 @@ public class FlushNonReferential implements FlushProcess
                 ec.getCallbackHandler().preStore(op.getObject());
                 // TODO Make sure identity is set since user could have updated fields in preStore
             }
+            long startTime = System.currentTimeMillis();
             persistenceHandler.insertObjects(opsToInsert.toArray(new ObjectProvider[opsToInsert.size()]));
+            if (ec.getStatistics() != null)
+            {
+                ec.getStatistics().datastoreWriteExecuted(System.currentTimeMillis()-startTime);
+            }
             for (ObjectProvider op : opsToInsert)
             {
                 ec.getCallbackHandler().postStore(op.getObject());
@@ -185,7 +196,12 @@ public class FlushNonReferential implements FlushProcess
             }
         }
 
-        if (!opsToFlush.isEmpty())
+        if (!opsToFlush.isEmpty() && FlushHelper.supportsBulkUpdate(ec))
+        {
+            // Objects to update, in groups of the same class with the same dirty fields
+            optimisticFailures = FlushHelper.flushUpdatesGrouped(ec, opsToFlush, optimisticFailures);
+        }
+        else if (!opsToFlush.isEmpty())
         {
             // Objects to update
             for (ObjectProvider op : opsToFlush)
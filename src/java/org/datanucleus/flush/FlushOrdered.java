@@ -95,52 +95,61 @@ public class FlushOrdered implements FlushProcess
             classesToFlush = new HashSet();
         }
 
-        // a). primary dirty objects
-        if (toFlushPrimary != null)
+        if (FlushHelper.supportsBulkUpdate(ec))
         {
-            for (int i = 0; i < toFlushPrimary.length; i++)
+            // Flush in the same order, updating consecutive objects of the same class with the same dirty fields together
+            optimisticFailures = flushUpdatesOrdered(ec, toFlushPrimary, optimisticFailures, classesToFlush);
+            optimisticFailures = flushUpdatesOrdered(ec, toFlushSecondary, optimisticFailures, classesToFlush);
+        }
+        else
+        {
+            // a). primary dirty objects
+            if (toFlushPrimary != null)
             {
-                ObjectProvider op = (ObjectProvider) toFlushPrimary[i];
-                try
+                for (int i = 0; i < toFlushPrimary.length; i++)
                 {
-                    op.flush();
-                    if (classesToFlush != null)
+                    ObjectProvider op = (ObjectProvider) toFlushPrimary[i];
+                    try
                     {
-                        classesToFlush.add(op.getObject().getClass());
+                        op.flush();
+                        if (classesToFlush != null)
+                        {
+                            classesToFlush.add(op.getObject().getClass());
+                        }
                     }
-                }
-                catch (NucleusOptimisticException oe)
-                {
-                    if (optimisticFailures == null)
+                    catch (NucleusOptimisticException oe)
                     {
-                        optimisticFailures = new ArrayList();
+                        if (optimisticFailures == null)
+                        {
+                            optimisticFailures = new ArrayList();
+                        }
+                        optimisticFailures.add(oe);
                     }
-                    optimisticFailures.add(oe);
                 }
             }
-        }
 
-        // b). secondary dirty objects
-        if (toFlushSecondary != null)
-        {
-            for (int i = 0; i < toFlushSecondary.length; i++)
+            // b). secondary dirty objects
+            if (toFlushSecondary != null)
             {
-                ObjectProvider sm = (ObjectProvider) toFlushSecondary[i];
-                try
+                for (int i = 0; i < toFlushSecondary.length; i++)
                 {
-                    sm.flush();
-                    if (classesToFlush != null)
+                    ObjectProvider sm = (ObjectProvider) toFlushSecondary[i];
+                    try
                     {
-                        classesToFlush.add(sm.getObject().getClass());
+                        sm.flush();
+                        if (classesToFlush != null)
+                        {
+                            classesToFlush.add(sm.getObject().getClass());
+                        }
                     }
-                }
-                catch (NucleusOptimisticException oe)
-                {
-                    if (optimisticFailures == null)
+                    catch (NucleusOptimisticException oe)
                     {
-                        optimisticFailures = new ArrayList();
+                        if (optimisticFailures == null)
+                        {
+                            optimisticFailures = new ArrayList();
+                        }
+                        optimisticFailures.add(oe);
                     }
-                    optimisticFailures.add(oe);
                 }
             }
         }
@@ -158,4 +167,20 @@ public class FlushOrdered implements FlushProcess
 
         return optimisticFailures;
     }
+
+    private List<NucleusOptimisticException> flushUpdatesOrdered(ExecutionContext ec, Object[] toFlush,
+        List<NucleusOptimisticException> optimisticFailures, Set<Class> classesToFlush)
+    {
+        if (toFlush == null)
+        {
+            return optimisticFailures;
+        }
+
+        ObjectProvider[] ops = new ObjectProvider[toFlush.length];
+        for (int i=0;i<toFlush.length;i++)
+        {
+            ops[i] = (ObjectProvider)toFlush[i];
+        }
+        return FlushHelper.flushUpdatesOrdered(ec, ops, optimisticFailures, classesToFlush);
+    }
 }
\ No newline at end of file
@@ -17,10 +17,11 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.management;
 
-import org.datanucleus.util.MathUtils;
-
 /**
  * Abstract base class for a statistics object.
+ * The counters are striped, and the execution times are recorded in histograms, so that a statistics object
+ * can be updated by many threads concurrently (as for the factory statistics, updated from all managers)
+ * without losing updates. Statistics for a single thread should use 1 stripe.
  */
 public abstract class AbstractStatistics
 {
@@ -28,35 +29,32 @@ public abstract class AbstractStatistics
 
     String registeredName;
 
-    int numReads = 0;
-    int numWrites = 0;
-    int numReadsLastTxn = 0;
-    int numWritesLastTxn = 0;
-
-    int numReadsStartTxn = 0; // Work variable
-    int numWritesStartTxn = 0; // Work variable
-
-    int insertCount = 0;
-    int deleteCount = 0;
-    int updateCount = 0;
-    int fetchCount = 0;
-
-    int txnTotalCount;
-    int txnCommittedTotalCount;
-    int txnRolledBackTotalCount;
-    int txnActiveTotalCount;
-    int txnExecutionTotalTime = 0;
-    int txnExecutionTimeHigh =-1;
-    int txnExecutionTimeLow =-1;
-    MathUtils.SMA txnExecutionTimeAverage = new MathUtils.SMA(50);
-
-    int queryActiveTotalCount;
-    int queryErrorTotalCount;
-    int queryExecutionTotalCount;
-    int queryExecutionTotalTime = 0;
-    int queryExecutionTimeHigh =-1;
-    int queryExecutionTimeLow =-1;
-    MathUtils.SMA queryExecutionTimeAverage = new MathUtils.SMA(50);
+    final StripedCounter numReads;
+    final StripedCounter numWrites;
+    volatile long numReadsLastTxn = 0;
+    volatile long numWritesLastTxn = 0;
+
+    volatile long numReadsStartTxn = 0; // Work variable
+    volatile long numWritesStartTxn = 0; // Work variable
+
+    final StripedCounter insertCount;
+    final StripedCounter deleteCount;
+    final StripedCounter updateCount;
+    final StripedCounter fetchCount;
+
+    final StripedCounter txnTotalCount;
+    final StripedCounter txnCommittedTotalCount;
+    final StripedCounter txnRolledBackTotalCount;
+    final StripedCounter txnActiveTotalCount;
+    final LatencyHistogram txnExecutionTime;
+
+    final StripedCounter queryActiveTotalCount;
+    final StripedCounter queryErrorTotalCount;
+    final LatencyHistogram queryExecutionTime;
+
+    final LatencyHistogram flushExecutionTime;
+    final LatencyHistogram datastoreReadTime;
+    final LatencyHistogram datastoreWriteTime;
 
     /**
      * Constructor specifying a "name" that we want to know this by.
@@ -64,8 +62,36 @@ public abstract class AbstractStatistics
      * @param name Name that is known by
      */
     public AbstractStatistics(String name)
+    {
+        this(name, 1);
+    }
+
+    /**
+     * Constructor specifying a "name" that we want to know this by, and the number of stripes for the counters.
+     * @param name Name that is known by
+     * @param stripes Number of stripes for the counters (1 when only updated by a single thread)
+     */
+    protected AbstractStatistics(String name, int stripes)
     {
         this.registeredName = name;
+
+        numReads = new StripedCounter(stripes);
+        numWrites = new StripedCounter(stripes);
+        insertCount = new StripedCounter(stripes);
+        deleteCount = new StripedCounter(stripes);
+        updateCount = new StripedCounter(stripes);
+        fetchCount = new StripedCounter(stripes);
+        txnTotalCount = new StripedCounter(stripes);
+        txnCommittedTotalCount = new StripedCounter(stripes);
+        txnRolledBackTotalCount = new StripedCounter(stripes);
+        txnActiveTotalCount = new StripedCounter(stripes);
+        txnExecutionTime = new LatencyHistogram(stripes);
+        queryActiveTotalCount = new StripedCounter(stripes);
+        queryErrorTotalCount = new StripedCounter(stripes);
+        queryExecutionTime = new LatencyHistogram(stripes);
+        flushExecutionTime = new LatencyHistogram(stripes);
+        datastoreReadTime = new LatencyHistogram(stripes);
+        datastoreWriteTime = new LatencyHistogram(stripes);
     }
 
     /* (non-Javadoc)
@@ -76,12 +102,42 @@ public abstract class AbstractStatistics
         return registeredName;
     }
 
+    /**
+     * Accessor for a snapshot of these statistics, with the values of all counters, and the histograms of
+     * the execution times of queries, transactions, flushes and datastore reads/writes.
+     * @return The snapshot
+     */
+    public StatisticsSnapshot getSnapshot()
+    {
+        StatisticsSnapshot snapshot = new StatisticsSnapshot(registeredName);
+        snapshot.addCounter("QueryActiveTotalCount", queryActiveTotalCount.sum());
+        snapshot.addCounter("QueryErrorTotalCount", queryErrorTotalCount.sum());
+        snapshot.addCounter("NumberOfDatastoreReads", numReads.sum());
+        snapshot.addCounter("NumberOfDatastoreWrites", numWrites.sum());
+        snapshot.addCounter("NumberOfDatastoreReadsInLatestTxn", numReadsLastTxn);
+        snapshot.addCounter("NumberOfDatastoreWritesInLatestTxn", numWritesLastTxn);
+        snapshot.addCounter("NumberOfObjectFetches", fetchCount.sum());
+        snapshot.addCounter("NumberOfObjectInserts", insertCount.sum());
+        snapshot.addCounter("NumberOfObjectUpdates", updateCount.sum());
+        snapshot.addCounter("NumberOfObjectDeletes", deleteCount.sum());
+        snapshot.addCounter("TransactionTotalCount", txnTotalCount.sum());
+        snapshot.addCounter("TransactionActiveTotalCount", txnActiveTotalCount.sum());
+        snapshot.addCounter("TransactionCommittedTotalCount", txnCommittedTotalCount.sum());
+        snapshot.addCounter("TransactionRolledBackTotalCount", txnRolledBackTotalCount.sum());
+        snapshot.addLatency(StatisticsSnapshot.LATENCY_QUERY, queryExecutionTime.getSnapshot());
+        snapshot.addLatency(StatisticsSnapshot.LATENCY_TRANSACTION, txnExecutionTime.getSnapshot());
+        snapshot.addLatency(StatisticsSnapshot.LATENCY_FLUSH, flushExecutionTime.getSnapshot());
+        snapshot.addLatency(StatisticsSnapshot.LATENCY_DATASTORE_READ, datastoreReadTime.getSnapshot());
+        snapshot.addLatency(StatisticsSnapshot.LATENCY_DATASTORE_WRITE, datastoreWriteTime.getSnapshot());
+        return snapshot;
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.management.AbstractStats#getQueryActiveTotalCount()
      */
     public int getQueryActiveTotalCount()
     {
-        return queryActiveTotalCount;
+        return toInt(queryActiveTotalCount.sum());
     }
 
     /* (non-Javadoc)
@@ -89,7 +145,7 @@ public abstract class AbstractStatistics
      */
     public int getQueryErrorTotalCount()
     {
-        return queryErrorTotalCount;
+        return toInt(queryErrorTotalCount.sum());
     }
 
     /* (non-Javadoc)
@@ -97,7 +153,7 @@ public abstract class AbstractStatistics
      */
     public int getQueryExecutionTotalCount()
     {
-        return queryExecutionTotalCount;
+        return toInt(queryExecutionTime.getSnapshot().getCount());
     }
 
     /* (non-Javadoc)
@@ -105,7 +161,7 @@ public abstract class AbstractStatistics
      */
     public int getQueryExecutionTimeLow()
     {
-        return queryExecutionTimeLow;
+        return toInt(queryExecutionTime.getSnapshot().getMin());
     }
 
     /* (non-Javadoc)
@@ -113,7 +169,7 @@ public abstract class AbstractStatistics
      */
     public int getQueryExecutionTimeHigh()
     {
-        return queryExecutionTimeHigh;
+        return toInt(queryExecutionTime.getSnapshot().getMax());
     }
 
     /* (non-Javadoc)
@@ -121,7 +177,7 @@ public abstract class AbstractStatistics
      */
     public int getQueryExecutionTotalTime()
     {
-        return queryExecutionTotalTime;
+        return toInt(queryExecutionTime.getSnapshot().getTotal());
     }
 
     /* (non-Javadoc)
@@ -129,7 +185,31 @@ public abstract class AbstractStatistics
      */
     public int getQueryExecutionTimeAverage()
     {
-        return (int) queryExecutionTimeAverage.currentAverage();
+        return toInt(queryExecutionTime.getSnapshot().getMean());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getQueryExecutionTimeP50()
+     */
+    public int getQueryExecutionTimeP50()
+    {
+        return toInt(queryExecutionTime.getSnapshot().getPercentile(0.50));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getQueryExecutionTimeP95()
+     */
+    public int getQueryExecutionTimeP95()
+    {
+        return toInt(queryExecutionTime.getSnapshot().getPercentile(0.95));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getQueryExecutionTimeP99()
+     */
+    public int getQueryExecutionTimeP99()
+    {
+        return toInt(queryExecutionTime.getSnapshot().getPercentile(0.99));
     }
 
     /* (non-Javadoc)
@@ -137,7 +217,7 @@ public abstract class AbstractStatistics
      */
     public void queryBegin()
     {
-        this.queryActiveTotalCount++;
+        this.queryActiveTotalCount.increment();
         if (parent != null)
         {
             parent.queryBegin();
@@ -149,8 +229,8 @@ public abstract class AbstractStatistics
      */
     public void queryExecutedWithError()
     {
-        this.queryErrorTotalCount++;
-        this.queryActiveTotalCount--;
+        this.queryErrorTotalCount.increment();
+        this.queryActiveTotalCount.decrement();
         if (parent != null)
         {
             parent.queryExecutedWithError();
@@ -162,24 +242,81 @@ public abstract class AbstractStatistics
      */
     public void queryExecuted(long executionTime)
     {
-        this.queryExecutionTotalCount++;
-        this.queryActiveTotalCount--;
-        queryExecutionTimeAverage.compute(executionTime);
-        queryExecutionTimeLow = (int) Math.min(queryExecutionTimeLow==-1?executionTime:queryExecutionTimeLow,executionTime);
-        queryExecutionTimeHigh = (int) Math.max(queryExecutionTimeHigh,executionTime);
-        queryExecutionTotalTime += executionTime;
+        this.queryActiveTotalCount.decrement();
+        queryExecutionTime.record(executionTime);
         if (parent != null)
         {
             parent.queryExecuted(executionTime);
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getFlushTotalCount()
+     */
+    public int getFlushTotalCount()
+    {
+        return toInt(flushExecutionTime.getSnapshot().getCount());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getFlushExecutionTimeAverage()
+     */
+    public int getFlushExecutionTimeAverage()
+    {
+        return toInt(flushExecutionTime.getSnapshot().getMean());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getFlushExecutionTimeHigh()
+     */
+    public int getFlushExecutionTimeHigh()
+    {
+        return toInt(flushExecutionTime.getSnapshot().getMax());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getFlushExecutionTimeP50()
+     */
+    public int getFlushExecutionTimeP50()
+    {
+        return toInt(flushExecutionTime.getSnapshot().getPercentile(0.50));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getFlushExecutionTimeP95()
+     */
+    public int getFlushExecutionTimeP95()
+    {
+        return toInt(flushExecutionTime.getSnapshot().getPercentile(0.95));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getFlushExecutionTimeP99()
+     */
+    public int getFlushExecutionTimeP99()
+    {
+        return toInt(flushExecutionTime.getSnapshot().getPercentile(0.99));
+    }
+
+    /**
+     * Method to register the flush of changes to the datastore.
+     * @param executionTime Time taken by the flush (milliseconds)
+     */
+    public void flushExecuted(long executionTime)
+    {
+        flushExecutionTime.record(executionTime);
+        if (parent != null)
+        {
+            parent.flushExecuted(executionTime);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.management.AbstractStats#getNumberOfDatastoreWrites()
      */
     public int getNumberOfDatastoreWrites()
     {
-        return numWrites;
+        return toInt(numWrites.sum());
     }
 
     /* (non-Javadoc)
@@ -187,7 +324,7 @@ public abstract class AbstractStatistics
      */
     public int getNumberOfDatastoreReads()
     {
-        return numReads;
+        return toInt(numReads.sum());
     }
 
     /* (non-Javadoc)
@@ -195,7 +332,7 @@ public abstract class AbstractStatistics
      */
     public int getNumberOfDatastoreWritesInLatestTxn()
     {
-        return numWritesLastTxn;
+        return toInt(numWritesLastTxn);
     }
 
     /* (non-Javadoc)
@@ -203,7 +340,71 @@ public abstract class AbstractStatistics
      */
     public int getNumberOfDatastoreReadsInLatestTxn()
     {
-        return numReadsLastTxn;
+        return toInt(numReadsLastTxn);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreReadTimeHigh()
+     */
+    public int getDatastoreReadTimeHigh()
+    {
+        return toInt(datastoreReadTime.getSnapshot().getMax());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreReadTimeP50()
+     */
+    public int getDatastoreReadTimeP50()
+    {
+        return toInt(datastoreReadTime.getSnapshot().getPercentile(0.50));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreReadTimeP95()
+     */
+    public int getDatastoreReadTimeP95()
+    {
+        return toInt(datastoreReadTime.getSnapshot().getPercentile(0.95));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreReadTimeP99()
+     */
+    public int getDatastoreReadTimeP99()
+    {
+        return toInt(datastoreReadTime.getSnapshot().getPercentile(0.99));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreWriteTimeHigh()
+     */
+    public int getDatastoreWriteTimeHigh()
+    {
+        return toInt(datastoreWriteTime.getSnapshot().getMax());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreWriteTimeP50()
+     */
+    public int getDatastoreWriteTimeP50()
+    {
+        return toInt(datastoreWriteTime.getSnapshot().getPercentile(0.50));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreWriteTimeP95()
+     */
+    public int getDatastoreWriteTimeP95()
+    {
+        return toInt(datastoreWriteTime.getSnapshot().getPercentile(0.95));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getDatastoreWriteTimeP99()
+     */
+    public int getDatastoreWriteTimeP99()
+    {
+        return toInt(datastoreWriteTime.getSnapshot().getPercentile(0.99));
     }
 
     /* (non-Javadoc)
@@ -211,7 +412,7 @@ public abstract class AbstractStatistics
      */
     public void incrementNumReads()
     {
-        numReads++;
+        numReads.increment();
         if (parent != null)
         {
             parent.incrementNumReads();
@@ -223,19 +424,49 @@ public abstract class AbstractStatistics
      */
     public void incrementNumWrites()
     {
-        numWrites++;
+        numWrites.increment();
         if (parent != null)
         {
             parent.incrementNumWrites();
         }
     }
 
+    /**
+     * Method to register the time taken by the persistence handler to read an object from the datastore.
+     * The number of reads is still registered by the datastore using <i>incrementNumReads</i>, since one
+     * read by the persistence handler can involve any number of datastore reads.
+     * @param executionTime Time taken by the read (milliseconds)
+     */
+    public void datastoreReadExecuted(long executionTime)
+    {
+        datastoreReadTime.record(executionTime);
+        if (parent != null)
+        {
+            parent.datastoreReadExecuted(executionTime);
+        }
+    }
+
+    /**
+     * Method to register the time taken by the persistence handler to write object(s) to the datastore.
+     * The number of writes is still registered by the datastore using <i>incrementNumWrites</i>, since one
+     * write by the persistence handler can involve any number of datastore writes.
+     * @param executionTime Time taken by the write (milliseconds)
+     */
+    public void datastoreWriteExecuted(long executionTime)
+    {
+        datastoreWriteTime.record(executionTime);
+        if (parent != null)
+        {
+            parent.datastoreWriteExecuted(executionTime);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.management.AbstractStats#getNumberOfObjectFetches()
      */
     public int getNumberOfObjectFetches()
     {
-        return fetchCount;
+        return toInt(fetchCount.sum());
     }
 
     /* (non-Javadoc)
@@ -243,7 +474,7 @@ public abstract class AbstractStatistics
      */
     public int getNumberOfObjectInserts()
     {
-        return insertCount;
+        return toInt(insertCount.sum());
     }
 
     /* (non-Javadoc)
@@ -251,7 +482,7 @@ public abstract class AbstractStatistics
      */
     public int getNumberOfObjectUpdates()
     {
-        return updateCount;
+        return toInt(updateCount.sum());
     }
 
     /* (non-Javadoc)
@@ -259,7 +490,7 @@ public abstract class AbstractStatistics
      */
     public int getNumberOfObjectDeletes()
     {
-        return deleteCount;
+        return toInt(deleteCount.sum());
     }
 
     /* (non-Javadoc)
@@ -267,7 +498,7 @@ public abstract class AbstractStatistics
      */
     public void incrementInsertCount()
     {
-        insertCount++;
+        insertCount.increment();
         if (parent != null)
         {
             parent.incrementInsertCount();
@@ -279,7 +510,7 @@ public abstract class AbstractStatistics
      */
     public void incrementDeleteCount()
     {
-        deleteCount++;
+        deleteCount.increment();
         if (parent != null)
         {
             parent.incrementDeleteCount();
@@ -291,7 +522,7 @@ public abstract class AbstractStatistics
      */
     public void incrementFetchCount()
     {
-        fetchCount++;
+        fetchCount.increment();
         if (parent != null)
         {
             parent.incrementFetchCount();
@@ -303,7 +534,7 @@ public abstract class AbstractStatistics
      */
     public void incrementUpdateCount()
     {
-        updateCount++;
+        updateCount.increment();
         if (parent != null)
         {
             parent.incrementUpdateCount();
@@ -315,7 +546,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionExecutionTimeAverage()
     {
-        return (int) txnExecutionTimeAverage.currentAverage();
+        return toInt(txnExecutionTime.getSnapshot().getMean());
     }
 
     /* (non-Javadoc)
@@ -323,7 +554,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionExecutionTimeLow()
     {
-        return txnExecutionTimeLow;
+        return toInt(txnExecutionTime.getSnapshot().getMin());
     }
 
     /* (non-Javadoc)
@@ -331,7 +562,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionExecutionTimeHigh()
     {
-        return txnExecutionTimeHigh;
+        return toInt(txnExecutionTime.getSnapshot().getMax());
     }
 
     /* (non-Javadoc)
@@ -339,7 +570,31 @@ public abstract class AbstractStatistics
      */
     public int getTransactionExecutionTotalTime()
     {
-        return txnExecutionTotalTime;
+        return toInt(txnExecutionTime.getSnapshot().getTotal());
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getTransactionExecutionTimeP50()
+     */
+    public int getTransactionExecutionTimeP50()
+    {
+        return toInt(txnExecutionTime.getSnapshot().getPercentile(0.50));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getTransactionExecutionTimeP95()
+     */
+    public int getTransactionExecutionTimeP95()
+    {
+        return toInt(txnExecutionTime.getSnapshot().getPercentile(0.95));
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.ManagerStatisticsMBean#getTransactionExecutionTimeP99()
+     */
+    public int getTransactionExecutionTimeP99()
+    {
+        return toInt(txnExecutionTime.getSnapshot().getPercentile(0.99));
     }
 
     /* (non-Javadoc)
@@ -347,7 +602,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionTotalCount()
     {
-        return txnTotalCount;
+        return toInt(txnTotalCount.sum());
     }
     
     /* (non-Javadoc)
@@ -355,7 +610,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionActiveTotalCount()
     {
-        return txnActiveTotalCount;
+        return toInt(txnActiveTotalCount.sum());
     }
 
     /* (non-Javadoc)
@@ -363,7 +618,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionCommittedTotalCount()
     {
-        return txnCommittedTotalCount;
+        return toInt(txnCommittedTotalCount.sum());
     }
 
     /* (non-Javadoc)
@@ -371,7 +626,7 @@ public abstract class AbstractStatistics
      */
     public int getTransactionRolledBackTotalCount()
     {
-        return txnRolledBackTotalCount;
+        return toInt(txnRolledBackTotalCount.sum());
     }
     
     /* (non-Javadoc)
@@ -379,15 +634,8 @@ public abstract class AbstractStatistics
      */
     public void transactionCommitted(long executionTime)
     {
-        this.txnCommittedTotalCount++;
-        this.txnActiveTotalCount--;
-        txnExecutionTimeAverage.compute(executionTime);
-        txnExecutionTimeLow = (int) Math.min(txnExecutionTimeLow==-1?executionTime:txnExecutionTimeLow,executionTime);
-        txnExecutionTimeHigh = (int) Math.max(txnExecutionTimeHigh,executionTime);
-        txnExecutionTotalTime += executionTime;
-
-        numReadsLastTxn = numReads - numReadsStartTxn;
-        numWritesLastTxn = numWrites - numWritesStartTxn;
+        this.txnCommittedTotalCount.increment();
+        transactionEnded(executionTime);
         if (parent != null)
         {
             parent.transactionCommitted(executionTime);
@@ -399,15 +647,8 @@ public abstract class AbstractStatistics
      */
     public void transactionRolledBack(long executionTime)
     {
-        this.txnRolledBackTotalCount++;
-        this.txnActiveTotalCount--;
-        txnExecutionTimeAverage.compute(executionTime);
-        txnExecutionTimeLow = (int) Math.min(txnExecutionTimeLow==-1?executionTime:txnExecutionTimeLow,executionTime);
-        txnExecutionTimeHigh = (int) Math.max(txnExecutionTimeHigh,executionTime);
-        txnExecutionTotalTime += executionTime;
-
-        numReadsLastTxn = numReads - numReadsStartTxn;
-        numWritesLastTxn = numWrites - numWritesStartTxn;
+        this.txnRolledBackTotalCount.increment();
+        transactionEnded(executionTime);
         if (parent != null)
         {
             parent.transactionRolledBack(executionTime);
@@ -419,14 +660,34 @@ public abstract class AbstractStatistics
      */
     public void transactionStarted()
     {
-        this.txnTotalCount++;
-        this.txnActiveTotalCount++;
+        this.txnTotalCount.increment();
+        this.txnActiveTotalCount.increment();
 
-        numReadsStartTxn = numReads;
-        numWritesStartTxn = numWrites;
+        numReadsStartTxn = numReads.sum();
+        numWritesStartTxn = numWrites.sum();
         if (parent != null)
         {
             parent.transactionStarted();
         }
     }
+
+    private void transactionEnded(long executionTime)
+    {
+        this.txnActiveTotalCount.decrement();
+        txnExecutionTime.record(executionTime);
+
+        numReadsLastTxn = numReads.sum() - numReadsStartTxn;
+        numWritesLastTxn = numWrites.sum() - numWritesStartTxn;
+    }
+
+    /**
+     * Convenience method to return a counter value as an int (for the MBean attributes), limiting it to
+     * Integer.MAX_VALUE rather than overflowing.
+     * @param value The value
+     * @return The int value
+     */
+    static int toInt(long value)
+    {
+        return (value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)value);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,386 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics for a cache, providing the number of hits, misses, puts and evictions, and the size of the cache.
+ * The counts are also broken down by key (the class name of the object for the Level 2 cache, or the query
+ * for the query caches), for up to MAX_KEYS keys. Updated by all managers of the factory, so uses striped
+ * counters for the totals.
+ * <p>
+ * Where the cache is asked to evict objects without knowing whether they are present (e.g bulk eviction from
+ * the Level 2 cache at commit) these are counted separately as eviction requests, since they aren't all
+ * evictions.
+ * </p>
+ */
+public class CacheStatistics implements CacheStatisticsMBean
+{
+    /** Name of the statistics for the Level 1 caches (of all managers). */
+    public static final String LEVEL1 = "Level1";
+
+    /** Name of the statistics for the Level 2 cache. */
+    public static final String LEVEL2 = "Level2";
+
+    /** Name of the statistics for the generic query compilation cache. */
+    public static final String QUERY_COMPILATION = "QueryCompilation";
+
+    /** Name of the statistics for the datastore query compilation cache. */
+    public static final String QUERY_DATASTORE_COMPILATION = "QueryDatastoreCompilation";
+
+    /** Name of the statistics for the query results cache. */
+    public static final String QUERY_RESULTS = "QueryResults";
+
+    /** Maximum number of keys that the counts are broken down by. */
+    public static final int MAX_KEYS = 1000;
+
+    /**
+     * Source of the current size of a cache.
+     */
+    public interface SizeSource
+    {
+        int getSize();
+    }
+
+    String registeredName;
+
+    final String cacheName;
+
+    final StripedCounter hitCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+    final StripedCounter missCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+    final StripedCounter putCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+    final StripedCounter evictionCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+    final StripedCounter evictionRequestCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+
+    final ConcurrentMap<String, KeyStatistics> statsByKey = new ConcurrentHashMap<String, KeyStatistics>();
+
+    volatile SizeSource sizeSource;
+
+    /**
+     * Constructor.
+     * @param name Name that is known by (JMX MBean name if using JMX, or null otherwise)
+     * @param cacheName Name of the cache (LEVEL1, LEVEL2 etc)
+     */
+    public CacheStatistics(String name, String cacheName)
+    {
+        this.registeredName = name;
+        this.cacheName = cacheName;
+    }
+
+    public String getRegisteredName()
+    {
+        return registeredName;
+    }
+
+    public String getCacheName()
+    {
+        return cacheName;
+    }
+
+    /**
+     * Method to set the source of the size of the cache.
+     * @param sizeSource The source of the size
+     */
+    public void setSizeSource(SizeSource sizeSource)
+    {
+        this.sizeSource = sizeSource;
+    }
+
+    /**
+     * Accessor for the current size of the cache.
+     * @return The size, or -1 if not known
+     */
+    public int getSize()
+    {
+        SizeSource source = sizeSource;
+        return (source != null ? source.getSize() : -1);
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.sum();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.sum();
+    }
+
+    public long getPutCount()
+    {
+        return putCount.sum();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount.sum();
+    }
+
+    public long getEvictionRequestCount()
+    {
+        return evictionRequestCount.sum();
+    }
+
+    /**
+     * Accessor for the proportion of gets that were hits.
+     * @return The hit ratio (0.0 - 1.0), or 0.0 if no gets
+     */
+    public double getHitRatio()
+    {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return (total == 0 ? 0.0 : (double)hits / total);
+    }
+
+    /**
+     * Method to register a hit in the cache.
+     * @param key The key to record the hit against (or null)
+     */
+    public void hit(String key)
+    {
+        hitCount.increment();
+        KeyStatistics keyStats = getKeyStatistics(key);
+        if (keyStats != null)
+        {
+            keyStats.add(KeyStatistics.HITS, 1);
+        }
+    }
+
+    /**
+     * Method to register a miss in the cache.
+     * @param key The key to record the miss against (or null)
+     */
+    public void miss(String key)
+    {
+        missCount.increment();
+        KeyStatistics keyStats = getKeyStatistics(key);
+        if (keyStats != null)
+        {
+            keyStats.add(KeyStatistics.MISSES, 1);
+        }
+    }
+
+    /**
+     * Method to register a put into the cache.
+     * @param key The key to record the put against (or null)
+     */
+    public void put(String key)
+    {
+        putCount.increment();
+        KeyStatistics keyStats = getKeyStatistics(key);
+        if (keyStats != null)
+        {
+            keyStats.add(KeyStatistics.PUTS, 1);
+        }
+    }
+
+    /**
+     * Method to register evictions from the cache.
+     * @param key The key to record the evictions against (or null)
+     * @param number Number of objects evicted
+     */
+    public void evict(String key, int number)
+    {
+        evictionCount.add(number);
+        KeyStatistics keyStats = getKeyStatistics(key);
+        if (keyStats != null)
+        {
+            keyStats.add(KeyStatistics.EVICTIONS, number);
+        }
+    }
+
+    /**
+     * Method to register requests to evict objects from the cache, where it isn't known whether they were present.
+     * @param key The key to record the requests against (or null)
+     * @param number Number of objects requested to be evicted
+     */
+    public void evictRequested(String key, int number)
+    {
+        evictionRequestCount.add(number);
+        KeyStatistics keyStats = getKeyStatistics(key);
+        if (keyStats != null)
+        {
+            keyStats.add(KeyStatistics.EVICTION_REQUESTS, number);
+        }
+    }
+
+    /**
+     * Accessor for the counts of the cache broken down by key.
+     * @return The statistics keyed by the key
+     */
+    public Map<String, KeyStatistics> getStatisticsByKey()
+    {
+        return Collections.unmodifiableMap(statsByKey);
+    }
+
+    public Map<String, Long> getHitCountsByKey()
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, KeyStatistics> entry : statsByKey.entrySet())
+        {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getHitCount()));
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getMissCountsByKey()
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, KeyStatistics> entry : statsByKey.entrySet())
+        {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getMissCount()));
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getPutCountsByKey()
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, KeyStatistics> entry : statsByKey.entrySet())
+        {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getPutCount()));
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getEvictionCountsByKey()
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, KeyStatistics> entry : statsByKey.entrySet())
+        {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getEvictionCount()));
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getEvictionRequestCountsByKey()
+    {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, KeyStatistics> entry : statsByKey.entrySet())
+        {
+            counts.put(entry.getKey(), Long.valueOf(entry.getValue().getEvictionRequestCount()));
+        }
+        return counts;
+    }
+
+    private KeyStatistics getKeyStatistics(String key)
+    {
+        if (key == null)
+        {
+            return null;
+        }
+        KeyStatistics keyStats = statsByKey.get(key);
+        if (keyStats == null && statsByKey.size() < MAX_KEYS)
+        {
+            keyStats = new KeyStatistics();
+            KeyStatistics existing = statsByKey.putIfAbsent(key, keyStats);
+            if (existing != null)
+            {
+                keyStats = existing;
+            }
+        }
+        return keyStats;
+    }
+
+    public String toString()
+    {
+        return "CacheStatistics[" + cacheName + "] hits=" + getHitCount() + " misses=" + getMissCount() +
+            " puts=" + getPutCount() + " evictions=" + getEvictionCount() +
+            " evictionRequests=" + getEvictionRequestCount() + " size=" + getSize();
+    }
+
+    /**
+     * Counts of a cache for a particular key. A popular key (e.g. the class of frequently found objects) is
+     * updated by many threads, so the counts are striped like StripedCounter, but with fewer stripes since there
+     * can be MAX_KEYS of these. Each stripe holds all counts of the key in a single cache line, so a key uses
+     * KEY_STRIPES * 64 bytes (with 4 stripes, 256 bytes; 256KB for MAX_KEYS keys).
+     */
+    public static class KeyStatistics
+    {
+        /** Number of stripes for the counts of each key. */
+        static final int KEY_STRIPES = Math.min(StripedCounter.DEFAULT_STRIPES, 4);
+
+        /** Spacing (in longs) of the stripes, so that each stripe is on its own cache line. */
+        private static final int STRIPE_SIZE = 8;
+
+        static final int HITS = 0;
+        static final int MISSES = 1;
+        static final int PUTS = 2;
+        static final int EVICTIONS = 3;
+        static final int EVICTION_REQUESTS = 4;
+
+        private final AtomicLongArray cells = new AtomicLongArray(KEY_STRIPES * STRIPE_SIZE);
+
+        /**
+         * Method to add the specified amount to a count, in the stripe of the current thread.
+         * @param count The count (HITS, MISSES etc)
+         * @param amount The amount to add
+         */
+        void add(int count, long amount)
+        {
+            cells.addAndGet(StripedCounter.getStripe(KEY_STRIPES - 1) * STRIPE_SIZE + count, amount);
+        }
+
+        private long sum(int count)
+        {
+            long sum = 0;
+            for (int i=0;i<KEY_STRIPES;i++)
+            {
+                sum += cells.get(i * STRIPE_SIZE + count);
+            }
+            return sum;
+        }
+
+        public long getHitCount()
+        {
+            return sum(HITS);
+        }
+
+        public long getMissCount()
+        {
+            return sum(MISSES);
+        }
+
+        public long getPutCount()
+        {
+            return sum(PUTS);
+        }
+
+        public long getEvictionCount()
+        {
+            return sum(EVICTIONS);
+        }
+
+        public long getEvictionRequestCount()
+        {
+            return sum(EVICTION_REQUESTS);
+        }
+
+        public String toString()
+        {
+            return "hits=" + getHitCount() + " misses=" + getMissCount() + " puts=" + getPutCount() +
+                " evictions=" + getEvictionCount() + " evictionRequests=" + getEvictionRequestCount();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import java.util.Map;
+
+/**
+ * Interface defining the MBean for a cache (Level 1, Level 2, query compilation, query results).
+ */
+public interface CacheStatisticsMBean
+{
+    String getRegisteredName();
+
+    String getCacheName();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getPutCount();
+
+    long getEvictionCount();
+
+    long getEvictionRequestCount();
+
+    double getHitRatio();
+
+    int getSize();
+
+    Map<String, Long> getHitCountsByKey();
+
+    Map<String, Long> getMissCountsByKey();
+
+    Map<String, Long> getPutCountsByKey();
+
+    Map<String, Long> getEvictionCountsByKey();
+
+    Map<String, Long> getEvictionRequestCountsByKey();
+}
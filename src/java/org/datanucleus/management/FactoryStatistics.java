@@ -17,45 +17,101 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.management;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Statistics for a factory of persistence (PMF/EMF).
  * Provides access to statistics about datastores accesses, queries, transactions as well as connections.
+ * These are updated by all managers of the factory, so use striped counters.
  */
 public class FactoryStatistics extends AbstractStatistics implements FactoryStatisticsMBean
 {
-    int connectionActiveCurrent;
-    int connectionActiveHigh;
-    int connectionActiveTotal;
+    final AtomicInteger connectionActiveCurrent = new AtomicInteger();
+    final AtomicInteger connectionActiveHigh = new AtomicInteger();
+    final StripedCounter connectionActiveTotal = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+
+    final StripedCounter ecPoolHitCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+    final StripedCounter ecPoolMissCount = new StripedCounter(StripedCounter.DEFAULT_STRIPES);
+    volatile int ecPoolIdle;
 
     public FactoryStatistics(String name)
     {
-        super(name);
+        super(name, StripedCounter.DEFAULT_STRIPES);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.management.AbstractStatistics#getSnapshot()
+     */
+    public StatisticsSnapshot getSnapshot()
+    {
+        StatisticsSnapshot snapshot = super.getSnapshot();
+        snapshot.addCounter("ConnectionActiveCurrent", connectionActiveCurrent.get());
+        snapshot.addCounter("ConnectionActiveHigh", connectionActiveHigh.get());
+        snapshot.addCounter("ConnectionActiveTotal", connectionActiveTotal.sum());
+        snapshot.addCounter("ExecutionContextPoolHitCount", ecPoolHitCount.sum());
+        snapshot.addCounter("ExecutionContextPoolMissCount", ecPoolMissCount.sum());
+        snapshot.addCounter("ExecutionContextPoolIdle", ecPoolIdle);
+        return snapshot;
     }
 
     public int getConnectionActiveCurrent()
     {
-        return this.connectionActiveCurrent;
+        return this.connectionActiveCurrent.get();
     }
 
     public int getConnectionActiveHigh()
     {
-        return this.connectionActiveHigh;
+        return this.connectionActiveHigh.get();
     }
 
     public int getConnectionActiveTotal()
     {
-        return this.connectionActiveTotal;
+        return toInt(this.connectionActiveTotal.sum());
     }
 
     public void incrementActiveConnections()
     {
-        this.connectionActiveCurrent++;
-        this.connectionActiveTotal++;
-        this.connectionActiveHigh = Math.max(this.connectionActiveHigh, this.connectionActiveCurrent);
+        int current = this.connectionActiveCurrent.incrementAndGet();
+        this.connectionActiveTotal.increment();
+        int high = this.connectionActiveHigh.get();
+        while (current > high && !this.connectionActiveHigh.compareAndSet(high, current))
+        {
+            high = this.connectionActiveHigh.get();
+        }
     }
 
     public void decrementActiveConnections()
     {
-        this.connectionActiveCurrent--;
+        this.connectionActiveCurrent.decrementAndGet();
+    }
+
+    public int getExecutionContextPoolHitCount()
+    {
+        return toInt(this.ecPoolHitCount.sum());
+    }
+
+    public int getExecutionContextPoolMissCount()
+    {
+        return toInt(this.ecPoolMissCount.sum());
+    }
+
+    public int getExecutionContextPoolIdle()
+    {
+        return this.ecPoolIdle;
+    }
+
+    public void incrementExecutionContextPoolHits()
+    {
+        this.ecPoolHitCount.increment();
+    }
+
+    public void incrementExecutionContextPoolMisses()
+    {
+        this.ecPoolMissCount.increment();
+    }
+
+    public void setExecutionContextPoolIdle(int numIdle)
+    {
+        this.ecPoolIdle = numIdle;
     }
 }
\ No newline at end of file
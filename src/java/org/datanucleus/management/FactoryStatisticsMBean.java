@@ -38,6 +38,12 @@ public interface FactoryStatisticsMBean
 
     int getQueryExecutionTimeAverage();
 
+    int getQueryExecutionTimeP50();
+
+    int getQueryExecutionTimeP95();
+
+    int getQueryExecutionTimeP99();
+
     int getNumberOfDatastoreWrites();
 
     int getNumberOfDatastoreReads();
@@ -46,6 +52,22 @@ public interface FactoryStatisticsMBean
 
     int getNumberOfDatastoreReadsInLatestTxn();
 
+    int getDatastoreReadTimeHigh();
+
+    int getDatastoreReadTimeP50();
+
+    int getDatastoreReadTimeP95();
+
+    int getDatastoreReadTimeP99();
+
+    int getDatastoreWriteTimeHigh();
+
+    int getDatastoreWriteTimeP50();
+
+    int getDatastoreWriteTimeP95();
+
+    int getDatastoreWriteTimeP99();
+
     int getNumberOfObjectFetches();
 
     int getNumberOfObjectInserts();
@@ -62,6 +84,12 @@ public interface FactoryStatisticsMBean
 
     int getTransactionExecutionTotalTime();
 
+    int getTransactionExecutionTimeP50();
+
+    int getTransactionExecutionTimeP95();
+
+    int getTransactionExecutionTimeP99();
+
     int getTransactionTotalCount();
 
     int getTransactionActiveTotalCount();
@@ -70,9 +98,27 @@ public interface FactoryStatisticsMBean
 
     int getTransactionRolledBackTotalCount();
 
+    int getFlushTotalCount();
+
+    int getFlushExecutionTimeAverage();
+
+    int getFlushExecutionTimeHigh();
+
+    int getFlushExecutionTimeP50();
+
+    int getFlushExecutionTimeP95();
+
+    int getFlushExecutionTimeP99();
+
     int getConnectionActiveCurrent();
 
     int getConnectionActiveHigh();
 
     int getConnectionActiveTotal();
+
+    int getExecutionContextPoolHitCount();
+
+    int getExecutionContextPoolMissCount();
+
+    int getExecutionContextPoolIdle();
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of execution times (in milliseconds), with logarithmic buckets. Bucket 0 holds times of 0,
+ * and bucket <i>i</i> holds times in the range [2^(i-1), 2^i), with the last bucket holding anything larger.
+ * Recording a time allocates nothing, and threads update the buckets of their own stripe, so it can be
+ * shared by many threads. Percentiles are accurate to the bucket, so are reported as the upper bound of
+ * the bucket (limited by the maximum time recorded).
+ */
+public class LatencyHistogram
+{
+    /** Number of buckets, the last one holding all times of 2^30 ms and above. */
+    public static final int NUM_BUCKETS = 32;
+
+    private final AtomicLongArray buckets;
+
+    private final int mask;
+
+    private final StripedCounter total;
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong max = new AtomicLong(-1);
+
+    /**
+     * Constructor.
+     * @param stripes Number of stripes (rounded up to a power of 2)
+     */
+    public LatencyHistogram(int stripes)
+    {
+        int numStripes = StripedCounter.getNumberOfStripes(stripes);
+        this.mask = numStripes - 1;
+        this.buckets = new AtomicLongArray(numStripes * NUM_BUCKETS);
+        this.total = new StripedCounter(numStripes);
+    }
+
+    /**
+     * Method to record an execution time.
+     * @param time The time (milliseconds)
+     */
+    public void record(long time)
+    {
+        if (time < 0)
+        {
+            time = 0;
+        }
+        buckets.incrementAndGet((mask == 0 ? 0 : StripedCounter.getStripe(mask) * NUM_BUCKETS) + getBucket(time));
+        total.add(time);
+
+        long current = max.get();
+        while (time > current && !max.compareAndSet(current, time))
+        {
+            current = max.get();
+        }
+        current = min.get();
+        while (time < current && !min.compareAndSet(current, time))
+        {
+            current = min.get();
+        }
+    }
+
+    /**
+     * Accessor for a snapshot of the histogram. This is not atomic when times are being recorded.
+     * @return The snapshot
+     */
+    public Snapshot getSnapshot()
+    {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i=0;i<buckets.length();i++)
+        {
+            counts[i % NUM_BUCKETS] += buckets.get(i);
+        }
+        long maxTime = max.get();
+        long minTime = min.get();
+        return new Snapshot(counts, total.sum(), (minTime == Long.MAX_VALUE ? -1 : minTime), maxTime);
+    }
+
+    static int getBucket(long time)
+    {
+        return (time == 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(time), NUM_BUCKETS - 1));
+    }
+
+    /**
+     * Snapshot of the times recorded in a histogram.
+     */
+    public static class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] counts, long total, long min, long max)
+        {
+            this.counts = counts;
+            long num = 0;
+            for (int i=0;i<counts.length;i++)
+            {
+                num += counts[i];
+            }
+            this.count = num;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Accessor for the number of times recorded.
+         * @return The count
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Accessor for the sum of the times recorded.
+         * @return The total time (milliseconds)
+         */
+        public long getTotal()
+        {
+            return total;
+        }
+
+        /**
+         * Accessor for the lowest time recorded.
+         * @return The lowest time (milliseconds), or -1 if none recorded
+         */
+        public long getMin()
+        {
+            return min;
+        }
+
+        /**
+         * Accessor for the highest time recorded.
+         * @return The highest time (milliseconds), or -1 if none recorded
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * Accessor for the mean of the times recorded.
+         * @return The mean time (milliseconds), or 0 if none recorded
+         */
+        public long getMean()
+        {
+            return (count == 0 ? 0 : total / count);
+        }
+
+        /**
+         * Accessor for the time below which the specified fraction of the recorded times lie.
+         * @param fraction The fraction (e.g 0.95 for the 95th percentile)
+         * @return The time (milliseconds), or -1 if none recorded
+         */
+        public long getPercentile(double fraction)
+        {
+            if (count == 0)
+            {
+                return -1;
+            }
+            long target = Math.max(1, (long)Math.ceil(fraction * count));
+            long cumulative = 0;
+            for (int i=0;i<counts.length;i++)
+            {
+                cumulative += counts[i];
+                if (cumulative >= target)
+                {
+                    long upperBound = (i == 0 ? 0 : (1L << i) - 1);
+                    return (i == counts.length - 1 ? max : Math.min(upperBound, max));
+                }
+            }
+            return max;
+        }
+
+        public String toString()
+        {
+            return "count=" + count + " total=" + total + " min=" + min + " max=" + max +
+                " p50=" + getPercentile(0.5) + " p95=" + getPercentile(0.95) + " p99=" + getPercentile(0.99);
+        }
+    }
+}
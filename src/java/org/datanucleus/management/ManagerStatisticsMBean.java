@@ -21,6 +21,12 @@ public interface ManagerStatisticsMBean
 
     int getQueryExecutionTimeAverage();
 
+    int getQueryExecutionTimeP50();
+
+    int getQueryExecutionTimeP95();
+
+    int getQueryExecutionTimeP99();
+
     int getNumberOfDatastoreWrites();
 
     int getNumberOfDatastoreReads();
@@ -29,6 +35,22 @@ public interface ManagerStatisticsMBean
 
     int getNumberOfDatastoreReadsInLatestTxn();
 
+    int getDatastoreReadTimeHigh();
+
+    int getDatastoreReadTimeP50();
+
+    int getDatastoreReadTimeP95();
+
+    int getDatastoreReadTimeP99();
+
+    int getDatastoreWriteTimeHigh();
+
+    int getDatastoreWriteTimeP50();
+
+    int getDatastoreWriteTimeP95();
+
+    int getDatastoreWriteTimeP99();
+
     int getNumberOfObjectFetches();
 
     int getNumberOfObjectInserts();
@@ -45,6 +67,12 @@ public interface ManagerStatisticsMBean
 
     int getTransactionExecutionTotalTime();
 
+    int getTransactionExecutionTimeP50();
+
+    int getTransactionExecutionTimeP95();
+
+    int getTransactionExecutionTimeP99();
+
     int getTransactionTotalCount();
 
     int getTransactionActiveTotalCount();
@@ -52,4 +80,16 @@ public interface ManagerStatisticsMBean
     int getTransactionCommittedTotalCount();
 
     int getTransactionRolledBackTotalCount();
+
+    int getFlushTotalCount();
+
+    int getFlushExecutionTimeAverage();
+
+    int getFlushExecutionTimeHigh();
+
+    int getFlushExecutionTimeP50();
+
+    int getFlushExecutionTimeP95();
+
+    int getFlushExecutionTimeP99();
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the statistics of a factory or manager of persistence, for programmatic access.
+ * Provides the counters (keyed by the name of the MBean attribute, e.g "NumberOfDatastoreReads"), and the
+ * histograms of execution times (keyed by one of the LATENCY_xxx names).
+ */
+public class StatisticsSnapshot
+{
+    public static final String LATENCY_QUERY = "Query";
+    public static final String LATENCY_TRANSACTION = "Transaction";
+    public static final String LATENCY_FLUSH = "Flush";
+    public static final String LATENCY_DATASTORE_READ = "DatastoreRead";
+    public static final String LATENCY_DATASTORE_WRITE = "DatastoreWrite";
+
+    private final String name;
+
+    private final long timestamp = System.currentTimeMillis();
+
+    private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+    private final Map<String, LatencyHistogram.Snapshot> latencies = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+
+    public StatisticsSnapshot(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Accessor for the registered name of the statistics.
+     * @return The name (or null if not registered)
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Accessor for the time at which the snapshot was taken.
+     * @return The time (milliseconds)
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public Map<String, Long> getCounters()
+    {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Accessor for the value of a counter.
+     * @param counterName Name of the counter
+     * @return The value (or null if no such counter)
+     */
+    public Long getCounter(String counterName)
+    {
+        return counters.get(counterName);
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> getLatencies()
+    {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Accessor for the histogram of execution times of a type of operation.
+     * @param latencyName Name of the operation (LATENCY_QUERY etc)
+     * @return The histogram (or null if no such operation)
+     */
+    public LatencyHistogram.Snapshot getLatency(String latencyName)
+    {
+        return latencies.get(latencyName);
+    }
+
+    void addCounter(String counterName, long value)
+    {
+        counters.put(counterName, Long.valueOf(value));
+    }
+
+    void addLatency(String latencyName, LatencyHistogram.Snapshot latency)
+    {
+        latencies.put(latencyName, latency);
+    }
+
+    public String toString()
+    {
+        return "StatisticsSnapshot[" + name + "] counters=" + counters + " latencies=" + latencies;
+    }
+}
@@ -0,0 +1,110 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that can be updated by many threads concurrently without losing updates and without them all
+ * contending on the same memory location. The count is held in a number of cells ("stripes"), each on its own
+ * cache line, and a thread updates the cell selected by its thread id. The value of the counter is the sum of
+ * the cells. A counter with a single stripe is simply an atomic long.
+ */
+public class StripedCounter
+{
+    /** Default number of stripes for counters shared by many threads (power of 2, based on the processors). */
+    public static final int DEFAULT_STRIPES = getNumberOfStripes(2 * Runtime.getRuntime().availableProcessors());
+
+    /** Spacing (in longs) of the cells, so that each cell is on its own cache line. */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    /**
+     * Constructor.
+     * @param stripes Number of stripes (rounded up to a power of 2)
+     */
+    public StripedCounter(int stripes)
+    {
+        int numStripes = getNumberOfStripes(stripes);
+        this.mask = numStripes - 1;
+        this.cells = new AtomicLongArray(numStripes == 1 ? 1 : numStripes * PADDING);
+    }
+
+    /**
+     * Method to add the specified amount to the counter.
+     * @param amount The amount to add (can be negative)
+     */
+    public void add(long amount)
+    {
+        cells.addAndGet(mask == 0 ? 0 : getStripe(mask) * PADDING, amount);
+    }
+
+    public void increment()
+    {
+        add(1);
+    }
+
+    public void decrement()
+    {
+        add(-1);
+    }
+
+    /**
+     * Accessor for the value of the counter. This is not an atomic snapshot when updates are in progress.
+     * @return The sum of the cells
+     */
+    public long sum()
+    {
+        long sum = 0;
+        int step = (mask == 0 ? 1 : PADDING);
+        for (int i=0;i<cells.length();i+=step)
+        {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Accessor for the stripe that the current thread should update.
+     * @param mask Mask for the number of stripes (number of stripes - 1)
+     * @return The stripe
+     */
+    static int getStripe(int mask)
+    {
+        return (int)Thread.currentThread().getId() & mask;
+    }
+
+    /**
+     * Convenience method to return the number of stripes to use for the required number, being the next
+     * power of 2, with a maximum of 64.
+     * @param stripes Required number of stripes
+     * @return The number of stripes
+     */
+    static int getNumberOfStripes(int stripes)
+    {
+        int numStripes = 1;
+        while (numStripes < stripes && numStripes < 64)
+        {
+            numStripes <<= 1;
+        }
+        return numStripes;
+    }
+}
@@ -19,6 +19,10 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.metadata;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Member;
@@ -207,8 +211,8 @@ public abstract class AbstractMemberMetaData extends MetaData implements Compara
     /** Field type being represented. */
     protected Class type;
 
-    /** The member (field/method) being represented here. Note, this prevents Serialization. */
-    protected Member memberRepresented;
+    /** The member (field/method) being represented here. Serialised as its declaring class and name. */
+    protected transient Member memberRepresented;
 
     /**
      * Id of the field in its class (only for fields that are managed).
@@ -3322,4 +3326,44 @@ public abstract class AbstractMemberMetaData extends MetaData implements Compara
         }
         throw new ClassCastException(this.getClass().getName() + " != " + o.getClass().getName());
     }
-}
+
+    private void writeObject(ObjectOutputStream out)
+    throws IOException
+    {
+        out.defaultWriteObject();
+        if (memberRepresented != null)
+        {
+            out.writeObject(memberRepresented.getDeclaringClass());
+            out.writeUTF(memberRepresented.getName());
+            out.writeBoolean(memberRepresented instanceof Method);
+        }
+        else
+        {
+            out.writeObject(null);
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        Class declaringClass = (Class)in.readObject();
+        if (declaringClass != null)
+        {
+            String memberName = in.readUTF();
+            boolean method = in.readBoolean();
+            try
+            {
+                memberRepresented = (method ? declaringClass.getDeclaredMethod(memberName) : declaringClass.getDeclaredField(memberName));
+            }
+            catch (NoSuchFieldException nsfe)
+            {
+                throw new InvalidObjectException("Field " + memberName + " of " + declaringClass.getName() + " not found");
+            }
+            catch (NoSuchMethodException nsme)
+            {
+                throw new InvalidObjectException("Method " + memberName + " of " + declaringClass.getName() + " not found");
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -61,8 +61,11 @@ public class MetaData implements Serializable
     /** State reflecting that MetaData object has been modified with usage information (e.g defaulted column names). */
     public static final int METADATA_USED_STATE = 3;
 
-    /** State of the MetaData. */
-    protected int metaDataState = METADATA_CREATED_STATE;
+    /**
+     * State of the MetaData. Volatile so that metadata seen as initialised by a thread that didn't
+     * initialise it is seen fully initialised.
+     */
+    protected volatile int metaDataState = METADATA_CREATED_STATE;
 
     /** Parent MetaData object, allowing hierarchical MetaData structure. */
     protected MetaData parent;
@@ -34,11 +34,22 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -100,7 +111,8 @@ import org.datanucleus.util.StringUtils;
  * <P>
  * MetaDataManager is intended to be thread-safe. All maps are ConcurrentHashMap to provide basic multithread usage.
  * In addition all mutating methods make use of an update "lock" so that only one thread can update the metadata
- * definition at any time.
+ * definition at any time. Lookups of class metadata that is already loaded and initialised don't lock;
+ * only the loading and initialisation of metadata for a class synchronises on the manager.
  * </P>
  */
 public abstract class MetaDataManagerImpl implements Serializable, MetaDataManager
@@ -115,8 +127,14 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     /** Manager for annotations. */
     protected final AnnotationManager annotationManager;
 
-    /** XML Parser for MetaData. */
-    protected MetaDataParser metaDataParser = null;
+    /** XML Parser for MetaData. Created on first use by getMetaDataParser(), possibly by a thread loading in parallel. */
+    protected volatile MetaDataParser metaDataParser = null;
+
+    /** Lock used when creating the XML Parser for MetaData. */
+    private final Object metaDataParserLock = new Object();
+
+    /** Number of threads created for loading metadata in parallel, used when naming them. */
+    private static final AtomicInteger numLoadThreads = new AtomicInteger();
 
     /** Flag whether we should validate the (XML) metadata files when parsing. */
     protected boolean validateXML = true;
@@ -136,14 +154,52 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     /** Whether we allow ORM XML metadata. */
     protected boolean allowORM = true;
 
+    /** Whether to parse metadata files and read annotations of a persistence-unit in parallel. */
+    protected boolean parallelLoad = false;
+
+    /** Whether to defer the populate/initialise of the classes of a persistence-unit until their first use. */
+    protected boolean lazyInitialisation = false;
+
+    /** Names of classes whose metadata is registered but not yet initialised, when initialised lazily. */
+    protected Set<String> uninitialisedClassNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Names of classes not yet initialised, keyed by the name of each of their persistable superclasses (the lookups
+     * that need them to be initialised are all by persistable class). May include classes that have since been initialised.
+     */
+    protected Map<String, Set<String>> uninitialisedClassNamesBySuperclass = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Names of classes not yet initialised that aren't yet in <i>uninitialisedClassNamesBySuperclass</i>, since
+     * their superclasses aren't all named in metadata. Their superclasses are found from the class when next needed.
+     */
+    protected Queue<String> unindexedUninitialisedClassNames = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * Names of classes not yet initialised, keyed by the object-id class named in their metadata (or "" when not named).
+     * May include classes that have since been initialised.
+     */
+    protected Map<String, Set<String>> uninitialisedClassNamesByObjectIdClass = new ConcurrentHashMap<String, Set<String>>();
+
     protected Lock updateLock = null;
 
     /** Cache of class names that are known to not have MetaData/annotations. */
-    protected Collection<String> classesWithoutPersistenceInfo = new HashSet();
+    protected Collection<String> classesWithoutPersistenceInfo =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /** Map of ClassMetaData, keyed by the class name. */
     protected Map<String, AbstractClassMetaData> classMetaDataByClass = new ConcurrentHashMap<String, AbstractClassMetaData>();
 
+    /**
+     * Map of ClassMetaData that can be returned without locking, keyed by the class name.
+     * A class is only added once the call loading it has registered it in the subclass and object-id lookups,
+     * initialised the files it utilised, and notified any listeners, so it is never returned part way through.
+     */
+    protected Map<String, AbstractClassMetaData> readyClassMetaDataByClass = new ConcurrentHashMap<String, AbstractClassMetaData>();
+
+    /** Depth of nested calls to loadMetaDataForClass, accessed when synchronised on this manager. */
+    private int loadMetaDataCallDepth = 0;
+
     /** Map of FileMetaData for the parsed files, keyed by the URL string. */
     protected Map<String, FileMetaData> fileMetaDataByURLString = new ConcurrentHashMap();
 
@@ -239,6 +295,8 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         }
 
         allowORM = nucleusContext.supportsORMMetaData();
+        parallelLoad = nucleusContext.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_PARALLEL_LOAD);
+        lazyInitialisation = nucleusContext.getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_METADATA_LAZY_INITIALISATION);
         if (allowORM)
         {
             Boolean configOrm = 
@@ -257,8 +315,13 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     @Override
     public void close()
     {
+        readyClassMetaDataByClass.clear();
         classMetaDataByClass.clear();
         classMetaDataByClass = null;
+        uninitialisedClassNames.clear();
+        uninitialisedClassNamesBySuperclass.clear();
+        unindexedUninitialisedClassNames.clear();
+        uninitialisedClassNamesByObjectIdClass.clear();
 
         fileMetaDataByURLString.clear();
         fileMetaDataByURLString = null;
@@ -319,7 +382,10 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
 
         if (classMetaDataByAppIdClassName != null)
         {
-            classMetaDataByAppIdClassName.clear();
+            synchronized (classMetaDataByAppIdClassName)
+            {
+                classMetaDataByAppIdClassName.clear();
+            }
             classMetaDataByAppIdClassName = null;
         }
 
@@ -835,7 +901,23 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
                 }
             }
 
-            ClassLoaderResolver clr = nucleusContext.getClassLoaderResolver(loader);
+            final ClassLoaderResolver clr = nucleusContext.getClassLoaderResolver(loader);
+
+            String snapshotFileName = nucleusContext.getConfiguration().getStringProperty(PropertyNames.PROPERTY_METADATA_SNAPSHOT_FILE);
+            if (snapshotFileName != null)
+            {
+                // Restore the metadata from the snapshot, if present and up to date
+                FileMetaData[] snapshotFileMetaData = loadMetaDataSnapshot(new File(snapshotFileName), pumd, clr);
+                if (snapshotFileMetaData != null)
+                {
+                    if (originatingLoadCall)
+                    {
+                        processListenerLoadingCall();
+                    }
+                    return snapshotFileMetaData;
+                }
+            }
+
             HashSet exceptions = new HashSet();
             ArrayList fileMetaData = new ArrayList();
 
@@ -996,7 +1078,9 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
 
             if (allowXML && !mappingFiles.isEmpty())
             {
-                // Load XML metadata for all <mapping-file> specifications
+                // Find the URLs of all <mapping-file> specifications not yet loaded
+                List<URL> mappingFileURLs = new ArrayList<URL>();
+                Set<String> mappingFileURLStrings = new HashSet<String>();
                 Iterator iter = mappingFiles.iterator();
                 while (iter.hasNext())
                 {
@@ -1013,67 +1097,111 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
                             while (files.hasMoreElements())
                             {
                                 URL url = (URL)files.nextElement();
-                                if (url != null && fileMetaDataByURLString.get(url.toString()) == null)
+                                if (url != null && fileMetaDataByURLString.get(url.toString()) == null &&
+                                    mappingFileURLStrings.add(url.toString()))
                                 {
-                                    FileMetaData filemd = parseFile(url);
-                                    if (filemd != null)
-                                    {
-                                        // Register the file
-                                        registerFile(url.toString(), filemd, clr);
-                                        fileMetaData.add(filemd);
-                                    }
+                                    mappingFileURLs.add(url);
                                 }
                             }
                         }
                     }
+                    catch (IOException ioe)
+                    {
+                        NucleusLogger.METADATA.error(LOCALISER.msg("044027",
+                            pumd.getName(), mappingFileName, ioe.getMessage()), ioe);
+                    }
+                }
+
+                // Parse the XML metadata files (in parallel if required) and register them in the order found
+                List<Callable<FileMetaData>> parseTasks = new ArrayList<Callable<FileMetaData>>(mappingFileURLs.size());
+                for (final URL url : mappingFileURLs)
+                {
+                    parseTasks.add(new Callable<FileMetaData>()
+                    {
+                        public FileMetaData call()
+                        {
+                            return parseFile(url);
+                        }
+                    });
+                }
+                List<Future<FileMetaData>> parseResults = executeLoadTasks(parseTasks);
+                for (int i=0;i<mappingFileURLs.size();i++)
+                {
+                    try
+                    {
+                        FileMetaData filemd = getLoadTaskResult(parseResults.get(i));
+                        if (filemd != null)
+                        {
+                            // Register the file
+                            registerFile(mappingFileURLs.get(i).toString(), filemd, clr);
+                            fileMetaData.add(filemd);
+                        }
+                    }
                     catch (InvalidMetaDataException imde)
                     {
                         // Error in the metadata for this file
                         NucleusLogger.METADATA.error(StringUtils.getStringFromStackTrace(imde));
                         exceptions.add(imde);
                     }
-                    catch (IOException ioe)
-                    {
-                        NucleusLogger.METADATA.error(LOCALISER.msg("044027",
-                            pumd.getName(), mappingFileName, ioe.getMessage()), ioe);
-                    }
+                }
+                if (parallelLoad && metaDataParser != null)
+                {
+                    // Release the parsers created for the concurrent parsing
+                    metaDataParser.clearParsers();
                 }
             }
 
             if (allowAnnotations && !classNames.isEmpty())
             {
-                // Load annotation metadata for all classes
+                // Read annotation metadata for all classes (in parallel if required)
+                List<String> annotatedClassNames = new ArrayList<String>();
+                List<Callable<FileMetaData>> readTasks = new ArrayList<Callable<FileMetaData>>();
                 Iterator iter = classNames.iterator();
                 while (iter.hasNext())
                 {
                     // Check for MetaData for this class (take precedence over annotations if they exist)
-                    String className = (String)iter.next();
+                    final String className = (String)iter.next();
                     AbstractClassMetaData cmd = classMetaDataByClass.get(className);
                     if (cmd == null)
                     {
                         // No MetaData so try annotations
-                        try
+                        annotatedClassNames.add(className);
+                        readTasks.add(new Callable<FileMetaData>()
                         {
-                            Class cls = clr.classForName(className);
-                            FileMetaData filemd = loadAnnotationsForClass(cls, clr, true, false);
-                            if (filemd != null)
+                            public FileMetaData call()
                             {
-                                fileMetaData.add(filemd);
-                            }
-                            else
-                            {
-                                NucleusLogger.METADATA.debug("Class " + className + " was specified in persistence-unit (maybe by not putting exclude-unlisted-classes) " +
-                                        pumd.getName() + " but not annotated, so ignoring");
+                                return readAnnotationsForClass(clr.classForName(className), clr);
                             }
+                        });
+                    }
+                    else
+                    {
+                        // We have MetaData, and any annotations will be merged in during the populate process
+                    }
+                }
+
+                // Register the annotation metadata in the order of the classes
+                List<Future<FileMetaData>> readResults = executeLoadTasks(readTasks);
+                for (int i=0;i<annotatedClassNames.size();i++)
+                {
+                    String className = annotatedClassNames.get(i);
+                    try
+                    {
+                        FileMetaData filemd = getLoadTaskResult(readResults.get(i));
+                        if (filemd != null)
+                        {
+                            registerFile("annotations:" + className, filemd, clr);
+                            fileMetaData.add(filemd);
                         }
-                        catch (Exception e)
+                        else
                         {
-                            exceptions.add(e);
+                            NucleusLogger.METADATA.debug("Class " + className + " was specified in persistence-unit (maybe by not putting exclude-unlisted-classes) " +
+                                    pumd.getName() + " but not annotated, so ignoring");
                         }
                     }
-                    else
+                    catch (Exception e)
                     {
-                        // We have MetaData, and any annotations will be merged in during the populate process
+                        exceptions.add(e);
                     }
                 }
             }
@@ -1085,24 +1213,41 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
 
             if (fileMetaData.size() > 0)
             {
-                // Populate/Initialise all loaded FileMetaData
-                initialiseFileMetaDataForUse(fileMetaData, clr);
+                if (lazyInitialisation)
+                {
+                    // Populate/Initialise the classes on their first use
+                    registerUninitialisedFileMetaData(fileMetaData, clr);
+                }
+                else
+                {
+                    // Populate/Initialise all loaded FileMetaData
+                    initialiseFileMetaDataForUse(fileMetaData, clr);
+                }
             }
 
-            // Some other (inner) classes may have been brought in the populate of the above so check
-            // TODO Really need a Set of unpopulated/uninitialised metadata and continue til all done
-            for (AbstractClassMetaData cmd : classMetaDataByClass.values())
+            if (!lazyInitialisation)
             {
-                if (!cmd.isPopulated())
+                // Some other (inner) classes may have been brought in the populate of the above so check
+                // TODO Really need a Set of unpopulated/uninitialised metadata and continue til all done
+                for (AbstractClassMetaData cmd : classMetaDataByClass.values())
                 {
-                    populateAbstractClassMetaData(cmd, clr, loader);
-                }
-                if (!cmd.isInitialised())
-                {
-                    initialiseAbstractClassMetaData(cmd, clr);
+                    if (!cmd.isPopulated())
+                    {
+                        populateAbstractClassMetaData(cmd, clr, loader);
+                    }
+                    if (!cmd.isInitialised())
+                    {
+                        initialiseAbstractClassMetaData(cmd, clr);
+                    }
                 }
             }
 
+            if (snapshotFileName != null)
+            {
+                // Save the metadata for use by subsequent startups
+                writeMetaDataSnapshot(new File(snapshotFileName), pumd, clr);
+            }
+
             if (NucleusLogger.METADATA.isDebugEnabled())
             {
                 NucleusLogger.METADATA.debug(LOCALISER.msg("044010"));
@@ -1123,6 +1268,273 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         }
     }
 
+    /**
+     * Method to execute the tasks of loading the metadata of a persistence-unit. When parallel loading is
+     * enabled the tasks are executed concurrently on a pool bounded by the number of processors, otherwise
+     * they are executed in turn by the calling thread. Tasks must not change the state of this manager.
+     * @param tasks The tasks
+     * @return The results of the tasks, in the same order as the tasks
+     */
+    protected List<Future<FileMetaData>> executeLoadTasks(List<Callable<FileMetaData>> tasks)
+    {
+        int numThreads = Math.min(tasks.size(), getNumberOfLoadThreads());
+        if (!parallelLoad || numThreads < 2)
+        {
+            List<Future<FileMetaData>> results = new ArrayList<Future<FileMetaData>>(tasks.size());
+            for (Callable<FileMetaData> task : tasks)
+            {
+                FutureTask<FileMetaData> future = new FutureTask<FileMetaData>(task);
+                future.run();
+                results.add(future);
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                // Daemon so that a load that fails to shut down the pool doesn't prevent the JVM exiting
+                Thread thread = new Thread(r, "DataNucleus-MetaDataLoad-" + numLoadThreads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try
+        {
+            return executor.invokeAll(tasks);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new NucleusException("Interrupted while loading metadata", ie);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Accessor for the maximum number of threads to use when loading the metadata of a persistence-unit in parallel.
+     * @return The number of threads (the number of processors)
+     */
+    protected int getNumberOfLoadThreads()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Accessor for the result of a (completed) task of loading metadata, rethrowing any exception thrown by the task.
+     * @param future The result of the task
+     * @return The FileMetaData
+     */
+    private FileMetaData getLoadTaskResult(Future<FileMetaData> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new NucleusException("Interrupted while loading metadata", ie);
+        }
+        catch (ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new NucleusException("Error loading metadata", cause);
+        }
+    }
+
+    /**
+     * Method to return the settings of this manager that determine what metadata is loaded for a persistence-unit,
+     * so that a snapshot of its metadata is only used with the same settings. These are the API, whether XML
+     * metadata, annotations and ORM metadata are allowed, the metadata properties, and (for JPA) the URLs of
+     * the default "META-INF/orm.xml" mapping files, since these aren't listed by the persistence-unit.
+     * @param pumd The persistence-unit
+     * @param clr ClassLoader resolver
+     * @return The settings, in a consistent order
+     */
+    protected List<String> getMetaDataSnapshotSettings(PersistenceUnitMetaData pumd, ClassLoaderResolver clr)
+    {
+        List<String> settings = new ArrayList<String>();
+        settings.add("api:" + nucleusContext.getApiName());
+        settings.add("allow-xml:" + allowXML);
+        settings.add("allow-annotations:" + allowAnnotations);
+        settings.add("allow-orm:" + allowORM);
+
+        // Metadata properties, other than those that don't change the metadata loaded
+        Set<String> propertySettings = new TreeSet<String>();
+        Set<String> propNames = nucleusContext.getConfiguration().getPropertyNamesWithPrefix("datanucleus.metadata.");
+        if (propNames != null)
+        {
+            for (String propName : propNames)
+            {
+                if (!propName.equalsIgnoreCase(PropertyNames.PROPERTY_METADATA_SNAPSHOT_FILE) &&
+                    !propName.equalsIgnoreCase(PropertyNames.PROPERTY_METADATA_PARALLEL_LOAD))
+                {
+                    propertySettings.add("property:" + propName + "=" + nucleusContext.getConfiguration().getProperty(propName));
+                }
+            }
+        }
+        Properties puProps = pumd.getProperties();
+        if (puProps != null)
+        {
+            for (String propName : puProps.stringPropertyNames())
+            {
+                if (propName.toLowerCase(Locale.ENGLISH).startsWith("datanucleus.metadata."))
+                {
+                    propertySettings.add("unit-property:" + propName + "=" + puProps.getProperty(propName));
+                }
+            }
+        }
+        settings.addAll(propertySettings);
+
+        if (allowXML && "JPA".equalsIgnoreCase(nucleusContext.getApiName()))
+        {
+            // Default mapping files are used when present, so one being added changes the metadata
+            Set<String> defaultMappingFiles = new TreeSet<String>();
+            try
+            {
+                Enumeration files = clr.getResources("META-INF/orm.xml", Thread.currentThread().getContextClassLoader());
+                while (files.hasMoreElements())
+                {
+                    defaultMappingFiles.add("default-mapping-file:" + files.nextElement());
+                }
+            }
+            catch (IOException ioe)
+            {
+                NucleusLogger.METADATA.debug("Unable to find default mapping files for metadata snapshot : " + ioe.getMessage());
+            }
+            settings.addAll(defaultMappingFiles);
+        }
+        return settings;
+    }
+
+    /**
+     * Method to restore the metadata from the snapshot in the specified file, registering it with this manager.
+     * The snapshot is only used if it is for the same persistence-unit (with the same classes, mapping files
+     * and jar files) loaded with the same settings, and none of the sources of its metadata have changed.
+     * @param file The snapshot file
+     * @param pumd The persistence-unit
+     * @param clr ClassLoader resolver
+     * @return The FileMetaData restored, or null if the snapshot wasn't used
+     */
+    protected FileMetaData[] loadMetaDataSnapshot(File file, PersistenceUnitMetaData pumd, ClassLoaderResolver clr)
+    {
+        String unitName = pumd.getName();
+        if (!file.exists())
+        {
+            return null;
+        }
+
+        Map<String, FileMetaData> snapshotFileMetaData = null;
+        try
+        {
+            snapshotFileMetaData = MetaDataSnapshot.read(file, pumd, getMetaDataSnapshotSettings(pumd, clr), clr);
+        }
+        catch (Exception e)
+        {
+            NucleusLogger.METADATA.warn("Unable to read metadata snapshot " + file + " so loading metadata : " + e.getMessage());
+            return null;
+        }
+        if (snapshotFileMetaData == null)
+        {
+            NucleusLogger.METADATA.info("Metadata snapshot " + file + " is out of date for persistence-unit " + unitName + " so loading metadata");
+            return null;
+        }
+
+        Iterator<Map.Entry<String, FileMetaData>> fileIter = snapshotFileMetaData.entrySet().iterator();
+        while (fileIter.hasNext())
+        {
+            Map.Entry<String, FileMetaData> entry = fileIter.next();
+            FileMetaData filemd = entry.getValue();
+            filemd.setMetaDataManager(this);
+            registerFile(entry.getKey(), filemd, clr);
+        }
+
+        // Register what is otherwise registered during initialisation of the classes
+        Iterator<FileMetaData> filemdIter = snapshotFileMetaData.values().iterator();
+        while (filemdIter.hasNext())
+        {
+            FileMetaData filemd = filemdIter.next();
+            for (int i=0;i<filemd.getNoOfPackages();i++)
+            {
+                PackageMetaData pmd = filemd.getPackage(i);
+                for (int j=0;j<pmd.getNoOfClasses();j++)
+                {
+                    restoreAbstractClassMetaData(pmd.getClass(j));
+                }
+                for (int j=0;j<pmd.getNoOfInterfaces();j++)
+                {
+                    restoreAbstractClassMetaData(pmd.getInterface(j));
+                }
+            }
+        }
+
+        if (NucleusLogger.METADATA.isDebugEnabled())
+        {
+            NucleusLogger.METADATA.debug("Restored metadata for persistence-unit " + unitName + " from snapshot " + file);
+        }
+        return snapshotFileMetaData.values().toArray(new FileMetaData[snapshotFileMetaData.size()]);
+    }
+
+    /**
+     * Method to register the metadata for a class restored from a snapshot, as it would be registered
+     * when initialised.
+     * @param cmd Metadata for the class
+     */
+    protected void restoreAbstractClassMetaData(AbstractClassMetaData cmd)
+    {
+        if (!cmd.isInitialised())
+        {
+            if (cmd instanceof ClassMetaData)
+            {
+                // Snapshot taken with lazy initialisation, so initialise on first use
+                registerUninitialisedClass(cmd);
+            }
+            return;
+        }
+
+        InheritanceMetaData inhmd = cmd.getInheritanceMetaData();
+        if (inhmd != null && inhmd.getDiscriminatorMetaData() != null &&
+            cmd.getDiscriminatorStrategy() == DiscriminatorStrategy.VALUE_MAP &&
+            inhmd.getDiscriminatorMetaData().getValue() != null)
+        {
+            registerDiscriminatorValueForClass(cmd, inhmd.getDiscriminatorMetaData().getValue());
+        }
+        abstractClassMetaDataInitialised(cmd);
+    }
+
+    /**
+     * Method to write a snapshot of all metadata registered with this manager to the specified file.
+     * Any error in writing the file is logged, and otherwise ignored.
+     * @param file The snapshot file
+     * @param pumd The persistence-unit
+     * @param clr ClassLoader resolver
+     */
+    public void writeMetaDataSnapshot(File file, PersistenceUnitMetaData pumd, ClassLoaderResolver clr)
+    {
+        try
+        {
+            MetaDataSnapshot.write(file, pumd, getMetaDataSnapshotSettings(pumd, clr), fileMetaDataByURLString, clr);
+            NucleusLogger.METADATA.info("Written metadata snapshot for persistence-unit " + pumd.getName() + " to " + file);
+        }
+        catch (Exception e)
+        {
+            NucleusLogger.METADATA.warn("Unable to write metadata snapshot " + file + " : " + e.getMessage());
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.metadata.MetaDataManager#loadUserMetaData(org.datanucleus.metadata.FileMetaData, java.lang.ClassLoader)
      */
@@ -1195,6 +1607,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
             updateLock.lock();
 
             // Remove any reference to the AbstractClassMetaData
+            readyClassMetaDataByClass.remove(className);
             AbstractClassMetaData cmd = classMetaDataByClass.remove(className);
             Iterator<Map.Entry<String, AbstractClassMetaData>> iter = classMetaDataByDiscriminatorName.entrySet().iterator();
             while (iter.hasNext())
@@ -1214,14 +1627,17 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
                     iter.remove();
                 }
             }
-            Iterator<Map.Entry> entryIter = classMetaDataByAppIdClassName.entrySet().iterator();
-            while (entryIter.hasNext())
+            synchronized (classMetaDataByAppIdClassName)
             {
-                Map.Entry entry = entryIter.next();
-                Collection<AbstractClassMetaData> collCmds = (Collection<AbstractClassMetaData>) entry.getValue();
-                if (collCmds.size() > 0)
+                Iterator<Map.Entry> entryIter = classMetaDataByAppIdClassName.entrySet().iterator();
+                while (entryIter.hasNext())
                 {
-                    collCmds.remove(cmd);
+                    Map.Entry entry = entryIter.next();
+                    Collection<AbstractClassMetaData> collCmds = (Collection<AbstractClassMetaData>) entry.getValue();
+                    if (collCmds.size() > 0)
+                    {
+                        collCmds.remove(cmd);
+                    }
                 }
             }
 
@@ -1230,6 +1646,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
             directSubclassesByClass.remove(className);
             discriminatorLookupByRootClassName.remove(className);
             classesWithoutPersistenceInfo.remove(className);
+            uninitialisedClassNames.remove(className);
         }
         finally
         {
@@ -1276,6 +1693,236 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         }
     }
 
+    /**
+     * Method to register the classes of the provided FileMetaData for lazy initialisation, so each class
+     * is only populated and initialised on first use. The packages are initialised now, as are any files
+     * defining persistent interfaces since these are resolved via their implementations.
+     * @param fileMetaData Collection of FileMetaData
+     * @param clr ClassLoader resolver
+     */
+    protected void registerUninitialisedFileMetaData(Collection fileMetaData, ClassLoaderResolver clr)
+    {
+        List<FileMetaData> interfaceFileMetaData = new ArrayList<FileMetaData>();
+        Iterator iter = fileMetaData.iterator();
+        while (iter.hasNext())
+        {
+            FileMetaData filemd = (FileMetaData)iter.next();
+            if (filemd.isInitialised())
+            {
+                continue;
+            }
+
+            boolean hasInterfaces = false;
+            for (int i=0;i<filemd.getNoOfPackages();i++)
+            {
+                PackageMetaData pmd = filemd.getPackage(i);
+                pmd.initialise(clr, this);
+                for (int j=0;j<pmd.getNoOfClasses();j++)
+                {
+                    ClassMetaData cmd = pmd.getClass(j);
+                    if (!cmd.isInitialised())
+                    {
+                        registerUninitialisedClass(cmd);
+                    }
+                }
+                if (pmd.getNoOfInterfaces() > 0)
+                {
+                    hasInterfaces = true;
+                }
+            }
+            if (hasInterfaces)
+            {
+                interfaceFileMetaData.add(filemd);
+            }
+        }
+
+        if (!interfaceFileMetaData.isEmpty())
+        {
+            initialiseFileMetaDataForUse(interfaceFileMetaData, clr);
+        }
+    }
+
+    /**
+     * Method to register a class whose metadata will be initialised on first use, adding it to the lookups of
+     * such classes by superclass and by object-id class. Where its metadata names its superclasses these are
+     * used, otherwise the superclasses are found from the class when they are first needed.
+     * @param cmd Metadata for the class
+     */
+    protected void registerUninitialisedClass(AbstractClassMetaData cmd)
+    {
+        String className = cmd.getFullClassName();
+        uninitialisedClassNames.add(className);
+        addToLookup(uninitialisedClassNamesByObjectIdClass, cmd.getObjectidClass() != null ? cmd.getObjectidClass() : "",
+            className);
+
+        List<String> superclassNames = getSuperclassNamesFromMetaData(cmd);
+        if (superclassNames != null)
+        {
+            for (String superclassName : superclassNames)
+            {
+                addToLookup(uninitialisedClassNamesBySuperclass, superclassName, className);
+            }
+        }
+        else
+        {
+            unindexedUninitialisedClassNames.add(className);
+        }
+    }
+
+    /**
+     * Convenience method to return the names of the persistable superclasses of a class where these are all
+     * known from the metadata registered (without loading the class).
+     * @param cmd Metadata for the class
+     * @return The superclass names, or null if not all known
+     */
+    private List<String> getSuperclassNamesFromMetaData(AbstractClassMetaData cmd)
+    {
+        List<String> superclassNames = new ArrayList<String>();
+        AbstractClassMetaData theCmd = cmd;
+        while (theCmd.getPersistenceCapableSuperclass() != null)
+        {
+            String superclassName = ClassUtils.createFullClassName(theCmd.getPackageName(), theCmd.getPersistenceCapableSuperclass());
+            superclassNames.add(superclassName);
+            theCmd = classMetaDataByClass.get(superclassName);
+            if (theCmd == null)
+            {
+                return null;
+            }
+        }
+
+        // The superclass is only known to be absent once populated
+        return (theCmd.isPopulated() ? superclassNames : null);
+    }
+
+    private static void addToLookup(Map<String, Set<String>> lookup, String key, String className)
+    {
+        Set<String> classNames = lookup.get(key);
+        if (classNames == null)
+        {
+            classNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> existing = ((ConcurrentHashMap<String, Set<String>>)lookup).putIfAbsent(key, classNames);
+            if (existing != null)
+            {
+                classNames = existing;
+            }
+        }
+        classNames.add(className);
+    }
+
+    /**
+     * Method to add any lazily initialised classes whose superclasses aren't named in their metadata to the
+     * lookup by superclass, finding their superclasses from the class. Each class is only processed once.
+     * @param clr ClassLoader resolver
+     */
+    private void indexUninitialisedClasses(ClassLoaderResolver clr)
+    {
+        if (unindexedUninitialisedClassNames.isEmpty())
+        {
+            return;
+        }
+
+        synchronized (unindexedUninitialisedClassNames)
+        {
+            // Only remove each class once it's in the lookup, so other threads wait for it here
+            String className = null;
+            while ((className = unindexedUninitialisedClassNames.peek()) != null)
+            {
+                if (uninitialisedClassNames.contains(className))
+                {
+                    try
+                    {
+                        Class cls = clr.classForName(className);
+                        for (Class superclass : ClassUtils.getSuperclasses(cls))
+                        {
+                            addToLookup(uninitialisedClassNamesBySuperclass, superclass.getName(), className);
+                        }
+                        for (Class superintf : ClassUtils.getSuperinterfaces(cls))
+                        {
+                            addToLookup(uninitialisedClassNamesBySuperclass, superintf.getName(), className);
+                        }
+                    }
+                    catch (ClassNotResolvedException cnre)
+                    {
+                        // Class is not available so will never be used
+                        uninitialisedClassNames.remove(className);
+                    }
+                }
+                unindexedUninitialisedClassNames.poll();
+            }
+        }
+    }
+
+    /**
+     * Method to populate and initialise the metadata of any lazily initialised classes that are the specified
+     * class or one of its subclasses. Used before lookups that are only registered when a class is
+     * initialised (subclasses, discriminator values) so that these are complete.
+     * Only the classes found under this class in the lookup by superclass are initialised.
+     * @param className Name of the class
+     */
+    protected void initialiseUninitialisedClasses(String className)
+    {
+        if (uninitialisedClassNames.isEmpty())
+        {
+            return;
+        }
+
+        ClassLoaderResolver clr = nucleusContext.getClassLoaderResolver(null);
+        indexUninitialisedClasses(clr);
+        if (uninitialisedClassNames.contains(className))
+        {
+            getMetaDataForClass(className, clr);
+        }
+        initialiseUninitialisedClasses(uninitialisedClassNamesBySuperclass.get(className), clr);
+    }
+
+    /**
+     * Method to populate and initialise the metadata of those of the specified classes that are still
+     * uninitialised, removing each from the specified set once initialised.
+     * @param classNames Names of the classes (from a lookup of uninitialised classes), or null
+     * @param clr ClassLoader resolver
+     */
+    private void initialiseUninitialisedClasses(Set<String> classNames, ClassLoaderResolver clr)
+    {
+        if (classNames == null)
+        {
+            return;
+        }
+
+        Iterator<String> iter = classNames.iterator();
+        while (iter.hasNext())
+        {
+            String uninitialisedClassName = iter.next();
+            if (uninitialisedClassNames.contains(uninitialisedClassName))
+            {
+                try
+                {
+                    getMetaDataForClass(uninitialisedClassName, clr);
+                }
+                catch (ClassNotResolvedException cnre)
+                {
+                    // Class is not available so will never be used
+                    uninitialisedClassNames.remove(uninitialisedClassName);
+                }
+            }
+            iter.remove();
+        }
+    }
+
+    /**
+     * Convenience method to return the metadata for a class found in a lookup, populating and initialising
+     * it if it was registered for lazy initialisation.
+     * @param cmd The metadata (or null)
+     * @return The metadata, initialised
+     */
+    private AbstractClassMetaData getInitialisedMetaData(AbstractClassMetaData cmd)
+    {
+        if (cmd != null && !cmd.isInitialised() && uninitialisedClassNames.contains(cmd.getFullClassName()))
+        {
+            return getMetaDataForClass(cmd.getFullClassName(), nucleusContext.getClassLoaderResolver(null));
+        }
+        return cmd;
+    }
+
     /**
      * Method to initialise the provided FileMetaData, ready for use.
      * @param fileMetaData Collection of FileMetaData
@@ -1490,14 +2137,26 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     @Override
     public Collection<AbstractClassMetaData> getClassMetaDataWithApplicationId(String objectIdClassName)
     {
-        return (Collection<AbstractClassMetaData>)classMetaDataByAppIdClassName.get(objectIdClassName);
+        if (!uninitialisedClassNames.isEmpty())
+        {
+            // Initialise any lazily initialised classes that may use this object-id class (if not specified it is only known once populated)
+            ClassLoaderResolver clr = nucleusContext.getClassLoaderResolver(null);
+            initialiseUninitialisedClasses(uninitialisedClassNamesByObjectIdClass.get(objectIdClassName), clr);
+            initialiseUninitialisedClasses(uninitialisedClassNamesByObjectIdClass.get(""), clr);
+        }
+        synchronized (classMetaDataByAppIdClassName)
+        {
+            // Return a copy since the lookup can be updated by other threads
+            Collection<AbstractClassMetaData> cmds = (Collection<AbstractClassMetaData>)classMetaDataByAppIdClassName.get(objectIdClassName);
+            return (cmds != null ? new ArrayList<AbstractClassMetaData>(cmds) : null);
+        }
     }
 
     /* (non-Javadoc)
      * @see org.datanucleus.metadata.MetaDataManager#getMetaDataForClass(java.lang.String, org.datanucleus.ClassLoaderResolver)
      */
     @Override
-    public synchronized AbstractClassMetaData getMetaDataForClass(String className, ClassLoaderResolver clr)
+    public AbstractClassMetaData getMetaDataForClass(String className, ClassLoaderResolver clr)
     {
         if (className == null)
         {
@@ -1510,11 +2169,10 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
             return null;
         }
 
-        // Check if we have the MetaData already
-        AbstractClassMetaData cmd = classMetaDataByClass.get(className);
-        if (cmd != null && cmd.isPopulated() && cmd.isInitialised() && cmd instanceof ClassMetaData)
+        // Check if we have the MetaData already, without locking
+        AbstractClassMetaData cmd = readyClassMetaDataByClass.get(className);
+        if (cmd != null)
         {
-            // We explicitly don't return metadata for persistent interfaces here since they should return the impl CMD
             return cmd;
         }
 
@@ -1539,10 +2197,14 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         }
         if (c == null)
         {
-            if (cmd != null && cmd.isPopulated() && cmd.isInitialised())
+            synchronized (this)
             {
-                // Return any previously loaded metadata
-                return cmd;
+                // Return any previously loaded metadata, once any load of it in progress has completed
+                cmd = classMetaDataByClass.get(className);
+                if (cmd != null && cmd.isPopulated() && cmd.isInitialised())
+                {
+                    return cmd;
+                }
             }
 
             return null;
@@ -1558,7 +2220,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
      * @see org.datanucleus.metadata.MetaDataManager#getMetaDataForClass(java.lang.Class, org.datanucleus.ClassLoaderResolver)
      */
     @Override
-    public synchronized AbstractClassMetaData getMetaDataForClass(Class c, ClassLoaderResolver clr)
+    public AbstractClassMetaData getMetaDataForClass(Class c, ClassLoaderResolver clr)
     {
         if (c == null)
         {
@@ -1569,6 +2231,63 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
             return null;
         }
 
+        if (!c.isInterface())
+        {
+            // Check if we have the MetaData already, without locking
+            AbstractClassMetaData cmd = readyClassMetaDataByClass.get(c.getName());
+            if (cmd != null)
+            {
+                return cmd;
+            }
+        }
+
+        return loadMetaDataForClass(c, clr);
+    }
+
+    /**
+     * Method to load (if not yet loaded) and initialise the metadata for the specified class, returning it.
+     * Synchronises on this manager, so only one thread loads metadata at any time. When the outermost call
+     * completes, the metadata of a (non-interface) class is published for lookups without locking.
+     * @param c The class
+     * @param clr ClassLoader resolver
+     * @return The metadata for the class (or null if not persistable)
+     */
+    protected synchronized AbstractClassMetaData loadMetaDataForClass(Class c, ClassLoaderResolver clr)
+    {
+        AbstractClassMetaData cmd = null;
+        loadMetaDataCallDepth++;
+        try
+        {
+            cmd = loadMetaDataForClassInternal(c, clr);
+        }
+        finally
+        {
+            loadMetaDataCallDepth--;
+        }
+
+        if (loadMetaDataCallDepth == 0 && cmd instanceof ClassMetaData && !c.isInterface() && cmd.isInitialised() &&
+            listenersLoadedMetaData == null)
+        {
+            // Registered, with its files initialised and listeners notified, so can now be returned without locking
+            readyClassMetaDataByClass.put(c.getName(), cmd);
+        }
+        return cmd;
+    }
+
+    /**
+     * Method to load (if not yet loaded) and initialise the metadata for the specified class, returning it.
+     * Called when synchronised on this manager.
+     * @param c The class
+     * @param clr ClassLoader resolver
+     * @return The metadata for the class (or null if not persistable)
+     */
+    private AbstractClassMetaData loadMetaDataForClassInternal(Class c, ClassLoaderResolver clr)
+    {
+        if (isClassWithoutPersistenceInfo(c.getName()))
+        {
+            return null;
+        }
+
         boolean originatingLoadCall = false;
         if (listenersLoadedMetaData == null && listeners != null)
         {
@@ -1664,18 +2383,18 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
      * @see org.datanucleus.metadata.MetaDataManager#getMetaDataForEntityName(java.lang.String)
      */
     @Override
-    public synchronized AbstractClassMetaData getMetaDataForEntityName(String entityName)
+    public AbstractClassMetaData getMetaDataForEntityName(String entityName)
     {
-        return classMetaDataByEntityName.get(entityName);
+        return getInitialisedMetaData(classMetaDataByEntityName.get(entityName));
     }
 
     /* (non-Javadoc)
      * @see org.datanucleus.metadata.MetaDataManager#getMetaDataForDiscriminator(java.lang.String)
      */
     @Override
-    public synchronized AbstractClassMetaData getMetaDataForDiscriminator(String discriminator)
+    public AbstractClassMetaData getMetaDataForDiscriminator(String discriminator)
     {
-        return classMetaDataByDiscriminatorName.get(discriminator);
+        return getInitialisedMetaData(classMetaDataByDiscriminatorName.get(discriminator));
     }
 
     /* (non-Javadoc)
@@ -1710,6 +2429,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
      */
     protected void registerMetaDataForClass(String fullClassName, AbstractClassMetaData cmd)
     {
+        readyClassMetaDataByClass.remove(fullClassName);
         classMetaDataByClass.put(fullClassName, cmd);
     }
 
@@ -1744,6 +2464,10 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
                 if (acmd instanceof ClassMetaData)
                 {
                     // Make sure that we are initialised since implementsMetaData wont be set
+                    if (uninitialisedClassNames.contains(acmd.getFullClassName()))
+                    {
+                        getMetaDataForClass(implClass, clr);
+                    }
                     initialiseAbstractClassMetaData(acmd, clr);
                     if (intfClass.isAssignableFrom(implClass))
                     {
@@ -2206,8 +2930,36 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         return null;
     }
 
+    /**
+     * Accessor for the parser for XML metadata files, creating it on first use.
+     * Can be called by many threads at once, since files are parsed in parallel when loading a persistence-unit.
+     * @return The parser
+     */
+    protected MetaDataParser getMetaDataParser()
+    {
+        MetaDataParser parser = metaDataParser;
+        if (parser == null)
+        {
+            synchronized (metaDataParserLock)
+            {
+                parser = metaDataParser;
+                if (parser == null)
+                {
+                    parser = new MetaDataParser(this, nucleusContext.getPluginManager(), validateXML);
+                    parser.setNamespaceAware(supportXMLNamespaces);
+                    metaDataParser = parser;
+                }
+            }
+        }
+        return parser;
+    }
+
     /**
      * Utility to parse an XML metadata file.
+     * When parallel loading is enabled this is called by many threads at once when loading a persistence-unit,
+     * so implementations must be thread-safe. They must not change the state of this manager (the file is
+     * registered afterwards by the calling thread), and should parse using the parser from getMetaDataParser(),
+     * which gives each concurrent parse its own SAXParser.
      * @param file_url URL of the file
      * @return The FileMetaData for this file
      */
@@ -2241,6 +2993,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     @Override
     public String getClassNameForDiscriminatorValueWithRoot(AbstractClassMetaData rootCmd, String discrimValue)
     {
+        initialiseUninitialisedClasses(rootCmd.getFullClassName());
         DiscriminatorLookup lookup = discriminatorLookupByRootClassName.get(rootCmd.getFullClassName());
         if (lookup != null)
         {
@@ -2256,6 +3009,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     public String getDiscriminatorValueForClass(AbstractClassMetaData cmd, String discrimValue)
     {
         AbstractClassMetaData rootCmd = cmd.getBaseAbstractClassMetaData();
+        initialiseUninitialisedClasses(cmd.getFullClassName());
         DiscriminatorLookup lookup = discriminatorLookupByRootClassName.get(rootCmd.getFullClassName());
         if (lookup != null)
         {
@@ -2698,6 +3452,30 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
      * @return The FileMetaData
      */
     protected FileMetaData loadAnnotationsForClass(Class cls, ClassLoaderResolver clr, boolean register, boolean populate)
+    {
+        FileMetaData filemd = readAnnotationsForClass(cls, clr);
+        if (filemd != null && register)
+        {
+            // register before populating to avoid recursive loops when loading referenced classes
+            registerFile("annotations:" + cls.getName(), filemd, clr);
+
+            if (populate)
+            {
+                // Populate all classes in this file we've just parsed (i.e only 1!)
+                populateFileMetaData(filemd, clr, cls.getClassLoader());
+            }
+        }
+        return filemd;
+    }
+
+    /**
+     * Method to read the annotations for the specified class and return the FileMetaData containing
+     * the class, without registering it. The FileMetaData, PackageMetaData will be dummy records.
+     * @param cls The class
+     * @param clr ClassLoader resolver
+     * @return The FileMetaData, or null if the class has no annotations
+     */
+    protected FileMetaData readAnnotationsForClass(Class cls, ClassLoaderResolver clr)
     {
         if (!allowAnnotations)
         {
@@ -2721,22 +3499,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         filemd.setMetaDataManager(this);
         PackageMetaData pmd = filemd.newPackageMetadata(clsPackageName);
         AbstractClassMetaData cmd = annotationManager.getMetaDataForClass(cls, pmd, clr);
-        if (cmd != null)
-        {
-            if (register)
-            {
-                // register before populating to avoid recursive loops when loading referenced classes
-                registerFile("annotations:" + cls.getName(), filemd, clr);
-
-                if (populate)
-                {
-                    // Populate all classes in this file we've just parsed (i.e only 1!)
-                    populateFileMetaData(filemd, clr, cls.getClassLoader());
-                }
-            }
-            return filemd;
-        }
-        return null;
+        return (cmd != null ? filemd : null);
     }
 
     /**
@@ -2826,10 +3589,15 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
      */
     public void abstractClassMetaDataInitialised(AbstractClassMetaData cmd)
     {
+        uninitialisedClassNames.remove(cmd.getFullClassName());
+
         if (cmd.getIdentityType() == IdentityType.APPLICATION && !cmd.usesSingleFieldIdentityClass())
         {
             // Register the app-id object-id class lookup
-            classMetaDataByAppIdClassName.put(cmd.getObjectidClass(), cmd);
+            synchronized (classMetaDataByAppIdClassName)
+            {
+                classMetaDataByAppIdClassName.put(cmd.getObjectidClass(), cmd);
+            }
         }
 
         if (cmd instanceof ClassMetaData)
@@ -2837,13 +3605,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
             if (cmd.getPersistenceCapableSuperclass() != null)
             {
                 // Add to direct subclasses for the superclass
-                Set<String> directSubclasses = directSubclassesByClass.get(cmd.getPersistenceCapableSuperclass());
-                if (directSubclasses == null)
-                {
-                    directSubclasses = new HashSet<String>();
-                    directSubclassesByClass.put(cmd.getPersistenceCapableSuperclass(), directSubclasses);
-                }
-                directSubclasses.add(cmd.getFullClassName());
+                getConcurrentSet(directSubclassesByClass, cmd.getPersistenceCapableSuperclass()).add(cmd.getFullClassName());
 
                 if (!((ClassMetaData)cmd).isAbstract())
                 {
@@ -2852,13 +3614,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
                     while (theCmd.getPersistenceCapableSuperclass() != null)
                     {
                         theCmd = theCmd.getSuperAbstractClassMetaData();
-                        Set<String> subclassNames = concreteSubclassNamesByClassName.get(theCmd.getFullClassName());
-                        if (subclassNames == null)
-                        {
-                            subclassNames = new HashSet();
-                            concreteSubclassNamesByClassName.put(theCmd.getFullClassName(), subclassNames);
-                        }
-                        subclassNames.add(cmd.getFullClassName());
+                        getConcurrentSet(concreteSubclassNamesByClassName, theCmd.getFullClassName()).add(cmd.getFullClassName());
                     }
                 }
             }
@@ -2870,12 +3626,34 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
         }
     }
 
+    /**
+     * Accessor for the set of names stored in the specified lookup against the key, creating it if not present.
+     * The set is safe for use by many threads, since lookups can read it while other classes are registered.
+     * @param lookup The lookup of class names
+     * @param key The key class name
+     * @return The set of names
+     */
+    private static Set<String> getConcurrentSet(Map<String, Set<String>> lookup, String key)
+    {
+        synchronized (lookup)
+        {
+            Set<String> names = lookup.get(key);
+            if (names == null)
+            {
+                names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                lookup.put(key, names);
+            }
+            return names;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.metadata.MetaDataManager#getConcreteSubclassesForClass(java.lang.String)
      */
     @Override
     public String[] getConcreteSubclassesForClass(String className)
     {
+        initialiseUninitialisedClasses(className);
         Set<String> concreteSubclasses = concreteSubclassNamesByClassName.get(className);
         return (concreteSubclasses == null ? null : concreteSubclasses.toArray(new String[concreteSubclasses.size()]));
     }
@@ -2886,6 +3664,7 @@ public abstract class MetaDataManagerImpl implements Serializable, MetaDataManag
     @Override
     public String[] getSubclassesForClass(String className, boolean includeDescendents)
     {
+        initialiseUninitialisedClasses(className);
         Collection subclassNames2 = new HashSet();
         provideSubclassesForClass(className, includeDescendents, subclassNames2);
         if (subclassNames2.size() > 0)
@@ -0,0 +1,319 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.datanucleus.ClassLoaderResolver;
+
+/**
+ * Snapshot of populated and initialised metadata, stored in a file so that the metadata of a persistence-unit
+ * can be restored at startup without parsing XML metadata or reading annotations.
+ * <p>
+ * The file holds the name of the persistence-unit and the classes, mapping files and jar files it lists, the
+ * settings of the metadata manager that determine what metadata is loaded (as provided by the manager), checksums
+ * of the sources of the metadata (the metadata files and the class files of the classes), and then the (Java
+ * serialised) FileMetaData keyed by the name they were registered under. A snapshot is only used for the same
+ * persistence-unit with the same definition and settings, and when none of its sources have changed since it was written.
+ * </p>
+ */
+public class MetaDataSnapshot
+{
+    /** Version of the format of the file. */
+    private static final int FORMAT_VERSION = 3;
+
+    /** Prefix of the name that annotations FileMetaData are registered under. */
+    private static final String ANNOTATIONS_PREFIX = "annotations:";
+
+    /** Prefix of a source that is a class file. */
+    private static final String CLASS_PREFIX = "class:";
+
+    private MetaDataSnapshot()
+    {
+    }
+
+    /**
+     * Method to write a snapshot of the provided metadata to the file.
+     * @param file The file
+     * @param pumd The persistence-unit
+     * @param settings The settings used when loading the metadata
+     * @param fileMetaData The metadata, keyed by the name it is registered under
+     * @param clr ClassLoader resolver
+     * @throws IOException If an error occurs writing the file
+     */
+    public static void write(File file, PersistenceUnitMetaData pumd, List<String> settings, Map<String, FileMetaData> fileMetaData,
+            ClassLoaderResolver clr)
+    throws IOException
+    {
+        // Write to a temporary file and then rename it, so readers never see a partial snapshot
+        File tmpFile = new File(file.getPath() + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))));
+        try
+        {
+            out.writeInt(FORMAT_VERSION);
+            out.writeObject(pumd.getName());
+            out.writeObject(getUnitDefinition(pumd));
+            out.writeObject(new ArrayList<String>(settings));
+            out.writeObject(getChecksums(fileMetaData, clr));
+            out.writeObject(new LinkedHashMap<String, FileMetaData>(fileMetaData));
+        }
+        finally
+        {
+            out.close();
+        }
+        if (file.exists() && !file.delete())
+        {
+            throw new IOException("Unable to replace metadata snapshot " + file);
+        }
+        if (!tmpFile.renameTo(file))
+        {
+            throw new IOException("Unable to rename metadata snapshot " + tmpFile + " to " + file);
+        }
+    }
+
+    /**
+     * Method to read the metadata from the snapshot in the file.
+     * @param file The file
+     * @param pumd The persistence-unit
+     * @param settings The settings to be used when loading the metadata
+     * @param clr ClassLoader resolver
+     * @return The metadata keyed by the name it was registered under, or null if the snapshot is for a
+     *     different persistence-unit (or different definition of it), was loaded with different settings,
+     *     or any of its sources have changed
+     * @throws IOException If an error occurs reading the file
+     * @throws ClassNotFoundException If a class of the metadata is not found
+     */
+    public static Map<String, FileMetaData> read(File file, PersistenceUnitMetaData pumd, List<String> settings, ClassLoaderResolver clr)
+    throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream in = new ResolverObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))), clr);
+        try
+        {
+            if (in.readInt() != FORMAT_VERSION)
+            {
+                return null;
+            }
+            String snapshotUnitName = (String)in.readObject();
+            if (pumd.getName() == null ? snapshotUnitName != null : !pumd.getName().equals(snapshotUnitName))
+            {
+                return null;
+            }
+
+            // Classes, mapping files or jars added to (or removed from) the unit aren't seen by the checksums
+            List<String> unitDefinition = (List<String>)in.readObject();
+            if (!unitDefinition.equals(getUnitDefinition(pumd)))
+            {
+                return null;
+            }
+            List<String> snapshotSettings = (List<String>)in.readObject();
+            if (!snapshotSettings.equals(settings))
+            {
+                return null;
+            }
+
+            // Check the sources before reading the metadata, since this may refer to changed classes
+            Map<String, Long> checksums = (Map<String, Long>)in.readObject();
+            Iterator<Map.Entry<String, Long>> checksumIter = checksums.entrySet().iterator();
+            while (checksumIter.hasNext())
+            {
+                Map.Entry<String, Long> entry = checksumIter.next();
+                if (getChecksum(entry.getKey(), clr) != entry.getValue().longValue())
+                {
+                    return null;
+                }
+            }
+
+            return (Map<String, FileMetaData>)in.readObject();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Method to return the definition of the persistence-unit that determines which metadata it has; the classes,
+     * mapping files and jar files it lists, and whether unlisted classes are excluded. Each is prefixed by its type.
+     * @param pumd The persistence-unit
+     * @return The definition, in a consistent order
+     */
+    static List<String> getUnitDefinition(PersistenceUnitMetaData pumd)
+    {
+        List<String> definition = new ArrayList<String>();
+        definition.add("exclude-unlisted-classes:" + pumd.getExcludeUnlistedClasses());
+        addToUnitDefinition(definition, "class:", pumd.getClassNames());
+        addToUnitDefinition(definition, "mapping-file:", pumd.getMappingFiles());
+        addToUnitDefinition(definition, "jar-file:", pumd.getJarFiles());
+        return definition;
+    }
+
+    private static void addToUnitDefinition(List<String> definition, String prefix, Collection entries)
+    {
+        if (entries != null)
+        {
+            // Jar files may be names or URLs
+            Set<String> sortedEntries = new TreeSet<String>();
+            Iterator iter = entries.iterator();
+            while (iter.hasNext())
+            {
+                sortedEntries.add(prefix + iter.next());
+            }
+            definition.addAll(sortedEntries);
+        }
+    }
+
+    /**
+     * Method to return the checksums of the sources of the metadata, keyed by the source. The sources are
+     * the URLs of the metadata files, and the class files of all classes and interfaces.
+     * @param fileMetaData The metadata, keyed by the name it is registered under
+     * @param clr ClassLoader resolver
+     * @return The checksums
+     * @throws IOException If an error occurs reading a source
+     */
+    static Map<String, Long> getChecksums(Map<String, FileMetaData> fileMetaData, ClassLoaderResolver clr)
+    throws IOException
+    {
+        Map<String, Long> checksums = new HashMap<String, Long>();
+        Iterator<Map.Entry<String, FileMetaData>> iter = fileMetaData.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            Map.Entry<String, FileMetaData> entry = iter.next();
+            if (!entry.getKey().startsWith(ANNOTATIONS_PREFIX))
+            {
+                checksums.put(entry.getKey(), Long.valueOf(getChecksum(entry.getKey(), clr)));
+            }
+
+            FileMetaData filemd = entry.getValue();
+            for (int i=0;i<filemd.getNoOfPackages();i++)
+            {
+                PackageMetaData pmd = filemd.getPackage(i);
+                for (int j=0;j<pmd.getNoOfClasses();j++)
+                {
+                    String source = CLASS_PREFIX + pmd.getClass(j).getFullClassName();
+                    checksums.put(source, Long.valueOf(getChecksum(source, clr)));
+                }
+                for (int j=0;j<pmd.getNoOfInterfaces();j++)
+                {
+                    String source = CLASS_PREFIX + pmd.getInterface(j).getFullClassName();
+                    checksums.put(source, Long.valueOf(getChecksum(source, clr)));
+                }
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Method to return the checksum of the contents of a source.
+     * @param source The source; either a URL, or "class:" followed by a class name
+     * @param clr ClassLoader resolver
+     * @return The checksum, or -1 if the source is not found
+     * @throws IOException If an error occurs reading the source
+     */
+    static long getChecksum(String source, ClassLoaderResolver clr)
+    throws IOException
+    {
+        URL url = null;
+        if (source.startsWith(CLASS_PREFIX))
+        {
+            url = clr.getResource(source.substring(CLASS_PREFIX.length()).replace('.', '/') + ".class", null);
+        }
+        else
+        {
+            url = new URL(source);
+        }
+        if (url == null)
+        {
+            return -1;
+        }
+
+        CRC32 crc = new CRC32();
+        InputStream in = null;
+        try
+        {
+            in = url.openStream();
+            byte[] buffer = new byte[8192];
+            int numRead;
+            while ((numRead = in.read(buffer)) > 0)
+            {
+                crc.update(buffer, 0, numRead);
+            }
+        }
+        catch (IOException ioe)
+        {
+            return -1;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                in.close();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * ObjectInputStream that resolves classes using the ClassLoaderResolver.
+     */
+    private static class ResolverObjectInputStream extends ObjectInputStream
+    {
+        private final ClassLoaderResolver clr;
+
+        ResolverObjectInputStream(InputStream in, ClassLoaderResolver clr)
+        throws IOException
+        {
+            super(in);
+            this.clr = clr;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException
+        {
+            try
+            {
+                return clr.classForName(desc.getName());
+            }
+            catch (RuntimeException re)
+            {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
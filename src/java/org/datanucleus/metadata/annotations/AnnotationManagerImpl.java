@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.datanucleus.ClassConstants;
 import org.datanucleus.ClassLoaderResolver;
@@ -51,7 +52,7 @@ public class AnnotationManagerImpl implements AnnotationManager
     Map<String, String> annotationReaderLookup = new HashMap<String, String>();
 
     /** Cache of the available annotation readers (keyed by the class name). */
-    Map<String, AnnotationReader> annotationReaders = new HashMap<String, AnnotationReader>();
+    Map<String, AnnotationReader> annotationReaders = new ConcurrentHashMap<String, AnnotationReader>();
 
     /** Set of (class) annotations that have handlers. */
     Set<String> classAnnotationHandlerAnnotations = null;
@@ -90,7 +91,7 @@ public class AnnotationManagerImpl implements AnnotationManager
         if (elems != null && elems.length > 0)
         {
             classAnnotationHandlerAnnotations = new HashSet<String>(elems.length);
-            classAnnotationHandlers = new HashMap<String, ClassAnnotationHandler>(elems.length);
+            classAnnotationHandlers = new ConcurrentHashMap<String, ClassAnnotationHandler>(elems.length);
             for (int i=0; i<elems.length; i++)
             {
                 classAnnotationHandlerAnnotations.add(elems[i].getAttribute("annotation-class"));
@@ -102,7 +103,7 @@ public class AnnotationManagerImpl implements AnnotationManager
         if (elems != null && elems.length > 0)
         {
             memberAnnotationHandlerAnnotations = new HashSet<String>(elems.length);
-            memberAnnotationHandlers = new HashMap<String, MemberAnnotationHandler>(elems.length);
+            memberAnnotationHandlers = new ConcurrentHashMap<String, MemberAnnotationHandler>(elems.length);
             for (int i=0; i<elems.length; i++)
             {
                 memberAnnotationHandlerAnnotations.add(elems[i].getAttribute("annotation-class"));
@@ -25,7 +25,9 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.SAXParser;
@@ -80,8 +82,11 @@ public class MetaDataParser extends DefaultHandler
     /** Whether to support namespaces. */
     protected boolean namespaceAware = true;
 
-    /** SAXParser being used. */
-    SAXParser parser = null;
+    /**
+     * SAXParsers not currently parsing a document. A SAXParser can only parse one document at a time, so
+     * concurrent parses each take their own, creating one if none is available.
+     */
+    final Queue<SAXParser> idleParsers = new ConcurrentLinkedQueue<SAXParser>();
 
     /**
      * Constructor.
@@ -100,11 +105,19 @@ public class MetaDataParser extends DefaultHandler
     {
         if (namespaceAware != aware)
         {
-            parser = null;
+            idleParsers.clear();
         }
         this.namespaceAware = aware;
     }
 
+    /**
+     * Method to release the SAXParsers kept for reuse, for example after parsing files concurrently.
+     */
+    public void clearParsers()
+    {
+        idleParsers.clear();
+    }
+
     /**
      * Method to parse a MetaData file given the URL of the file.
      * @param url Url of the metadata file
@@ -197,7 +210,7 @@ public class MetaDataParser extends DefaultHandler
      * @return The MetaData for this file
      * @throws NucleusException thrown if error occurred
      */
-    public synchronized MetaData parseMetaDataStream(InputStream in, String filename, String handlerName)
+    public MetaData parseMetaDataStream(InputStream in, String filename, String handlerName)
     {
         if (in == null)
         {
@@ -208,9 +221,11 @@ public class MetaDataParser extends DefaultHandler
         {
             NucleusLogger.METADATA.debug(LOCALISER.msg("044030", filename, handlerName, validate ? "true" : "false"));
         }
+        SAXParser saxParser = null;
         try
         {
-            if (parser == null)
+            saxParser = idleParsers.poll();
+            if (saxParser == null)
             {
                 // Create a SAXParser (use JDK parser for now)
                 SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -251,7 +266,7 @@ public class MetaDataParser extends DefaultHandler
                         NucleusLogger.METADATA.info(e.getMessage());
                     }
                 }
-                parser = factory.newSAXParser();
+                saxParser = factory.newSAXParser();
             }
 
             // Generate the default handler to process the metadata
@@ -262,7 +277,7 @@ public class MetaDataParser extends DefaultHandler
                 entityResolver = EntityResolverFactory.getInstance(pluginMgr, handlerName);
                 if (entityResolver != null)
                 {
-                    parser.getXMLReader().setEntityResolver(entityResolver);
+                    saxParser.getXMLReader().setEntityResolver(entityResolver);
                 }
                 Class[] argTypes = new Class[] {ClassConstants.METADATA_MANAGER, String.class, EntityResolver.class};
                 Object[] argValues = new Object[] {mgr, filename, entityResolver};
@@ -285,7 +300,7 @@ public class MetaDataParser extends DefaultHandler
             ((AbstractMetaDataHandler)handler).setValidate(validate);
 
             // Parse the metadata
-            parser.parse(in, handler);
+            saxParser.parse(in, handler);
 
             // Return the FileMetaData that has been parsed
             return ((AbstractMetaDataHandler)handler).getMetaData();
@@ -317,6 +332,10 @@ public class MetaDataParser extends DefaultHandler
         }
         finally
         {
+            if (saxParser != null)
+            {
+                idleParsers.offer(saxParser);
+            }
             try
             {
                 in.close();
@@ -0,0 +1,100 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.properties;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle for a property, resolving the name of the property to a slot number once, so that the
+ * typed accessors of a PropertyStore taking a handle can return the value held in that slot of the store
+ * without any String processing or map lookup. Handles are obtained using <i>forName</i>, typically held in a
+ * static field, and the same property name always gives the same handle (and slot).
+ * <pre>
+ * private static final PropertyHandle BATCH_SIZE = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_L2_BATCHSIZE);
+ * ...
+ * int batchSize = conf.getIntProperty(BATCH_SIZE);
+ * </pre>
+ */
+public final class PropertyHandle
+{
+    /** Registered handles, keyed by the lowercase property name. */
+    private static final ConcurrentMap<String, PropertyHandle> handlesByName = new ConcurrentHashMap<String, PropertyHandle>();
+
+    private static final AtomicInteger nextSlot = new AtomicInteger();
+
+    private final String name;
+
+    private final int slot;
+
+    private PropertyHandle(String name, int slot)
+    {
+        this.name = name;
+        this.slot = slot;
+    }
+
+    /**
+     * Accessor for the handle for a property, registering it if not yet registered.
+     * @param name Name of the property (case insensitive)
+     * @return The handle
+     */
+    public static PropertyHandle forName(String name)
+    {
+        String lowerName = name.toLowerCase(Locale.ENGLISH);
+        PropertyHandle handle = handlesByName.get(lowerName);
+        if (handle == null)
+        {
+            synchronized (handlesByName)
+            {
+                handle = handlesByName.get(lowerName);
+                if (handle == null)
+                {
+                    handle = new PropertyHandle(name, nextSlot.getAndIncrement());
+                    handlesByName.put(lowerName, handle);
+                }
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Accessor for the number of slots allocated to handles so far.
+     * @return The number of slots
+     */
+    static int getNumberOfSlots()
+    {
+        return nextSlot.get();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getSlot()
+    {
+        return slot;
+    }
+
+    public String toString()
+    {
+        return "PropertyHandle[" + name + "] slot=" + slot;
+    }
+}
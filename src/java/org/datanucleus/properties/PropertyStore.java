@@ -20,17 +20,33 @@ package org.datanucleus.properties;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Representation of a store of properties.
  * The properties can be for persistence, or for the datastore, or whatever.
  * This class provides convenience type accessors to the properties.
+ * The typed accessors taking a {@link PropertyHandle} resolve the value once and then hold it (in primitive
+ * form where possible) in the slot of the handle, until the properties are changed.
  */
 public abstract class PropertyStore
 {
+    private static final long TYPE_INT = 1L << 32;
+    private static final long TYPE_BOOLEAN = 2L << 32;
+    private static final long TYPE_MASK = 0xFFFFFFFFL << 32;
+    private static final long BOOLEAN_NOT_SET = 2;
+    private static final Object NULL_VALUE = new Object();
+
     /** Map of properties. */
     protected Map<String, Object> properties = new HashMap<String, Object>();
 
+    /** Values resolved via handles (or null if none resolved since the last change). */
+    private transient volatile ResolvedValues resolvedValues;
+
+    /** Number of changes to the properties, so that values resolved before a change are not kept. */
+    private transient volatile int modificationCount;
+
     /**
      * Method to set a property in the store
      * @param name Name of the property
@@ -39,6 +55,160 @@ public abstract class PropertyStore
     protected void setPropertyInternal(String name, Object value)
     {
         this.properties.put(name.toLowerCase(Locale.ENGLISH), value);
+        propertiesChanged();
+    }
+
+    /**
+     * Method to be called after any change to the properties (or to anything that provides their values)
+     * so that the values resolved for PropertyHandles are resolved again.
+     */
+    protected void propertiesChanged()
+    {
+        modificationCount++;
+        resolvedValues = null;
+    }
+
+    /**
+     * Accessor for the specified property as an int.
+     * If the specified property isn't found returns 0.
+     * @param handle Handle for the property
+     * @return Int value for the property
+     * @throws PropertyTypeInvalidException thrown when the property is not available as this type
+     */
+    public int getIntProperty(PropertyHandle handle)
+    {
+        ResolvedValues resolved = resolvedValues;
+        if (resolved != null && handle.getSlot() < resolved.length)
+        {
+            long value = resolved.primitiveValues.get(handle.getSlot());
+            if ((value & TYPE_MASK) == TYPE_INT)
+            {
+                return (int)value;
+            }
+        }
+
+        int modCount = modificationCount;
+        int intValue = getIntProperty(handle.getName());
+        getResolvedValuesForUpdate(handle, modCount).storePrimitive(handle.getSlot(), TYPE_INT | (intValue & 0xFFFFFFFFL));
+        return intValue;
+    }
+
+    /**
+     * Accessor for the specified property as a boolean.
+     * If the specified property isn't found returns false.
+     * @param handle Handle for the property
+     * @return Boolean value for the property
+     * @throws PropertyTypeInvalidException thrown when the property is not available as this type
+     */
+    public boolean getBooleanProperty(PropertyHandle handle)
+    {
+        return getBooleanProperty(handle, false);
+    }
+
+    /**
+     * Accessor for the specified property as a boolean.
+     * @param handle Handle for the property
+     * @param resultIfNotSet The value to return if no value for the specified property is found.
+     * @return Boolean value for the property
+     * @throws PropertyTypeInvalidException thrown when the property is not available as this type
+     */
+    public boolean getBooleanProperty(PropertyHandle handle, boolean resultIfNotSet)
+    {
+        long value = getResolvedBoolean(handle);
+        return (value == BOOLEAN_NOT_SET ? resultIfNotSet : value == 1);
+    }
+
+    /**
+     * Accessor for the specified property as a Boolean.
+     * @param handle Handle for the property
+     * @return Boolean value for the property (or null if not present)
+     * @throws PropertyTypeInvalidException thrown when the property is not available as this type
+     */
+    public Boolean getBooleanObjectProperty(PropertyHandle handle)
+    {
+        long value = getResolvedBoolean(handle);
+        return (value == BOOLEAN_NOT_SET ? null : Boolean.valueOf(value == 1));
+    }
+
+    /**
+     * Accessor for the specified property as a String.
+     * If the specified property isn't found returns null.
+     * @param handle Handle for the property
+     * @return String value for the property
+     * @throws PropertyTypeInvalidException thrown when the property is not available as this type
+     */
+    public String getStringProperty(PropertyHandle handle)
+    {
+        ResolvedValues resolved = resolvedValues;
+        if (resolved != null && handle.getSlot() < resolved.length)
+        {
+            Object value = resolved.objectValues.get(handle.getSlot());
+            if (value != null)
+            {
+                return (value == NULL_VALUE ? null : (String)value);
+            }
+        }
+
+        int modCount = modificationCount;
+        String strValue = getStringProperty(handle.getName());
+        getResolvedValuesForUpdate(handle, modCount).storeObject(handle.getSlot(), strValue != null ? strValue : NULL_VALUE);
+        return strValue;
+    }
+
+    /**
+     * Convenience method to return the boolean value of a property in its resolved form, being 0 (false),
+     * 1 (true) or BOOLEAN_NOT_SET.
+     * @param handle Handle for the property
+     * @return The resolved value
+     */
+    private long getResolvedBoolean(PropertyHandle handle)
+    {
+        ResolvedValues resolved = resolvedValues;
+        if (resolved != null && handle.getSlot() < resolved.length)
+        {
+            long value = resolved.primitiveValues.get(handle.getSlot());
+            if ((value & TYPE_MASK) == TYPE_BOOLEAN)
+            {
+                return value & ~TYPE_MASK;
+            }
+        }
+
+        int modCount = modificationCount;
+        Boolean boolValue = getBooleanObjectProperty(handle.getName());
+        long value = (boolValue == null ? BOOLEAN_NOT_SET : (boolValue.booleanValue() ? 1 : 0));
+        getResolvedValuesForUpdate(handle, modCount).storePrimitive(handle.getSlot(), TYPE_BOOLEAN | value);
+        return value;
+    }
+
+    /**
+     * Accessor for the resolved values to store the value of a handle in, where the value was resolved when
+     * the properties were at the specified modification count. If the properties have changed since then, 
+     * returns values that are not retained.
+     * @param handle The handle
+     * @param modCount Modification count when the value was resolved
+     * @return The resolved values to store the value in
+     */
+    private ResolvedValues getResolvedValuesForUpdate(PropertyHandle handle, int modCount)
+    {
+        ResolvedValues resolved = resolvedValues;
+        if (resolved != null && resolved.modCount == modCount && handle.getSlot() < resolved.length)
+        {
+            return resolved;
+        }
+
+        ResolvedValues newResolved = new ResolvedValues(modCount,
+            Math.max(PropertyHandle.getNumberOfSlots(), handle.getSlot() + 1),
+            (resolved != null && resolved.modCount == modCount) ? resolved : null);
+        if (modificationCount == modCount)
+        {
+            resolvedValues = newResolved;
+            if (modificationCount != modCount)
+            {
+                // Properties changed while installing, so discard
+                resolvedValues = null;
+            }
+        }
+        return newResolved;
     }
 
     /**
@@ -200,4 +370,42 @@ public abstract class PropertyStore
         }
         throw new PropertyTypeInvalidException(name, "String");
     }
+
+    /**
+     * Values of properties resolved via handles, indexed by the slot of the handle. Primitive values are
+     * held with their type in the upper 32 bits (0 when not resolved), and String values as themselves.
+     */
+    private static class ResolvedValues
+    {
+        final int modCount;
+        final int length;
+        final AtomicLongArray primitiveValues;
+        final AtomicReferenceArray<Object> objectValues;
+
+        ResolvedValues(int modCount, int length, ResolvedValues previous)
+        {
+            this.modCount = modCount;
+            this.length = length;
+            this.primitiveValues = new AtomicLongArray(length);
+            this.objectValues = new AtomicReferenceArray<Object>(length);
+            if (previous != null)
+            {
+                for (int i=0;i<previous.length;i++)
+                {
+                    primitiveValues.set(i, previous.primitiveValues.get(i));
+                    objectValues.set(i, previous.objectValues.get(i));
+                }
+            }
+        }
+
+        void storePrimitive(int slot, long value)
+        {
+            primitiveValues.set(slot, value);
+        }
+
+        void storeObject(int slot, Object value)
+        {
+            objectValues.set(slot, value);
+        }
+    }
 }
\ No newline at end of file
@@ -1390,46 +1390,10 @@ public class QueryUtils
                     Object b = ordering[i].evaluate(
                         new InMemoryExpressionEvaluator(ec, parameterValues, state, imports, clr, candidateAlias, queryLanguage));
 
-                    OrderExpression orderExpr = (OrderExpression) ordering[i];
-                    // Put any null values at the end
-                    if (a == null && b == null)
+                    int result = compareOrderingValues(a, b, (OrderExpression) ordering[i]);
+                    if (result != 0)
                     {
-                        return 0;
-                    }
-                    else if (a == null)
-                    {
-                        if (orderExpr.getNullOrder() != null)
-                        {
-                            // Use specified null handling
-                            return (orderExpr.getNullOrder() == NullOrderingType.NULLS_FIRST ? 1 : -1);
-                        }
-                        return -1; // Default to putting nulls at the end
-                    }
-                    else if (b == null)
-                    {
-                        if (orderExpr.getNullOrder() != null)
-                        {
-                            // Use specified null handling
-                            return (orderExpr.getNullOrder() == NullOrderingType.NULLS_FIRST ? -1 : 1);
-                        }
-                        return 1; // Default to putting nulls at the end
-                    }
-                    else
-                    {
-                        int result = ((Comparable)a).compareTo(b);
-                        if (result != 0)
-                        {
-                            if (orderExpr.getSortOrder() == null || orderExpr.getSortOrder().equals("ascending"))
-                            {
-                                // Ascending
-                                return result;
-                            }
-                            else
-                            {
-                                // Descending
-                                return -1 * result;
-                            }
-                        }
+                        return result;
                     }
                 }
                 return 0;
@@ -1437,4 +1401,48 @@ public class QueryUtils
         });
         return Arrays.asList(o);
     }
+
+    /**
+     * Convenience method to compare two values of an ordering expression, in the order required by that
+     * ordering expression (direction and null ordering).
+     * @param a First value
+     * @param b Second value
+     * @param orderExpr The ordering expression
+     * @return Negative, zero or positive when the first value is ordered before, equal to or after the second
+     */
+    public static int compareOrderingValues(Object a, Object b, OrderExpression orderExpr)
+    {
+        // Put any null values at the end
+        if (a == null && b == null)
+        {
+            return 0;
+        }
+        else if (a == null)
+        {
+            if (orderExpr.getNullOrder() != null)
+            {
+                // Use specified null handling
+                return (orderExpr.getNullOrder() == NullOrderingType.NULLS_FIRST ? 1 : -1);
+            }
+            return -1; // Default to putting nulls at the end
+        }
+        else if (b == null)
+        {
+            if (orderExpr.getNullOrder() != null)
+            {
+                // Use specified null handling
+                return (orderExpr.getNullOrder() == NullOrderingType.NULLS_FIRST ? -1 : 1);
+            }
+            return 1; // Default to putting nulls at the end
+        }
+
+        int result = ((Comparable)a).compareTo(b);
+        if (orderExpr.getSortOrder() == null || orderExpr.getSortOrder().equals("ascending"))
+        {
+            // Ascending
+            return result;
+        }
+        // Descending
+        return -1 * result;
+    }
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ import org.datanucleus.query.compiler.QueryCompilation;
  */
 public class AbstractQueryCompilationCache
 {
+    /** The cached compilations. Must be a thread-safe map since the cache is shared by all queries. */
     Map<String, QueryCompilation> cache;
 
     public AbstractQueryCompilationCache()
@@ -18,7 +18,7 @@ Contributors:
 package org.datanucleus.query.cache;
 
 import org.datanucleus.NucleusContext;
-import org.datanucleus.util.SoftValueMap;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 
 /**
  * Soft-reference implementation of a generic query compilation cache.
@@ -27,6 +27,6 @@ public class SoftQueryCompilationCache extends AbstractQueryCompilationCache imp
 {
     public SoftQueryCompilationCache(NucleusContext nucleusCtx)
     {
-        cache = new SoftValueMap();
+        cache = ConcurrentReferenceValueMap.newSoftValueMap();
     }
 }
\ No newline at end of file
@@ -18,7 +18,7 @@ Contributors:
 package org.datanucleus.query.cache;
 
 import org.datanucleus.NucleusContext;
-import org.datanucleus.util.WeakValueMap;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 
 /**
  * Weak-reference implementation of a generic query compilation cache.
@@ -27,6 +27,6 @@ public class WeakQueryCompilationCache extends AbstractQueryCompilationCache imp
 {
     public WeakQueryCompilationCache(NucleusContext nucleusCtx)
     {
-        cache = new WeakValueMap();
+        cache = ConcurrentReferenceValueMap.newWeakValueMap();
     }
 }
\ No newline at end of file
@@ -19,12 +19,28 @@ package org.datanucleus.query.compiler;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.metadata.RelationType;
 import org.datanucleus.query.QueryUtils;
+import org.datanucleus.query.evaluator.memory.CompiledExpression;
+import org.datanucleus.query.expression.ArrayExpression;
+import org.datanucleus.query.expression.CaseExpression;
+import org.datanucleus.query.expression.CreatorExpression;
 import org.datanucleus.query.expression.Expression;
+import org.datanucleus.query.expression.InvokeExpression;
+import org.datanucleus.query.expression.JoinExpression;
 import org.datanucleus.query.expression.ParameterExpression;
+import org.datanucleus.query.expression.PrimaryExpression;
+import org.datanucleus.query.expression.VariableExpression;
 import org.datanucleus.query.symbol.Symbol;
 import org.datanucleus.query.symbol.SymbolTable;
 import org.datanucleus.util.Localiser;
@@ -86,6 +102,12 @@ public class QueryCompilation implements Serializable
     /** Compilations of any subqueries, keyed by the subquery variable name. */
     protected Map<String, QueryCompilation> subqueryCompilations = null;
 
+    /** Filter compiled for in-memory evaluation (when used). Created on first in-memory evaluation. */
+    protected transient volatile CompiledExpression inMemoryFilter = null;
+
+    /** Ordering expressions compiled for in-memory evaluation (when used). Created on first in-memory evaluation. */
+    protected transient volatile CompiledExpression[] inMemoryOrdering = null;
+
     public QueryCompilation(Class candidateCls, String candidateAlias, SymbolTable symtbl, 
             Expression[] results, Expression[] froms, Expression filter, Expression[] groupings, 
             Expression having, Expression[] orderings, Expression[] updates)
@@ -215,6 +237,203 @@ public class QueryCompilation implements Serializable
         return candidateClass;
     }
 
+    /**
+     * Accessor for the classes that the results of this query depend on. These are the candidate class,
+     * the types of any identifiers and variables (such as joined classes), the related classes of any
+     * relations navigated in the query expressions (such as "this.address.city"), and the same for any subqueries.
+     * A change to an instance of one of these classes (or of a subclass) can change the results.
+     * @param mmgr MetaData manager
+     * @param clr ClassLoader resolver
+     * @return The classes
+     */
+    public Set<Class> getDependentClasses(MetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        Set<Class> classes = new HashSet<Class>();
+        addDependentClasses(classes, mmgr, clr);
+        return classes;
+    }
+
+    private void addDependentClasses(Set<Class> classes, MetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        if (candidateClass != null)
+        {
+            classes.add(candidateClass);
+        }
+        if (symtbl != null)
+        {
+            Iterator<String> symIter = symtbl.getSymbolNames().iterator();
+            while (symIter.hasNext())
+            {
+                Symbol sym = symtbl.getSymbol(symIter.next());
+                if (sym != null && sym.getType() != Symbol.PARAMETER && sym.getValueType() != null &&
+                    !sym.getValueType().isPrimitive())
+                {
+                    classes.add(sym.getValueType());
+                }
+            }
+        }
+        addNavigatedClasses(exprResult, classes, mmgr, clr);
+        addNavigatedClasses(exprFrom, classes, mmgr, clr);
+        addNavigatedClasses(exprUpdate, classes, mmgr, clr);
+        addNavigatedClasses(exprFilter, classes, mmgr, clr);
+        addNavigatedClasses(exprGrouping, classes, mmgr, clr);
+        addNavigatedClasses(exprHaving, classes, mmgr, clr);
+        addNavigatedClasses(exprOrdering, classes, mmgr, clr);
+        if (subqueryCompilations != null)
+        {
+            Iterator<QueryCompilation> subqueryIter = subqueryCompilations.values().iterator();
+            while (subqueryIter.hasNext())
+            {
+                subqueryIter.next().addDependentClasses(classes, mmgr, clr);
+            }
+        }
+    }
+
+    private void addNavigatedClasses(Expression[] exprs, Set<Class> classes, MetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        if (exprs != null)
+        {
+            for (int i=0;i<exprs.length;i++)
+            {
+                addNavigatedClasses(exprs[i], classes, mmgr, clr);
+            }
+        }
+    }
+
+    /**
+     * Method to add the related classes of the relations navigated by any primary expressions in the expression
+     * tree, for example the class of "address" for "this.address.city".
+     * @param expr The expression
+     * @param classes The classes to add to
+     * @param mmgr MetaData manager
+     * @param clr ClassLoader resolver
+     */
+    private void addNavigatedClasses(Expression expr, Set<Class> classes, MetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        if (expr == null)
+        {
+            return;
+        }
+
+        if (expr instanceof PrimaryExpression)
+        {
+            addNavigatedClasses((PrimaryExpression)expr, classes, mmgr, clr);
+        }
+        else if (expr instanceof InvokeExpression)
+        {
+            addNavigatedClasses(((InvokeExpression)expr).getArguments(), classes, mmgr, clr);
+        }
+        else if (expr instanceof CreatorExpression)
+        {
+            addNavigatedClasses(((CreatorExpression)expr).getArguments(), classes, mmgr, clr);
+        }
+        else if (expr instanceof JoinExpression)
+        {
+            addNavigatedClasses(((JoinExpression)expr).getPrimaryExpression(), classes, mmgr, clr);
+            addNavigatedClasses(((JoinExpression)expr).getOnExpression(), classes, mmgr, clr);
+        }
+        else if (expr instanceof ArrayExpression)
+        {
+            ArrayExpression arrExpr = (ArrayExpression)expr;
+            for (int i=0;i<arrExpr.getArraySize();i++)
+            {
+                addNavigatedClasses(arrExpr.getElement(i), classes, mmgr, clr);
+            }
+        }
+        else if (expr instanceof CaseExpression)
+        {
+            Iterator<Map.Entry<Expression, Expression>> condIter = ((CaseExpression)expr).getConditions().entrySet().iterator();
+            while (condIter.hasNext())
+            {
+                Map.Entry<Expression, Expression> cond = condIter.next();
+                addNavigatedClasses(cond.getKey(), classes, mmgr, clr);
+                addNavigatedClasses(cond.getValue(), classes, mmgr, clr);
+            }
+            addNavigatedClasses(((CaseExpression)expr).getElseExpression(), classes, mmgr, clr);
+        }
+        addNavigatedClasses(expr.getLeft(), classes, mmgr, clr);
+        addNavigatedClasses(expr.getRight(), classes, mmgr, clr);
+    }
+
+    private void addNavigatedClasses(List<Expression> exprs, Set<Class> classes, MetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        if (exprs != null)
+        {
+            Iterator<Expression> exprIter = exprs.iterator();
+            while (exprIter.hasNext())
+            {
+                addNavigatedClasses(exprIter.next(), classes, mmgr, clr);
+            }
+        }
+    }
+
+    private void addNavigatedClasses(PrimaryExpression primExpr, Set<Class> classes, MetaDataManager mmgr, ClassLoaderResolver clr)
+    {
+        if (primExpr == null)
+        {
+            return;
+        }
+
+        // Find the type that the tuples are navigated from; a variable, an identifier (e.g alias) or the candidate
+        List<String> tuples = primExpr.getTuples();
+        Class type = candidateClass;
+        int start = 0;
+        Symbol sym = null;
+        if (primExpr.getLeft() instanceof VariableExpression)
+        {
+            sym = (symtbl != null ? symtbl.getSymbol(((VariableExpression)primExpr.getLeft()).getId()) : null);
+            type = (sym != null ? sym.getValueType() : null);
+        }
+        else if (primExpr.getLeft() == null && symtbl != null && (sym = symtbl.getSymbol(tuples.get(0))) != null)
+        {
+            type = (sym.getType() != Symbol.PARAMETER ? sym.getValueType() : null);
+            start = 1;
+        }
+
+        for (int i=start;i<tuples.size() && type != null;i++)
+        {
+            AbstractClassMetaData cmd = mmgr.getMetaDataForClass(type, clr);
+            AbstractMemberMetaData mmd = (cmd != null ? cmd.getMetaDataForMember(tuples.get(i)) : null);
+            if (mmd == null)
+            {
+                return;
+            }
+
+            type = null;
+            RelationType relationType = mmd.getRelationType(clr);
+            if (RelationType.isRelationSingleValued(relationType))
+            {
+                type = mmd.getType();
+                classes.add(type);
+            }
+            else if (RelationType.isRelationMultiValued(relationType))
+            {
+                AbstractClassMetaData relatedCmd = null;
+                if (mmd.hasCollection())
+                {
+                    relatedCmd = mmd.getCollection().getElementClassMetaData(clr, mmgr);
+                }
+                else if (mmd.hasArray())
+                {
+                    relatedCmd = mmd.getArray().getElementClassMetaData(clr, mmgr);
+                }
+                else if (mmd.hasMap())
+                {
+                    AbstractClassMetaData keyCmd = mmd.getMap().getKeyClassMetaData(clr, mmgr);
+                    if (keyCmd != null)
+                    {
+                        classes.add(clr.classForName(keyCmd.getFullClassName()));
+                    }
+                    relatedCmd = mmd.getMap().getValueClassMetaData(clr, mmgr);
+                }
+                if (relatedCmd != null)
+                {
+                    classes.add(clr.classForName(relatedCmd.getFullClassName()));
+                }
+            }
+        }
+    }
+
     /**
      * Accessor for the candidate alias.
      * @return Candidate alias
@@ -306,6 +525,64 @@ public class QueryCompilation implements Serializable
         return exprOrdering;
     }
 
+    /**
+     * Accessor for the filter compiled for in-memory evaluation, compiling it on first use.
+     * @return The compiled filter, or null if there is no filter
+     */
+    public CompiledExpression getInMemoryFilter()
+    {
+        if (inMemoryFilter == null && exprFilter != null)
+        {
+            inMemoryFilter = CompiledExpression.compile(exprFilter, candidateAlias);
+        }
+        return inMemoryFilter;
+    }
+
+    /**
+     * Accessor for the ordering expressions compiled for in-memory evaluation, compiling them on first use.
+     * Each is the compiled form of the expression being ordered by (i.e without the direction).
+     * @return The compiled ordering expressions, or null if there is no ordering
+     */
+    public CompiledExpression[] getInMemoryOrdering()
+    {
+        if (inMemoryOrdering == null && exprOrdering != null)
+        {
+            CompiledExpression[] ordering = new CompiledExpression[exprOrdering.length];
+            for (int i=0;i<exprOrdering.length;i++)
+            {
+                ordering[i] = CompiledExpression.compile(exprOrdering[i].getLeft(), candidateAlias);
+            }
+            inMemoryOrdering = ordering;
+        }
+        return inMemoryOrdering;
+    }
+
+    /**
+     * Accessor for whether the in-memory evaluation of this query can use compiled expressions.
+     * Compiled expressions don't support variables or subqueries.
+     * @return Whether compiled expressions can be used
+     */
+    public boolean supportsCompiledInMemoryEvaluation()
+    {
+        if (subqueryCompilations != null && !subqueryCompilations.isEmpty())
+        {
+            return false;
+        }
+        if (symtbl != null)
+        {
+            Iterator<String> symbolNameIter = symtbl.getSymbolNames().iterator();
+            while (symbolNameIter.hasNext())
+            {
+                Symbol sym = symtbl.getSymbol(symbolNameIter.next());
+                if (sym != null && sym.getType() == Symbol.VARIABLE)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public ParameterExpression getParameterExpressionForPosition(int pos)
     {
         ParameterExpression paramExpr = null;
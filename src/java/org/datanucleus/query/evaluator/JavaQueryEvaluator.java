@@ -24,21 +24,32 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.query.QueryUtils;
 import org.datanucleus.query.compiler.QueryCompilation;
+import org.datanucleus.query.evaluator.memory.CompiledExpression;
 import org.datanucleus.query.evaluator.memory.InMemoryExpressionEvaluator;
 import org.datanucleus.query.evaluator.memory.InMemoryFailure;
 import org.datanucleus.query.evaluator.memory.VariableNotSetException;
 import org.datanucleus.query.expression.CreatorExpression;
 import org.datanucleus.query.expression.Expression;
 import org.datanucleus.query.expression.InvokeExpression;
+import org.datanucleus.query.expression.OrderExpression;
 import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.QueryInterruptedException;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 import org.datanucleus.util.StringUtils;
@@ -81,6 +92,19 @@ public abstract class JavaQueryEvaluator
 
     protected ClassLoaderResolver clr;
 
+    /** Whether to evaluate the filter and ordering using the compiled form of the expressions. */
+    protected boolean compiledEvaluation = false;
+
+    /**
+     * Whether to evaluate the filter and ordering in parallel, over partitions of the candidates.
+     * The candidates are accessed from several threads, and may have fields loaded from the datastore through
+     * the ExecutionContext, so this is only used when the ExecutionContext is multithreaded.
+     */
+    protected boolean parallelEvaluation = false;
+
+    /** Minimum number of candidates in each partition when evaluating in parallel. */
+    private static final int PARALLEL_MIN_PARTITION_SIZE = 1000;
+
     /**
      * Constructor for the evaluator of a query in the specified language.
      * @param language Name of the language
@@ -107,6 +131,20 @@ public abstract class JavaQueryEvaluator
 
         evaluator = new InMemoryExpressionEvaluator(query.getExecutionContext(),
             parameterValues, state, query.getParsedImports(), clr, this.candidateAlias, query.getLanguage());
+
+        if (query.getBooleanExtensionProperty(Query.EXTENSION_EVALUATE_IN_MEMORY_COMPILED, false))
+        {
+            compiledEvaluation = compilation.supportsCompiledInMemoryEvaluation();
+        }
+        if (query.getBooleanExtensionProperty(Query.EXTENSION_EVALUATE_IN_MEMORY_PARALLEL, false))
+        {
+            parallelEvaluation = query.getExecutionContext().getMultithreaded();
+            if (!parallelEvaluation && NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug("Parallel in-memory evaluation of query requested but the ExecutionContext" +
+                    " is not multithreaded, so evaluating sequentially");
+            }
+        }
     }
 
     /**
@@ -193,8 +231,30 @@ public abstract class JavaQueryEvaluator
             }
         }
 
+        long fromIncl = 0;
+        long toExcl = Long.MAX_VALUE;
+        boolean range = (applyRange && query.getRange() != null);
+        if (range)
+        {
+            fromIncl = query.getRangeFromIncl();
+            toExcl = query.getRangeToExcl();
+            if (query.getRangeFromInclParam() != null)
+            {
+                fromIncl = ((Number)parameterValues.get(query.getRangeFromInclParam())).longValue();
+            }
+            if (query.getRangeToExclParam() != null)
+            {
+                toExcl = ((Number)parameterValues.get(query.getRangeToExclParam())).longValue();
+            }
+        }
+
+        // Number of candidates needed from the filter and ordering when the range can be applied to them
+        int limit = (range && toExcl < Integer.MAX_VALUE ? (int)Math.max(0, toExcl) : Integer.MAX_VALUE);
+
         List resultSet = new ArrayList(executeCandidates);
         Expression filter = compilation.getExprFilter();
+        Expression[] ordering = compilation.getExprOrdering();
+        boolean applyOrderingExprs = (applyOrdering && ordering != null);
         if (applyFilter && filter != null)
         {
             // Process any filter constraints
@@ -202,11 +262,12 @@ public abstract class JavaQueryEvaluator
             {
                 NucleusLogger.QUERY.debug(LOCALISER.msg("021012", "filter", language, filter));
             }
-            resultSet = handleFilter(resultSet);
+
+            // Without ordering, only the first "limit" matches can be in the range
+            resultSet = handleFilter(resultSet, applyOrderingExprs ? Integer.MAX_VALUE : limit);
         }
 
-        Expression[] ordering = compilation.getExprOrdering();
-        if (applyOrdering && ordering != null)
+        if (applyOrderingExprs)
         {
             // Process any ordering constraints
             if (NucleusLogger.QUERY.isDebugEnabled())
@@ -214,22 +275,12 @@ public abstract class JavaQueryEvaluator
                 NucleusLogger.QUERY.debug(LOCALISER.msg("021012", "ordering", language, 
                     StringUtils.objectArrayToString(ordering)));
             }
-            resultSet = ordering(resultSet);
+            resultSet = ordering(resultSet, limit);
         }
 
-        if (applyRange && query.getRange() != null)
+        if (range)
         {
             // Process any range constraints
-            long fromIncl = query.getRangeFromIncl();
-            long toExcl = query.getRangeToExcl();
-            if (query.getRangeFromInclParam() != null)
-            {
-                fromIncl = ((Number)parameterValues.get(query.getRangeFromInclParam())).longValue();
-            }
-            if (query.getRangeToExclParam() != null)
-            {
-                toExcl = ((Number)parameterValues.get(query.getRangeToExclParam())).longValue();
-            }
             if (NucleusLogger.QUERY.isDebugEnabled())
             {
                 NucleusLogger.QUERY.debug(LOCALISER.msg("021012", "range", language, "" + fromIncl + "," + toExcl));
@@ -246,31 +297,19 @@ public abstract class JavaQueryEvaluator
                     StringUtils.objectArrayToString(result)));
             }
 
-            // Apply grouping
-            List aggregateList = new ArrayList();
-            List s = resultSet;
-            Expression[] grouping = compilation.getExprGrouping();
-            if (grouping != null)
-            {
-                s = sortByGrouping(resultSet);
-            }
-
-            aggregateList = s;
-            if (grouping != null)
-            {
-                aggregateList = handleAggregates(s);
-            }
-
-            resultSet = handleResult(aggregateList);
+            // Apply grouping and result
+            resultSet = handleResult(resultSet);
 
             if (query.getResultDistinct())
             {
+                // Omit dups, comparing result rows by their values
+                Set distinctRows = new HashSet();
                 List tmpList = new ArrayList();
                 Iterator iter = resultSet.iterator();
                 while (iter.hasNext())
                 {
                     Object obj = iter.next();
-                    if (!tmpList.contains(obj)) // Omit dups
+                    if (distinctRows.add(obj instanceof Object[] ? Arrays.asList((Object[])obj) : obj))
                     {
                         tmpList.add(obj);
                     }
@@ -295,35 +334,103 @@ public abstract class JavaQueryEvaluator
         return resultSet;
     }
 
-    private List handleFilter(List set)
+    /**
+     * Method to filter the candidates, returning the candidates that satisfy the filter in their original order.
+     * @param set The candidates
+     * @param limit Maximum number of matching candidates required. Evaluation stops once this many are found
+     * @return The candidates that satisfy the filter
+     */
+    private List handleFilter(List set, final int limit)
     {
-        Expression filter = compilation.getExprFilter();
+        final Expression filter = compilation.getExprFilter();
         if (filter == null)
         {
             return set;
         }
-    
-        List result = new ArrayList();
-        Iterator it = set.iterator();
+
         if (NucleusLogger.QUERY.isDebugEnabled())
         {
             NucleusLogger.QUERY.debug("Evaluating filter for " + set.size() + " candidates");
         }
+        int numPartitions = getNumberOfPartitions(set.size());
+        if (numPartitions > 1)
+        {
+            // Filter partitions of the candidates in parallel, and concatenate the results in order
+            List<List> partitionResults = executeInParallel(set, numPartitions, new PartitionTask<List>()
+            {
+                public List evaluate(List partition, Map<String, Object> partitionState, InMemoryExpressionEvaluator partitionEval)
+                {
+                    return filterCandidates(partition, filter, limit, partitionState, partitionEval);
+                }
+            });
+            List result = new ArrayList();
+            for (List partitionResult : partitionResults)
+            {
+                result.addAll(partitionResult);
+                if (result.size() >= limit)
+                {
+                    return result.subList(0, limit);
+                }
+            }
+            return result;
+        }
+        return filterCandidates(set, filter, limit, state, evaluator);
+    }
+
+    /**
+     * Method to filter the candidates, using the provided state and evaluator.
+     * @param set The candidates
+     * @param filter The filter
+     * @param limit Maximum number of matching candidates required
+     * @param evalState The state to set the current candidate in
+     * @param evalEvaluator Evaluator using the state
+     * @return The candidates that satisfy the filter
+     */
+    private List filterCandidates(List set, Expression filter, int limit, Map<String, Object> evalState,
+            InMemoryExpressionEvaluator evalEvaluator)
+    {
+        List result = new ArrayList();
+        if (limit <= 0)
+        {
+            return result;
+        }
+
+        Iterator it = set.iterator();
+        if (compiledEvaluation)
+        {
+            // Evaluate the compiled filter, using the same evaluator for all candidates
+            CompiledExpression compiledFilter = compilation.getInMemoryFilter();
+            while (it.hasNext())
+            {
+                Object obj = it.next();
+                evalState.put(candidateAlias, obj);
+                if (Boolean.TRUE.equals(compiledFilter.evaluate(obj, evalEvaluator)))
+                {
+                    if (NucleusLogger.QUERY.isDebugEnabled())
+                    {
+                        NucleusLogger.QUERY.debug(LOCALISER.msg("021023", StringUtils.toJVMIDString(obj)));
+                    }
+                    result.add(obj);
+                    if (result.size() >= limit)
+                    {
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
         while (it.hasNext())
         {
             // Set the value of the candidate being tested, and evaluate it
             Object obj = it.next();
-            if (!state.containsKey(candidateAlias))
+            if (!evalState.containsKey(candidateAlias))
             {
                 throw new NucleusUserException("Alias \"" + candidateAlias + "\" doesn't exist in the query or the candidate alias wasn't defined");
             }
-            state.put(candidateAlias, obj);
-
-            InMemoryExpressionEvaluator eval =
-                new InMemoryExpressionEvaluator(query.getExecutionContext(), 
-                    parameterValues, state, query.getParsedImports(), clr, candidateAlias, query.getLanguage());
+            evalState.put(candidateAlias, obj);
 
-            Object evalResult = evaluateBooleanExpression(filter, eval);
+            Object evalResult = evaluateBooleanExpression(filter, newEvaluator(evalState));
             if (Boolean.TRUE.equals(evalResult))
             {
                 if (NucleusLogger.QUERY.isDebugEnabled())
@@ -331,11 +438,115 @@ public abstract class JavaQueryEvaluator
                     NucleusLogger.QUERY.debug(LOCALISER.msg("021023", StringUtils.toJVMIDString(obj)));
                 }
                 result.add(obj);
+                if (result.size() >= limit)
+                {
+                    break;
+                }
             }
         }
         return result;
     }
 
+    /**
+     * Convenience method to create a new evaluator using the provided state.
+     * @param evalState The state
+     * @return The evaluator
+     */
+    private InMemoryExpressionEvaluator newEvaluator(Map<String, Object> evalState)
+    {
+        return new InMemoryExpressionEvaluator(query.getExecutionContext(), 
+            parameterValues, evalState, query.getParsedImports(), clr, candidateAlias, query.getLanguage());
+    }
+
+    /**
+     * Accessor for the number of partitions to split the specified number of candidates into for evaluation.
+     * This is 1 unless parallel evaluation is enabled, and then is limited so that each partition has at least
+     * PARALLEL_MIN_PARTITION_SIZE candidates.
+     * @param numCandidates Number of candidates
+     * @return The number of partitions
+     */
+    private int getNumberOfPartitions(int numCandidates)
+    {
+        if (!parallelEvaluation)
+        {
+            return 1;
+        }
+        int parallelism = query.getStoreManager().getQueryManager().getInMemoryEvaluationParallelism();
+        return Math.max(1, Math.min(parallelism, numCandidates / PARALLEL_MIN_PARTITION_SIZE));
+    }
+
+    /**
+     * Task to evaluate a partition of the candidates when evaluating in parallel.
+     * @param <T> Type of result for the partition
+     */
+    private interface PartitionTask<T>
+    {
+        /**
+         * Method to evaluate the partition. Each partition has its own state and evaluator.
+         * @param partition The candidates of the partition
+         * @param partitionState The state for this partition
+         * @param partitionEval Evaluator using the state
+         * @return The result for this partition
+         */
+        T evaluate(List partition, Map<String, Object> partitionState, InMemoryExpressionEvaluator partitionEval);
+    }
+
+    /**
+     * Method to evaluate the task over partitions of the candidates, in parallel using the executor of the
+     * QueryManager. Each partition has its own copy of the current state, and its own evaluator.
+     * @param set The candidates
+     * @param numPartitions Number of partitions
+     * @param task The task
+     * @return The results of the partitions, in partition order
+     */
+    private <T> List<T> executeInParallel(List set, int numPartitions, final PartitionTask<T> task)
+    {
+        int partitionSize = (set.size() + numPartitions - 1) / numPartitions;
+        List<Callable<T>> callables = new ArrayList<Callable<T>>(numPartitions);
+        for (int i=0;i<numPartitions;i++)
+        {
+            final List partition = set.subList(i * partitionSize, Math.min(set.size(), (i+1) * partitionSize));
+            callables.add(new Callable<T>()
+            {
+                public T call()
+                {
+                    Map<String, Object> partitionState = new HashMap<String, Object>(state);
+                    return task.evaluate(partition, partitionState, newEvaluator(partitionState));
+                }
+            });
+        }
+
+        ExecutorService executor = query.getStoreManager().getQueryManager().getInMemoryEvaluationExecutor();
+        try
+        {
+            List<Future<T>> futures = executor.invokeAll(callables);
+            List<T> results = new ArrayList<T>(numPartitions);
+            for (Future<T> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new QueryInterruptedException("In-memory evaluation of query was interrupted", ie);
+        }
+        catch (ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new NucleusException("Error in parallel in-memory evaluation of query", cause);
+        }
+    }
+
     /**
      * Convenience method to evaluate the provided expression returning a boolean.
      * Caters for variables in the provided expression, attempting to process all possible values for them.
@@ -427,36 +638,62 @@ public abstract class JavaQueryEvaluator
         }
     }
 
-    private List sortByGrouping(List set)
+    /**
+     * Method to split the candidates into groups by the values of their grouping expressions, using a hash
+     * lookup of the grouping values so the candidates are processed in a single pass. The groups are
+     * returned in order of their grouping values (nulls first), omitting any group that doesn't satisfy
+     * the having clause.
+     * @param set The candidates
+     * @return The groups
+     */
+    private List<List> handleGrouping(List set)
     {
-        Object[] o = set.toArray();
         final Expression[] grouping = compilation.getExprGrouping();
-        Arrays.sort(o, new Comparator()
+        Map<List, List> groupsByValues = new HashMap<List, List>();
+        List<List> groupValues = new ArrayList<List>();
+        Iterator it = set.iterator();
+        while (it.hasNext())
+        {
+            Object obj = it.next();
+            state.put(candidateAlias, obj);
+            Object[] values = new Object[grouping.length];
+            for (int i=0;i<grouping.length;i++)
+            {
+                values[i] = grouping[i].evaluate(evaluator);
+            }
+            List key = Arrays.asList(values);
+            List group = groupsByValues.get(key);
+            if (group == null)
+            {
+                group = new ArrayList();
+                groupsByValues.put(key, group);
+                groupValues.add(key);
+            }
+            group.add(obj);
+        }
+
+        // Order the groups by their grouping values
+        Collections.sort(groupValues, new Comparator<List>()
         {
-            public int compare(Object arg0, Object arg1)
+            public int compare(List values1, List values2)
             {
-                for (int i=0; i<grouping.length; i++)
+                for (int i=0;i<grouping.length;i++)
                 {
-                    state.put(candidateAlias, arg0);
-                    Object a = grouping[i].evaluate(evaluator);
-                    state.put(candidateAlias, arg1);
-                    Object b = grouping[i].evaluate(evaluator);
-                    int result = 0;
+                    Object a = values1.get(i);
+                    Object b = values2.get(i);
                     if (a == null && b == null)
                     {
-                        result = 0;
+                        continue;
                     }
-                    else
+                    else if (a == null)
                     {
-                        if (a == null) 
-                        {
-                            result = -1;
-                        }
-                        else
-                        {
-                            result = ((Comparable)a).compareTo(b);
-                        }
+                        return -1;
                     }
+                    else if (b == null)
+                    {
+                        return 1;
+                    }
+                    int result = ((Comparable)a).compareTo(b);
                     if (result != 0)
                     {
                         return result;
@@ -465,10 +702,27 @@ public abstract class JavaQueryEvaluator
                 return 0;
             }
         });
-        return Arrays.asList(o);
+
+        Expression having = compilation.getExprHaving();
+        List<List> groups = new ArrayList<List>(groupValues.size());
+        for (List values : groupValues)
+        {
+            List group = groupsByValues.get(values);
+            if (having == null || satisfiesHavingClause(group))
+            {
+                groups.add(group);
+            }
+        }
+        return groups;
     }
 
-    private List ordering(List set)
+    /**
+     * Method to order the candidates.
+     * @param set The candidates
+     * @param limit Number of candidates required from the start of the ordered candidates
+     * @return The ordered candidates (the first "limit" only, if fewer than the candidates)
+     */
+    private List ordering(List set, int limit)
     {
         final Expression[] ordering = compilation.getExprOrdering();
         if (ordering == null)
@@ -479,89 +733,207 @@ public abstract class JavaQueryEvaluator
         // Save the result set
         state.put(RESULTS_SET, set);
 
+        int numPartitions = getNumberOfPartitions(set.size());
+        if (compiledEvaluation || numPartitions > 1 || limit < set.size())
+        {
+            return orderingByKeys(set, ordering, numPartitions, limit);
+        }
         return QueryUtils.orderCandidates(set, ordering, state, candidateAlias,
             query.getExecutionContext(), clr, parameterValues, query.getParsedImports(), query.getLanguage());
     }
 
     /**
-     * Checks if there are aggregates and handle it.
-     * @param resultSet The resultSet containing all elements
-     * @return A list with aggregated elements
+     * Method to order the candidates by the values of their ordering expressions. These values are evaluated
+     * once for each candidate up front, rather than on every comparison. When using more than one partition,
+     * the partitions are evaluated and sorted in parallel and then merged.
+     * @param set The candidates
+     * @param ordering The ordering expressions
+     * @param numPartitions Number of partitions
+     * @param limit Number of candidates required from the start of the ordered candidates
+     * @return The ordered candidates (the first "limit" only, if fewer than the candidates)
      */
-    private List handleAggregates(List resultSet)
+    private List orderingByKeys(List set, final Expression[] ordering, int numPartitions, final int limit)
     {
-        final Expression[] grouping = compilation.getExprGrouping();
-        Comparator c = new Comparator()
+        final Comparator<OrderingKey> comparator = new Comparator<OrderingKey>()
         {
-            public int compare(Object arg0, Object arg1)
+            public int compare(OrderingKey key1, OrderingKey key2)
             {
-                for (int i=0; i<grouping.length; i++)
+                for (int i=0;i<ordering.length;i++)
                 {
-                    state.put(candidateAlias, arg0);
-                    Object a = grouping[i].evaluate(evaluator);
-                    state.put(candidateAlias, arg1);
-                    Object b = grouping[i].evaluate(evaluator);
-                    // Put any null values at the end
-                    if (a == null && b == null)
-                    {
-                        return 0;
-                    }
-                    else if (a == null)
-                    {
-                        return -1;
-                    }
-                    else if (b == null)
-                    {
-                        return 1;
-                    }
-                    else
+                    int result = QueryUtils.compareOrderingValues(key1.values[i], key2.values[i], (OrderExpression)ordering[i]);
+                    if (result != 0)
                     {
-                        int result = ((Comparable)a).compareTo(b);
-                        if (result != 0)
-                        {
-                            return result;
-                        }
+                        return result;
                     }
                 }
                 return 0;
             }
         };
-    
-        List groups = new ArrayList();
-        List group = new ArrayList();
-        groups.add(group);
-        for (int i=0; i<resultSet.size(); i++)
+
+        OrderingKey[] keys = null;
+        if (numPartitions > 1)
         {
-            if (i > 0)
+            List<OrderingKey[]> runs = executeInParallel(set, numPartitions, new PartitionTask<OrderingKey[]>()
             {
-                if (c.compare(resultSet.get(i-1),resultSet.get(i)) != 0)
+                public OrderingKey[] evaluate(List partition, Map<String, Object> partitionState, InMemoryExpressionEvaluator partitionEval)
                 {
-                    group = new ArrayList();
-                    groups.add(group);
+                    return sortOrderingKeys(partition, ordering, comparator, limit, partitionState, partitionEval);
                 }
+            });
+            keys = mergeOrderingKeys(runs, comparator);
+        }
+        else
+        {
+            keys = sortOrderingKeys(set, ordering, comparator, limit, state, evaluator);
+        }
+
+        int size = Math.min(keys.length, limit);
+        List result = new ArrayList(size);
+        for (int i=0;i<size;i++)
+        {
+            result.add(keys[i].candidate);
+        }
+        return result;
+    }
+
+    /**
+     * Method to evaluate the ordering values of the candidates and sort them, using the provided state and
+     * evaluator. When fewer than all candidates are required, the required candidates are selected using a
+     * heap bounded to that size, so only that many ordering keys are held and sorted.
+     * @param set The candidates
+     * @param ordering The ordering expressions
+     * @param comparator Comparator for the ordering keys
+     * @param limit Number of candidates required from the start of the ordered candidates
+     * @param evalState The state to set the current candidate in
+     * @param evalEvaluator Evaluator using the state
+     * @return The sorted ordering keys (the first "limit" only, if fewer than the candidates)
+     */
+    private OrderingKey[] sortOrderingKeys(List set, Expression[] ordering, final Comparator<OrderingKey> comparator,
+            int limit, Map<String, Object> evalState, InMemoryExpressionEvaluator evalEvaluator)
+    {
+        CompiledExpression[] compiledOrdering = (compiledEvaluation ? compilation.getInMemoryOrdering() : null);
+        if (limit >= set.size())
+        {
+            OrderingKey[] keys = new OrderingKey[set.size()];
+            for (int i=0;i<keys.length;i++)
+            {
+                keys[i] = getOrderingKey(set.get(i), i, ordering, compiledOrdering, evalState, evalEvaluator);
             }
-            group.add(resultSet.get(i));
+            Arrays.sort(keys, comparator);
+            return keys;
         }
-        List result = new ArrayList();
-        Expression having = compilation.getExprHaving();
-        if (having != null)
+        else if (limit <= 0)
+        {
+            return new OrderingKey[0];
+        }
+
+        // Order by the ordering values and then by position, so equal keys keep their original order
+        Comparator<OrderingKey> positionComparator = new Comparator<OrderingKey>()
         {
-            for (int i=0; i<groups.size(); i++)
+            public int compare(OrderingKey key1, OrderingKey key2)
             {
-                if (satisfiesHavingClause((List) groups.get(i)))
-                {
-                    result.addAll((Collection) groups.get(i));
-                }
+                int result = comparator.compare(key1, key2);
+                return (result != 0 ? result : (key1.position < key2.position ? -1 : (key1.position == key2.position ? 0 : 1)));
+            }
+        };
+
+        // Keep the first "limit" keys in a heap with the last of them at the head
+        PriorityQueue<OrderingKey> heap = new PriorityQueue<OrderingKey>(limit, Collections.reverseOrder(positionComparator));
+        for (int i=0;i<set.size();i++)
+        {
+            OrderingKey key = getOrderingKey(set.get(i), i, ordering, compiledOrdering, evalState, evalEvaluator);
+            if (heap.size() < limit)
+            {
+                heap.add(key);
+            }
+            else if (positionComparator.compare(key, heap.peek()) < 0)
+            {
+                heap.poll();
+                heap.add(key);
             }
         }
-        else
+        OrderingKey[] keys = heap.toArray(new OrderingKey[heap.size()]);
+        Arrays.sort(keys, positionComparator);
+        return keys;
+    }
+
+    /**
+     * Method to evaluate the ordering values of a candidate.
+     * @param obj The candidate
+     * @param position Position of the candidate in the candidates
+     * @param ordering The ordering expressions
+     * @param compiledOrdering Compiled form of the ordering expressions (if using compiled evaluation)
+     * @param evalState The state to set the current candidate in
+     * @param evalEvaluator Evaluator using the state
+     * @return The ordering key
+     */
+    private OrderingKey getOrderingKey(Object obj, int position, Expression[] ordering, CompiledExpression[] compiledOrdering,
+            Map<String, Object> evalState, InMemoryExpressionEvaluator evalEvaluator)
+    {
+        evalState.put(candidateAlias, obj);
+        Object[] values = new Object[ordering.length];
+        for (int j=0;j<ordering.length;j++)
+        {
+            values[j] = (compiledOrdering != null ? compiledOrdering[j].evaluate(obj, evalEvaluator) :
+                ordering[j].evaluate(newEvaluator(evalState)));
+        }
+        return new OrderingKey(obj, position, values);
+    }
+
+    /**
+     * Method to merge sorted runs of ordering keys, merging adjacent runs until only one remains.
+     * Where keys compare equal the key from the earlier run comes first, so the merge is stable.
+     * @param runs The sorted runs
+     * @param comparator Comparator for the keys
+     * @return The merged keys
+     */
+    private static OrderingKey[] mergeOrderingKeys(List<OrderingKey[]> runs, Comparator<OrderingKey> comparator)
+    {
+        while (runs.size() > 1)
         {
-            for (int i = 0; i < groups.size(); i++)
+            List<OrderingKey[]> mergedRuns = new ArrayList<OrderingKey[]>((runs.size() + 1) / 2);
+            for (int i=0;i<runs.size();i+=2)
             {
-                result.addAll((Collection) groups.get(i));
+                if (i+1 == runs.size())
+                {
+                    mergedRuns.add(runs.get(i));
+                    continue;
+                }
+
+                OrderingKey[] run1 = runs.get(i);
+                OrderingKey[] run2 = runs.get(i+1);
+                OrderingKey[] merged = new OrderingKey[run1.length + run2.length];
+                int pos1 = 0;
+                int pos2 = 0;
+                int pos = 0;
+                while (pos1 < run1.length && pos2 < run2.length)
+                {
+                    merged[pos++] = (comparator.compare(run2[pos2], run1[pos1]) < 0 ? run2[pos2++] : run1[pos1++]);
+                }
+                System.arraycopy(run1, pos1, merged, pos, run1.length - pos1);
+                System.arraycopy(run2, pos2, merged, pos + run1.length - pos1, run2.length - pos2);
+                mergedRuns.add(merged);
             }
+            runs = mergedRuns;
+        }
+        return runs.get(0);
+    }
+
+    /**
+     * Candidate with the values of its ordering expressions.
+     */
+    private static class OrderingKey
+    {
+        final Object candidate;
+        final int position;
+        final Object[] values;
+
+        OrderingKey(Object candidate, int position, Object[] values)
+        {
+            this.candidate = candidate;
+            this.position = position;
+            this.values = values;
         }
-        return result;
     }
 
     /**
@@ -592,66 +964,11 @@ public abstract class JavaQueryEvaluator
         final Expression[] grouping = compilation.getExprGrouping();
         if (grouping != null)
         {
-            Comparator c = new Comparator()
-            {
-                public int compare(Object arg0, Object arg1)
-                {
-                    for (int i = 0; i < grouping.length; i++)
-                    {
-                        state.put(candidateAlias, arg0);
-                        Object a = grouping[i].evaluate(evaluator);
-                        state.put(candidateAlias, arg1);
-                        Object b = grouping[i].evaluate(evaluator);
-
-                        // Put any null values at the end
-                        if (a == null && b == null)
-                        {
-                            return 0;
-                        }
-                        else if (a == null)
-                        {
-                            return -1;
-                        }
-                        else if (b == null)
-                        {
-                            return 1;
-                        }
-                        else
-                        {
-                            int result = ((Comparable) a).compareTo(b);
-                            if (result != 0)
-                            {
-                                return result;
-                            }
-                        }
-                    }
-                    return 0;
-                }
-            };
-    
-            List groups = new ArrayList();
-            List group = new ArrayList();
-            if (resultSet.size() > 0)
-            {
-                groups.add(group);
-            }
-            for (int i = 0; i < resultSet.size(); i++)
-            {
-                if (i > 0)
-                {
-                    if (c.compare(resultSet.get(i - 1), resultSet.get(i)) != 0)
-                    {
-                        group = new ArrayList();
-                        groups.add(group);
-                    }
-                }
-                group.add(resultSet.get(i));
-            }
+            List<List> groups = handleGrouping(resultSet);
 
             // Apply the result to the generated groups
-            for (int i = 0; i < groups.size(); i++)
+            for (List group : groups)
             {
-                group = (List)groups.get(i);
                 result.add(result(group));
             }
         }
@@ -0,0 +1,456 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.query.evaluator.memory;
+
+import java.lang.reflect.Field;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.List;
+import java.util.Map;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.query.QueryUtils;
+import org.datanucleus.query.expression.DyadicExpression;
+import org.datanucleus.query.expression.Expression;
+import org.datanucleus.query.expression.Literal;
+import org.datanucleus.query.expression.ParameterExpression;
+import org.datanucleus.query.expression.PrimaryExpression;
+import org.datanucleus.state.ObjectProvider;
+import org.datanucleus.util.ClassUtils;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Expression compiled for repeated in-memory evaluation against many candidates.
+ * <p>
+ * The expression tree of a query compilation is converted once into a tree of nodes that each handle one
+ * type of expression, so evaluation of a candidate doesn't have to dispatch on the expression type and
+ * operator, or push/pop values on the evaluator stack. Field access on the candidate caches the field
+ * number and java.lang.reflect.Field for the class last seen, using the field number for managed objects
+ * and the Field for others, and AND/OR are evaluated with short-circuiting. Any expression without a node type here (method invocation,
+ * arithmetic etc) is evaluated by the {@link InMemoryExpressionEvaluator}, with the same result as when
+ * not compiled.
+ * </p>
+ * <p>
+ * A compiled expression holds no state for a particular execution, so it can be cached with the
+ * query compilation and used by many threads. It doesn't support variables or subqueries.
+ * </p>
+ */
+public abstract class CompiledExpression
+{
+    /**
+     * Method to evaluate this expression for the specified candidate.
+     * The candidate must also be set in the state of the evaluator, under the candidate alias.
+     * @param candidate The candidate object
+     * @param eval The evaluator, providing parameter values and the ExecutionContext
+     * @return The result
+     */
+    public abstract Object evaluate(Object candidate, InMemoryExpressionEvaluator eval);
+
+    /**
+     * Method to compile the specified expression.
+     * @param expr The expression
+     * @param candidateAlias Alias of the candidate
+     * @return The compiled expression
+     */
+    public static CompiledExpression compile(Expression expr, String candidateAlias)
+    {
+        if (expr instanceof Literal)
+        {
+            return new LiteralNode(((Literal)expr).getLiteral());
+        }
+        else if (expr instanceof ParameterExpression)
+        {
+            return new ParameterNode((ParameterExpression)expr);
+        }
+        else if (expr instanceof PrimaryExpression && expr.getLeft() == null)
+        {
+            return new FieldNode((PrimaryExpression)expr, candidateAlias);
+        }
+        else if (expr instanceof DyadicExpression)
+        {
+            Expression.Operator op = expr.getOperator();
+            if (op == Expression.OP_AND)
+            {
+                return new AndNode(compile(expr.getLeft(), candidateAlias), compile(expr.getRight(), candidateAlias));
+            }
+            else if (op == Expression.OP_OR)
+            {
+                return new OrNode(compile(expr.getLeft(), candidateAlias), compile(expr.getRight(), candidateAlias));
+            }
+            else if (op == Expression.OP_NOT)
+            {
+                return new NotNode(compile(expr.getLeft(), candidateAlias));
+            }
+            else if (op == Expression.OP_EQ || op == Expression.OP_NOTEQ || op == Expression.OP_LT ||
+                op == Expression.OP_LTEQ || op == Expression.OP_GT || op == Expression.OP_GTEQ)
+            {
+                return new ComparisonNode(op, compile(expr.getLeft(), candidateAlias), compile(expr.getRight(), candidateAlias));
+            }
+        }
+        return new InterpretedNode(expr);
+    }
+
+    /**
+     * Node for a literal.
+     */
+    static class LiteralNode extends CompiledExpression
+    {
+        final Object value;
+
+        LiteralNode(Object value)
+        {
+            this.value = value;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            return value;
+        }
+    }
+
+    /**
+     * Node for a parameter.
+     */
+    static class ParameterNode extends CompiledExpression
+    {
+        final ParameterExpression paramExpr;
+
+        ParameterNode(ParameterExpression paramExpr)
+        {
+            this.paramExpr = paramExpr;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            return QueryUtils.getValueForParameterExpression(eval.getParameterValues(), paramExpr);
+        }
+    }
+
+    /**
+     * Node for a comparison (==, !=, &lt;, &lt;=, &gt;, &gt;=).
+     */
+    static class ComparisonNode extends CompiledExpression
+    {
+        final Expression.Operator op;
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        ComparisonNode(Expression.Operator op, CompiledExpression left, CompiledExpression right)
+        {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            Object leftValue = left.evaluate(candidate, eval);
+            if (leftValue instanceof InMemoryFailure)
+            {
+                return Boolean.FALSE;
+            }
+            Object rightValue = right.evaluate(candidate, eval);
+            if (rightValue instanceof InMemoryFailure)
+            {
+                return Boolean.FALSE;
+            }
+            return QueryUtils.compareExpressionValues(leftValue, rightValue, op) ? Boolean.TRUE : Boolean.FALSE;
+        }
+    }
+
+    /**
+     * Node for a logical AND. Doesn't evaluate the right side when the left side isn't TRUE.
+     */
+    static class AndNode extends CompiledExpression
+    {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        AndNode(CompiledExpression left, CompiledExpression right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            if (left.evaluate(candidate, eval) != Boolean.TRUE)
+            {
+                return Boolean.FALSE;
+            }
+            return (right.evaluate(candidate, eval) == Boolean.TRUE ? Boolean.TRUE : Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Node for a logical OR. Doesn't evaluate the right side when the left side is TRUE.
+     */
+    static class OrNode extends CompiledExpression
+    {
+        final CompiledExpression left;
+        final CompiledExpression right;
+
+        OrNode(CompiledExpression left, CompiledExpression right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            if (left.evaluate(candidate, eval) == Boolean.TRUE)
+            {
+                return Boolean.TRUE;
+            }
+            return (right.evaluate(candidate, eval) == Boolean.TRUE ? Boolean.TRUE : Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Node for a logical NOT.
+     */
+    static class NotNode extends CompiledExpression
+    {
+        final CompiledExpression operand;
+
+        NotNode(CompiledExpression operand)
+        {
+            this.operand = operand;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            return (((Boolean)operand.evaluate(candidate, eval)).booleanValue() ? Boolean.FALSE : Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Node for an expression that is evaluated by the InMemoryExpressionEvaluator.
+     */
+    static class InterpretedNode extends CompiledExpression
+    {
+        final Expression expr;
+
+        InterpretedNode(Expression expr)
+        {
+            this.expr = expr;
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            Object result = expr.evaluate(eval);
+
+            // Evaluation leaves values on the stack, so clear it since the evaluator is reused
+            eval.stack.clear();
+            return result;
+        }
+    }
+
+    /**
+     * Node for a field (or chain of fields) of the candidate, or an implicit parameter.
+     */
+    static class FieldNode extends CompiledExpression
+    {
+        /** Id of the expression, which may be the name of an implicit parameter. */
+        final String id;
+
+        /** Names of the fields to navigate, starting from the candidate. */
+        final String[] fieldNames;
+
+        /** Maximum number of classes that an accessor is kept for, for each field. */
+        static final int MAX_ACCESSORS_PER_FIELD = 8;
+
+        /**
+         * Accessors used for each field, one for each class seen (most recently seen first), so that candidates
+         * of different classes (e.g. subclasses) don't look up the field each time. Each array is replaced rather
+         * than updated when a class is added, so is safe to read by other threads.
+         */
+        final FieldAccessor[][] accessors;
+
+        FieldNode(PrimaryExpression primExpr, String candidateAlias)
+        {
+            this.id = primExpr.getId();
+            List<String> tuples = primExpr.getTuples();
+            int first = (tuples.get(0).equals(candidateAlias) ? 1 : 0);
+            this.fieldNames = tuples.subList(first, tuples.size()).toArray(new String[tuples.size() - first]);
+            this.accessors = new FieldAccessor[fieldNames.length][];
+        }
+
+        public Object evaluate(Object candidate, InMemoryExpressionEvaluator eval)
+        {
+            Map paramValues = eval.getParameterValues();
+            if (!paramValues.isEmpty())
+            {
+                Object paramValue = paramValues.get(id);
+                if (paramValue != null)
+                {
+                    // Implicit parameter
+                    return paramValue;
+                }
+            }
+
+            Object value = candidate;
+            for (int i=0;i<fieldNames.length && value != null;i++)
+            {
+                value = getAccessor(i, value.getClass()).getValue(value, eval.ec);
+                if (value instanceof InMemoryFailure)
+                {
+                    return value;
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Accessor for the FieldAccessor of a field for objects of the specified class, creating it if not
+         * yet known. Two threads may both create one for the same class, which is harmless.
+         * @param fieldIndex Index of the field in the chain
+         * @param cls The class of the object
+         * @return The FieldAccessor
+         */
+        FieldAccessor getAccessor(int fieldIndex, Class cls)
+        {
+            FieldAccessor[] clsAccessors = accessors[fieldIndex];
+            if (clsAccessors != null)
+            {
+                for (int i=0;i<clsAccessors.length;i++)
+                {
+                    FieldAccessor accessor = clsAccessors[i];
+                    if (accessor != null && accessor.cls == cls)
+                    {
+                        return accessor;
+                    }
+                }
+            }
+
+            // Class not seen before, so add an accessor for it, discarding that of the least recent class if full
+            FieldAccessor accessor = new FieldAccessor(cls, fieldNames[fieldIndex]);
+            int numKept = (clsAccessors != null ? Math.min(clsAccessors.length, MAX_ACCESSORS_PER_FIELD - 1) : 0);
+            FieldAccessor[] newAccessors = new FieldAccessor[numKept + 1];
+            newAccessors[0] = accessor;
+            if (numKept > 0)
+            {
+                System.arraycopy(clsAccessors, 0, newAccessors, 1, numKept);
+            }
+            accessors[fieldIndex] = newAccessors;
+            return accessor;
+        }
+    }
+
+    /**
+     * Accessor for a field of objects of a particular class. Can be shared between threads.
+     * Whether an object is managed is checked for each object, since objects of the same class can be
+     * persistent (read through their ObjectProvider, loading the field if needed) or transient, new or
+     * detached (read by reflection). The member metadata is looked up from the first managed object seen,
+     * and is the same for all objects of the class.
+     */
+    static class FieldAccessor
+    {
+        /** Value of <i>fieldNumber</i> before the member metadata has been looked up. */
+        static final int FIELD_NUMBER_UNRESOLVED = -2;
+
+        /** Value of <i>fieldNumber</i> when the class is persistable but has no member of this name. */
+        static final int FIELD_NUMBER_UNKNOWN = -3;
+
+        final Class cls;
+        final String fieldName;
+
+        /** Absolute field number of the member for managed objects (-1 when not a managed field). */
+        volatile int fieldNumber = FIELD_NUMBER_UNRESOLVED;
+
+        /** Field to use with reflection for objects that aren't managed (null if the class has no such field). */
+        final Field field;
+
+        FieldAccessor(Class cls, String fieldName)
+        {
+            this.cls = cls;
+            this.fieldName = fieldName;
+            this.field = getAccessibleField(cls, fieldName);
+        }
+
+        Object getValue(Object obj, ExecutionContext ec)
+        {
+            if (ec.getApiAdapter().isPersistent(obj))
+            {
+                ObjectProvider op = ec.findObjectProvider(obj);
+                if (op != null)
+                {
+                    int fieldNum = fieldNumber;
+                    if (fieldNum == FIELD_NUMBER_UNRESOLVED)
+                    {
+                        // Same result for all objects of this class, so no problem if two threads both do this
+                        AbstractMemberMetaData mmd = op.getClassMetaData().getMetaDataForMember(fieldName);
+                        if (mmd == null)
+                        {
+                            NucleusLogger.QUERY.error("Cannot find " + fieldName + " member of " + op.getClassMetaData().getFullClassName());
+                            fieldNum = FIELD_NUMBER_UNKNOWN;
+                        }
+                        else
+                        {
+                            fieldNum = (mmd.getAbsoluteFieldNumber() >= 0 ? mmd.getAbsoluteFieldNumber() : -1);
+                        }
+                        fieldNumber = fieldNum;
+                    }
+
+                    if (fieldNum == FIELD_NUMBER_UNKNOWN)
+                    {
+                        return new InMemoryFailure();
+                    }
+                    else if (fieldNum >= 0)
+                    {
+                        // Make sure the field is loaded, and get its value
+                        op.isLoaded(fieldNum);
+                        return op.provideField(fieldNum);
+                    }
+                }
+            }
+
+            if (field == null)
+            {
+                throw new NucleusUserException("Cannot access field: " + fieldName + " in type " + cls);
+            }
+            try
+            {
+                return field.get(obj);
+            }
+            catch (IllegalAccessException iae)
+            {
+                throw new NucleusUserException("Cannot access field: " + fieldName, iae);
+            }
+        }
+
+        private static Field getAccessibleField(Class cls, String fieldName)
+        {
+            final Field field = ClassUtils.getFieldForClass(cls, fieldName);
+            if (field != null && !field.isAccessible())
+            {
+                AccessController.doPrivileged(new PrivilegedAction()
+                {
+                    public Object run()
+                    {
+                        field.setAccessible(true);
+                        return null;
+                    }
+                });
+            }
+            return field;
+        }
+    }
+}
@@ -27,7 +27,6 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -682,63 +681,36 @@ public class InMemoryExpressionEvaluator extends AbstractExpressionEvaluator
         if (invokeExpr.getLeft() == null)
         {
             // Static function
-            if (method.toLowerCase().equals("count"))
+            String methodName = method.toLowerCase();
+            if (methodName.equals("count") || methodName.equals("sum") || methodName.equals("avg") ||
+                methodName.equals("min") || methodName.equals("max"))
             {
+                // Aggregate over the current results set
                 Collection coll = (Collection)state.get(JavaQueryEvaluator.RESULTS_SET);
-                SetExpression setexpr = new SetExpression(coll, candidateAlias);
                 Expression paramExpr = invokeExpr.getArguments().get(0);
+                boolean distinct = false;
                 if (paramExpr.getOperator() == Expression.OP_DISTINCT)
                 {
-                    Collection processable = new HashSet(coll); // No dups in HashSet
-                    coll = processable;
+                    // Aggregate the distinct values of the argument, dropping duplicates as they are evaluated
+                    paramExpr = ((DyadicExpression)paramExpr).getLeft();
+                    distinct = true;
                 }
-                return setexpr.count(paramExpr, this);
-            }
-            else if (method.toLowerCase().equals("sum"))
-            {
-                Collection coll = (Collection)state.get(JavaQueryEvaluator.RESULTS_SET);
-                SetExpression setexpr = new SetExpression(coll, candidateAlias);
-                Expression paramExpr = invokeExpr.getArguments().get(0);
-                if (paramExpr.getOperator() == Expression.OP_DISTINCT)
+                SetExpression setexpr = new SetExpression(coll, candidateAlias, distinct);
+                if (methodName.equals("count"))
                 {
-                    Collection processable = new HashSet(coll); // No dups in HashSet
-                    coll = processable;
+                    return setexpr.count(paramExpr, this, state);
                 }
-                return setexpr.sum(paramExpr, this, state);
-            }
-            else if (method.toLowerCase().equals("avg"))
-            {
-                Collection coll = (Collection)state.get(JavaQueryEvaluator.RESULTS_SET);
-                SetExpression setexpr = new SetExpression(coll, candidateAlias);
-                Expression paramExpr = invokeExpr.getArguments().get(0);
-                if (paramExpr.getOperator() == Expression.OP_DISTINCT)
+                else if (methodName.equals("sum"))
                 {
-                    Collection processable = new HashSet(coll); // No dups in HashSet
-                    coll = processable;
+                    return setexpr.sum(paramExpr, this, state);
                 }
-                return setexpr.avg(paramExpr, this, state);
-            }
-            else if (method.toLowerCase().equals("min"))
-            {
-                Collection coll = (Collection)state.get(JavaQueryEvaluator.RESULTS_SET);
-                SetExpression setexpr = new SetExpression(coll, candidateAlias);
-                Expression paramExpr = invokeExpr.getArguments().get(0);
-                if (paramExpr.getOperator() == Expression.OP_DISTINCT)
+                else if (methodName.equals("avg"))
                 {
-                    Collection processable = new HashSet(coll); // No dups in HashSet
-                    coll = processable;
+                    return setexpr.avg(paramExpr, this, state);
                 }
-                return setexpr.min(paramExpr, this, state);
-            }
-            else if (method.toLowerCase().equals("max"))
-            {
-                Collection coll = (Collection)state.get(JavaQueryEvaluator.RESULTS_SET);
-                SetExpression setexpr = new SetExpression(coll, candidateAlias);
-                Expression paramExpr = invokeExpr.getArguments().get(0);
-                if (paramExpr.getOperator() == Expression.OP_DISTINCT)
+                else if (methodName.equals("min"))
                 {
-                    Collection processable = new HashSet(coll); // No dups in HashSet
-                    coll = processable;
+                    return setexpr.min(paramExpr, this, state);
                 }
                 return setexpr.max(paramExpr, this, state);
             }
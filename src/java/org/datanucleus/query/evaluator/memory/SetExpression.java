@@ -23,8 +23,10 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.query.expression.Expression;
@@ -41,15 +43,45 @@ public class SetExpression
 
     Iterator itemIterator;
 
+    /** Values aggregated so far, when aggregating distinct values only. */
+    Set distinctValues = null;
+
     /**
      * Constructor for a SetExpression to perform the aggregation.
      * @param items The items to aggregate
      * @param alias The alias for these items
      */
     public SetExpression(Collection items, String alias)
+    {
+        this(items, alias, false);
+    }
+
+    /**
+     * Constructor for a SetExpression to perform the aggregation, optionally of distinct values only.
+     * Duplicate values are dropped as they are evaluated, so only the distinct values are retained.
+     * @param items The items to aggregate
+     * @param alias The alias for these items
+     * @param distinct Whether to aggregate the distinct values only
+     */
+    public SetExpression(Collection items, String alias, boolean distinct)
     {
         this.itemIterator = (items != null ? items.iterator() : null);
         this.alias = alias;
+        if (distinct)
+        {
+            distinctValues = new HashSet();
+        }
+    }
+
+    /**
+     * Convenience method to check whether the value has already been aggregated, when aggregating
+     * distinct values only.
+     * @param value The value
+     * @return Whether to omit this value
+     */
+    private boolean isDuplicate(Object value)
+    {
+        return distinctValues != null && !distinctValues.add(value);
     }
     
     public Object count(Expression expr, ExpressionEvaluator eval)
@@ -68,6 +100,26 @@ public class SetExpression
         return Long.valueOf(i);
     }
 
+    public Object count(Expression paramExpr, ExpressionEvaluator eval, Map<String, Object> state)
+    {
+        if (distinctValues == null || itemIterator == null)
+        {
+            return count(paramExpr, eval);
+        }
+
+        // Count the distinct non-null values
+        while (itemIterator.hasNext())
+        {
+            state.put(alias, itemIterator.next());
+            Object result = paramExpr.evaluate(eval);
+            if (result != null)
+            {
+                distinctValues.add(result);
+            }
+        }
+        return Long.valueOf(distinctValues.size());
+    }
+
     public Object min(Expression paramExpr, ExpressionEvaluator eval, Map<String, Object> state)
     {
         if (itemIterator == null)
@@ -81,6 +133,10 @@ public class SetExpression
         {
             state.put(alias, itemIterator.next());
             Object result = paramExpr.evaluate(eval);
+            if (isDuplicate(result))
+            {
+                continue;
+            }
             AggregateExpression memexpr = null;
             if (i == 0)
             {
@@ -150,6 +206,10 @@ public class SetExpression
         {
             state.put(alias, itemIterator.next());
             Object result = paramExpr.evaluate(eval);
+            if (isDuplicate(result))
+            {
+                continue;
+            }
             AggregateExpression memexpr = null;
             if (i == 0)
             {
@@ -218,6 +278,10 @@ public class SetExpression
         {
             state.put(alias, itemIterator.next());
             Object result = paramExpr.evaluate(eval);
+            if (isDuplicate(result))
+            {
+                continue;
+            }
             AggregateExpression memexpr = null;
             if (result instanceof Float)
             {
@@ -309,6 +373,10 @@ public class SetExpression
         {
             state.put(alias, itemIterator.next());
             Object result = paramExpr.evaluate(eval);
+            if (isDuplicate(result))
+            {
+                continue;
+            }
             if (result instanceof Float)
             {
                 if (val == null)
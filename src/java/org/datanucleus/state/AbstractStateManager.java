@@ -17,6 +17,7 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.state;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -32,9 +33,11 @@ import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.exceptions.NucleusObjectNotFoundException;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityReference;
+import org.datanucleus.management.CacheStatistics;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.AbstractMemberMetaData;
 import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.properties.PropertyHandle;
 import org.datanucleus.store.fieldmanager.FieldManager;
 import org.datanucleus.store.fieldmanager.LoadFieldManager;
 import org.datanucleus.store.fieldmanager.SingleTypeFieldManager;
@@ -55,6 +58,9 @@ public abstract class AbstractStateManager implements ObjectProvider
 
     protected static final SingleTypeFieldManager HOLLOWFIELDMANAGER = new SingleTypeFieldManager();
 
+    private static final PropertyHandle CACHE_L2_UPDATE_MODE = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_L2_UPDATE_MODE);
+    private static final PropertyHandle CACHE_L2_LOADFIELDS = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_L2_LOADFIELDS);
+
     /** Flag to signify that we are currently storing the persistable object, so we don't detach it on serialisation. */
     protected static final int FLAG_STORING_PC = (2<<15);
     /** Whether the managed object needs the inheritance level validating before loading fields. */
@@ -126,11 +132,11 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     protected boolean dirty = false;
 
-    /** indicators for which fields are currently dirty in the persistable instance. */
-    protected boolean[] dirtyFields;
+    /** indicators for which fields are currently dirty in the persistable instance (by absolute field number). */
+    protected BitSet dirtyFields;
 
-    /** indicators for which fields are currently loaded in the persistable instance. */
-    protected boolean[] loadedFields;
+    /** indicators for which fields are currently loaded in the persistable instance (by absolute field number). */
+    protected BitSet loadedFields;
 
     /** Lock object to synchronise execution when reading/writing fields. */
     protected Lock lock = null;
@@ -142,7 +148,7 @@ public abstract class AbstractStateManager implements ObjectProvider
     protected byte savedFlags;
 
     /** Loaded fields of the PersistenceCapable instance when the instance is enlisted in the transaction. */
-    protected boolean[] savedLoadedFields = null;
+    protected BitSet savedLoadedFields = null;
 
     /** state for transitions of activities. */
     protected ActivityState activity;
@@ -170,8 +176,17 @@ public abstract class AbstractStateManager implements ObjectProvider
     {
         int fieldCount = cmd.getMemberCount();
         this.cmd = cmd;
-        this.dirtyFields = new boolean[fieldCount];
-        this.loadedFields = new boolean[fieldCount];
+        if (this.loadedFields == null)
+        {
+            this.dirtyFields = new BitSet(fieldCount);
+            this.loadedFields = new BitSet(fieldCount);
+        }
+        else
+        {
+            // Reconnecting a pooled provider, so reuse the bitsets
+            this.dirtyFields.clear();
+            this.loadedFields.clear();
+        }
         this.dirty = false;
         this.myEC = ec;
         this.myFP = myEC.getFetchPlan().getFetchPlanForClass(cmd);
@@ -793,7 +808,7 @@ public abstract class AbstractStateManager implements ObjectProvider
     }
 
     /** Copy of the "loadedFields" just before delete was started to avoid reload during delete */
-    boolean[] preDeleteLoadedFields = null;
+    BitSet preDeleteLoadedFields = null;
 
     /**
      * Method to delete the object from the datastore.
@@ -819,7 +834,12 @@ public abstract class AbstractStateManager implements ObjectProvider
             if (!isEmbedded())
             {
                 // Nothing to delete if embedded
+                long startTime = System.currentTimeMillis();
                 myEC.getStoreManager().getPersistenceHandler().deleteObject(this);
+                if (myEC.getStatistics() != null)
+                {
+                    myEC.getStatistics().datastoreWriteExecuted(System.currentTimeMillis()-startTime);
+                }
             }
 
             preDeleteLoadedFields = null;
@@ -870,7 +890,7 @@ public abstract class AbstractStateManager implements ObjectProvider
         }
         for (int i=0; i<fieldNumbers.length; ++i)
         {
-            if (!loadedFields[fieldNumbers[i]])
+            if (!loadedFields.get(fieldNumbers[i]))
             {
                 return false;
             }
@@ -884,51 +904,8 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public void unloadNonFetchPlanFields()
     {
-        int[] fpFieldNumbers = myFP.getMemberNumbers();
-        int[] nonfpFieldNumbers = null;
-        if (fpFieldNumbers == null || fpFieldNumbers.length == 0)
-        {
-            nonfpFieldNumbers = cmd.getAllMemberPositions();
-        }
-        else
-        {
-            int fieldCount = cmd.getMemberCount();
-            if (fieldCount == fpFieldNumbers.length)
-            {
-                // No fields that arent in FetchPlan
-                return;
-            }
-
-            nonfpFieldNumbers = new int[fieldCount - fpFieldNumbers.length];
-            int currentFPFieldIndex = 0;
-            int j = 0;
-            for (int i=0;i<fieldCount; i++)
-            {
-                if (currentFPFieldIndex >= fpFieldNumbers.length)
-                {
-                    // Past end of FetchPlan fields
-                    nonfpFieldNumbers[j++] = i;
-                }
-                else
-                {
-                    if (fpFieldNumbers[currentFPFieldIndex] == i)
-                    {
-                        // FetchPlan field so move to next
-                        currentFPFieldIndex++;
-                    }
-                    else
-                    {
-                        nonfpFieldNumbers[j++] = i;
-                    }
-                }
-            }
-        }
-
         // Mark all non-FetchPlan fields as unloaded
-        for (int i=0;i<nonfpFieldNumbers.length;i++)
-        {
-            loadedFields[nonfpFieldNumbers[i]] = false;
-        }
+        loadedFields.and(myFP.getMemberNumberBits());
     }
 
     /**
@@ -941,7 +918,7 @@ public abstract class AbstractStateManager implements ObjectProvider
             int[] pkPositions = cmd.getPKMemberPositions();
             for (int i=0;i<pkPositions.length;i++)
             {
-                loadedFields[pkPositions[i]] = true;
+                loadedFields.set(pkPositions[i]);
             }
         }
     }
@@ -955,7 +932,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     protected void updateLevel2CacheForFields(int[] fieldNumbers)
     {
-        String updateMode = (String)myEC.getProperty(PropertyNames.PROPERTY_CACHE_L2_UPDATE_MODE);
+        String updateMode = myEC.getStringProperty(CACHE_L2_UPDATE_MODE);
         if (updateMode != null && updateMode.equalsIgnoreCase("commit-only"))
         {
             return;
@@ -971,7 +948,7 @@ public abstract class AbstractStateManager implements ObjectProvider
             CachedPC cachedPC = l2cache.get(myID);
             if (cachedPC != null)
             {
-                int[] cacheFieldsToLoad = ClassUtils.getFlagsSetTo(cachedPC.getLoadedFields(), fieldNumbers, false);
+                int[] cacheFieldsToLoad = ClassUtils.getFlagsSetTo(cachedPC.getLoadedFieldBits(), fieldNumbers, false);
                 if (cacheFieldsToLoad != null && cacheFieldsToLoad.length > 0)
                 {
                     CachedPC copyCachedPC = cachedPC.getCopy();
@@ -985,6 +962,14 @@ public abstract class AbstractStateManager implements ObjectProvider
 
                     // Replace the current L2 cached object with this one
                     myEC.getNucleusContext().getLevel2Cache().put(getInternalObjectId(), copyCachedPC);
+                    if (myEC.getStatistics() != null)
+                    {
+                        CacheStatistics l2CacheStats = myEC.getNucleusContext().getCacheStatistics(CacheStatistics.LEVEL2);
+                        if (l2CacheStats != null)
+                        {
+                            l2CacheStats.put(copyCachedPC.getObjectClass().getName());
+                        }
+                    }
                 }
             }
         }
@@ -1005,7 +990,7 @@ public abstract class AbstractStateManager implements ObjectProvider
             return fieldNumbers;
         }
         // TODO Drop this check when we're confident that this doesn't affect some use-cases
-        if (!myEC.getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_CACHE_L2_LOADFIELDS, true))
+        if (!myEC.getNucleusContext().getConfiguration().getBooleanProperty(CACHE_L2_LOADFIELDS, true))
         {
             return fieldNumbers;
         }
@@ -1016,7 +1001,7 @@ public abstract class AbstractStateManager implements ObjectProvider
             CachedPC cachedPC = l2cache.get(myID);
             if (cachedPC != null)
             {
-                int[] cacheFieldsToLoad = ClassUtils.getFlagsSetTo(cachedPC.getLoadedFields(), fieldNumbers, true);
+                int[] cacheFieldsToLoad = ClassUtils.getFlagsSetTo(cachedPC.getLoadedFieldBits(), fieldNumbers, true);
                 if (cacheFieldsToLoad != null && cacheFieldsToLoad.length > 0)
                 {
                     if (NucleusLogger.CACHE.isDebugEnabled())
@@ -1032,7 +1017,7 @@ public abstract class AbstractStateManager implements ObjectProvider
                     {
                         for (int i=0;i<fieldsNotLoaded.length;i++)
                         {
-                            loadedFields[fieldsNotLoaded[i]] = false;
+                            loadedFields.clear(fieldsNotLoaded[i]);
                         }
                     }
                 }
@@ -1064,7 +1049,7 @@ public abstract class AbstractStateManager implements ObjectProvider
             loadUnloadedFieldsInFetchPlan();
 
             // Recurse through all fields and do the same
-            int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, cmd.getAllMemberPositions(), true);
+            int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields);
             if (fieldNumbers != null && fieldNumbers.length > 0)
             {
                 // TODO Fix this to just access the fields of the FieldManager yet this actually does a replaceField
@@ -1119,7 +1104,12 @@ public abstract class AbstractStateManager implements ObjectProvider
         }
 
         // TODO If the field has "loadFetchGroup" defined, then add it to the fetch plan etc
+        long startTime = System.currentTimeMillis();
         myEC.getStoreManager().getPersistenceHandler().fetchObject(this, fieldNumbers);
+        if (myEC.getStatistics() != null)
+        {
+            myEC.getStatistics().datastoreReadExecuted(System.currentTimeMillis()-startTime);
+        }
     }
 
     /**
@@ -1127,29 +1117,12 @@ public abstract class AbstractStateManager implements ObjectProvider
      * @param loadedFields Fields that were detached with the object
      * @param dirtyFields Fields that have been modified while detached
      */
-    protected int[] getFieldNumbersOfLoadedOrDirtyFields(boolean[] loadedFields, boolean[] dirtyFields)
+    protected int[] getFieldNumbersOfLoadedOrDirtyFields(BitSet loadedFields, BitSet dirtyFields)
     {
-        // Find the number of fields that are loaded or dirty
-        int numFields = 0;
-        for (int i=0;i<loadedFields.length;i++)
-        {
-            if (loadedFields[i] || dirtyFields[i])
-            {
-                numFields++;
-            }
-        }
-
-        int[] fieldNumbers = new int[numFields];
-        int n=0;
-        int[] allFieldNumbers = cmd.getAllMemberPositions();
-        for (int i=0;i<loadedFields.length;i++)
-        {
-            if (loadedFields[i] || dirtyFields[i])
-            {
-                fieldNumbers[n++] = allFieldNumbers[i];
-            }
-        }
-        return fieldNumbers;
+        BitSet fields = (BitSet)loadedFields.clone();
+        fields.or(dirtyFields);
+        int[] fieldNumbers = ClassUtils.getFlagsSetTo(fields);
+        return (fieldNumbers != null ? fieldNumbers : new int[0]);
     }
 
     /**
@@ -1158,9 +1131,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public boolean[] getDirtyFields()
     {
-        boolean[] copy = new boolean[dirtyFields.length];
-        System.arraycopy(dirtyFields, 0, copy, 0, dirtyFields.length);
-        return copy;
+        return ClassUtils.getFlagsForBitSet(dirtyFields, cmd.getMemberCount());
     }
 
     /**
@@ -1169,7 +1140,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public int[] getDirtyFieldNumbers()
     {
-        return ClassUtils.getFlagsSetTo(dirtyFields, true);
+        return ClassUtils.getFlagsSetTo(dirtyFields);
     }
 
     /**
@@ -1178,7 +1149,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public boolean[] getLoadedFields() 
     {
-        return loadedFields.clone();
+        return ClassUtils.getFlagsForBitSet(loadedFields, cmd.getMemberCount());
     }
 
     /**
@@ -1187,7 +1158,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public int[] getLoadedFieldNumbers()
     {
-        return ClassUtils.getFlagsSetTo(loadedFields, true);
+        return ClassUtils.getFlagsSetTo(loadedFields);
     }
 
     /**
@@ -1196,14 +1167,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public boolean getAllFieldsLoaded()
     {
-        for (int i = 0;i<loadedFields.length;i++)
-        {
-            if (!loadedFields[i])
-            {
-                return false;
-            }
-        }
-        return true;
+        return loadedFields.nextClearBit(0) >= cmd.getMemberCount();
     }
 
     /**
@@ -1212,7 +1176,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public String[] getDirtyFieldNames()
     {
-        int[] dirtyFieldNumbers = ClassUtils.getFlagsSetTo(dirtyFields, true);
+        int[] dirtyFieldNumbers = ClassUtils.getFlagsSetTo(dirtyFields);
         if (dirtyFieldNumbers != null && dirtyFieldNumbers.length > 0)
         {
             String[] dirtyFieldNames = new String[dirtyFieldNumbers.length];
@@ -1231,7 +1195,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public String[] getLoadedFieldNames()
     {
-        int[] loadedFieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, true);
+        int[] loadedFieldNumbers = ClassUtils.getFlagsSetTo(loadedFields);
         if (loadedFieldNumbers != null && loadedFieldNumbers.length > 0)
         {
             String[] loadedFieldNames = new String[loadedFieldNumbers.length];
@@ -1252,7 +1216,7 @@ public abstract class AbstractStateManager implements ObjectProvider
      */
     public boolean isFieldLoaded(int fieldNumber)
     {
-        return loadedFields[fieldNumber];
+        return loadedFields.get(fieldNumber);
     }
 
     protected void clearFieldsByNumbers(int[] fieldNumbers)
@@ -1260,8 +1224,8 @@ public abstract class AbstractStateManager implements ObjectProvider
         replaceFields(fieldNumbers, HOLLOWFIELDMANAGER);
         for (int i=0;i<fieldNumbers.length;i++)
         {
-            loadedFields[fieldNumbers[i]] = false;
-            dirtyFields[fieldNumbers[i]] = false;
+            loadedFields.clear(fieldNumbers[i]);
+            dirtyFields.clear(fieldNumbers[i]);
         }
     }
 
@@ -1271,7 +1235,7 @@ public abstract class AbstractStateManager implements ObjectProvider
     protected void clearDirtyFlags()
     {
         dirty = false;
-        ClassUtils.clearFlags(dirtyFields);
+        dirtyFields.clear();
     }
     
     /**
@@ -1281,7 +1245,10 @@ public abstract class AbstractStateManager implements ObjectProvider
     protected void clearDirtyFlags(int[] fieldNumbers)
     {
         dirty = false;
-        ClassUtils.clearFlags(dirtyFields,fieldNumbers);
+        for (int i=0;i<fieldNumbers.length;i++)
+        {
+            dirtyFields.clear(fieldNumbers[i]);
+        }
     }
 
     /**
@@ -1295,7 +1262,7 @@ public abstract class AbstractStateManager implements ObjectProvider
         {
             // Mark as not loaded
             AbstractMemberMetaData mmd = getClassMetaData().getMetaDataForMember(fieldName);
-            loadedFields[mmd.getAbsoluteFieldNumber()] = false;
+            loadedFields.clear(mmd.getAbsoluteFieldNumber());
         }
         else
         {
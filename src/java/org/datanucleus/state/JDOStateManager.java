@@ -74,6 +74,7 @@ import org.datanucleus.metadata.IdentityStrategy;
 import org.datanucleus.metadata.IdentityType;
 import org.datanucleus.metadata.PersistenceFlags;
 import org.datanucleus.metadata.RelationType;
+import org.datanucleus.properties.PropertyHandle;
 import org.datanucleus.store.FieldValues;
 import org.datanucleus.store.ObjectReferencingStoreManager;
 import org.datanucleus.store.exceptions.NotYetFlushedException;
@@ -134,6 +135,9 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     /** Image of the PersistenceCapable instance when the instance is enlisted in the transaction. */
     protected PersistenceCapable savedImage = null;
 
+    private static final PropertyHandle DETACH_DETACHED_STATE = PropertyHandle.forName(PropertyNames.PROPERTY_DETACH_DETACHED_STATE);
+    private static final PropertyHandle ATTACH_SAME_DATASTORE = PropertyHandle.forName(PropertyNames.PROPERTY_ATTACH_SAME_DATASTORE);
+
     private static final JDOImplHelper HELPER;
     static
     {
@@ -224,6 +228,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         clearSavedFields();
 
         PersistenceNucleusContext nucCtx = myEC.getNucleusContext();
+        boolean multithreaded = myEC.getMultithreaded();
         myPC = null;
         myID = null;
         myInternalID = null;
@@ -240,11 +245,15 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         dirty = false;
 
         cmd = null;
-        dirtyFields = null;
-        loadedFields = null;
+        dirtyFields.clear();
+        loadedFields.clear();
 
-        // Remove the object from any pooling
-        nucCtx.getObjectProviderFactory().disconnectObjectProvider(this);
+        if (!multithreaded)
+        {
+            // Return to the pool for reuse. Not when multithreaded since other threads of the ExecutionContext
+            // may still be using this ObjectProvider, and would see it reused for another object [NUCCORE-1007]
+            nucCtx.getObjectProviderFactory().disconnectObjectProvider(this);
+        }
     }
 
     /**
@@ -368,10 +377,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         myPC.jdoReplaceFlags();
 
         // Mark all fields as loaded
-        for (int i=0; i<loadedFields.length; ++i)
-        {
-            loadedFields[i] = true;
-        }
+        loadedFields.set(0, cmd.getMemberCount());
 
         // Add the object to the cache
         myEC.putObjectIntoLevel1Cache(this);
@@ -406,10 +412,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         }
 
         // Mark all fields as loaded since we are using the passed PersistenceCapable
-        for (int i=0;i<loadedFields.length;i++)
-        {
-            loadedFields[i] = true;
-        }
+        loadedFields.set(0, cmd.getMemberCount());
     }
 
     /**
@@ -426,10 +429,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         myPC = (PersistenceCapable)pc;
         myLC = myEC.getNucleusContext().getApiAdapter().getLifeCycleState(LifeCycleState.P_NEW);
         persistenceFlags = PersistenceFlags.READ_OK;
-        for (int i=0; i<loadedFields.length; ++i)
-        {
-            loadedFields[i] = true;
-        }
+        loadedFields.set(0, cmd.getMemberCount());
 
         replaceStateManager(myPC, this); // Assign this StateManager to the PC
         myPC.jdoReplaceFlags();
@@ -558,10 +558,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         myPC = (PersistenceCapable)pc;
         myLC = null;
         persistenceFlags = PersistenceFlags.READ_OK;
-        for (int i=0; i<loadedFields.length; ++i)
-        {
-            loadedFields[i] = true;
-        }
+        loadedFields.set(0, cmd.getMemberCount());
         myPC.jdoReplaceFlags();
 
         // Populate all fields that have "value-strategy" and are not datastore populated
@@ -609,10 +606,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         this.myID = null;
         this.myPC = (PersistenceCapable)pc;
         this.myLC = myEC.getNucleusContext().getApiAdapter().getLifeCycleState(LifeCycleState.P_NEW);
-        for (int i=0; i<loadedFields.length; ++i) // Mark all fields as loaded
-        {
-            loadedFields[i] = true;
-        }
+        loadedFields.set(0, cmd.getMemberCount()); // Mark all fields as loaded
         replaceStateManager(myPC, this);
     }
 
@@ -631,7 +625,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         myLC = myEC.getNucleusContext().getApiAdapter().getLifeCycleState(LifeCycleState.P_CLEAN);
         persistenceFlags = PersistenceFlags.READ_OK;
 
-        int[] fieldsToLoad = ClassUtils.getFlagsSetTo(cachedPC.getLoadedFields(), myFP.getMemberNumbers(), true);
+        int[] fieldsToLoad = ClassUtils.getFlagsSetTo(cachedPC.getLoadedFieldBits(), myFP.getMemberNumbers(), true);
         if (fieldsToLoad != null)
         {
             // Put this object in L1 cache for easy referencing
@@ -641,7 +635,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             this.replaceFields(fieldsToLoad, l2RetFM);
             for (int i=0;i<fieldsToLoad.length;i++)
             {
-                loadedFields[fieldsToLoad[i]] = true;
+                loadedFields.set(fieldsToLoad[i]);
             }
 
             int[] fieldsNotLoaded = l2RetFM.getFieldsNotLoaded();
@@ -649,7 +643,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             {
                 for (int i=0;i<fieldsNotLoaded.length;i++)
                 {
-                    loadedFields[fieldsNotLoaded[i]] = false;
+                    loadedFields.clear(fieldsNotLoaded[i]);
                 }
             }
 
@@ -693,7 +687,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         savedImage = myPC.jdoNewInstance(this);
         savedImage.jdoCopyFields(myPC, cmd.getAllMemberPositions());
         savedFlags = persistenceFlags;
-        savedLoadedFields = loadedFields.clone();
+        savedLoadedFields = (BitSet)loadedFields.clone();
     }
 
     /**
@@ -1115,7 +1109,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
 
         persistenceFlags = PersistenceFlags.LOAD_REQUIRED;
         myPC.jdoReplaceFlags();
-        ClassUtils.clearFlags(loadedFields);
+        loadedFields.clear();
     }
 
     /**
@@ -1386,7 +1380,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1435,7 +1429,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1484,7 +1478,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1533,7 +1527,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1582,7 +1576,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1631,7 +1625,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1680,7 +1674,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1728,7 +1722,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || currentValue != newValue)
+            if (!loadedFields.get(fieldNumber) || currentValue != newValue)
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
                 {
@@ -1776,7 +1770,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 loadUnloadedFieldsInFetchPlanAndVersion();
             }
 
-            if (!loadedFields[fieldNumber] || 
+            if (!loadedFields.get(fieldNumber) || 
                 !(currentValue == null ? (newValue == null) : (currentValue.equals(newValue))))
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE)
@@ -1845,7 +1839,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             // Remove this object from L2 cache since now dirty to avoid potential problems
             myEC.removeObjectFromLevel2Cache(myID);
 
-            if (!loadedFields[fieldNumber] && currentValue == null)
+            if (!loadedFields.get(fieldNumber) && currentValue == null)
             {
                 // Updating value of a field that isnt currently loaded
                 if (myEC.getManageRelations() &&
@@ -1898,7 +1892,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
 
             // Update the field
             boolean needsSCOUpdating = false;
-            if (!loadedFields[fieldNumber] || !equal || mmd.hasArray())
+            if (!loadedFields.get(fieldNumber) || !equal || mmd.hasArray())
             {
                 if (cmd.getIdentityType() == IdentityType.NONDURABLE && relationType == RelationType.NONE)
                 {
@@ -2011,8 +2005,8 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             transitionWriteField();
 
             dirty = true;
-            dirtyFields[fieldNumber] = true;
-            loadedFields[fieldNumber] = true;
+            dirtyFields.set(fieldNumber);
+            loadedFields.set(fieldNumber);
         }
 
         replaceField(pc, fieldNumber, value, true);
@@ -2042,7 +2036,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public boolean replacingBooleanField(PersistenceCapable pc, int fieldNumber)
     {
         boolean value = currFM.fetchBooleanField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2056,7 +2050,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public byte replacingByteField(PersistenceCapable obj, int fieldNumber)
     {
         byte value = currFM.fetchByteField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2070,7 +2064,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public char replacingCharField(PersistenceCapable obj, int fieldNumber)
     {
         char value = currFM.fetchCharField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2084,7 +2078,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public double replacingDoubleField(PersistenceCapable obj, int fieldNumber)
     {
         double value = currFM.fetchDoubleField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2098,7 +2092,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public float replacingFloatField(PersistenceCapable obj, int fieldNumber)
     {
         float value = currFM.fetchFloatField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2112,7 +2106,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public int replacingIntField(PersistenceCapable obj, int fieldNumber)
     {
         int value = currFM.fetchIntField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2126,7 +2120,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public long replacingLongField(PersistenceCapable obj, int fieldNumber)
     {
         long value = currFM.fetchLongField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2140,7 +2134,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public short replacingShortField(PersistenceCapable obj, int fieldNumber)
     {
         short value = currFM.fetchShortField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2154,7 +2148,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public String replacingStringField(PersistenceCapable obj, int fieldNumber)
     {
         String value = currFM.fetchStringField(fieldNumber);
-        loadedFields[fieldNumber] = true;
+        loadedFields.set(fieldNumber);
         return value;
     }
 
@@ -2170,7 +2164,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         try
         {
             Object value = currFM.fetchObjectField(fieldNumber);
-            loadedFields[fieldNumber] = true;
+            loadedFields.set(fieldNumber);
             return value;
         }
         catch (EndOfFetchPlanGraphException eodge)
@@ -2301,16 +2295,12 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             // Retrieving the detached state from the detached object
             // Don't need the id or version since they can't change
             BitSet jdoLoadedFields = (BitSet)currentState[2];
-            for (int i = 0; i < this.loadedFields.length; i++)
-            {
-                this.loadedFields[i] = jdoLoadedFields.get(i);
-            }
+            loadedFields.clear();
+            loadedFields.or(jdoLoadedFields);
 
             BitSet jdoModifiedFields = (BitSet)currentState[3];
-            for (int i = 0; i < dirtyFields.length; i++)
-            {
-                dirtyFields[i] = jdoModifiedFields.get(i);
-            }
+            dirtyFields.clear();
+            dirtyFields.or(jdoModifiedFields);
             setVersion(currentState[1]);
             return currentState;
         }
@@ -2322,34 +2312,10 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             state[1] = getVersion(myPC);
 
             // Loaded fields
-            BitSet loadedState = new BitSet();
-            for (int i = 0; i < loadedFields.length; i++)
-            {
-                if (loadedFields[i])
-                {
-                    loadedState.set(i);
-                }
-                else
-                {
-                    loadedState.clear(i);
-                }
-            }
-            state[2] = loadedState;
+            state[2] = loadedFields.clone();
 
             // Modified fields
-            BitSet modifiedState = new BitSet();
-            for (int i = 0; i < dirtyFields.length; i++)
-            {
-                if (dirtyFields[i])
-                {
-                    modifiedState.set(i);
-                }
-                else
-                {
-                    modifiedState.clear(i);
-                }
-            }
-            state[3] = modifiedState;
+            state[3] = dirtyFields.clone();
 
             return state;
         }
@@ -2445,8 +2411,8 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             myFP = myEC.getFetchPlan().getFetchPlanForClass(cmd);
 
             int fieldCount = cmd.getMemberCount();
-            dirtyFields = new boolean[fieldCount];
-            loadedFields = new boolean[fieldCount];
+            dirtyFields = new BitSet(fieldCount);
+            loadedFields = new BitSet(fieldCount);
 
             // Create new PC at right inheritance level
             myPC = HELPER.newInstance(pcClass, this);
@@ -2532,7 +2498,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         }
 
         boolean callPostLoad = myFP.isToCallPostLoadFetchPlan(this.loadedFields);
-        if (loadedFields.length == 0)
+        if (cmd.getMemberCount() == 0)
         {
             // Class has no fields so since we are loading from scratch just call postLoad
             callPostLoad = true;
@@ -2658,7 +2624,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         // Set the loaded flags now that we have copied
         for (int i=0;i<fieldNumbers.length;i++)
         {
-            loadedFields[fieldNumbers[i]] = true;
+            loadedFields.set(fieldNumbers[i]);
         }
     }
 
@@ -2925,7 +2891,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
      */
     public void loadField(int fieldNumber)
     {
-        if (loadedFields[fieldNumber])
+        if (loadedFields.get(fieldNumber))
         {
             // Already loaded
             return;
@@ -2990,7 +2956,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
      */
     public void loadUnloadedFieldsInFetchPlan()
     {
-        int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, myFP.getMemberNumbers(), false);
+        int[] fieldNumbers = myFP.getMemberNumbersWithFlagsSetTo(loadedFields, false);
         if (fieldNumbers != null && fieldNumbers.length > 0)
         {
             boolean callPostLoad = myFP.isToCallPostLoadFetchPlan(this.loadedFields);
@@ -3019,7 +2985,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         }
         else
         {
-            int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, myFP.getMemberNumbers(), false);
+            int[] fieldNumbers = myFP.getMemberNumbersWithFlagsSetTo(loadedFields, false);
             if (fieldNumbers == null)
             {
                 fieldNumbers = new int[0];
@@ -3046,7 +3012,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     public void loadUnloadedFieldsOfClassInFetchPlan(FetchPlan fetchPlan)
     {
         FetchPlanForClass fpc = fetchPlan.getFetchPlanForClass(this.cmd);
-        int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, fpc.getMemberNumbers(), false);
+        int[] fieldNumbers = fpc.getMemberNumbersWithFlagsSetTo(loadedFields, false);
         if (fieldNumbers != null && fieldNumbers.length > 0)
         {
             boolean callPostLoad = fpc.isToCallPostLoadFetchPlan(this.loadedFields);
@@ -3073,7 +3039,10 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         if (fieldNumbers != null && fieldNumbers.length > 0)
         {
             clearDirtyFlags(fieldNumbers);
-            ClassUtils.clearFlags(loadedFields, fieldNumbers);
+            for (int i=0;i<fieldNumbers.length;i++)
+            {
+                loadedFields.clear(fieldNumbers[i]);
+            }
             markPKFieldsAsLoaded(); // Can't refresh PK fields!
 
             boolean callPostLoad = myFP.isToCallPostLoadFetchPlan(this.loadedFields);
@@ -3132,12 +3101,12 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
      */
     public void refreshLoadedFields()
     {
-        int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, myFP.getMemberNumbers(), true);
+        int[] fieldNumbers = myFP.getMemberNumbersWithFlagsSetTo(loadedFields, true);
 
         if (fieldNumbers != null && fieldNumbers.length > 0)
         {
             clearDirtyFlags();
-            ClassUtils.clearFlags(loadedFields);
+            loadedFields.clear();
             markPKFieldsAsLoaded(); // Can't refresh PK fields!
 
             boolean callPostLoad = myFP.isToCallPostLoadFetchPlan(this.loadedFields);
@@ -3191,10 +3160,10 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 }
                 if (checkRead)
                 {
-                    transitionReadField(loadedFields[fieldNumber]);
+                    transitionReadField(loadedFields.get(fieldNumber));
                 }
 
-                if (!loadedFields[fieldNumber])
+                if (!loadedFields.get(fieldNumber))
                 {
                     // Field not loaded, so load it
                     if (objectType != ObjectProvider.PC)
@@ -3203,7 +3172,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                         return true;
                     }
 
-                    if (beingDeleted && preDeleteLoadedFields != null && preDeleteLoadedFields[fieldNumber])
+                    if (beingDeleted && preDeleteLoadedFields != null && preDeleteLoadedFields.get(fieldNumber))
                     {
                         // Field was loaded prior to starting delete so just return true
                         return true;
@@ -3390,7 +3359,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                     int numberToReplace = fieldNumbers.length;
                     for (int i=0;i<fieldNumbers.length;i++)
                     {
-                        if (dirtyFields[fieldNumbers[i]])
+                        if (dirtyFields.get(fieldNumbers[i]))
                         {
                             numberToReplace--;
                         }
@@ -3401,7 +3370,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                         int n = 0;
                         for (int i=0;i<fieldNumbers.length;i++)
                         {
-                            if (!dirtyFields[fieldNumbers[i]])
+                            if (!dirtyFields.get(fieldNumbers[i]))
                             {
                                 fieldsToReplace[n++] = fieldNumbers[i];
                             }
@@ -3504,7 +3473,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         boolean[] scoMutableFieldFlags = cmd.getSCOMutableMemberFlags();
         for (int i=0;i<scoMutableFieldFlags.length;i++)
         {
-            if (scoMutableFieldFlags[i] && loadedFields[i])
+            if (scoMutableFieldFlags[i] && loadedFields.get(i))
             {
                 Object value = provideField(i);
                 if (!(value instanceof SCO))
@@ -3524,7 +3493,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         boolean[] scoMutableFieldFlags = cmd.getSCOMutableMemberFlags();
         for (int i=0;i<scoMutableFieldFlags.length;i++)
         {
-            if (scoMutableFieldFlags[i] && loadedFields[i])
+            if (scoMutableFieldFlags[i] && loadedFields.get(i))
             {
                 Object value = provideField(i);
                 if (value instanceof SCO)
@@ -3672,7 +3641,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             reachables.add(getInternalObjectId());
 
             // Go through all (loaded FetchPlan) fields for reachability using ReachabilityFieldManager
-            int[] loadedFieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, cmd.getAllMemberPositions(), true);
+            int[] loadedFieldNumbers = ClassUtils.getFlagsSetTo(loadedFields);
             if (loadedFieldNumbers != null && loadedFieldNumbers.length > 0)
             {
                 provideFields(loadedFieldNumbers, new ReachabilityFieldManager(this, reachables));
@@ -3768,7 +3737,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
     private void internalMakePersistent()
     {
         activity = ActivityState.INSERTING;
-        boolean[] tmpDirtyFields = dirtyFields.clone();
+        BitSet tmpDirtyFields = (BitSet)dirtyFields.clone();
         try
         {
             getCallbackHandler().preStore(myPC); // This comes after setting the INSERTING flag so we know we are inserting it now
@@ -3781,7 +3750,12 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             //postCreate, we clear dirty flags to make sure this object will not be flushed again
             clearDirtyFlags();
 
+            long startTime = System.currentTimeMillis();
             myEC.getStoreManager().getPersistenceHandler().insertObject(this);
+            if (myEC.getStatistics() != null)
+            {
+                myEC.getStatistics().datastoreWriteExecuted(System.currentTimeMillis()-startTime);
+            }
             setFlushedNew(true);
 
             getCallbackHandler().postStore(myPC);
@@ -3887,7 +3861,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             {
                 // Make all loaded SCO fields transient appropriate to this fetch plan
                 loadUnloadedFieldsInFetchPlan();
-                int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, cmd.getAllMemberPositions(), true);
+                int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields);
                 if (fieldNumbers != null && fieldNumbers.length > 0)
                 {
                     // TODO Fix this to just access the fields of the FieldManager yet this actually does a replaceField
@@ -3949,7 +3923,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         {
             setDetaching(true);
 
-            String detachedState = myEC.getNucleusContext().getConfiguration().getStringProperty(PropertyNames.PROPERTY_DETACH_DETACHED_STATE);
+            String detachedState = myEC.getNucleusContext().getConfiguration().getStringProperty(DETACH_DETACHED_STATE);
             if (detachedState.equalsIgnoreCase("all"))
             {
                 loadUnloadedFields();
@@ -3985,9 +3959,9 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             // Detach all (loaded) fields in the FetchPlan
             FieldManager detachFieldManager = new DetachFieldManager(this, cmd.getSCOMutableMemberFlags(), 
                 myFP, state, false);
-            for (int i = 0; i < loadedFields.length; i++)
+            for (int i = 0; i < cmd.getMemberCount(); i++)
             {
-                if (loadedFields[i])
+                if (loadedFields.get(i))
                 {
                     try
                     {
@@ -4128,7 +4102,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                     int[] fieldsToLoad = null;
                     if ((myEC.getFetchPlan().getDetachmentOptions() & FetchPlan.DETACH_LOAD_FIELDS) != 0)
                     {
-                        fieldsToLoad = ClassUtils.getFlagsSetTo(loadedFields, myFP.getMemberNumbers(), false);
+                        fieldsToLoad = myFP.getMemberNumbersWithFlagsSetTo(loadedFields, false);
                     }
                     NucleusLogger.PERSISTENCE.debug(LOCALISER.msg("010010", StringUtils.toJVMIDString(myPC), 
                         "" + state.getCurrentFetchDepth(), StringUtils.toJVMIDString(detachedPC),
@@ -4220,8 +4194,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
      */
     private int[] getFieldsNumbersToDetach()
     {
-        String detachedState = myEC.getNucleusContext().getConfiguration().getStringProperty(
-            PropertyNames.PROPERTY_DETACH_DETACHED_STATE);
+        String detachedState = myEC.getNucleusContext().getConfiguration().getStringProperty(DETACH_DETACHED_STATE);
         if (detachedState.equalsIgnoreCase("all"))
         {
             return cmd.getAllMemberPositions();
@@ -4241,20 +4214,11 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             {
                 // Return all loaded plus any unloaded FP fields
                 int[] fieldsToDetach = myFP.getMemberNumbers();
-                int[] allFieldNumbers = cmd.getAllMemberPositions();
-                int[] loadedFieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, allFieldNumbers, true);
-                if (loadedFieldNumbers != null && loadedFieldNumbers.length > 0)
+                if (!loadedFields.isEmpty())
                 {
-                    boolean[] flds = new boolean[allFieldNumbers.length];
-                    for (int i=0;i<fieldsToDetach.length;i++)
-                    {
-                        flds[fieldsToDetach[i]] = true;
-                    }
-                    for (int i=0;i<loadedFieldNumbers.length;i++)
-                    {
-                        flds[loadedFieldNumbers[i]] = true;
-                    }
-                    fieldsToDetach = ClassUtils.getFlagsSetTo(flds, true);
+                    BitSet flds = (BitSet)loadedFields.clone();
+                    flds.or(myFP.getMemberNumberBits());
+                    fieldsToDetach = ClassUtils.getFlagsSetTo(flds);
                 }
                 return fieldsToDetach;
             }
@@ -4264,7 +4228,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             if ((myEC.getFetchPlan().getDetachmentOptions() & FetchPlan.DETACH_LOAD_FIELDS) == 0)
             {
                 // Return loaded fields that are in the FetchPlan
-                return ClassUtils.getFlagsSetTo(loadedFields, myFP.getMemberNumbers(), true);
+                return myFP.getMemberNumbersWithFlagsSetTo(loadedFields, true);
             }
             else
             {
@@ -4355,7 +4319,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             }
             else
             {
-                if (!myEC.getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_ATTACH_SAME_DATASTORE))
+                if (!myEC.getNucleusContext().getConfiguration().getBooleanProperty(ATTACH_SAME_DATASTORE))
                 {
                     // We cant assume that this object was detached from this datastore so we check it
                     try
@@ -4402,8 +4366,8 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 NucleusLogger.GENERAL.debug("Attaching id=" + getInternalObjectId() +
                     " fields=" + StringUtils.intArrayToString(attachFieldNumbers));
                 provideFields(attachFieldNumbers,
-                    new AttachFieldManager(this, cmd.getSCOMutableMemberFlags(), dirtyFields,
-                        persistent, true, false));
+                    new AttachFieldManager(this, cmd.getSCOMutableMemberFlags(),
+                        ClassUtils.getFlagsForBitSet(dirtyFields, cmd.getMemberCount()), persistent, true, false));
             }
 
             // Call any "post-attach" listeners
@@ -4440,7 +4404,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             }
             else
             {
-                if (!myEC.getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_ATTACH_SAME_DATASTORE))
+                if (!myEC.getNucleusContext().getConfiguration().getBooleanProperty(ATTACH_SAME_DATASTORE))
                 {
                     // We cant assume that this object was detached from this datastore so we check it
                     try
@@ -4578,8 +4542,8 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
      * @param cascade Whether to cascade the attach to related fields
      */
     private void internalAttachCopy(ObjectProvider detachedOP,
-                                   boolean[] loadedFields,
-                                   boolean[] dirtyFields,
+                                   BitSet loadedFields,
+                                   BitSet dirtyFields,
                                    boolean persistent,
                                    Object version,
                                    boolean cascade)
@@ -4594,7 +4558,8 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             NucleusLogger.GENERAL.debug("Attaching id=" + getInternalObjectId() +
                 " fields=" + StringUtils.intArrayToString(attachFieldNumbers));
             detachedOP.provideFields(attachFieldNumbers,
-                new AttachFieldManager(this, cmd.getSCOMutableMemberFlags(), dirtyFields, persistent, cascade, true));
+                new AttachFieldManager(this, cmd.getSCOMutableMemberFlags(),
+                    ClassUtils.getFlagsForBitSet(dirtyFields, cmd.getMemberCount()), persistent, cascade, true));
         }
     }
 
@@ -4639,11 +4604,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 try
                 {
                     // Keep "loadedFields" settings til after delete is complete to save reloading
-                    preDeleteLoadedFields = new boolean[loadedFields.length];
-                    for (int i=0;i<preDeleteLoadedFields.length;i++)
-                    {
-                        preDeleteLoadedFields[i] = loadedFields[i];
-                    }
+                    preDeleteLoadedFields = (BitSet)loadedFields.clone();
 
                     myLC = myLC.transitionDeletePersistent(this);
                 }
@@ -4666,11 +4627,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 try
                 {
                     // Keep "loadedFields" settings til after delete is complete to save reloading
-                    preDeleteLoadedFields = new boolean[loadedFields.length];
-                    for (int i=0;i<preDeleteLoadedFields.length;i++)
-                    {
-                        preDeleteLoadedFields[i] = loadedFields[i];
-                    }
+                    preDeleteLoadedFields = (BitSet)loadedFields.clone();
 
                     myLC = myLC.transitionDeletePersistent(this);
                 }
@@ -4715,7 +4672,7 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         if (!myLC.isTransactional())
         {
             // Find all FetchPlan fields that are not PK, not SCO and still not loaded
-            int[] fieldNumbers = ClassUtils.getFlagsSetTo(loadedFields, myFP.getMemberNumbers(), false);
+            int[] fieldNumbers = myFP.getMemberNumbersWithFlagsSetTo(loadedFields, false);
             if (fieldNumbers != null && fieldNumbers.length > 0)
             {
                 fieldNumbers = ClassUtils.getFlagsSetTo(cmd.getNonPKMemberFlags(), fieldNumbers, true);
@@ -4784,8 +4741,8 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
             transitionWriteField();
 
             dirty = true;
-            dirtyFields[fieldNumber] = true;
-            loadedFields[fieldNumber] = true;
+            dirtyFields.set(fieldNumber);
+            loadedFields.set(fieldNumber);
         }
         return wasDirty;
     }
@@ -5004,35 +4961,17 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
                 else
                 {
                     // Updated object with changes to flush to datastore
-                    if (!isDeleting())
-                    {
-                        getCallbackHandler().preStore(myPC);
-                        if (myID == null)
-                        {
-                            setIdentity(true); // Just in case user is setting it in preStore
-                        }
-                    }
-
-                    if (!isEmbedded())
+                    int[] dirtyFieldNumbers = preFlushUpdate();
+                    if (dirtyFieldNumbers != null)
                     {
-                        int[] dirtyFieldNumbers = ClassUtils.getFlagsSetTo(dirtyFields, true);
-                        if (!isEmbedded() && dirtyFieldNumbers == null)
-                        {
-                            throw new NucleusException(LOCALISER.msg("026010")).setFatal();
-                        }
-                        if (myEC.getNucleusContext().isClassCacheable(getClassMetaData()))
+                        long startTime = System.currentTimeMillis();
+                        myEC.getStoreManager().getPersistenceHandler().updateObject(this, dirtyFieldNumbers);
+                        if (myEC.getStatistics() != null)
                         {
-                            myEC.markFieldsForUpdateInLevel2Cache(getInternalObjectId(), dirtyFields);
+                            myEC.getStatistics().datastoreWriteExecuted(System.currentTimeMillis()-startTime);
                         }
-                        myEC.getStoreManager().getPersistenceHandler().updateObject(this, dirtyFieldNumbers);
-
-                        // Update the object in the cache(s)
-                        myEC.putObjectIntoLevel1Cache(this);
                     }
-
-                    clearDirtyFlags();
-
-                    getCallbackHandler().postStore(myPC);
+                    postFlushUpdate();
                 }
             }
             finally
@@ -5042,6 +4981,104 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.state.ObjectProvider#prepareFlushUpdate()
+     */
+    public int[] prepareFlushUpdate()
+    {
+        if (!dirty || isFlushing() || isEmbedded() ||
+            activity == ActivityState.INSERTING || activity == ActivityState.INSERTING_CALLBACKS)
+        {
+            return null;
+        }
+        int stateType = myLC.stateType();
+        if ((stateType == LifeCycleState.P_NEW && !isFlushedNew()) ||
+            stateType == LifeCycleState.P_DELETED || stateType == LifeCycleState.P_NEW_DELETED)
+        {
+            // Not an update, so has to go through flush()
+            return null;
+        }
+
+        setFlushing(true);
+        try
+        {
+            return preFlushUpdate();
+        }
+        catch (RuntimeException re)
+        {
+            setFlushing(false);
+            throw re;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.state.ObjectProvider#completeFlushUpdate(boolean)
+     */
+    public void completeFlushUpdate(boolean successful)
+    {
+        try
+        {
+            if (successful)
+            {
+                postFlushUpdate();
+            }
+        }
+        finally
+        {
+            setFlushing(false);
+        }
+    }
+
+    /**
+     * Convenience method for the part of the flush of an updated object before the update in the datastore.
+     * Runs the pre-store callbacks and marks the dirty fields for update in the L2 cache.
+     * @return The numbers of the dirty fields to update, or null if embedded (so nothing to update)
+     */
+    private int[] preFlushUpdate()
+    {
+        if (!isDeleting())
+        {
+            getCallbackHandler().preStore(myPC);
+            if (myID == null)
+            {
+                setIdentity(true); // Just in case user is setting it in preStore
+            }
+        }
+
+        if (isEmbedded())
+        {
+            return null;
+        }
+
+        int[] dirtyFieldNumbers = ClassUtils.getFlagsSetTo(dirtyFields);
+        if (dirtyFieldNumbers == null)
+        {
+            throw new NucleusException(LOCALISER.msg("026010")).setFatal();
+        }
+        if (myEC.getNucleusContext().isClassCacheable(getClassMetaData()))
+        {
+            myEC.markFieldsForUpdateInLevel2Cache(getInternalObjectId(), dirtyFields);
+        }
+        return dirtyFieldNumbers;
+    }
+
+    /**
+     * Convenience method for the part of the flush of an updated object after the update in the datastore.
+     * Updates the object in the L1 cache, clears the dirty flags and runs the post-store callbacks.
+     */
+    private void postFlushUpdate()
+    {
+        if (!isEmbedded())
+        {
+            // Update the object in the cache(s)
+            myEC.putObjectIntoLevel1Cache(this);
+        }
+
+        clearDirtyFlags();
+
+        getCallbackHandler().postStore(myPC);
+    }
+
     /**
      * Registers the pc class in the cache
      */
@@ -5109,20 +5146,20 @@ public class JDOStateManager extends AbstractStateManager implements StateManage
         out.println("changingState = " + isChangingState());
         out.println("postLoadPending = " + isPostLoadPending());
         out.println("disconnecting = " + isDisconnecting());
-        out.println("dirtyFields = " + StringUtils.booleanArrayToString(dirtyFields));
+        out.println("dirtyFields = " + dirtyFields);
         out.println("getSecondClassMutableFields() = " + StringUtils.booleanArrayToString(cmd.getSCOMutableMemberFlags()));
         out.println("getAllFieldNumbers() = " + StringUtils.intArrayToString(cmd.getAllMemberPositions()));
         out.println("secondClassMutableFieldNumbers = " + StringUtils.intArrayToString(cmd.getSCOMutableMemberPositions()));
 
         out.println();
         out.println("persistenceFlags = " + PersistenceFlags.persistenceFlagsToString(persistenceFlags));
-        out.println("loadedFields = " + StringUtils.booleanArrayToString(loadedFields));
+        out.println("loadedFields = " + loadedFields);
         out.print("myPC = ");
         dumpPC(myPC, out);
 
         out.println();
         out.println("savedFlags = " + PersistenceFlags.persistenceFlagsToString(savedFlags));
-        out.println("savedLoadedFields = " + StringUtils.booleanArrayToString(savedLoadedFields));
+        out.println("savedLoadedFields = " + savedLoadedFields);
 
         out.print("savedImage = ");
         dumpPC(savedImage, out);
@@ -408,6 +408,23 @@ public interface ObjectProvider
      */
     void flush();
 
+    /**
+     * Method to prepare the flush of the changes of this (updated) object, for when the update is
+     * performed in a batch external to the ObjectProvider. Runs the pre-store callbacks and marks the
+     * object as flushing. Must be followed by a call to <i>completeFlushUpdate</i>.
+     * @return The numbers of the dirty fields to be updated, or null if the object isn't an updated object
+     *     that can be flushed in a batch (in which case <i>flush</i> should be called instead)
+     */
+    int[] prepareFlushUpdate();
+
+    /**
+     * Method to complete the flush of the changes of this (updated) object after a call to 
+     * <i>prepareFlushUpdate</i> and the update in the datastore. When successful this clears the dirty
+     * flags and runs the post-store callbacks.
+     * @param successful Whether the update in the datastore was successful
+     */
+    void completeFlushUpdate(boolean successful);
+
     void setFlushing(boolean flushing);
 
     /**
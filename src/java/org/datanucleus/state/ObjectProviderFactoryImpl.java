@@ -32,7 +32,6 @@ import org.datanucleus.exceptions.ClassNotResolvedException;
 import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.store.FieldValues;
-import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.Localiser;
 import org.datanucleus.util.StringUtils;
 
@@ -50,8 +49,8 @@ public class ObjectProviderFactoryImpl implements ObjectProviderFactory
 
     public static Class[] OBJECT_PROVIDER_CTR_ARG_CLASSES = new Class[] {ExecutionContext.class, AbstractClassMetaData.class};
 
-    /** Single pool of all ObjectProvider objects. TODO Consider having one pool per object type. */
-//    ObjectProviderPool opPool = null;
+    /** Single pool of all ObjectProvider objects (all of the same type), also used to create them. */
+    ObjectProviderPool opPool = null;
 
     public ObjectProviderFactoryImpl(PersistenceNucleusContext nucCtx)
     {
@@ -74,14 +73,15 @@ public class ObjectProviderFactoryImpl implements ObjectProviderFactory
             }
         });
 
-//        opPool = new ObjectProviderPool(conf.getIntProperty(PropertyNames.PROPERTY_OBJECT_PROVIDER_MAX_IDLE),
-//            conf.getBooleanProperty(PropertyNames.PROPERTY_OBJECT_PROVIDER_REAPER_THREAD),
-//            opClass);
+        // Only pools when "datanucleus.objectProvider.maxIdle" is set
+        opPool = new ObjectProviderPool(conf.getIntProperty(PropertyNames.PROPERTY_OBJECT_PROVIDER_MAX_IDLE),
+            conf.getBooleanProperty(PropertyNames.PROPERTY_OBJECT_PROVIDER_REAPER_THREAD),
+            opClass);
     }
 
     public void close()
     {
-//        opPool.close();
+        opPool.close();
     }
 
     /**
@@ -301,19 +301,17 @@ public class ObjectProviderFactoryImpl implements ObjectProviderFactory
 
     /**
      * Hook to allow an ObjectProvider to mark itself as disconnected so that it is returned to the pool.
+     * Not called by ObjectProviders of a multithreaded ExecutionContext, since they may still be in use by other threads.
      * @param op The ObjectProvider to re-pool
      */
     public void disconnectObjectProvider(ObjectProvider op)
     {
-        // TODO Enable this when the pool is working in multithreaded mode [NUCCORE-1007]
-//        opPool.checkIn(op);
+        opPool.checkIn(op);
     }
 
     protected ObjectProvider getObjectProvider(ExecutionContext ec, AbstractClassMetaData cmd)
     {
-        return (ObjectProvider) ClassUtils.newInstance(opClass, OBJECT_PROVIDER_CTR_ARG_CLASSES, new Object[] {ec, cmd});
-        // TODO Enable this when the pool is working in multithreaded mode [NUCCORE-1007]
-//        return opPool.checkOut(ec, cmd);
+        return opPool.checkOut(ec, cmd);
     }
 
     private Class getInitialisedClassForClass(Class pcCls, ClassLoaderResolver clr)
@@ -17,40 +17,97 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.state;
 
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.metadata.AbstractClassMetaData;
-import org.datanucleus.util.ClassUtils;
+import org.datanucleus.util.Localiser;
 import org.datanucleus.util.NucleusLogger;
 
 /**
  * Pool of ObjectProvider objects.
- * By default pool a maximum of 100 ObjectProvider objects for reuse.
- * Has an optional reaper thread that cleans out the unused pooled objects every 60 secs.
+ * Pools a maximum of maxIdle ObjectProvider objects for reuse, so doesn't pool when that is 0 (the default).
+ * Each thread keeps a few ObjectProviders for its own reuse, and the remainder are held in a lock-free stack
+ * shared by all threads. The total number held (by all threads and the shared stack) is limited to maxIdle.
+ * Threads only refer weakly to the ObjectProviders they keep, so a closed pool isn't kept reachable by them.
+ * Has an optional reaper thread that every 60 secs cleans out the pooled objects that weren't needed since
+ * its previous run, and those kept by threads that have ended.
  */
 public class ObjectProviderPool
 {
-    private long maxIdle = 100;
-    private long expirationTime;
+    /** Localisation utility for output messages */
+    protected static final Localiser LOCALISER = Localiser.getInstance("org.datanucleus.Localisation",
+        org.datanucleus.ClassConstants.NUCLEUS_CONTEXT_LOADER);
 
-    private Map<ObjectProvider, Long> recyclableOps;
+    /** Maximum number of ObjectProviders kept by each thread. */
+    private static final int MAX_IDLE_PER_THREAD = 16;
 
-    private CleanUpThread cleaner;
+    private final int maxIdle;
+
+    private final int maxIdlePerThread;
+
+    private final long expirationTime;
+
+    /** Constructor of the ObjectProvider class, taking the ExecutionContext and class metadata. */
+    private final Constructor<? extends ObjectProvider> opConstructor;
+
+    /**
+     * ObjectProviders available for reuse by the current thread. Only weakly referenced by the thread, being held
+     * by allThreadOps until the pool is closed or the thread ends.
+     */
+    private final ThreadLocal<WeakReference<ThreadOps>> threadOps = new ThreadLocal<WeakReference<ThreadOps>>();
+
+    /** The ObjectProviders kept by each thread, so that they can be released when the pool is closed. */
+    private final Queue<ThreadOps> allThreadOps = new ConcurrentLinkedQueue<ThreadOps>();
+
+    /** Number of ObjectProviders held for reuse, by all threads and in the shared stack. */
+    private final AtomicInteger numIdle = new AtomicInteger();
+
+    private volatile boolean closed = false;
 
-    private Class opClass;
+    /** Top of the stack of ObjectProviders available for reuse by any thread. */
+    private final AtomicReference<Node> sharedOps = new AtomicReference<Node>();
+
+    /** Number of ObjectProviders in the shared stack. */
+    private final AtomicInteger numSharedOps = new AtomicInteger();
+
+    /** Lowest number of ObjectProviders in the shared stack since the last clean up. */
+    private final AtomicInteger minSharedOps = new AtomicInteger();
+
+    private final AtomicLong numHits = new AtomicLong();
+
+    private final AtomicLong numMisses = new AtomicLong();
+
+    private CleanUpThread cleaner;
 
     public ObjectProviderPool(int maxIdle, boolean reaperThread, Class opClass)
     {
         this.maxIdle = maxIdle;
+        this.maxIdlePerThread = Math.min(maxIdle, MAX_IDLE_PER_THREAD);
         this.expirationTime = 30000; // 30 seconds
-        this.recyclableOps = new ConcurrentHashMap<ObjectProvider, Long>();
-        this.opClass = opClass;
+        try
+        {
+            this.opConstructor = opClass.getConstructor(ObjectProviderFactoryImpl.OBJECT_PROVIDER_CTR_ARG_CLASSES);
+        }
+        catch (NoSuchMethodException nsme)
+        {
+            throw new NucleusException(LOCALISER.msg("030004", opClass.getName(),
+                Arrays.asList(ObjectProviderFactoryImpl.OBJECT_PROVIDER_CTR_ARG_CLASSES).toString()), nsme).setFatal();
+        }
 
-        if (reaperThread)
+        if (reaperThread && maxIdle > 0)
         {
             // Start cleanup thread to run every 60 secs
             cleaner = new CleanUpThread(this, expirationTime*2);
@@ -69,12 +126,52 @@ public class ObjectProviderPool
         {
             cleaner.interrupt();
         }
+        if (NucleusLogger.PERSISTENCE.isDebugEnabled() && maxIdle > 0)
+        {
+            NucleusLogger.PERSISTENCE.debug("Closed pool of ObjectProviders (hits=" + numHits.get() + 
+                ", misses=" + numMisses.get() + ")");
+        }
+        closed = true;
+
+        // Release the ObjectProviders kept by all threads, not just this one
+        ThreadOps ops;
+        while ((ops = allThreadOps.poll()) != null)
+        {
+            release(ops);
+        }
+        threadOps.remove();
+        sharedOps.set(null);
+        numSharedOps.set(0);
+        numIdle.set(0);
     }
 
     protected ObjectProvider create(ExecutionContext ec, AbstractClassMetaData cmd)
     {
-        return (ObjectProvider) ClassUtils.newInstance(opClass, ObjectProviderFactoryImpl.OBJECT_PROVIDER_CTR_ARG_CLASSES, 
-            new Object[] {ec, cmd});
+        try
+        {
+            return opConstructor.newInstance(new Object[] {ec, cmd});
+        }
+        catch (InvocationTargetException ite)
+        {
+            Throwable t = ite.getTargetException();
+            if (t instanceof RuntimeException)
+            {
+                throw (RuntimeException)t;
+            }
+            else if (t instanceof Error)
+            {
+                throw (Error)t;
+            }
+            throw new NucleusException(LOCALISER.msg("030006", opConstructor.getDeclaringClass().getName()), t).setFatal();
+        }
+        catch (IllegalAccessException iae)
+        {
+            throw new NucleusException(LOCALISER.msg("030005", opConstructor.getDeclaringClass().getName()), iae).setFatal();
+        }
+        catch (InstantiationException ie)
+        {
+            throw new NucleusException(LOCALISER.msg("030006", opConstructor.getDeclaringClass().getName()), ie).setFatal();
+        }
     }
 
     public boolean validate(ObjectProvider op)
@@ -87,72 +184,249 @@ public class ObjectProviderPool
     {
     }
 
-    public synchronized ObjectProvider checkOut(ExecutionContext ec, AbstractClassMetaData cmd)
+    public ObjectProvider checkOut(ExecutionContext ec, AbstractClassMetaData cmd)
     {
-        long now = System.currentTimeMillis();
+        if (closed)
+        {
+            throw new NucleusException(LOCALISER.msg("030008", getClass().getName()));
+        }
+        if (maxIdle <= 0)
+        {
+            return create(ec, cmd);
+        }
+
         ObjectProvider op;
-        if (recyclableOps.size() > 0)
+        while ((op = poll()) != null)
         {
-            Set<ObjectProvider> ops = recyclableOps.keySet();
-            Iterator<ObjectProvider> opIter = ops.iterator();
-            while (opIter.hasNext())
+            if (validate(op))
             {
-                op = opIter.next();
-                if ((now - recyclableOps.get(op)) > expirationTime)
-                {
-                    // object has expired
-                    recyclableOps.remove(op);
-                    expire(op);
-                    op = null;
-                }
-                else
-                {
-                    if (validate(op))
-                    {
-                        recyclableOps.remove(op);
-                        op.connect(ec, cmd);
-                        return (op);
-                    }
-                    else
-                    {
-                        // object failed validation
-                        recyclableOps.remove(op);
-                        expire(op);
-                        op = null;
-                    }
-                }
+                numHits.incrementAndGet();
+                op.connect(ec, cmd);
+                return op;
             }
+
+            // object failed validation
+            expire(op);
         }
 
         // no objects available, create a new one
-        op = create(ec, cmd);
-        return (op);
+        numMisses.incrementAndGet();
+        return create(ec, cmd);
+    }
+
+    public void checkIn(ObjectProvider op)
+    {
+        if (maxIdle <= 0 || closed)
+        {
+            return;
+        }
+
+        // Reserve a place in the pool, across all threads
+        if (numIdle.incrementAndGet() > maxIdle)
+        {
+            numIdle.decrementAndGet();
+            expire(op);
+            return;
+        }
+
+        if (!getThreadOps().add(op))
+        {
+            Node node = new Node(op);
+            do
+            {
+                node.next = sharedOps.get();
+            }
+            while (!sharedOps.compareAndSet(node.next, node));
+            numSharedOps.incrementAndGet();
+        }
+    }
+
+    /**
+     * Method to expire the ObjectProviders in the shared stack that weren't needed since the last clean up,
+     * and those kept by threads that have ended.
+     */
+    public void cleanUp()
+    {
+        int numUnused = Math.min(minSharedOps.get(), numSharedOps.get());
+        for (int i=0;i<numUnused;i++)
+        {
+            ObjectProvider op = popShared();
+            if (op == null)
+            {
+                break;
+            }
+            numIdle.decrementAndGet();
+            expire(op);
+        }
+        minSharedOps.set(numSharedOps.get());
+
+        Iterator<ThreadOps> opsIter = allThreadOps.iterator();
+        while (opsIter.hasNext())
+        {
+            ThreadOps ops = opsIter.next();
+            if (!ops.isOwnerAlive())
+            {
+                opsIter.remove();
+                release(ops);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the number of ObjectProviders currently held for reuse.
+     * @return The number of idle ObjectProviders
+     */
+    public int getNumberOfIdle()
+    {
+        return numIdle.get();
+    }
+
+    /**
+     * Accessor for the number of checkouts that reused a pooled ObjectProvider.
+     * @return The number of hits
+     */
+    public long getNumberOfHits()
+    {
+        return numHits.get();
+    }
+
+    /**
+     * Accessor for the number of checkouts that had to create an ObjectProvider.
+     * @return The number of misses
+     */
+    public long getNumberOfMisses()
+    {
+        return numMisses.get();
+    }
+
+    /**
+     * Accessor for the ObjectProviders kept by the current thread, registering them with the pool if not yet known.
+     * @return The ObjectProviders of the current thread
+     */
+    private ThreadOps getThreadOps()
+    {
+        WeakReference<ThreadOps> opsRef = threadOps.get();
+        ThreadOps ops = (opsRef != null ? opsRef.get() : null);
+        if (ops == null)
+        {
+            ops = new ThreadOps(Thread.currentThread(), maxIdlePerThread);
+            allThreadOps.add(ops);
+            threadOps.set(new WeakReference<ThreadOps>(ops));
+        }
+        return ops;
+    }
+
+    /**
+     * Method to expire all ObjectProviders kept by a thread, removing them from the count of idle ObjectProviders.
+     * @param ops The ObjectProviders of the thread
+     */
+    private void release(ThreadOps ops)
+    {
+        List<ObjectProvider> released = ops.clear();
+        numIdle.addAndGet(-released.size());
+        for (ObjectProvider op : released)
+        {
+            expire(op);
+        }
+    }
+
+    private ObjectProvider poll()
+    {
+        ObjectProvider op = getThreadOps().poll();
+        if (op == null)
+        {
+            op = popShared();
+        }
+        if (op != null)
+        {
+            numIdle.decrementAndGet();
+        }
+        return op;
     }
 
-    public synchronized void cleanUp()
+    private ObjectProvider popShared()
     {
-       ObjectProvider op;
-       long now = System.currentTimeMillis();    
-       Set<ObjectProvider> ops = recyclableOps.keySet();
-       Iterator<ObjectProvider> opIter = ops.iterator();
-       while (opIter.hasNext())
-       {
-           op = opIter.next();
-           if ((now - (recyclableOps.get(op)).longValue()) > expirationTime)
-           {
-               recyclableOps.remove(op);
-               expire(op);
-               op = null;
-           }
-       }
-       System.gc();
+        Node top;
+        do
+        {
+            top = sharedOps.get();
+            if (top == null)
+            {
+                return null;
+            }
+        }
+        while (!sharedOps.compareAndSet(top, top.next));
+
+        int num = numSharedOps.decrementAndGet();
+        int min;
+        while (num < (min = minSharedOps.get()) && !minSharedOps.compareAndSet(min, num))
+        {
+            // Retry until the minimum is updated
+        }
+        return top.op;
     }
 
-    public synchronized void checkIn(ObjectProvider op)
+    /**
+     * ObjectProviders kept by a thread. Only used by that thread, other than when released by close() or
+     * cleanUp(), so the synchronization is uncontended. Has no reference to the pool, since the thread refers to it.
+     */
+    private static class ThreadOps
     {
-        if (recyclableOps.size() < maxIdle)
+        final WeakReference<Thread> owner;
+        final List<ObjectProvider> ops;
+        final int maxSize;
+
+        ThreadOps(Thread owner, int maxSize)
+        {
+            this.owner = new WeakReference<Thread>(owner);
+            this.ops = new ArrayList<ObjectProvider>(maxSize);
+            this.maxSize = maxSize;
+        }
+
+        synchronized boolean add(ObjectProvider op)
+        {
+            if (ops.size() < maxSize)
+            {
+                ops.add(op);
+                return true;
+            }
+            return false;
+        }
+
+        synchronized ObjectProvider poll()
+        {
+            return (ops.isEmpty() ? null : ops.remove(ops.size()-1));
+        }
+
+        boolean isOwnerAlive()
+        {
+            Thread thread = owner.get();
+            return (thread != null && thread.isAlive());
+        }
+
+        /**
+         * Method to remove all ObjectProviders, returning them.
+         * @return The ObjectProviders that were kept
+         */
+        synchronized List<ObjectProvider> clear()
+        {
+            List<ObjectProvider> released = new ArrayList<ObjectProvider>(ops);
+            ops.clear();
+            return released;
+        }
+    }
+
+    /**
+     * Entry in the shared stack.
+     */
+    private static class Node
+    {
+        final ObjectProvider op;
+        Node next;
+
+        Node(ObjectProvider op)
         {
-            recyclableOps.put(op, System.currentTimeMillis());
+            this.op = op;
         }
     }
 
@@ -163,6 +437,8 @@ public class ObjectProviderPool
 
         CleanUpThread(ObjectProviderPool pool, long sleepTime)
         {
+            super("DataNucleus-ObjectProviderPool-CleanUp");
+            setDaemon(true);
             this.pool = pool;
             this.sleepTime = sleepTime;
         }
@@ -184,4 +460,4 @@ public class ObjectProviderPool
             }
         }
     }
-}
\ No newline at end of file
+}
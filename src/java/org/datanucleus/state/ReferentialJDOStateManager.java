@@ -165,7 +165,7 @@ public class ReferentialJDOStateManager extends JDOStateManager
                         IdentityUtils.getIdentityAsString(myEC.getApiAdapter(), myID),
                         StringUtils.toJVMIDString(op.getObject())));
                 }
-                dirtyFields[fieldsToUpdate[i]] = true;
+                dirtyFields.set(fieldsToUpdate[i]);
             }
             fieldsToBeUpdatedAfterObjectInsertion.remove(op);
             if (fieldsToBeUpdatedAfterObjectInsertion.isEmpty())
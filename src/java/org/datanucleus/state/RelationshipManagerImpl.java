@@ -862,7 +862,7 @@ public class RelationshipManagerImpl implements RelationshipManager
             AbstractMemberMetaData relatedMmd = mmd.getRelatedMemberMetaDataForObject(clr, pc, oldValue);
             ObjectProvider oldOP = ec.findObjectProvider(oldValue);
             if (oldOP != null && relatedMmd != null &&
-                oldOP.getLoadedFields()[relatedMmd.getAbsoluteFieldNumber()])
+                oldOP.isFieldLoaded(relatedMmd.getAbsoluteFieldNumber()))
             {
                 if (oldOP.isFieldLoaded(relatedMmd.getAbsoluteFieldNumber()))
                 {
@@ -907,7 +907,7 @@ public class RelationshipManagerImpl implements RelationshipManager
             AbstractMemberMetaData relatedMmd = mmd.getRelatedMemberMetaDataForObject(clr, pc, newValue);
             ObjectProvider newOP = ec.findObjectProvider(newValue);
             if (newOP != null && relatedMmd != null &&
-                newOP.getLoadedFields()[relatedMmd.getAbsoluteFieldNumber()])
+                newOP.isFieldLoaded(relatedMmd.getAbsoluteFieldNumber()))
             {
                 Object newContainerValue = newOP.provideField(relatedMmd.getAbsoluteFieldNumber());
                 if (newContainerValue instanceof Collection)
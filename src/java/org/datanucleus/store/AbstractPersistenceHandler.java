@@ -17,10 +17,14 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.PropertyNames;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.exceptions.NucleusOptimisticException;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.state.ObjectProvider;
 import org.datanucleus.store.exceptions.DatastoreReadOnlyException;
@@ -76,6 +80,52 @@ public abstract class AbstractPersistenceHandler implements StorePersistenceHand
         }
     }
 
+    /**
+     * Simple implementation of update of multiple objects, relaying the update of each object
+     * to <pre>updateObject</pre>. All objects are updated, and any optimistic verification failures are
+     * thrown at the end (with the failures as nested exceptions when there is more than one).
+     * Should be overridden by the datastore implementation if it is possible to do bulk updates.
+     * @param ops ObjectProviders for the objects to update
+     * @param fieldNumbers The numbers of the fields to be updated.
+     * @throws NucleusOptimisticException if an object fails its optimistic check
+     * @throws NucleusDataStoreException when an error occurs in the datastore communication
+     */
+    public void updateObjects(ObjectProvider[] ops, int[] fieldNumbers)
+    {
+        if (ops.length == 1)
+        {
+            updateObject(ops[0], fieldNumbers);
+            return;
+        }
+
+        List<NucleusOptimisticException> optimisticFailures = null;
+        for (int i=0;i<ops.length;i++)
+        {
+            try
+            {
+                updateObject(ops[i], fieldNumbers);
+            }
+            catch (NucleusOptimisticException noe)
+            {
+                if (optimisticFailures == null)
+                {
+                    optimisticFailures = new ArrayList<NucleusOptimisticException>();
+                }
+                optimisticFailures.add(noe);
+            }
+        }
+
+        if (optimisticFailures != null)
+        {
+            if (optimisticFailures.size() == 1)
+            {
+                throw optimisticFailures.get(0);
+            }
+            throw new NucleusOptimisticException(LOCALISER.msg("010031"), 
+                optimisticFailures.toArray(new NucleusOptimisticException[optimisticFailures.size()]));
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.StorePersistenceHandler#deleteObjects(org.datanucleus.store.ObjectProvider[])
      */
@@ -1622,6 +1622,7 @@ public abstract class AbstractStoreManager extends PropertyStore implements Stor
      * <li>TransactionIsolationLevel.snapshot - if supporting this txn isolation level</li>
      * <li>Query.Cancel - if supporting cancelling of queries</li>
      * <li>Query.Timeout - if supporting timeout of queries</li>
+     * <li>BulkUpdate - if the persistence handler supports updates of multiple objects (updateObjects)</li>
      * </ul>
      */
     public Collection<String> getSupportedOptions()
@@ -21,6 +21,7 @@ package org.datanucleus.store;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.exceptions.NucleusOptimisticException;
 import org.datanucleus.state.ObjectProvider;
 
 /**
@@ -77,6 +78,16 @@ public interface StorePersistenceHandler
      */
     void updateObject(ObjectProvider op, int fieldNumbers[]);
 
+    /**
+     * Method to update an array of objects in the datastore.
+     * The objects are all of the same class, and all have the same fields to be updated.
+     * @param ops ObjectProviders for the objects to update
+     * @param fieldNumbers The numbers of the fields to be updated.
+     * @throws NucleusOptimisticException if an object fails its optimistic check
+     * @throws NucleusDataStoreException when an error occurs in the datastore communication
+     */
+    void updateObjects(ObjectProvider[] ops, int fieldNumbers[]);
+
     /**
      * Deletes a persistent object from the datastore.
      * @param op The ObjectProvider of the object to be deleted.
@@ -116,6 +116,16 @@ public class FederatedPersistenceHandler implements StorePersistenceHandler
         classStoreMgr.getPersistenceHandler().updateObject(op, fieldNumbers);
     }
 
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.StorePersistenceHandler#updateObjects(org.datanucleus.store.ObjectProvider[], int[])
+     */
+    public void updateObjects(ObjectProvider[] ops, int[] fieldNumbers)
+    {
+        // All objects are of the same class so are in the same datastore
+        StoreManager classStoreMgr = storeMgr.getStoreManagerForClass(ops[0].getClassMetaData());
+        classStoreMgr.getPersistenceHandler().updateObjects(ops, fieldNumbers);
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.StorePersistenceHandler#deleteObject(org.datanucleus.store.ObjectProvider)
      */
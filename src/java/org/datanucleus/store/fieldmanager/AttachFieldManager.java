@@ -274,7 +274,7 @@ public class AttachFieldManager extends AbstractFieldManager
             else
             {
                 Object oldValue = attachedOP.provideField(fieldNumber);
-                if (oldValue == null && !attachedOP.getLoadedFields()[fieldNumber] && persistent)
+                if (oldValue == null && !attachedOP.isFieldLoaded(fieldNumber) && persistent)
                 {
                     // Retrieve old value for field
                     attachedOP.loadField(fieldNumber);
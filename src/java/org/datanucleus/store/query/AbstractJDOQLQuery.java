@@ -329,74 +329,87 @@ public abstract class AbstractJDOQLQuery extends AbstractJavaQuery
 
         QueryManager queryMgr = getQueryManager();
         String queryCacheKey = getQueryCacheKey();
+        boolean compiling = false;
         if (useCaching() && queryCacheKey != null)
         {
-            QueryCompilation cachedCompilation = queryMgr.getQueryCompilationForQuery(getLanguage(), queryCacheKey);
+            // Use the cached compilation, waiting for any other thread compiling this query
+            QueryCompilation cachedCompilation = queryMgr.startQueryCompilation(getLanguage(), queryCacheKey);
             if (cachedCompilation != null)
             {
                 compilation = cachedCompilation;
                 checkParameterTypesAgainstCompilation(parameterValues);
                 return;
             }
+            compiling = true;
         }
 
-        // Resolve resultClass name if defined
-        if (resultClassName != null)
+        try
         {
-            // Throws NucleusUserException if not resolvable
-            resultClass = resolveClassDeclaration(resultClassName);
-            resultClassName = null;
-        }
+            // Resolve resultClass name if defined
+            if (resultClassName != null)
+            {
+                // Throws NucleusUserException if not resolvable
+                resultClass = resolveClassDeclaration(resultClassName);
+                resultClassName = null;
+            }
 
-        long startTime = 0;
-        if (NucleusLogger.QUERY.isDebugEnabled())
-        {
-            startTime = System.currentTimeMillis();
-            NucleusLogger.QUERY.debug(LOCALISER.msg("021044", getLanguage(), getSingleStringQuery()));
-        }
-        JDOQLCompiler compiler = new JDOQLCompiler(ec.getMetaDataManager(), ec.getClassLoaderResolver(), 
-            from, candidateClass, candidateCollection, 
-            this.filter, getParsedImports(), this.ordering, this.result, this.grouping, this.having, 
-            explicitParameters, explicitVariables, this.update);
-        boolean allowAllSyntax = ec.getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_QUERY_JDOQL_ALLOWALL);
-        if (ec.getBooleanProperty(PropertyNames.PROPERTY_QUERY_JDOQL_ALLOWALL) != null)
-        {
-            allowAllSyntax = ec.getBooleanProperty(PropertyNames.PROPERTY_QUERY_JDOQL_ALLOWALL);
-        }
-        compiler.setAllowAll(allowAllSyntax);
-        compilation = compiler.compile(parameterValues, subqueries);
-        if (QueryUtils.queryReturnsSingleRow(this))
-        {
-            compilation.setReturnsSingleRow();
-        }
-        if (resultDistinct)
-        {
-            compilation.setResultDistinct();
-        }
-        if (NucleusLogger.QUERY.isDebugEnabled())
-        {
-            NucleusLogger.QUERY.debug(LOCALISER.msg("021045", getLanguage(), 
-                "" + (System.currentTimeMillis() - startTime)));
-        }
+            long startTime = 0;
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                startTime = System.currentTimeMillis();
+                NucleusLogger.QUERY.debug(LOCALISER.msg("021044", getLanguage(), getSingleStringQuery()));
+            }
+            JDOQLCompiler compiler = new JDOQLCompiler(ec.getMetaDataManager(), ec.getClassLoaderResolver(), 
+                from, candidateClass, candidateCollection, 
+                this.filter, getParsedImports(), this.ordering, this.result, this.grouping, this.having, 
+                explicitParameters, explicitVariables, this.update);
+            boolean allowAllSyntax = ec.getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_QUERY_JDOQL_ALLOWALL);
+            if (ec.getBooleanProperty(PropertyNames.PROPERTY_QUERY_JDOQL_ALLOWALL) != null)
+            {
+                allowAllSyntax = ec.getBooleanProperty(PropertyNames.PROPERTY_QUERY_JDOQL_ALLOWALL);
+            }
+            compiler.setAllowAll(allowAllSyntax);
+            compilation = compiler.compile(parameterValues, subqueries);
+            if (QueryUtils.queryReturnsSingleRow(this))
+            {
+                compilation.setReturnsSingleRow();
+            }
+            if (resultDistinct)
+            {
+                compilation.setResultDistinct();
+            }
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug(LOCALISER.msg("021045", getLanguage(), 
+                    "" + (System.currentTimeMillis() - startTime)));
+            }
 
-        if (subqueries != null)
-        {
-            // Compile any subqueries
-            compileSubqueries(subqueries, compilation, compiler, parameterValues);
-        }
+            if (subqueries != null)
+            {
+                // Compile any subqueries
+                compileSubqueries(subqueries, compilation, compiler, parameterValues);
+            }
 
-        if (NucleusLogger.QUERY.isDebugEnabled())
-        {
-            // Log the query compilation
-            NucleusLogger.QUERY.debug(compilation.toString());
-        }
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                // Log the query compilation
+                NucleusLogger.QUERY.debug(compilation.toString());
+            }
 
-        checkParameterTypesAgainstCompilation(parameterValues);
+            checkParameterTypesAgainstCompilation(parameterValues);
 
-        if (useCaching() && queryCacheKey != null)
+            if (useCaching() && queryCacheKey != null)
+            {
+                // Cache for future reference
+                queryMgr.addQueryCompilation(getLanguage(), queryCacheKey, compilation);
+            }
+        }
+        finally
         {
-            // Cache for future reference
-            queryMgr.addQueryCompilation(getLanguage(), queryCacheKey, compilation);
+            if (compiling)
+            {
+                queryMgr.endQueryCompilation(getLanguage(), queryCacheKey);
+            }
         }
     }
 
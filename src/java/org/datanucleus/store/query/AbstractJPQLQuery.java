@@ -246,9 +246,11 @@ public abstract class AbstractJPQLQuery extends AbstractJavaQuery
 
         QueryManager queryMgr = getQueryManager();
         String queryCacheKey = getQueryCacheKey();
+        boolean compiling = false;
         if (useCaching() && queryCacheKey != null)
         {
-            QueryCompilation cachedCompilation = queryMgr.getQueryCompilationForQuery(getLanguage(), queryCacheKey);
+            // Use the cached compilation, waiting for any other thread compiling this query
+            QueryCompilation cachedCompilation = queryMgr.startQueryCompilation(getLanguage(), queryCacheKey);
             if (cachedCompilation != null)
             {
                 compilation = cachedCompilation;
@@ -260,68 +262,79 @@ public abstract class AbstractJPQLQuery extends AbstractJavaQuery
                 checkParameterTypesAgainstCompilation(parameterValues);
                 return;
             }
+            compiling = true;
         }
 
-        long startTime = 0;
-        if (NucleusLogger.QUERY.isDebugEnabled())
+        try
         {
-            startTime = System.currentTimeMillis();
-            NucleusLogger.QUERY.debug(LOCALISER.msg("021044", getLanguage(), getSingleStringQuery()));
-        }
-        JavaQueryCompiler compiler = new JPQLCompiler(ec.getMetaDataManager(), ec.getClassLoaderResolver(), 
-            from, candidateClass, candidateCollection, 
-            this.filter, getParsedImports(), this.ordering, this.result, this.grouping, this.having, 
-            explicitParameters, update);
-        compilation = compiler.compile(parameterValues, subqueries);
-        if (QueryUtils.queryReturnsSingleRow(this))
-        {
-            compilation.setReturnsSingleRow();
-        }
-        if (resultDistinct)
-        {
-            compilation.setResultDistinct();
-        }
-        if (compilation.getExprResult() == null)
-        {
-            // If the result was "Object(e)" or "e" then this is meaningless so remove
-            result = null;
-        }
-        if (NucleusLogger.QUERY.isDebugEnabled())
-        {
-            NucleusLogger.QUERY.debug(LOCALISER.msg("021045", getLanguage(), 
-                "" + (System.currentTimeMillis() - startTime)));
-        }
+            long startTime = 0;
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                startTime = System.currentTimeMillis();
+                NucleusLogger.QUERY.debug(LOCALISER.msg("021044", getLanguage(), getSingleStringQuery()));
+            }
+            JavaQueryCompiler compiler = new JPQLCompiler(ec.getMetaDataManager(), ec.getClassLoaderResolver(), 
+                from, candidateClass, candidateCollection, 
+                this.filter, getParsedImports(), this.ordering, this.result, this.grouping, this.having, 
+                explicitParameters, update);
+            compilation = compiler.compile(parameterValues, subqueries);
+            if (QueryUtils.queryReturnsSingleRow(this))
+            {
+                compilation.setReturnsSingleRow();
+            }
+            if (resultDistinct)
+            {
+                compilation.setResultDistinct();
+            }
+            if (compilation.getExprResult() == null)
+            {
+                // If the result was "Object(e)" or "e" then this is meaningless so remove
+                result = null;
+            }
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug(LOCALISER.msg("021045", getLanguage(), 
+                    "" + (System.currentTimeMillis() - startTime)));
+            }
 
-        if (subqueries != null)
-        {
-            // Compile any subqueries
-        	compileSubqueries(subqueries, compilation, compiler, parameterValues);
-        }
+            if (subqueries != null)
+            {
+                // Compile any subqueries
+            	compileSubqueries(subqueries, compilation, compiler, parameterValues);
+            }
 
-        if (NucleusLogger.QUERY.isDebugEnabled())
-        {
-            // Log the query compilation
-            NucleusLogger.QUERY.debug(compilation.toString());
-        }
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                // Log the query compilation
+                NucleusLogger.QUERY.debug(compilation.toString());
+            }
 
-        if (implicitParameters != null)
-        {
-            // Make sure any implicit parameters have their values in the compilation
-            Iterator paramKeyIter = implicitParameters.keySet().iterator();
-            while (paramKeyIter.hasNext())
+            if (implicitParameters != null)
             {
-                Object paramKey = paramKeyIter.next();
-                String paramName = "" + paramKey;
-                applyImplicitParameterValueToCompilation(paramName, implicitParameters.get(paramName));
+                // Make sure any implicit parameters have their values in the compilation
+                Iterator paramKeyIter = implicitParameters.keySet().iterator();
+                while (paramKeyIter.hasNext())
+                {
+                    Object paramKey = paramKeyIter.next();
+                    String paramName = "" + paramKey;
+                    applyImplicitParameterValueToCompilation(paramName, implicitParameters.get(paramName));
+                }
             }
-        }
 
-        checkParameterTypesAgainstCompilation(parameterValues);
+            checkParameterTypesAgainstCompilation(parameterValues);
 
-        if (useCaching() && queryCacheKey != null)
+            if (useCaching() && queryCacheKey != null)
+            {
+                // Cache for future reference
+                queryMgr.addQueryCompilation(getLanguage(), queryCacheKey, compilation);
+            }
+        }
+        finally
         {
-            // Cache for future reference
-            queryMgr.addQueryCompilation(getLanguage(), queryCacheKey, compilation);
+            if (compiling)
+            {
+                queryMgr.endQueryCompilation(getLanguage(), queryCacheKey);
+            }
         }
     }
 
@@ -80,6 +80,8 @@ public abstract class Query implements Serializable, ExecutionContextListener
     public static final String EXTENSION_COMPILATION_CACHED = PropertyNames.PROPERTY_QUERY_COMPILATION_CACHED;
     public static final String EXTENSION_RESULTS_CACHED = PropertyNames.PROPERTY_QUERY_RESULTS_CACHED;
     public static final String EXTENSION_EVALUATE_IN_MEMORY = PropertyNames.PROPERTY_QUERY_EVALUATE_IN_MEMORY;
+    public static final String EXTENSION_EVALUATE_IN_MEMORY_COMPILED = PropertyNames.PROPERTY_QUERY_EVALUATE_IN_MEMORY_COMPILED;
+    public static final String EXTENSION_EVALUATE_IN_MEMORY_PARALLEL = PropertyNames.PROPERTY_QUERY_EVALUATE_IN_MEMORY_PARALLEL;
     public static final String EXTENSION_CHECK_UNUSED_PARAMETERS = PropertyNames.PROPERTY_QUERY_CHECK_UNUSED_PARAMS;
 
     public static final String EXTENSION_MULTITHREAD = "datanucleus.query.multithread";
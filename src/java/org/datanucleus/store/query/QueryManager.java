@@ -25,15 +25,24 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.datanucleus.ClassConstants;
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContext;
 import org.datanucleus.Configuration;
 import org.datanucleus.PropertyNames;
 import org.datanucleus.exceptions.NucleusException;
 import org.datanucleus.exceptions.NucleusUserException;
+import org.datanucleus.management.CacheStatistics;
 import org.datanucleus.plugin.ConfigurationElement;
 import org.datanucleus.plugin.PluginManager;
 import org.datanucleus.query.QueryUtils;
@@ -41,7 +50,9 @@ import org.datanucleus.query.cache.QueryCompilationCache;
 import org.datanucleus.query.compiler.QueryCompilation;
 import org.datanucleus.query.evaluator.memory.ArrayContainsMethodEvaluator;
 import org.datanucleus.query.evaluator.memory.ArraySizeMethodEvaluator;
+import org.datanucleus.query.evaluator.memory.InMemoryExpressionEvaluator;
 import org.datanucleus.query.evaluator.memory.InvocationEvaluator;
+import org.datanucleus.query.expression.InvokeExpression;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.query.cache.QueryDatastoreCompilationCache;
 import org.datanucleus.store.query.cache.QueryResultsCache;
@@ -52,6 +63,12 @@ import org.datanucleus.util.StringUtils;
 /**
  * Manages the runtime, metadata and lifecycle of queries.
  * Provides caching of query compilations.
+ * <p>
+ * The caches are thread-safe so lookups of compilations and results don't synchronise on this manager.
+ * Generic compilation is "single-flight" : where several threads compile the same query at the same
+ * time, one thread compiles it and the others wait for and use its compilation
+ * (see {@link #startQueryCompilation(String, String)}).
+ * </p>
  */
 public class QueryManager
 {
@@ -72,8 +89,46 @@ public class QueryManager
     /** Cache for query results. */
     QueryResultsCache queryResultsCache = null;
 
-    /** Cache of InvocationEvaluator objects keyed by the method name. */
-    Map<String, Map<Object, InvocationEvaluator>> queryMethodEvaluatorMap = new HashMap();
+    /** Statistics for the generic query compilation cache (when statistics are enabled). */
+    CacheStatistics queryCompilationCacheStatistics = null;
+
+    /** Statistics for the datastore query compilation cache (when statistics are enabled). */
+    CacheStatistics queryCompilationCacheDatastoreStatistics = null;
+
+    /** Statistics for the query results cache (when statistics are enabled). */
+    CacheStatistics queryResultsCacheStatistics = null;
+
+    /** Generic query compilations currently in progress, keyed by the query key. */
+    ConcurrentMap<String, CompilationInProgress> queryCompilationsInProgress = new ConcurrentHashMap<String, CompilationInProgress>();
+
+    /** Cache of InvocationEvaluator objects keyed by the method name, and then by the class (or "STATIC"). */
+    ConcurrentMap<String, Map<Object, InvocationEvaluator>> queryMethodEvaluatorMap = new ConcurrentHashMap<String, Map<Object, InvocationEvaluator>>();
+
+    /**
+     * Cache of the InvocationEvaluator to use, keyed by the name of the invoked type (or STATIC_EVALUATOR_KEY) and
+     * then method name. Keyed by the name so that it doesn't keep the class (and so its class loader) reachable.
+     */
+    ConcurrentMap<Object, ConcurrentMap<String, InvocationEvaluator>> resolvedMethodEvaluatorMap =
+        new ConcurrentHashMap<Object, ConcurrentMap<String, InvocationEvaluator>>();
+
+    /** Key in resolvedMethodEvaluatorMap for static method evaluators. */
+    private static final Object STATIC_EVALUATOR_KEY = new Object();
+
+    /** Marker in resolvedMethodEvaluatorMap for a method that has no evaluator for the type. */
+    private static final InvocationEvaluator NO_EVALUATOR = new InvocationEvaluator()
+    {
+        public Object evaluate(InvokeExpression expr, Object invokedValue, InMemoryExpressionEvaluator eval)
+        {
+            return null;
+        }
+    };
+
+    private static final InvocationEvaluator ARRAY_SIZE_EVALUATOR = new ArraySizeMethodEvaluator();
+
+    private static final InvocationEvaluator ARRAY_CONTAINS_EVALUATOR = new ArrayContainsMethodEvaluator();
+
+    /** Executor for parallel in-memory evaluation of queries. Created when first needed. */
+    private volatile ExecutorService inMemoryEvaluationExecutor = null;
 
     public QueryManager(NucleusContext nucleusContext, StoreManager storeMgr)
     {
@@ -81,6 +136,57 @@ public class QueryManager
         this.storeMgr = storeMgr;
 
         initialiseQueryCaches();
+        initialiseQueryCacheStatistics();
+    }
+
+    /**
+     * Method to obtain the statistics for the query caches, when statistics are enabled.
+     */
+    protected void initialiseQueryCacheStatistics()
+    {
+        if (!(nucleusCtx instanceof PersistenceNucleusContext) ||
+            !((PersistenceNucleusContext)nucleusCtx).statisticsEnabled())
+        {
+            return;
+        }
+
+        PersistenceNucleusContext ctx = (PersistenceNucleusContext)nucleusCtx;
+        if (queryCompilationCache != null)
+        {
+            queryCompilationCacheStatistics = ctx.getCacheStatistics(CacheStatistics.QUERY_COMPILATION);
+            queryCompilationCacheStatistics.setSizeSource(new CacheStatistics.SizeSource()
+            {
+                public int getSize()
+                {
+                    QueryCompilationCache cache = queryCompilationCache;
+                    return (cache != null ? cache.size() : -1);
+                }
+            });
+        }
+        if (queryCompilationCacheDatastore != null)
+        {
+            queryCompilationCacheDatastoreStatistics = ctx.getCacheStatistics(CacheStatistics.QUERY_DATASTORE_COMPILATION);
+            queryCompilationCacheDatastoreStatistics.setSizeSource(new CacheStatistics.SizeSource()
+            {
+                public int getSize()
+                {
+                    QueryDatastoreCompilationCache cache = queryCompilationCacheDatastore;
+                    return (cache != null ? cache.size() : -1);
+                }
+            });
+        }
+        if (queryResultsCache != null)
+        {
+            queryResultsCacheStatistics = ctx.getCacheStatistics(CacheStatistics.QUERY_RESULTS);
+            queryResultsCacheStatistics.setSizeSource(new CacheStatistics.SizeSource()
+            {
+                public int getSize()
+                {
+                    QueryResultsCache cache = queryResultsCache;
+                    return (cache != null ? cache.size() : -1);
+                }
+            });
+        }
     }
 
     /**
@@ -202,6 +308,58 @@ public class QueryManager
 
         queryMethodEvaluatorMap.clear();
         queryMethodEvaluatorMap = null;
+        resolvedMethodEvaluatorMap.clear();
+        resolvedMethodEvaluatorMap = null;
+
+        synchronized (this)
+        {
+            if (inMemoryEvaluationExecutor != null)
+            {
+                inMemoryEvaluationExecutor.shutdown();
+                inMemoryEvaluationExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Accessor for the executor to use for parallel in-memory evaluation of queries. This has one
+     * (daemon) thread per available processor, and is shared by all queries of this manager.
+     * @return The executor
+     */
+    public ExecutorService getInMemoryEvaluationExecutor()
+    {
+        ExecutorService executor = inMemoryEvaluationExecutor;
+        if (executor == null)
+        {
+            synchronized (this)
+            {
+                executor = inMemoryEvaluationExecutor;
+                if (executor == null)
+                {
+                    final AtomicInteger threadNumber = new AtomicInteger(1);
+                    executor = Executors.newFixedThreadPool(getInMemoryEvaluationParallelism(), new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread = new Thread(r, "DataNucleus-QueryEvaluator-" + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    inMemoryEvaluationExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Accessor for the number of threads used for parallel in-memory evaluation of queries.
+     * @return The parallelism
+     */
+    public int getInMemoryEvaluationParallelism()
+    {
+        return Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -326,12 +484,16 @@ public class QueryManager
      * @param query The query string
      * @param compilation The compilation of this query
      */
-    public synchronized void addQueryCompilation(String language, String query, QueryCompilation compilation)
+    public void addQueryCompilation(String language, String query, QueryCompilation compilation)
     {
-        if (queryCompilationCache != null)
+        if (queryCompilationCache != null && compilation != null)
         {
             String queryKey = language + ":" + query;
             queryCompilationCache.put(queryKey, compilation);
+            if (queryCompilationCacheStatistics != null)
+            {
+                queryCompilationCacheStatistics.put(queryKey);
+            }
         }
     }
 
@@ -341,12 +503,23 @@ public class QueryManager
      * @param query Query string
      * @return The compilation (if present)
      */
-    public synchronized QueryCompilation getQueryCompilationForQuery(String language, String query)
+    public QueryCompilation getQueryCompilationForQuery(String language, String query)
     {
         if (queryCompilationCache != null)
         {
             String queryKey = language + ":" + query;
             QueryCompilation compilation = queryCompilationCache.get(queryKey);
+            if (queryCompilationCacheStatistics != null)
+            {
+                if (compilation != null)
+                {
+                    queryCompilationCacheStatistics.hit(queryKey);
+                }
+                else
+                {
+                    queryCompilationCacheStatistics.miss(queryKey);
+                }
+            }
             if (compilation != null)
             {
                 if (NucleusLogger.QUERY.isDebugEnabled())
@@ -359,6 +532,94 @@ public class QueryManager
         return null;
     }
 
+    /**
+     * Method to call before compiling a query that is to be cached, so that only one thread compiles
+     * any particular query at a time. If the compilation is cached then returns it. If another thread is
+     * compiling the query then waits for that thread to finish, and returns its compilation. Otherwise
+     * registers the calling thread as compiling the query and returns null; the caller must then compile
+     * the query, call {@link #addQueryCompilation(String, String, QueryCompilation)}, and finally call
+     * {@link #endQueryCompilation(String, String)} (whether or not the compilation succeeded).
+     * @param language Language of the query
+     * @param query Query string
+     * @return The compilation (if present), or null if the caller should compile the query
+     */
+    public QueryCompilation startQueryCompilation(String language, String query)
+    {
+        if (queryCompilationCache == null)
+        {
+            return null;
+        }
+
+        String queryKey = language + ":" + query;
+        while (true)
+        {
+            QueryCompilation compilation = getQueryCompilationForQuery(language, query);
+            if (compilation != null)
+            {
+                return compilation;
+            }
+
+            CompilationInProgress inProgress = queryCompilationsInProgress.putIfAbsent(queryKey, new CompilationInProgress());
+            if (inProgress == null)
+            {
+                return null;
+            }
+            else if (inProgress.thread == Thread.currentThread())
+            {
+                // Compilation of this query requires compiling this query (e.g subquery), so compile it again
+                inProgress.depth++;
+                return null;
+            }
+
+            try
+            {
+                inProgress.latch.await();
+            }
+            catch (InterruptedException ie)
+            {
+                // Compile it ourselves
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            // Other thread has finished so try the cache again (will compile it if the other thread failed)
+        }
+    }
+
+    /**
+     * Method to call after compiling a query where {@link #startQueryCompilation(String, String)} returned null,
+     * releasing any threads waiting for the compilation.
+     * @param language Language of the query
+     * @param query Query string
+     */
+    public void endQueryCompilation(String language, String query)
+    {
+        String queryKey = language + ":" + query;
+        CompilationInProgress inProgress = queryCompilationsInProgress.get(queryKey);
+        if (inProgress != null && inProgress.thread == Thread.currentThread())
+        {
+            if (inProgress.depth > 0)
+            {
+                inProgress.depth--;
+                return;
+            }
+            queryCompilationsInProgress.remove(queryKey, inProgress);
+            inProgress.latch.countDown();
+        }
+    }
+
+    /**
+     * Record of a query compilation being performed by a thread.
+     */
+    static class CompilationInProgress
+    {
+        final Thread thread = Thread.currentThread();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        /** Number of nested compilations of the same query by the thread. Only accessed by the thread. */
+        int depth = 0;
+    }
+
     /**
      * Accessor for the datastore compilation cache.
      * @return The cache of datastore compilations
@@ -375,13 +636,17 @@ public class QueryManager
      * @param query The query (string form)
      * @param compilation The compiled information
      */
-    public synchronized void addDatastoreQueryCompilation(String datastore, String language, String query,
+    public void addDatastoreQueryCompilation(String datastore, String language, String query,
             Object compilation)
     {
-        if (queryCompilationCacheDatastore != null)
+        if (queryCompilationCacheDatastore != null && compilation != null)
         {
             String queryKey = language + ":" + query;
             queryCompilationCacheDatastore.put(queryKey, compilation);
+            if (queryCompilationCacheDatastoreStatistics != null)
+            {
+                queryCompilationCacheDatastoreStatistics.put(queryKey);
+            }
         }
     }
 
@@ -391,12 +656,16 @@ public class QueryManager
      * @param language The language
      * @param query The query (string form)
      */
-    public synchronized void deleteDatastoreQueryCompilation(String datastore, String language, String query)
+    public void deleteDatastoreQueryCompilation(String datastore, String language, String query)
     {
         if (queryCompilationCacheDatastore != null)
         {
             String queryKey = language + ":" + query;
             queryCompilationCacheDatastore.evict(queryKey);
+            if (queryCompilationCacheDatastoreStatistics != null)
+            {
+                queryCompilationCacheDatastoreStatistics.evictRequested(queryKey, 1);
+            }
         }
     }
 
@@ -407,12 +676,23 @@ public class QueryManager
      * @param query The query (string form)
      * @return The compiled information (if available)
      */
-    public synchronized Object getDatastoreQueryCompilation(String datastore, String language, String query)
+    public Object getDatastoreQueryCompilation(String datastore, String language, String query)
     {
         if (queryCompilationCacheDatastore != null)
         {
             String queryKey = language + ":" + query;
             Object compilation = queryCompilationCacheDatastore.get(queryKey);
+            if (queryCompilationCacheDatastoreStatistics != null)
+            {
+                if (compilation != null)
+                {
+                    queryCompilationCacheDatastoreStatistics.hit(queryKey);
+                }
+                else
+                {
+                    queryCompilationCacheDatastoreStatistics.miss(queryKey);
+                }
+            }
             if (compilation != null)
             {
                 if (NucleusLogger.QUERY.isDebugEnabled())
@@ -435,6 +715,11 @@ public class QueryManager
         if (queryResultsCache != null)
         {
             queryResultsCache.evict(cls);
+            if (queryResultsCacheStatistics != null)
+            {
+                // Not known how many results were evicted, so count as a request
+                queryResultsCacheStatistics.evictRequested(null, 1);
+            }
         }
     }
 
@@ -444,12 +729,19 @@ public class QueryManager
      * @param params Map of parameter values keyed by param name
      * @param results The results (List of object identities)
      */
-    public synchronized void addDatastoreQueryResult(Query query, Map params, List<Object> results)
+    public void addDatastoreQueryResult(Query query, Map params, List<Object> results)
     {
-        if (queryResultsCache != null)
+        if (queryResultsCache != null && results != null)
         {
             String queryKey = QueryUtils.getKeyForQueryResultsCache(query, params);
-            queryResultsCache.put(queryKey, results);
+            QueryCompilation compilation = query.getCompilation();
+            queryResultsCache.put(queryKey, results, compilation != null ?
+                compilation.getDependentClasses(nucleusCtx.getMetaDataManager(), query.getExecutionContext().getClassLoaderResolver()) : null);
+            if (queryResultsCacheStatistics != null)
+            {
+                // Statistics are per query, not per set of parameter values
+                queryResultsCacheStatistics.put(query.getLanguage() + ":" + query.toString());
+            }
             if (NucleusLogger.QUERY.isDebugEnabled())
             {
                 NucleusLogger.QUERY.debug(LOCALISER.msg("021081", query, results.size()));
@@ -463,12 +755,24 @@ public class QueryManager
      * @param params Map of parameter values keyed by param name
      * @return The results (List of object identities)
      */
-    public synchronized List<Object> getDatastoreQueryResult(Query query, Map params)
+    public List<Object> getDatastoreQueryResult(Query query, Map params)
     {
         if (queryResultsCache != null)
         {
             String queryKey = QueryUtils.getKeyForQueryResultsCache(query, params);
             List<Object> results = queryResultsCache.get(queryKey);
+            if (queryResultsCacheStatistics != null)
+            {
+                String statsKey = query.getLanguage() + ":" + query.toString();
+                if (results != null)
+                {
+                    queryResultsCacheStatistics.hit(statsKey);
+                }
+                else
+                {
+                    queryResultsCacheStatistics.miss(statsKey);
+                }
+            }
             if (results != null)
             {
                 if (NucleusLogger.QUERY.isDebugEnabled())
@@ -484,105 +788,141 @@ public class QueryManager
     /**
      * Accessor for an evaluator for invocation of the specified method for the supplied type.
      * If it is not a supported method for that type then returns null.
+     * The evaluator (or lack of one) is cached for the type name and method name, so after the first call for
+     * a type and method this is a simple lookup. A class of the same name from another class loader (e.g after
+     * redeployment) is taken to be the same type.
      * @param type The class name
      * @param methodName Name of the method
      * @return Evaluator suitable for this type with this method name
      */
     public InvocationEvaluator getInMemoryEvaluatorForMethod(Class type, String methodName)
+    {
+        Object typeKey = (type != null ? type.getName() : STATIC_EVALUATOR_KEY);
+        ConcurrentMap<String, InvocationEvaluator> evaluatorsForType = resolvedMethodEvaluatorMap.get(typeKey);
+        if (evaluatorsForType == null)
+        {
+            evaluatorsForType = new ConcurrentHashMap<String, InvocationEvaluator>();
+            ConcurrentMap<String, InvocationEvaluator> existing = resolvedMethodEvaluatorMap.putIfAbsent(typeKey, evaluatorsForType);
+            if (existing != null)
+            {
+                evaluatorsForType = existing;
+            }
+        }
+
+        InvocationEvaluator eval = evaluatorsForType.get(methodName);
+        if (eval == null)
+        {
+            eval = findInMemoryEvaluatorForMethod(type, methodName);
+            evaluatorsForType.put(methodName, eval != null ? eval : NO_EVALUATOR);
+        }
+        return (eval != NO_EVALUATOR ? eval : null);
+    }
+
+    /**
+     * Method to find the evaluator for invocation of the specified method for the supplied type,
+     * loading the evaluators for the method name from the plugin mechanism if not yet loaded.
+     * @param type The class name
+     * @param methodName Name of the method
+     * @return Evaluator suitable for this type with this method name, or null if not supported
+     */
+    protected InvocationEvaluator findInMemoryEvaluatorForMethod(Class type, String methodName)
     {
         // Hardcode support for Array.size()/Array.length()/Array.contains() since not currently pluggable
         if (type != null && type.isArray())
         {
-            // TODO Cache these
             if (methodName.equals("size") || methodName.equals("length"))
             {
-                return new ArraySizeMethodEvaluator();
+                return ARRAY_SIZE_EVALUATOR;
             }
             else if (methodName.equals("contains"))
             {
-                return new ArrayContainsMethodEvaluator();
+                return ARRAY_CONTAINS_EVALUATOR;
             }
         }
 
         Map<Object, InvocationEvaluator> evaluatorsForMethod = queryMethodEvaluatorMap.get(methodName);
-        if (evaluatorsForMethod != null)
+        if (evaluatorsForMethod == null)
         {
-            Iterator evaluatorClsIter = evaluatorsForMethod.entrySet().iterator();
-            while (evaluatorClsIter.hasNext())
+            // Not yet loaded anything for this method
+            evaluatorsForMethod = loadInMemoryEvaluatorsForMethod(type, methodName);
+            if (evaluatorsForMethod == null)
             {
-                Map.Entry<Object, InvocationEvaluator> entry = (Entry<Object, InvocationEvaluator>) evaluatorClsIter.next();
-                Object clsKey = entry.getKey();
-                if (clsKey instanceof Class && ((Class)clsKey).isAssignableFrom(type))
-                {
-                    return entry.getValue();
-                }
-                else if (clsKey instanceof String && ((String)clsKey).equals("STATIC") && type == null)
-                {
-                    // Can only be one static method so just return it
-                    return entry.getValue();
-                }
+                return null;
+            }
+            Map<Object, InvocationEvaluator> existing = queryMethodEvaluatorMap.putIfAbsent(methodName, evaluatorsForMethod);
+            if (existing != null)
+            {
+                evaluatorsForMethod = existing;
             }
-            return null;
         }
-        else
+
+        Iterator evaluatorClsIter = evaluatorsForMethod.entrySet().iterator();
+        while (evaluatorClsIter.hasNext())
         {
-            // Not yet loaded anything for this method
-            ClassLoaderResolver clr = nucleusCtx.getClassLoaderResolver(type != null ? type.getClassLoader() : null);
-            PluginManager pluginMgr = nucleusCtx.getPluginManager();
-            ConfigurationElement[] elems = pluginMgr.getConfigurationElementsForExtension(
-                "org.datanucleus.query_method_evaluators", "method", methodName);
-            Map<Object, InvocationEvaluator> evaluators = new HashMap();
-            InvocationEvaluator requiredEvaluator = null;
-            if (elems == null)
+            Map.Entry<Object, InvocationEvaluator> entry = (Entry<Object, InvocationEvaluator>) evaluatorClsIter.next();
+            Object clsKey = entry.getKey();
+            if (clsKey instanceof Class && type != null && ((Class)clsKey).isAssignableFrom(type))
             {
-                return null;
+                return entry.getValue();
             }
+            else if (clsKey instanceof String && ((String)clsKey).equals("STATIC") && type == null)
+            {
+                // Can only be one static method so just return it
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
 
-            for (int i=0;i<elems.length;i++)
+    /**
+     * Method to load the evaluators for the specified method name from the plugin mechanism.
+     * @param type The type being invoked on (used for class loading)
+     * @param methodName Name of the method
+     * @return The evaluators keyed by the class they apply to ("STATIC" for static methods), or null if none
+     */
+    private Map<Object, InvocationEvaluator> loadInMemoryEvaluatorsForMethod(Class type, String methodName)
+    {
+        ClassLoaderResolver clr = nucleusCtx.getClassLoaderResolver(type != null ? type.getClassLoader() : null);
+        PluginManager pluginMgr = nucleusCtx.getPluginManager();
+        ConfigurationElement[] elems = pluginMgr.getConfigurationElementsForExtension(
+            "org.datanucleus.query_method_evaluators", "method", methodName);
+        if (elems == null)
+        {
+            return null;
+        }
+
+        Map<Object, InvocationEvaluator> evaluators = new HashMap();
+        for (int i=0;i<elems.length;i++)
+        {
+            try
             {
-                try
+                String evalName = elems[i].getAttribute("evaluator");
+                InvocationEvaluator eval =
+                    (InvocationEvaluator)pluginMgr.createExecutableExtension(
+                    "org.datanucleus.query_method_evaluators", new String[] {"method", "evaluator"},
+                    new String[] {methodName, evalName}, "evaluator", null, null);
+
+                String elemClsName = elems[i].getAttribute("class");
+                if (elemClsName != null && StringUtils.isWhitespace(elemClsName))
                 {
-                    String evalName = elems[i].getAttribute("evaluator");
-                    InvocationEvaluator eval =
-                        (InvocationEvaluator)pluginMgr.createExecutableExtension(
-                        "org.datanucleus.query_method_evaluators", new String[] {"method", "evaluator"},
-                        new String[] {methodName, evalName}, "evaluator", null, null);
-
-                    String elemClsName = elems[i].getAttribute("class");
-                    if (elemClsName != null && StringUtils.isWhitespace(elemClsName))
-                    {
-                        elemClsName = null;
-                    }
-                    if (elemClsName == null)
-                    {
-                        // Static method call
-                        if (type == null)
-                        {
-                            // Evaluator is applicable to the required type
-                            requiredEvaluator = eval;
-                        }
-                        evaluators.put("STATIC", eval);
-                    }
-                    else
-                    {
-                        Class elemCls = clr.classForName(elemClsName);
-                        if (elemCls.isAssignableFrom(type))
-                        {
-                            // Evaluator is applicable to the required type
-                            requiredEvaluator = eval;
-                        }
-                        evaluators.put(elemCls, eval);
-                    }
+                    elemClsName = null;
+                }
+                if (elemClsName == null)
+                {
+                    // Static method call
+                    evaluators.put("STATIC", eval);
                 }
-                catch (Exception e)
+                else
                 {
-                    // Impossible to create the evaluator (class doesn't exist?) TODO Log this?
+                    Class elemCls = clr.classForName(elemClsName);
+                    evaluators.put(elemCls, eval);
                 }
             }
-
-            // Store evaluators for this method name
-            queryMethodEvaluatorMap.put(methodName, evaluators);
-            return requiredEvaluator;
+            catch (Exception e)
+            {
+                // Impossible to create the evaluator (class doesn't exist?) TODO Log this?
+            }
         }
+        return evaluators;
     }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import java.util.Map;
  */
 public class AbstractQueryDatastoreCompilationCache implements QueryDatastoreCompilationCache
 {
+    /** The cached compilations. Must be a thread-safe map since the cache is shared by all queries. */
     Map<String, Object> cache;
 
     /* (non-Javadoc)
@@ -17,33 +17,49 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.query.cache;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.datanucleus.NucleusContext;
 import org.datanucleus.PropertyNames;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.query.QueryUtils;
 import org.datanucleus.store.query.Query;
+import org.datanucleus.util.ClassUtils;
 import org.datanucleus.util.NucleusLogger;
 
 /**
  * Abstract representation of a query results cache for the query.
+ * All state is held in concurrent collections so that lookups from many threads don't block.
+ * <p>
+ * When results are put with the classes they depend on, the keys are indexed by the names of those classes
+ * so that {@link #evict(Class)} (called on each flush) just looks up the keys to evict. Results put without
+ * their dependencies are evicted by matching the candidate in the key.
+ * </p>
  */
 public class AbstractQueryResultsCache implements QueryResultsCache
 {
     /** Keys to pin, if entering into the cache. */
-    HashSet<String> keysToPin = new HashSet<String>();
+    Set<String> keysToPin = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /** Cache of pinned objects. */
-    Map<String, List<Object>> pinnedCache = new HashMap<String, List<Object>>();
+    Map<String, List<Object>> pinnedCache = new ConcurrentHashMap<String, List<Object>>();
 
-    /** Cache of unpinned objects. */
+    /** Cache of unpinned objects. Must be a thread-safe map. */
     Map<String, List<Object>> cache = null;
 
+    /** Keys of the cached results that depend on a class, keyed by the class name. */
+    final ConcurrentMap<String, Set<String>> keysByClassName = new ConcurrentHashMap<String, Set<String>>();
+
+    /** Keys of the cached results whose dependent classes aren't known. */
+    final Set<String> keysWithoutDependencies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private int maxSize = -1;
     private final NucleusContext nucCtx;
 
@@ -62,6 +78,8 @@ public class AbstractQueryResultsCache implements QueryResultsCache
         cache = null;
         pinnedCache.clear();
         pinnedCache = null;
+        keysByClassName.clear();
+        keysWithoutDependencies.clear();
     }
 
     /* (non-Javadoc)
@@ -75,43 +93,107 @@ public class AbstractQueryResultsCache implements QueryResultsCache
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#evict(java.lang.Class)
      */
-    public synchronized void evict(Class candidate)
+    public void evict(Class candidate)
     {
-        AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForClass(candidate, nucCtx.getClassLoaderResolver(candidate.getClassLoader()));
-        Iterator<String> iter = cache.keySet().iterator();
-        while (iter.hasNext())
+        if (!keysByClassName.isEmpty())
         {
-            String key = iter.next();
-            if (key.matches("JDOQL:.* FROM " + candidate.getName() + ".*"))
+            // Results of queries of a superclass or interface also include instances of this class
+            evictKeys(keysByClassName.get(candidate.getName()));
+            Iterator<Class<?>> superIter = ClassUtils.getSuperclasses(candidate).iterator();
+            while (superIter.hasNext())
             {
-                NucleusLogger.GENERAL.info(">> Evicting query results for key="+key);
-                iter.remove();
+                evictKeys(keysByClassName.get(superIter.next().getName()));
             }
-            else if (key.matches("JPQL:.* FROM " + candidate.getName() + ".*"))
+            superIter = ClassUtils.getSuperinterfaces(candidate).iterator();
+            while (superIter.hasNext())
             {
-                NucleusLogger.GENERAL.info(">> Evicting query results for key="+key);
-                iter.remove();
+                evictKeys(keysByClassName.get(superIter.next().getName()));
             }
-            else if (key.matches("JPQL:.* FROM " + cmd.getEntityName()+".*"))
+        }
+
+        if (!keysWithoutDependencies.isEmpty())
+        {
+            // Fall back to matching the candidate in the key
+            String classFrom = " FROM " + candidate.getName();
+            String entityFrom = null;
+            Iterator<String> iter = keysWithoutDependencies.iterator();
+            while (iter.hasNext())
+            {
+                String key = iter.next();
+                if (pinnedCache.containsKey(key))
+                {
+                    continue;
+                }
+                boolean matches = false;
+                if (key.startsWith("JDOQL:"))
+                {
+                    matches = key.indexOf(classFrom) >= 0;
+                }
+                else if (key.startsWith("JPQL:"))
+                {
+                    if (entityFrom == null)
+                    {
+                        // JPQL can use the entity name, so only look up the metadata when needed
+                        AbstractClassMetaData cmd = nucCtx.getMetaDataManager().getMetaDataForClass(candidate,
+                            nucCtx.getClassLoaderResolver(candidate.getClassLoader()));
+                        entityFrom = (cmd != null ? " FROM " + cmd.getEntityName() : classFrom);
+                    }
+                    matches = key.indexOf(classFrom) >= 0 || key.indexOf(entityFrom) >= 0;
+                }
+                if (matches)
+                {
+                    evictKey(key);
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to evict the unpinned results of the specified keys, removing them from the set.
+     * Pinned keys are retained in the set so that they are evicted once unpinned.
+     * @param keys The keys (if any)
+     */
+    private void evictKeys(Set<String> keys)
+    {
+        if (keys == null)
+        {
+            return;
+        }
+        Iterator<String> iter = keys.iterator();
+        while (iter.hasNext())
+        {
+            String key = iter.next();
+            if (!pinnedCache.containsKey(key))
             {
-                NucleusLogger.GENERAL.info(">> Evicting query results for key="+key);
+                evictKey(key);
                 iter.remove();
             }
         }
     }
 
+    private void evictKey(String key)
+    {
+        if (cache.remove(key) != null && NucleusLogger.QUERY.isDebugEnabled())
+        {
+            NucleusLogger.QUERY.debug("Evicting query results for key=" + key);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#evictAll()
      */
-    public synchronized void evictAll()
+    public void evictAll()
     {
         cache.clear();
+        keysByClassName.clear();
+        keysWithoutDependencies.clear();
     }
 
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#evict(org.datanucleus.store.query.Query)
      */
-    public synchronized void evict(Query query)
+    public void evict(Query query)
     {
         String baseKey = QueryUtils.getKeyForQueryResultsCache(query, null);
         Iterator<String> iter = cache.keySet().iterator();
@@ -137,7 +219,7 @@ public class AbstractQueryResultsCache implements QueryResultsCache
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#evict(org.datanucleus.store.query.Query, java.util.Map)
      */
-    public synchronized void evict(Query query, Map params)
+    public void evict(Query query, Map params)
     {
         String key = QueryUtils.getKeyForQueryResultsCache(query, params);
         cache.remove(key);
@@ -209,14 +291,12 @@ public class AbstractQueryResultsCache implements QueryResultsCache
      */
     public List<Object> get(String queryKey)
     {
-        if (pinnedCache.containsKey(queryKey))
-        {
-            return pinnedCache.get(queryKey);
-        }
-        else
+        List<Object> results = pinnedCache.get(queryKey);
+        if (results != null)
         {
-            return cache.get(queryKey);
+            return results;
         }
+        return cache.get(queryKey);
     }
 
     /* (non-Javadoc)
@@ -230,13 +310,46 @@ public class AbstractQueryResultsCache implements QueryResultsCache
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#put(java.lang.String, java.util.List)
      */
-    public synchronized List<Object> put(String queryKey, List<Object> results)
+    public List<Object> put(String queryKey, List<Object> results)
     {
-        if (maxSize >= 0 && size() == maxSize)
+        return put(queryKey, results, null);
+    }
+
+    /* (non-Javadoc)
+     * @see org.datanucleus.store.query.cache.QueryResultsCache#put(java.lang.String, java.util.List, java.util.Collection)
+     */
+    public List<Object> put(String queryKey, List<Object> results, Collection<Class> dependentClasses)
+    {
+        if (maxSize >= 0 && size() >= maxSize)
         {
             return null;
         }
 
+        // Index the key before caching the results, so a concurrent evict can't miss them
+        if (dependentClasses == null)
+        {
+            addKey(keysWithoutDependencies, queryKey);
+        }
+        else
+        {
+            Iterator<Class> clsIter = dependentClasses.iterator();
+            while (clsIter.hasNext())
+            {
+                String className = clsIter.next().getName();
+                Set<String> keys = keysByClassName.get(className);
+                if (keys == null)
+                {
+                    Set<String> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                    keys = keysByClassName.putIfAbsent(className, newKeys);
+                    if (keys == null)
+                    {
+                        keys = newKeys;
+                    }
+                }
+                addKey(keys, queryKey);
+            }
+        }
+
         if (keysToPin.contains(queryKey))
         {
             return pinnedCache.put(queryKey, results);
@@ -247,6 +360,29 @@ public class AbstractQueryResultsCache implements QueryResultsCache
         }
     }
 
+    /**
+     * Method to add a key to a set of indexed keys. Since results can be removed from the cache without
+     * going through the index (garbage collected, or evicted by query), the set is pruned of keys no longer
+     * in the cache when it has grown to well over the size of the cache.
+     * @param keys The keys
+     * @param queryKey The key to add
+     */
+    private void addKey(Set<String> keys, String queryKey)
+    {
+        if (keys.add(queryKey) && keys.size() > 2 * (cache.size() + pinnedCache.size()) + 16)
+        {
+            Iterator<String> iter = keys.iterator();
+            while (iter.hasNext())
+            {
+                String key = iter.next();
+                if (!key.equals(queryKey) && !cache.containsKey(key) && !pinnedCache.containsKey(key))
+                {
+                    iter.remove();
+                }
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.datanucleus.store.query.cache.QueryResultsCache#size()
      */
@@ -18,6 +18,7 @@ Contributors:
 package org.datanucleus.store.query.cache;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -111,6 +112,16 @@ public interface QueryResultsCache extends Serializable
      */
     List<Object> put(String queryKey, List<Object> results);
 
+    /**
+     * Method to put an object in the cache, recording the classes that the results depend on so that
+     * the results are evicted when an instance of one of those classes is changed.
+     * @param queryKey The query key
+     * @param results The results for this query
+     * @param dependentClasses Classes the results depend on (null if not known)
+     * @return The result ids previously associated with this query (if any)
+     */
+    List<Object> put(String queryKey, List<Object> results, Collection<Class> dependentClasses);
+
     /**
      * Accessor for whether the specified query is in the cache
      * @param queryKey The query key
@@ -18,7 +18,7 @@ Contributors:
 package org.datanucleus.store.query.cache;
 
 import org.datanucleus.NucleusContext;
-import org.datanucleus.util.SoftValueMap;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 
 /**
  * Weak-referenced implementation of datastore query compilation cache.
@@ -27,6 +27,6 @@ public class SoftQueryDatastoreCompilationCache extends AbstractQueryDatastoreCo
 {
     public SoftQueryDatastoreCompilationCache(NucleusContext nucleusCtx)
     {
-        cache = new SoftValueMap();
+        cache = ConcurrentReferenceValueMap.newSoftValueMap();
     }
 }
\ No newline at end of file
@@ -18,7 +18,7 @@ Contributors:
 package org.datanucleus.store.query.cache;
 
 import org.datanucleus.NucleusContext;
-import org.datanucleus.util.SoftValueMap;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 
 /**
  * Soft-reference implementation of a query results cache.
@@ -28,6 +28,6 @@ public class SoftQueryResultsCache extends AbstractQueryResultsCache
     public SoftQueryResultsCache(NucleusContext ctx)
     {
         super(ctx);
-        cache = new SoftValueMap();
+        cache = ConcurrentReferenceValueMap.newSoftValueMap();
     }
 }
\ No newline at end of file
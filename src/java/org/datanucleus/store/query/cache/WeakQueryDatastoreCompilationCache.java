@@ -18,7 +18,7 @@ Contributors:
 package org.datanucleus.store.query.cache;
 
 import org.datanucleus.NucleusContext;
-import org.datanucleus.util.WeakValueMap;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 
 /**
  * Weak-referenced implementation of datastore query compilation cache.
@@ -27,6 +27,6 @@ public class WeakQueryDatastoreCompilationCache extends AbstractQueryDatastoreCo
 {
     public WeakQueryDatastoreCompilationCache(NucleusContext nucleusCtx)
     {
-        cache = new WeakValueMap();
+        cache = ConcurrentReferenceValueMap.newWeakValueMap();
     }
 }
\ No newline at end of file
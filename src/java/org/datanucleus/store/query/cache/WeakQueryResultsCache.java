@@ -18,7 +18,7 @@ Contributors:
 package org.datanucleus.store.query.cache;
 
 import org.datanucleus.NucleusContext;
-import org.datanucleus.util.WeakValueMap;
+import org.datanucleus.util.ConcurrentReferenceValueMap;
 
 /**
  * Weak-reference implementation of a query results cache.
@@ -28,6 +28,6 @@ public class WeakQueryResultsCache extends AbstractQueryResultsCache
     public WeakQueryResultsCache(NucleusContext ctx)
     {
         super(ctx);
-        cache = new WeakValueMap();
+        cache = ConcurrentReferenceValueMap.newWeakValueMap();
     }
 }
\ No newline at end of file
@@ -43,6 +43,7 @@ import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.metadata.AbstractClassMetaData;
 import org.datanucleus.metadata.AbstractMemberMetaData;
 import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.properties.PropertyHandle;
 import org.datanucleus.state.FetchPlanState;
 import org.datanucleus.state.ObjectProvider;
 import org.datanucleus.store.FieldValues;
@@ -64,6 +65,11 @@ public class SCOUtils
     private static final Localiser LOCALISER = Localiser.getInstance(
         "org.datanucleus.Localisation", org.datanucleus.ClassConstants.NUCLEUS_CONTEXT_LOADER);
 
+    private static final PropertyHandle CACHE_COLLECTIONS = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_COLLECTIONS);
+    private static final PropertyHandle CACHE_COLLECTIONS_LAZY = PropertyHandle.forName(PropertyNames.PROPERTY_CACHE_COLLECTIONS_LAZY);
+    private static final PropertyHandle ATTACH_SAME_DATASTORE = PropertyHandle.forName(PropertyNames.PROPERTY_ATTACH_SAME_DATASTORE);
+    private static final PropertyHandle DETACH_AS_WRAPPED = PropertyHandle.forName(PropertyNames.PROPERTY_DETACH_AS_WRAPPED);
+
     /**
      * Method to create a new SCO wrapper for a SCO type.
      * The SCO wrapper will be appropriate for the passed value (which represents the instantiated type of the field)
@@ -361,10 +367,11 @@ public class SCOUtils
 
         // Check whether we should cache collections based on PMF/PM
         boolean useCache = 
-            ownerOP.getExecutionContext().getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_CACHE_COLLECTIONS);
-        if (ownerOP.getExecutionContext().getBooleanProperty(PropertyNames.PROPERTY_CACHE_COLLECTIONS) != null)
+            ownerOP.getExecutionContext().getNucleusContext().getConfiguration().getBooleanProperty(CACHE_COLLECTIONS);
+        Boolean ecUseCache = ownerOP.getExecutionContext().getBooleanProperty(CACHE_COLLECTIONS);
+        if (ecUseCache != null)
         {
-            useCache = ownerOP.getExecutionContext().getBooleanProperty(PropertyNames.PROPERTY_CACHE_COLLECTIONS);
+            useCache = ecUseCache.booleanValue();
         }
 
         if (mmd.getOrderMetaData() != null && !mmd.getOrderMetaData().isIndexedList())
@@ -398,7 +405,7 @@ public class SCOUtils
 
         AbstractClassMetaData cmd = ownerOP.getClassMetaData();
         Boolean lazyCollections =
-            ownerOP.getExecutionContext().getNucleusContext().getConfiguration().getBooleanObjectProperty(PropertyNames.PROPERTY_CACHE_COLLECTIONS_LAZY);
+            ownerOP.getExecutionContext().getNucleusContext().getConfiguration().getBooleanObjectProperty(CACHE_COLLECTIONS_LAZY);
         if (lazyCollections != null)
         {
             // Global setting for PMF
@@ -1320,7 +1327,7 @@ public class SCOUtils
                 boolean exists = false;
                 if (api.isDetached(object))
                 {
-                    if (ec.getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_ATTACH_SAME_DATASTORE))
+                    if (ec.getNucleusContext().getConfiguration().getBooleanProperty(ATTACH_SAME_DATASTORE))
                     {
                         // Assume that it is detached from this datastore
                         exists = true;
@@ -1485,7 +1492,7 @@ public class SCOUtils
      */
     public static boolean detachAsWrapped(ObjectProvider ownerOP)
     {
-        return ownerOP.getExecutionContext().getNucleusContext().getConfiguration().getBooleanProperty(PropertyNames.PROPERTY_DETACH_AS_WRAPPED);
+        return ownerOP.getExecutionContext().getNucleusContext().getConfiguration().getBooleanProperty(DETACH_AS_WRAPPED);
     }
 
     /**
@@ -40,6 +40,7 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -2030,27 +2031,29 @@ public class ClassUtils
      */
     public static int[] getFlagsSetTo(boolean[] flags, boolean state)
     {
-        int[] temp = new int[flags.length];
-        int j = 0;
+        int num = 0;
         for (int i = 0; i < flags.length; i++)
         {
             if (flags[i] == state)
             {
-                temp[j++] = i;
+                num++;
             }
         }
-
-        if (j != 0)
+        if (num == 0)
         {
-            int[] fieldNumbers = new int[j];
-            System.arraycopy(temp, 0, fieldNumbers, 0, j);
-
-            return fieldNumbers;
+            return null;
         }
-        else
+
+        int[] fieldNumbers = new int[num];
+        int j = 0;
+        for (int i = 0; i < flags.length; i++)
         {
-            return null;
+            if (flags[i] == state)
+            {
+                fieldNumbers[j++] = i;
+            }
         }
+        return fieldNumbers;
     }
 
     /**
@@ -2065,28 +2068,161 @@ public class ClassUtils
             return null;
         }
 
-        int[] temp = new int[indices.length];
-        int j = 0;
+        int num = 0;
+        for (int i = 0; i < indices.length; i++)
+        {
+            if (flags[indices[i]] == state)
+            {
+                num++;
+            }
+        }
+        if (num == 0)
+        {
+            return null;
+        }
 
+        int[] fieldNumbers = new int[num];
+        int j = 0;
         for (int i = 0; i < indices.length; i++)
         {
             if (flags[indices[i]] == state)
             {
-                temp[j++] = indices[i];
+                fieldNumbers[j++] = indices[i];
             }
         }
+        return fieldNumbers;
+    }
 
-        if (j != 0)
+    /**
+     * Returns an array of integers containing the indices of all bits of <tt>flags</tt> that are set.
+     * @param flags The flags
+     * @return The indices of the set bits, or null if none are set
+     */
+    public static int[] getFlagsSetTo(BitSet flags)
+    {
+        int num = flags.cardinality();
+        if (num == 0)
         {
-            int[] fieldNumbers = new int[j];
-            System.arraycopy(temp, 0, fieldNumbers, 0, j);
+            return null;
+        }
 
-            return fieldNumbers;
+        int[] fieldNumbers = new int[num];
+        int j = 0;
+        for (int i = flags.nextSetBit(0); i >= 0; i = flags.nextSetBit(i+1))
+        {
+            fieldNumbers[j++] = i;
         }
-        else
+        return fieldNumbers;
+    }
+
+    /**
+     * Returns an array of integers containing the indices in <tt>indices</tt> whose bit in <tt>flags</tt>
+     * is set to <tt>state</tt>.
+     * @param flags The flags
+     * @param indices The indices to check
+     * @param state The state to search (true or false)
+     * @return The matching indices, or null if there are none
+     */
+    public static int[] getFlagsSetTo(BitSet flags, int[] indices, boolean state)
+    {
+        if (indices == null)
         {
             return null;
         }
+
+        int num = 0;
+        for (int i = 0; i < indices.length; i++)
+        {
+            if (flags.get(indices[i]) == state)
+            {
+                num++;
+            }
+        }
+        if (num == 0)
+        {
+            return null;
+        }
+
+        int[] fieldNumbers = new int[num];
+        int j = 0;
+        for (int i = 0; i < indices.length; i++)
+        {
+            if (flags.get(indices[i]) == state)
+            {
+                fieldNumbers[j++] = indices[i];
+            }
+        }
+        return fieldNumbers;
+    }
+
+    /**
+     * Returns an array of integers containing the indices of the set bits of <tt>indices</tt> whose
+     * bit in <tt>flags</tt> is set to <tt>state</tt>. This is the intersection of the two bitsets (or of
+     * <tt>indices</tt> with the complement of <tt>flags</tt>), computed without creating an intermediate BitSet.
+     * @param flags The flags
+     * @param indices The indices to check
+     * @param state The state to search (true or false)
+     * @return The matching indices (in ascending order), or null if there are none
+     */
+    public static int[] getFlagsSetTo(BitSet flags, BitSet indices, boolean state)
+    {
+        int num = 0;
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i+1))
+        {
+            if (flags.get(i) == state)
+            {
+                num++;
+            }
+        }
+        if (num == 0)
+        {
+            return null;
+        }
+
+        int[] fieldNumbers = new int[num];
+        int j = 0;
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i+1))
+        {
+            if (flags.get(i) == state)
+            {
+                fieldNumbers[j++] = i;
+            }
+        }
+        return fieldNumbers;
+    }
+
+    /**
+     * Convenience method to convert the first <tt>length</tt> bits of a BitSet into an array of flags.
+     * @param bits The bits
+     * @param length Number of flags
+     * @return The flags
+     */
+    public static boolean[] getFlagsForBitSet(BitSet bits, int length)
+    {
+        boolean[] flags = new boolean[length];
+        for (int i = bits.nextSetBit(0); i >= 0 && i < length; i = bits.nextSetBit(i+1))
+        {
+            flags[i] = true;
+        }
+        return flags;
+    }
+
+    /**
+     * Convenience method to convert an array of flags into a BitSet.
+     * @param flags The flags
+     * @return The bits
+     */
+    public static BitSet getBitSetForFlags(boolean[] flags)
+    {
+        BitSet bits = new BitSet(flags.length);
+        for (int i = 0; i < flags.length; i++)
+        {
+            if (flags[i])
+            {
+                bits.set(i);
+            }
+        }
+        return bits;
     }
 
     /**
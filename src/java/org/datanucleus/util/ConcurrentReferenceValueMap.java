@@ -0,0 +1,306 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe <code>java.util.Map</code> implementation using reference values, for use where a
+ * {@link ReferenceValueMap} would be shared between threads. The entries are held in a ConcurrentHashMap
+ * so readers are never blocked, and entries whose value has been garbage collected are removed only if
+ * they haven't since been replaced. Null keys and values are not supported.
+ * <p>
+ * Use {@link #newSoftValueMap()} or {@link #newWeakValueMap()} to create a map with the required
+ * reference type.
+ * </p>
+ */
+public abstract class ConcurrentReferenceValueMap implements Map
+{
+    private final ConcurrentMap<Object, Reference> map = new ConcurrentHashMap<Object, Reference>();
+
+    private final ReferenceQueue reaped = new ReferenceQueue();
+
+    /**
+     * Factory method for a map with soft values.
+     * @return The map
+     */
+    public static ConcurrentReferenceValueMap newSoftValueMap()
+    {
+        return new ConcurrentReferenceValueMap()
+        {
+            protected Reference newValueReference(Object key, Object value, ReferenceQueue queue)
+            {
+                return new SoftValueReference(key, value, queue);
+            }
+        };
+    }
+
+    /**
+     * Factory method for a map with weak values.
+     * @return The map
+     */
+    public static ConcurrentReferenceValueMap newWeakValueMap()
+    {
+        return new ConcurrentReferenceValueMap()
+        {
+            protected Reference newValueReference(Object key, Object value, ReferenceQueue queue)
+            {
+                return new WeakValueReference(key, value, queue);
+            }
+        };
+    }
+
+    /**
+     * Returns a new <code>Reference</code> object to be inserted into the map. The reference must
+     * implement {@link ReferenceValueMap.ValueReference}.
+     * @param key The key that will be inserted.
+     * @param value The associated value to be referenced.
+     * @param queue The <code>ReferenceQueue</code> with which to register the new reference.
+     * @return The new reference
+     */
+    protected abstract Reference newValueReference(Object key, Object value, ReferenceQueue queue);
+
+    /**
+     * Method to add an object to the Map.
+     * @param key Key for object
+     * @param value Value of object
+     * @return The object previously stored for the key
+     */
+    public Object put(Object key, Object value)
+    {
+        reap();
+        return unwrapReference(map.put(key, newValueReference(key, value, reaped)));
+    }
+
+    /**
+     * Method to add the contents of a Map.
+     * @param m Map
+     */
+    public void putAll(Map m)
+    {
+        Iterator<Map.Entry> iter = m.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            Map.Entry entry = iter.next();
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Method to get a value for a key.
+     * @param key The Key
+     * @return The Value
+     */
+    public Object get(Object key)
+    {
+        reap();
+        return unwrapReference(map.get(key));
+    }
+
+    /**
+     * Method to remove an object for the specified key.
+     * @param key The Key
+     * @return The Object removed
+     */
+    public Object remove(Object key)
+    {
+        reap();
+        return unwrapReference(map.remove(key));
+    }
+
+    /**
+     * Method to empty the Map.
+     */
+    public void clear()
+    {
+        reap();
+        map.clear();
+    }
+
+    /**
+     * Accessor for the size of the Map.
+     * @return The size
+     */
+    public int size()
+    {
+        reap();
+        return map.size();
+    }
+
+    /**
+     * Accessor for whether the Map is empty.
+     * @return Whether the Map is empty.
+     */
+    public boolean isEmpty()
+    {
+        reap();
+        return map.isEmpty();
+    }
+
+    /**
+     * Accessor for whether the Map contains the specified Key
+     * @param key The key
+     * @return Whether the key exists
+     */
+    public boolean containsKey(Object key)
+    {
+        reap();
+        return map.containsKey(key);
+    }
+
+    /**
+     * Accessor for whether the Map contains the specified value.
+     * @param value The value
+     * @return Whether the Map contains the value.
+     */
+    public boolean containsValue(Object value)
+    {
+        reap();
+        if (value != null)
+        {
+            Iterator<Reference> iter = map.values().iterator();
+            while (iter.hasNext())
+            {
+                if (value.equals(iter.next().get()))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accessor for the Set of keys in the Map. The set is backed by the map.
+     * @return The Set of keys
+     */
+    public Set keySet()
+    {
+        reap();
+        return map.keySet();
+    }
+
+    /**
+     * Accessor for a snapshot of the values in the Map.
+     * @return The Values.
+     */
+    public Collection values()
+    {
+        reap();
+        ArrayList values = new ArrayList(map.size());
+        Iterator<Reference> iter = map.values().iterator();
+        while (iter.hasNext())
+        {
+            Object value = iter.next().get();
+            if (value != null)
+            {
+                values.add(value);
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Accessor for a snapshot of the entries in the Map.
+     * @return The Set of entries.
+     */
+    public Set entrySet()
+    {
+        reap();
+        HashMap entries = new HashMap(map.size());
+        Iterator<Map.Entry<Object, Reference>> iter = map.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            Map.Entry<Object, Reference> entry = iter.next();
+            Object value = entry.getValue().get();
+            if (value != null)
+            {
+                entries.put(entry.getKey(), value);
+            }
+        }
+        return Collections.unmodifiableSet(entries.entrySet());
+    }
+
+    /**
+     * Utility method to remove the entries whose values have been garbage collected.
+     */
+    public void reap()
+    {
+        Reference ref;
+        while ((ref = reaped.poll()) != null)
+        {
+            // Only remove the entry if it hasn't been replaced in the meantime
+            map.remove(((ReferenceValueMap.ValueReference)ref).getKey(), ref);
+        }
+    }
+
+    private Object unwrapReference(Reference ref)
+    {
+        return (ref != null ? ref.get() : null);
+    }
+
+    /**
+     * Representation of a soft value reference.
+     */
+    private static class SoftValueReference extends SoftReference implements ReferenceValueMap.ValueReference
+    {
+        private final Object key;
+
+        SoftValueReference(Object key, Object value, ReferenceQueue q)
+        {
+            super(value, q);
+            this.key = key;
+        }
+
+        public Object getKey()
+        {
+            return key;
+        }
+    }
+
+    /**
+     * Representation of a weak value reference.
+     */
+    private static class WeakValueReference extends WeakReference implements ReferenceValueMap.ValueReference
+    {
+        private final Object key;
+
+        WeakValueReference(Object key, Object value, ReferenceQueue q)
+        {
+            super(value, q);
+            this.key = key;
+        }
+
+        public Object getKey()
+        {
+            return key;
+        }
+    }
+}
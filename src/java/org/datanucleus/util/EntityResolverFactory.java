@@ -18,8 +18,8 @@ Contributors:
 package org.datanucleus.util;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.datanucleus.plugin.PluginManager;
 import org.xml.sax.EntityResolver;
@@ -33,7 +33,7 @@ public class EntityResolverFactory
     /**
      * Contains a cache of entity resolvers
      */
-    private static Map resolvers = new HashMap();
+    private static Map resolvers = new ConcurrentHashMap();
 
     private EntityResolverFactory()
     {
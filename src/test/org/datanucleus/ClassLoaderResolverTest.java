@@ -22,6 +22,8 @@ import java.util.Enumeration;
 
 import junit.framework.TestCase;
 
+import org.datanucleus.exceptions.ClassNotResolvedException;
+
 public class ClassLoaderResolverTest extends TestCase
 {
 
@@ -38,5 +40,69 @@ public class ClassLoaderResolverTest extends TestCase
         urls.nextElement();
         assertFalse(urls.hasMoreElements());
     }
-}
 
+    /** test that classes, and classes not found, are only looked up once in the loaders **/
+    public void testClassForNameCaching()
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        assertSame(int.class, clr.classForName("int"));
+        assertSame(String.class, clr.classForName("java.lang.String"));
+
+        CountingClassLoader loader = new CountingClassLoader(getClass().getClassLoader());
+        ClassLoader threadLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(loader);
+        try
+        {
+            assertSame(ClassLoaderResolverTest.class, clr.classForName(ClassLoaderResolverTest.class.getName()));
+            assertSame(ClassLoaderResolverTest.class, clr.classForName(ClassLoaderResolverTest.class.getName()));
+            assertEquals(1, loader.numLoads);
+
+            for (int i=0;i<2;i++)
+            {
+                try
+                {
+                    clr.classForName("org.datanucleus.NonExistentClass");
+                    fail("Expected ClassNotResolvedException");
+                }
+                catch (ClassNotResolvedException cnre)
+                {
+                    // Expected
+                }
+            }
+            assertEquals(2, loader.numLoads);
+
+            // Registering a loader means the class may now be found, so is looked up again (in both loaders)
+            clr.registerUserClassLoader(loader);
+            try
+            {
+                clr.classForName("org.datanucleus.NonExistentClass");
+                fail("Expected ClassNotResolvedException");
+            }
+            catch (ClassNotResolvedException cnre)
+            {
+                // Expected
+            }
+            assertEquals(4, loader.numLoads);
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(threadLoader);
+        }
+    }
+
+    static class CountingClassLoader extends ClassLoader
+    {
+        int numLoads = 0;
+
+        CountingClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+        {
+            numLoads++;
+            return super.loadClass(name, resolve);
+        }
+    }
+}
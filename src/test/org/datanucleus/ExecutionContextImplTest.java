@@ -0,0 +1,175 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.api.ApiAdapter;
+import org.datanucleus.cache.CachedPC;
+import org.datanucleus.management.CacheStatistics;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.ClassMetaData;
+import org.datanucleus.metadata.FileMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.metadata.MetaDataManagerImpl;
+import org.datanucleus.metadata.PackageMetaData;
+import org.datanucleus.plugin.PluginManager;
+import org.datanucleus.store.StoreManager;
+
+/**
+ * Tests for ExecutionContextImpl.
+ */
+public class ExecutionContextImplTest extends TestCase
+{
+    public ExecutionContextImplTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that the L2 cache statistics of an object with a user-defined PK class are recorded against
+     * the class using the PK class, for misses as well as evictions.
+     */
+    public void testLevel2CacheStatisticsForApplicationIdentity()
+    {
+        TestContext nucCtx = new TestContext();
+        CacheStatistics stats = nucCtx.getCacheStatistics(CacheStatistics.LEVEL2);
+        ExecutionContextImpl ec = new ExecutionContextImpl(nucCtx, null, null);
+        PersonId id = new PersonId();
+
+        assertNull(ec.getObjectFromLevel2Cache(id));
+        CacheStatistics.KeyStatistics keyStats = stats.getStatisticsByKey().get(Person.class.getName());
+        assertNotNull(keyStats);
+        assertEquals(1, keyStats.getMissCount());
+
+        nucCtx.getLevel2Cache().put(id, new CachedPC(Person.class, new boolean[0], null));
+        ec.removeObjectFromLevel2Cache(id);
+        assertEquals(1, keyStats.getEvictionCount());
+        assertNull(stats.getStatisticsByKey().get(PersonId.class.getName()));
+    }
+
+    public static class Person
+    {
+    }
+
+    public static class PersonId
+    {
+    }
+
+    /**
+     * Context with statistics and an L2 cache but no datastore, using an API that knows nothing about identities,
+     * and metadata having Person with application identity of PersonId.
+     */
+    static class TestContext extends PersistenceNucleusContextImpl
+    {
+        ApiAdapter api;
+        MetaDataManager mmgr;
+
+        TestContext()
+        {
+            super(null, getContextProperties(), new PluginManager(null, new ClassLoaderResolverImpl(), getPluginProperties()));
+            api = (ApiAdapter)Proxy.newProxyInstance(ExecutionContextImplTest.class.getClassLoader(),
+                new Class[] {ApiAdapter.class}, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if (method.getReturnType() == boolean.class)
+                        {
+                            return Boolean.FALSE;
+                        }
+                        return null;
+                    }
+                });
+            mmgr = new TestMetaDataManager(this);
+            PackageMetaData pmd = new FileMetaData().newPackageMetadata(Person.class.getPackage().getName());
+            ClassMetaData cmd = pmd.newClassMetadata(Person.class.getName().substring(Person.class.getPackage().getName().length()+1));
+            cmd.setIdentityType(IdentityType.APPLICATION);
+            cmd.setObjectIdClass(PersonId.class.getName());
+            ((MetaDataManagerImpl)mmgr).abstractClassMetaDataInitialised(cmd);
+        }
+
+        static Map<String, Object> getContextProperties()
+        {
+            Map<String, Object> ctxProps = new HashMap<String, Object>();
+            ctxProps.put(PropertyNames.PROPERTY_ENABLE_STATISTICS, "true");
+            ctxProps.put(PropertyNames.PROPERTY_CACHE_L2_TYPE, "weak");
+            return ctxProps;
+        }
+
+        static Properties getPluginProperties()
+        {
+            Properties props = new Properties();
+            props.setProperty("bundle-check-action", "EXCEPTION");
+            return props;
+        }
+
+        public ApiAdapter getApiAdapter()
+        {
+            return api;
+        }
+
+        public StoreManager getStoreManager()
+        {
+            return null;
+        }
+
+        public synchronized MetaDataManager getMetaDataManager()
+        {
+            return mmgr;
+        }
+
+        public boolean isClassWithIdentityCacheable(Object id)
+        {
+            return true;
+        }
+    }
+
+    /**
+     * MetaDataManager that only has the metadata registered with it.
+     */
+    static class TestMetaDataManager extends MetaDataManagerImpl
+    {
+        public TestMetaDataManager(NucleusContext ctx)
+        {
+            super(ctx);
+        }
+
+        public AbstractClassMetaData getMetaDataForClassInternal(Class c, ClassLoaderResolver clr)
+        {
+            return null;
+        }
+
+        protected FileMetaData parseFile(URL file_url)
+        {
+            return null;
+        }
+
+        public void registerFile(String fileURLString, FileMetaData filemd, ClassLoaderResolver clr)
+        {
+        }
+    }
+}
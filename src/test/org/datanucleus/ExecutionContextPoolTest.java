@@ -0,0 +1,179 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.management.FactoryStatistics;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Tests for ExecutionContextPool.
+ */
+public class ExecutionContextPoolTest extends TestCase
+{
+    public ExecutionContextPoolTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that checkOut reuses a checked in ExecutionContext, counting hits and misses.
+     */
+    public void testHitsAndMisses()
+    {
+        PersistenceNucleusContextImpl nucCtx = createContext(10);
+        FactoryStatistics stats = nucCtx.getStatistics();
+        TestPool pool = new TestPool(nucCtx);
+
+        ExecutionContext ec = pool.checkOut(null, null);
+        assertEquals(0, stats.getExecutionContextPoolHitCount());
+        assertEquals(1, stats.getExecutionContextPoolMissCount());
+
+        pool.checkIn(ec);
+        assertEquals(1, pool.getNumberOfIdle());
+        assertEquals(1, stats.getExecutionContextPoolIdle());
+        assertSame(ec, pool.checkOut(null, null));
+        assertEquals(1, stats.getExecutionContextPoolHitCount());
+        assertEquals(0, stats.getExecutionContextPoolIdle());
+
+        assertNotSame(ec, pool.checkOut(null, null));
+        assertEquals(2, stats.getExecutionContextPoolMissCount());
+        pool.close();
+    }
+
+    /**
+     * Test that no more than maxIdle ExecutionContexts are pooled.
+     */
+    public void testMaxIdle()
+    {
+        PersistenceNucleusContextImpl nucCtx = createContext(3);
+        TestPool pool = new TestPool(nucCtx);
+        for (int i=0;i<5;i++)
+        {
+            pool.checkIn(pool.create(null, null));
+        }
+        assertEquals(3, pool.getNumberOfIdle());
+        assertEquals(3, nucCtx.getStatistics().getExecutionContextPoolIdle());
+
+        for (int i=0;i<3;i++)
+        {
+            pool.checkOut(null, null);
+        }
+        assertEquals(3, nucCtx.getStatistics().getExecutionContextPoolHitCount());
+        assertEquals(0, pool.getNumberOfIdle());
+        pool.close();
+    }
+
+    /**
+     * Test that cleanUp expires the ExecutionContexts that weren't needed since the previous clean up.
+     */
+    public void testCleanUp()
+    {
+        PersistenceNucleusContextImpl nucCtx = createContext(10);
+        TestPool pool = new TestPool(nucCtx);
+        for (int i=0;i<3;i++)
+        {
+            pool.checkIn(pool.create(null, null));
+        }
+        pool.cleanUp();
+        assertEquals(3, pool.getNumberOfIdle());
+
+        // Only one was needed since, so the other two are expired
+        pool.checkIn(pool.checkOut(null, null));
+        pool.cleanUp();
+        assertEquals(1, pool.getNumberOfIdle());
+        assertEquals(2, pool.numExpired);
+        assertEquals(1, nucCtx.getStatistics().getExecutionContextPoolIdle());
+        pool.close();
+    }
+
+    /**
+     * Test that close expires all pooled ExecutionContexts.
+     */
+    public void testClose()
+    {
+        PersistenceNucleusContextImpl nucCtx = createContext(10);
+        TestPool pool = new TestPool(nucCtx);
+        for (int i=0;i<3;i++)
+        {
+            pool.checkIn(pool.create(null, null));
+        }
+        pool.close();
+        assertEquals(0, pool.getNumberOfIdle());
+        assertEquals(3, pool.numExpired);
+        assertEquals(0, nucCtx.getStatistics().getExecutionContextPoolIdle());
+    }
+
+    private PersistenceNucleusContextImpl createContext(int maxIdle)
+    {
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, new ClassLoaderResolverImpl(), props);
+        Map<String, Object> ctxProps = new HashMap<String, Object>();
+        ctxProps.put(PropertyNames.PROPERTY_ENABLE_STATISTICS, "true");
+        ctxProps.put(PropertyNames.PROPERTY_EXECUTION_CONTEXT_MAX_IDLE, String.valueOf(maxIdle));
+        ctxProps.put(PropertyNames.PROPERTY_EXECUTION_CONTEXT_REAPER_THREAD, "false");
+        return new PersistenceNucleusContextImpl(null, ctxProps, pluginMgr);
+    }
+
+    /**
+     * Pool creating ExecutionContexts that do nothing, and counting those expired.
+     */
+    static class TestPool extends ExecutionContextPool
+    {
+        int numExpired = 0;
+
+        TestPool(PersistenceNucleusContext nucCtx)
+        {
+            super(nucCtx);
+        }
+
+        protected ExecutionContext create(Object owner, Map<String, Object> options)
+        {
+            return (ExecutionContext)Proxy.newProxyInstance(ExecutionContextPoolTest.class.getClassLoader(),
+                new Class[] {ExecutionContext.class}, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if (method.getName().equals("equals"))
+                        {
+                            return Boolean.valueOf(proxy == args[0]);
+                        }
+                        else if (method.getName().equals("hashCode"))
+                        {
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        }
+                        return null;
+                    }
+                });
+        }
+
+        public void expire(ExecutionContext ec)
+        {
+            numExpired++;
+        }
+    }
+}
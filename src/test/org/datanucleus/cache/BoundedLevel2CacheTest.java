@@ -0,0 +1,156 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Component tests for the BoundedLevel2Cache class.
+ */
+public class BoundedLevel2CacheTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public BoundedLevel2CacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test that the size of the cache is bounded, and that frequently accessed objects are retained.
+     */
+    public void testSizeBound()
+    {
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_L2_MAXSIZE, 100);
+        BoundedLevel2Cache cache = new BoundedLevel2Cache(nucCtx);
+        for (int i=0;i<100;i++)
+        {
+            cache.put(Integer.valueOf(i), new CachedPC(String.class, new boolean[] {true}, null));
+        }
+
+        // Scan through lots of other objects, while continuing to use the first 10 objects
+        int numHotGets = 0;
+        for (int i=100;i<10000;i++)
+        {
+            if (i % 100 == 0)
+            {
+                for (int j=0;j<10;j++)
+                {
+                    assertNotNull(cache.get(Integer.valueOf(j)));
+                    numHotGets++;
+                }
+            }
+            cache.put(Integer.valueOf(i), new CachedPC(String.class, new boolean[] {true}, null));
+        }
+        assertTrue("Cache size " + cache.getSize() + " exceeds maxSize", cache.getSize() <= 100);
+        assertTrue(cache.getEvictionCount() > 0);
+        for (int i=0;i<10;i++)
+        {
+            assertTrue("Hot object " + i + " was evicted", cache.containsOid(Integer.valueOf(i)));
+        }
+        assertEquals(numHotGets, cache.getHitCount());
+        assertEquals(10000, cache.getPutCount());
+    }
+
+    /**
+     * Test that objects expire after the timeout.
+     */
+    public void testTimeout() throws Exception
+    {
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_L2_TIMEOUT, 50);
+        BoundedLevel2Cache cache = new BoundedLevel2Cache(nucCtx);
+        CachedPC pc = new CachedPC(String.class, new boolean[] {true}, null);
+        cache.put("A", pc);
+        assertSame(pc, cache.get("A"));
+
+        Thread.sleep(100);
+        assertFalse(cache.containsOid("A"));
+        assertNull(cache.get("A"));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getExpiryCount());
+    }
+
+    /**
+     * Test of eviction of objects of a class.
+     */
+    public void testEvictAllForClass()
+    {
+        BoundedLevel2Cache cache = new BoundedLevel2Cache(nucCtx);
+        cache.put("A", new CachedPC(String.class, new boolean[] {true}, null));
+        cache.put("B", new CachedPC(Integer.class, new boolean[] {true}, null));
+        cache.put("C", new CachedPC(Long.class, new boolean[] {true}, null));
+
+        cache.evictAll(Number.class, true);
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.containsOid("A"));
+    }
+
+    /**
+     * Test that concurrent increments of the frequency sketch saturate a counter without overflowing
+     * into the neighbouring counters.
+     */
+    public void testFrequencySketchConcurrentIncrements() throws Exception
+    {
+        final BoundedCacheRegion.FrequencySketch sketch = new BoundedCacheRegion.FrequencySketch(100000);
+        Thread[] threads = new Thread[8];
+        for (int i=0;i<threads.length;i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (int j=0;j<10000;j++)
+                    {
+                        sketch.increment("A");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i=0;i<threads.length;i++)
+        {
+            threads[i].join();
+        }
+
+        assertEquals(15, sketch.frequency("A"));
+        for (int i=0;i<100;i++)
+        {
+            assertEquals(0, sketch.frequency("B" + i));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the storage of field values in CachedPC.
+ */
+public class CachedPCTest extends TestCase
+{
+    public CachedPCTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test the storage of primitive and object values, and their retrieval in typed and wrapper form.
+     */
+    public void testFieldValues()
+    {
+        CachedPC pc = new CachedPC(String.class, new boolean[] {true, true, true, true, true}, null);
+        pc.setIntFieldValue(0, 42);
+        pc.setDoubleFieldValue(1, -1.5);
+        pc.setBooleanFieldValue(2, true);
+        pc.setFieldValue(3, "Name");
+        pc.setFieldValue(4, Long.valueOf(7));
+
+        assertEquals(42, pc.getIntFieldValue(0));
+        assertEquals(Integer.valueOf(42), pc.getFieldValue(0));
+        assertEquals(-1.5, pc.getDoubleFieldValue(1), 0.0);
+        assertEquals(Double.valueOf(-1.5), pc.getFieldValue(1));
+        assertTrue(pc.getBooleanFieldValue(2));
+        assertEquals("Name", pc.getFieldValue(3));
+        assertEquals(7L, pc.getLongFieldValue(4));
+
+        // Replacing a primitive value with an object value
+        pc.setFieldValue(0, "Other");
+        assertEquals("Other", pc.getFieldValue(0));
+        assertEquals(5, pc.getFieldCount());
+    }
+
+    /**
+     * Test that a copy shares the values until updated, and that updates of either are not seen by the other.
+     */
+    public void testCopyOnWrite()
+    {
+        CachedPC pc = new CachedPC(String.class, new boolean[] {true, true, false}, Long.valueOf(1));
+        pc.setLongFieldValue(0, 100L);
+        pc.setFieldValue(1, "Original");
+
+        CachedPC copy = pc.getCopy();
+        copy.setLongFieldValue(0, 200L);
+        copy.setFieldValue(1, "Copy");
+        copy.setLoadedField(2, true);
+        copy.setVersion(Long.valueOf(2));
+
+        assertEquals(100L, pc.getLongFieldValue(0));
+        assertEquals("Original", pc.getFieldValue(1));
+        assertFalse(pc.getLoadedFields()[2]);
+        assertEquals(Long.valueOf(1), pc.getVersion());
+        assertEquals(200L, copy.getLongFieldValue(0));
+        assertEquals("Copy", copy.getFieldValue(1));
+        assertTrue(copy.getLoadedFields()[2]);
+
+        // Update of the original after taking a copy
+        CachedPC copy2 = pc.getCopy();
+        pc.setFieldValue(1, "Updated");
+        assertEquals("Original", copy2.getFieldValue(1));
+        assertEquals(100L, copy2.getLongFieldValue(0));
+    }
+}
@@ -0,0 +1,239 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Component tests for the ConcurrentLevel2Cache class.
+ */
+public class ConcurrentLevel2CacheTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public ConcurrentLevel2CacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test of put/get/evict of objects.
+     */
+    public void testPutGetEvict()
+    {
+        Level2Cache cache = new ConcurrentLevel2Cache(nucCtx);
+        List<CachedPC> objs = new ArrayList<CachedPC>(); // Hold strong refs so nothing is collected
+        for (int i=0;i<10;i++)
+        {
+            CachedPC pc = new CachedPC(String.class, new boolean[] {true}, null);
+            objs.add(pc);
+            assertNull(cache.put(Integer.valueOf(i), pc));
+        }
+        assertEquals(10, cache.getSize());
+        assertSame(objs.get(3), cache.get(Integer.valueOf(3)));
+        assertTrue(cache.containsOid(Integer.valueOf(5)));
+
+        CachedPC replacement = new CachedPC(String.class, new boolean[] {true}, null);
+        assertSame(objs.get(3), cache.put(Integer.valueOf(3), replacement));
+        assertSame(replacement, cache.get(Integer.valueOf(3)));
+
+        cache.evict(Integer.valueOf(5));
+        assertFalse(cache.containsOid(Integer.valueOf(5)));
+        assertNull(cache.get(Integer.valueOf(5)));
+        assertEquals(9, cache.getSize());
+
+        cache.evictAll();
+        assertTrue(cache.isEmpty());
+    }
+
+    /**
+     * Test of pinning/unpinning of objects by id and by class.
+     */
+    public void testPinning()
+    {
+        Level2Cache cache = new ConcurrentLevel2Cache(nucCtx);
+        CachedPC str = new CachedPC(String.class, new boolean[] {true}, null);
+        CachedPC num = new CachedPC(Integer.class, new boolean[] {true}, null);
+        CachedPC lng = new CachedPC(Long.class, new boolean[] {true}, null);
+        cache.put("A", str);
+        cache.put("B", num);
+        cache.put("C", lng);
+        assertEquals(0, cache.getNumberOfPinnedObjects());
+
+        cache.pin("A");
+        assertEquals(1, cache.getNumberOfPinnedObjects());
+        assertEquals(2, cache.getNumberOfUnpinnedObjects());
+        assertSame(str, cache.get("A"));
+
+        cache.pinAll(Number.class, true);
+        assertEquals(3, cache.getNumberOfPinnedObjects());
+        assertEquals(0, cache.getNumberOfUnpinnedObjects());
+
+        // Objects of a pinned class are pinned when put
+        CachedPC lng2 = new CachedPC(Long.class, new boolean[] {true}, null);
+        cache.put("D", lng2);
+        assertEquals(4, cache.getNumberOfPinnedObjects());
+
+        assertEquals(4, cache.getSize());
+
+        cache.unpinAll(Number.class, true);
+        cache.unpin("A");
+        assertEquals(0, cache.getNumberOfPinnedObjects());
+        assertEquals(4, cache.getNumberOfUnpinnedObjects());
+        assertEquals(4, cache.getSize());
+        assertSame(lng2, cache.get("D"));
+    }
+
+    /**
+     * Test that the maximum size limits the objects put in the cache, counting pinned and unpinned objects.
+     */
+    public void testMaxSize()
+    {
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        Map<String, Object> ctxProps = new HashMap<String, Object>();
+        ctxProps.put(PropertyNames.PROPERTY_CACHE_L2_MAXSIZE, "3");
+        NucleusContext ctx = new PersistenceNucleusContextImpl(null, ctxProps,
+            new PluginManager(null, new ClassLoaderResolverImpl(), props));
+        Level2Cache cache = new ConcurrentLevel2Cache(ctx);
+
+        List<CachedPC> objs = new ArrayList<CachedPC>(); // Hold strong refs so nothing is collected
+        for (int i=0;i<4;i++)
+        {
+            objs.add(new CachedPC(String.class, new boolean[] {true}, null));
+        }
+        cache.put("A", objs.get(0));
+        cache.put("B", objs.get(1));
+        cache.pin("B");
+        cache.put("C", objs.get(2));
+        assertEquals(3, cache.getSize());
+
+        // Full, so only replacements are accepted
+        cache.put("D", objs.get(3));
+        assertFalse(cache.containsOid("D"));
+        assertSame(objs.get(1), cache.put("B", objs.get(3)));
+        assertEquals(3, cache.getSize());
+
+        cache.unpin("B");
+        cache.evict("A");
+        assertEquals(2, cache.getSize());
+        cache.put("D", objs.get(3));
+        assertTrue(cache.containsOid("D"));
+        assertEquals(3, cache.getSize());
+
+        cache.evictAll();
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Test of eviction of objects of a class, optionally including subclasses.
+     */
+    public void testEvictAllForClass()
+    {
+        Level2Cache cache = new ConcurrentLevel2Cache(nucCtx);
+        CachedPC str = new CachedPC(String.class, new boolean[] {true}, null);
+        CachedPC num = new CachedPC(Integer.class, new boolean[] {true}, null);
+        CachedPC lng = new CachedPC(Long.class, new boolean[] {true}, null);
+        cache.put("A", str);
+        cache.put("B", num);
+        cache.put("C", lng);
+        cache.pin("C");
+
+        cache.evictAll(Number.class, false);
+        assertEquals(3, cache.getSize());
+
+        cache.evictAll(Number.class, true);
+        assertEquals(1, cache.getSize());
+        assertSame(str, cache.get("A"));
+    }
+
+    /**
+     * Test of concurrent use of the cache from several threads.
+     */
+    public void testConcurrentAccess() throws Exception
+    {
+        final Level2Cache cache = new ConcurrentLevel2Cache(nucCtx);
+        final CachedPC[] objs = new CachedPC[100];
+        for (int i=0;i<objs.length;i++)
+        {
+            objs[i] = new CachedPC(String.class, new boolean[] {true}, null);
+        }
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int t=0;t<threads.length;t++)
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int j=0;j<2000;j++)
+                        {
+                            int i = j % objs.length;
+                            cache.put(Integer.valueOf(i), objs[i]);
+                            CachedPC pc = cache.get(Integer.valueOf(i));
+                            if (pc != null && pc != objs[i])
+                            {
+                                throw new IllegalStateException("Wrong object returned for id " + i);
+                            }
+                        }
+                    }
+                    catch (Throwable thr)
+                    {
+                        synchronized (failures)
+                        {
+                            failures.add(thr);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t=0;t<threads.length;t++)
+        {
+            threads[t].join();
+        }
+
+        assertTrue("Failures in threads : " + failures, failures.isEmpty());
+        assertEquals(objs.length, cache.getSize());
+    }
+}
@@ -0,0 +1,144 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the coordination of loads of objects after Level2 cache misses.
+ */
+public class Level2CacheLoadCoordinatorTest extends TestCase
+{
+    public Level2CacheLoadCoordinatorTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that a second thread loading the same id waits for the owner and gets its CachedPC.
+     */
+    public void testWaitForOwner() throws Exception
+    {
+        final Level2CacheLoadCoordinator coordinator = new Level2CacheLoadCoordinator(10000);
+        Level2CacheLoadCoordinator.Load load = coordinator.beginLoad("1");
+        assertTrue(load.isOwner());
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread waiter = new Thread()
+        {
+            public void run()
+            {
+                Level2CacheLoadCoordinator.Load otherLoad = coordinator.beginLoad("1");
+                waiting.countDown();
+                result.set(otherLoad.isOwner() ? "owner" : otherLoad.await());
+            }
+        };
+        waiter.start();
+
+        // Complete only once the other thread has joined the load
+        CachedPC cachedPC = new CachedPC(String.class, new boolean[] {true}, null);
+        assertTrue(waiting.await(10000, TimeUnit.MILLISECONDS));
+        load.complete(cachedPC);
+        waiter.join(10000);
+
+        assertSame(cachedPC, result.get());
+        assertEquals(0, coordinator.getNumberOfLoads());
+        assertTrue(coordinator.beginLoad("1").isOwner());
+    }
+
+    /**
+     * Test that a second caller on the thread owning the load (e.g a re-entrant find) isn't the owner,
+     * doesn't wait for itself, and can't complete the load.
+     */
+    public void testSameThreadCaller()
+    {
+        Level2CacheLoadCoordinator coordinator = new Level2CacheLoadCoordinator(10000);
+        Level2CacheLoadCoordinator.Load load = coordinator.beginLoad("1");
+        Level2CacheLoadCoordinator.Load nestedLoad = coordinator.beginLoad("1");
+        assertTrue(load.isOwner());
+        assertFalse(nestedLoad.isOwner());
+
+        long start = System.currentTimeMillis();
+        assertNull(nestedLoad.await());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        nestedLoad.complete(null);
+        assertEquals(1, coordinator.getNumberOfLoads());
+        load.complete(null);
+        assertEquals(0, coordinator.getNumberOfLoads());
+    }
+
+    /**
+     * Test that a thread waiting for an owner that won't cache the object is released straight away, rather than
+     * waiting for the timeout, and that the next caller becomes the owner.
+     */
+    public void testCompleteNotCached() throws Exception
+    {
+        final Level2CacheLoadCoordinator coordinator = new Level2CacheLoadCoordinator(60000);
+        Level2CacheLoadCoordinator.Load load = coordinator.beginLoad("1");
+
+        final AtomicReference<Object> result = new AtomicReference<Object>("none");
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread waiter = new Thread()
+        {
+            public void run()
+            {
+                Level2CacheLoadCoordinator.Load otherLoad = coordinator.beginLoad("1");
+                waiting.countDown();
+                result.set(otherLoad.isOwner() ? "owner" : otherLoad.await());
+            }
+        };
+        waiter.start();
+        assertTrue(waiting.await(10000, TimeUnit.MILLISECONDS));
+
+        load.completeNotCached();
+        waiter.join(10000);
+        assertFalse(waiter.isAlive());
+        assertNull(result.get());
+        assertEquals(0, coordinator.getNumberOfLoads());
+        assertTrue(coordinator.beginLoad("1").isOwner());
+    }
+
+    /**
+     * Test that waiting for a load that doesn't complete times out.
+     */
+    public void testTimeout() throws Exception
+    {
+        final Level2CacheLoadCoordinator coordinator = new Level2CacheLoadCoordinator(50);
+        coordinator.beginLoad("1");
+
+        final AtomicReference<Object> result = new AtomicReference<Object>("none");
+        Thread waiter = new Thread()
+        {
+            public void run()
+            {
+                result.set(coordinator.beginLoad("1").await());
+            }
+        };
+        waiter.start();
+        waiter.join(10000);
+
+        assertNull(result.get());
+        assertEquals(1, coordinator.getNumberOfLoads());
+    }
+}
@@ -0,0 +1,174 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Component tests for the OffHeapLevel2Cache class.
+ */
+public class OffHeapLevel2CacheTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public OffHeapLevel2CacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test that the field values and loaded fields of an object are retrieved as they were put.
+     */
+    public void testRoundTrip()
+    {
+        OffHeapLevel2Cache cache = new OffHeapLevel2Cache(nucCtx);
+        CachedPC related = new CachedPC(Integer.class, new boolean[] {true}, null);
+        related.setFieldValue(Integer.valueOf(0), "Related");
+        CachedPC pc = new CachedPC(String.class, new boolean[] {true, false, true, true, true, true}, Long.valueOf(3));
+        pc.setFieldValue(Integer.valueOf(0), "Name");
+        pc.setFieldValue(Integer.valueOf(2), new Date(1000L));
+        pc.setFieldValue(Integer.valueOf(3), new BigDecimal("12.34"));
+        pc.setFieldValue(Integer.valueOf(4), related);
+        pc.setFieldValue(Integer.valueOf(5), null);
+        cache.put("A", pc);
+
+        CachedPC cached = cache.get("A");
+        assertNotSame(pc, cached);
+        assertEquals(String.class, cached.getObjectClass());
+        assertEquals(Long.valueOf(3), cached.getVersion());
+        assertFalse(cached.getLoadedFields()[1]);
+        assertEquals("Name", cached.getFieldValue(Integer.valueOf(0)));
+        assertEquals(new Date(1000L), cached.getFieldValue(Integer.valueOf(2)));
+        assertEquals(new BigDecimal("12.34"), cached.getFieldValue(Integer.valueOf(3)));
+        assertEquals("Related", ((CachedPC)cached.getFieldValue(Integer.valueOf(4))).getFieldValue(Integer.valueOf(0)));
+        assertNull(cached.getFieldValue(Integer.valueOf(5)));
+    }
+
+    /**
+     * Test that the oldest slab is reused when the memory budget is reached, evicting its objects.
+     */
+    public void testSlabReuse()
+    {
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_L2_OFFHEAP_MAXMEGABYTES, 1);
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_L2_OFFHEAP_SLABSIZE, 256 * 1024);
+        OffHeapLevel2Cache cache = new OffHeapLevel2Cache(nucCtx);
+        for (int i=0;i<100000;i++)
+        {
+            CachedPC pc = new CachedPC(String.class, new boolean[] {true}, null);
+            pc.setFieldValue(Integer.valueOf(0), "Value " + i);
+            cache.put(Integer.valueOf(i), pc);
+        }
+
+        assertEquals(1024 * 1024, cache.getAllocatedBytes());
+        assertTrue(cache.getSize() < 100000);
+        assertFalse(cache.containsOid(Integer.valueOf(0)));
+        assertNull(cache.get(Integer.valueOf(0)));
+        assertEquals("Value 99999", cache.get(Integer.valueOf(99999)).getFieldValue(Integer.valueOf(0)));
+
+        cache.evictAll(String.class, false);
+        assertTrue(cache.isEmpty());
+    }
+
+    /**
+     * Test that corrupt stored bytes are treated as not cached, and the object removed from the cache.
+     */
+    public void testCorruptInput() throws Exception
+    {
+        OffHeapLevel2Cache cache = new OffHeapLevel2Cache(nucCtx);
+        CachedPC pc = new CachedPC(String.class, new boolean[] {true}, null);
+        pc.setFieldValue(Integer.valueOf(0), new BigDecimal("12.34"));
+        cache.put("A", pc);
+
+        // Overwrite the length of the serialised BigDecimal with a huge value
+        Field slabsField = OffHeapLevel2Cache.class.getDeclaredField("slabs");
+        slabsField.setAccessible(true);
+        Object slab = ((Object[])slabsField.get(cache))[0];
+        Field bufferField = slab.getClass().getDeclaredField("buffer");
+        bufferField.setAccessible(true);
+        ByteBuffer buffer = (ByteBuffer)bufferField.get(slab);
+        // Class index (4), number of fields (2), loaded bits (1), null version (1), value type (1)
+        buffer.putInt(9, Integer.MAX_VALUE);
+
+        assertTrue(cache.containsOid("A"));
+        assertNull(cache.get("A"));
+        assertFalse(cache.containsOid("A"));
+    }
+
+    /**
+     * Test that invalid lengths and class indexes in the binary form fail without allocating for them.
+     */
+    public void testDeserialiseInvalid()
+    {
+        CachedPCSerialiser serialiser = new CachedPCSerialiser(new ClassLoaderResolverImpl());
+        CachedPC pc = new CachedPC(String.class, new boolean[] {true}, null);
+        pc.setFieldValue(Integer.valueOf(0), new BigDecimal("12.34"));
+        byte[] bytes = serialiser.serialise(pc);
+        assertEquals(new BigDecimal("12.34"), serialiser.deserialise(bytes).getFieldValue(Integer.valueOf(0)));
+
+        byte[] corrupt = bytes.clone();
+        ByteBuffer.wrap(corrupt).putInt(9, bytes.length);
+        assertDeserialiseFails(serialiser, corrupt);
+        ByteBuffer.wrap(corrupt).putInt(9, -1);
+        assertDeserialiseFails(serialiser, corrupt);
+
+        corrupt = bytes.clone();
+        ByteBuffer.wrap(corrupt).putInt(0, 1000);
+        assertDeserialiseFails(serialiser, corrupt);
+
+        // Truncated
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertDeserialiseFails(serialiser, truncated);
+    }
+
+    private void assertDeserialiseFails(CachedPCSerialiser serialiser, byte[] bytes)
+    {
+        try
+        {
+            serialiser.deserialise(bytes);
+            fail("Expected deserialising corrupt bytes to fail");
+        }
+        catch (NucleusException ne)
+        {
+            // Expected
+        }
+    }
+}
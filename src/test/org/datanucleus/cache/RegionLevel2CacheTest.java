@@ -0,0 +1,152 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.cache;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Component tests for the RegionLevel2Cache class.
+ */
+public class RegionLevel2CacheTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public RegionLevel2CacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test that objects of each class are held in their own region, with independent size limit.
+     */
+    public void testRegionsPerClass()
+    {
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_L2_MAXSIZE, 50);
+        RegionLevel2Cache cache = new TestRegionLevel2Cache(nucCtx);
+        for (int i=0;i<20;i++)
+        {
+            cache.put("S" + i, new CachedPC(String.class, new boolean[] {true}, null));
+        }
+        for (int i=0;i<5000;i++)
+        {
+            cache.put(Integer.valueOf(i), new CachedPC(Integer.class, new boolean[] {true}, null));
+        }
+
+        // Churn of Integer objects doesn't evict the String objects
+        assertEquals(20, cache.getSize(String.class.getName()));
+        assertTrue(cache.getSize(Integer.class.getName()) <= 30);
+        assertTrue(cache.getSize() <= 50);
+        for (int i=0;i<20;i++)
+        {
+            assertNotNull(cache.get("S" + i));
+        }
+    }
+
+    /**
+     * Test that maxSize limits the total across regions, evicting from the largest region.
+     */
+    public void testTotalSizeLimit()
+    {
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_L2_MAXSIZE, 50);
+        RegionLevel2Cache cache = new TestRegionLevel2Cache(nucCtx);
+        for (int i=0;i<40;i++)
+        {
+            cache.put("S" + i, new CachedPC(String.class, new boolean[] {true}, null));
+        }
+        for (int i=0;i<40;i++)
+        {
+            cache.put(Integer.valueOf(i), new CachedPC(Integer.class, new boolean[] {true}, null));
+        }
+
+        assertEquals(50, cache.getSize());
+        assertTrue(Math.abs(cache.getSize(String.class.getName()) - cache.getSize(Integer.class.getName())) <= 1);
+
+        cache.evictAll(String.class, false);
+        for (int i=40;i<60;i++)
+        {
+            cache.put(Integer.valueOf(i), new CachedPC(Integer.class, new boolean[] {true}, null));
+        }
+        assertEquals(45, cache.getSize());
+    }
+
+    /**
+     * Test of eviction of objects of a class, optionally including subclasses.
+     */
+    public void testEvictAllForClass()
+    {
+        RegionLevel2Cache cache = new TestRegionLevel2Cache(nucCtx);
+        cache.put("A", new CachedPC(String.class, new boolean[] {true}, null));
+        cache.put("B", new CachedPC(Integer.class, new boolean[] {true}, null));
+        cache.put("C", new CachedPC(Long.class, new boolean[] {true}, null));
+        assertEquals(3, cache.getSize());
+
+        cache.evictAll(Number.class, false);
+        assertEquals(3, cache.getSize());
+
+        cache.evictAll(Long.class, false);
+        assertEquals(2, cache.getSize());
+        assertFalse(cache.containsOid("C"));
+
+        cache.evictAll(Number.class, true);
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.containsOid("A"));
+
+        // Object changing class moves region
+        cache.put("A", new CachedPC(Integer.class, new boolean[] {true}, null));
+        assertEquals(1, cache.getSize());
+        assertEquals(Integer.class, cache.get("A").getObjectClass());
+
+        cache.evict("A");
+        assertTrue(cache.isEmpty());
+    }
+
+    /**
+     * Region cache for use without an API (and hence without a MetaDataManager).
+     */
+    static class TestRegionLevel2Cache extends RegionLevel2Cache
+    {
+        public TestRegionLevel2Cache(NucleusContext nucCtx)
+        {
+            super(nucCtx);
+        }
+
+        protected AbstractClassMetaData getMetaDataForClass(Class cls)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.flush;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusOptimisticException;
+import org.datanucleus.management.FactoryStatistics;
+import org.datanucleus.management.ManagerStatistics;
+import org.datanucleus.management.StatisticsSnapshot;
+import org.datanucleus.state.ObjectProvider;
+import org.datanucleus.store.AbstractPersistenceHandler;
+import org.datanucleus.store.StoreManager;
+
+/**
+ * Tests for the flush of updated objects in batches.
+ */
+public class FlushHelperTest extends TestCase
+{
+    /** Record of the calls made, in order. */
+    List<String> calls = new ArrayList<String>();
+
+    FactoryStatistics factoryStatistics = new FactoryStatistics(null);
+
+    ManagerStatistics statistics = new ManagerStatistics(null, factoryStatistics);
+
+    public FlushHelperTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that updates of the same class with the same dirty fields are grouped, and the optimistic
+     * failure of one object in a batch doesn't stop the other objects completing their flush. The
+     * callbacks of all objects are run before any batch is written.
+     */
+    public void testFlushUpdatesGrouped()
+    {
+        RecordingPersistenceHandler handler = new RecordingPersistenceHandler();
+        Object failedObject = new StringBuffer("b");
+        handler.failedObject = failedObject;
+
+        List<ObjectProvider> ops = new ArrayList<ObjectProvider>();
+        ops.add(createObjectProvider(new StringBuffer("a"), new int[] {1, 2}));
+        ops.add(createObjectProvider(new StringBuilder("x"), new int[] {1, 2}));
+        ops.add(createObjectProvider(failedObject, new int[] {1, 2}));
+        ops.add(createObjectProvider(new StringBuffer("c"), new int[] {3}));
+        ops.add(createObjectProvider(new StringBuffer("d"), null));
+
+        List<NucleusOptimisticException> failures = FlushHelper.flushUpdatesGrouped(createExecutionContext(handler), ops, null);
+        assertEquals(1, failures.size());
+        assertEquals(Arrays.asList(new String[] {
+            "prepare a", "prepare x", "prepare b", "prepare c", "prepare d", "flush d",
+            "updateObjects [a, b] [1, 2]", "complete a true", "complete b false",
+            "updateObjects [x] [1, 2]", "complete x true",
+            "updateObjects [c] [3]", "complete c true"}), calls);
+    }
+
+    /**
+     * Test that only consecutive updates of the same class with the same dirty fields are batched, so that
+     * the order of the updates is maintained, and that a batch is written before the callbacks of an object
+     * that isn't in it.
+     */
+    public void testFlushUpdatesOrdered()
+    {
+        RecordingPersistenceHandler handler = new RecordingPersistenceHandler();
+        ObjectProvider[] ops = new ObjectProvider[] {
+            createObjectProvider(new StringBuffer("a"), new int[] {1}),
+            createObjectProvider(new StringBuffer("b"), new int[] {1}),
+            createObjectProvider(new StringBuffer("c"), null),
+            createObjectProvider(new StringBuffer("d"), new int[] {1}),
+            createObjectProvider(new StringBuffer("e"), new int[] {2})};
+
+        List<NucleusOptimisticException> failures = FlushHelper.flushUpdatesOrdered(createExecutionContext(handler), ops, null, null);
+        assertNull(failures);
+        assertEquals(Arrays.asList(new String[] {
+            "prepare a", "prepare b", "updateObjects [a, b] [1]", "complete a true", "complete b true",
+            "prepare c", "flush c",
+            "prepare d", "updateObjects [d] [1]", "complete d true",
+            "prepare e", "updateObjects [e] [2]", "complete e true"}), calls);
+
+        // Each batch is timed as one write, with the number of writes left to the datastore to count
+        assertEquals(3, statistics.getSnapshot().getLatency(StatisticsSnapshot.LATENCY_DATASTORE_WRITE).getCount());
+        assertEquals(3, factoryStatistics.getSnapshot().getLatency(StatisticsSnapshot.LATENCY_DATASTORE_WRITE).getCount());
+        assertEquals(0, statistics.getNumberOfDatastoreWrites());
+    }
+
+    /**
+     * Test that an object whose callbacks dirty other fields ends the batch after its callbacks.
+     */
+    public void testFlushUpdatesOrderedCallbackDirtiesFields()
+    {
+        RecordingPersistenceHandler handler = new RecordingPersistenceHandler();
+        ObjectProvider[] ops = new ObjectProvider[] {
+            createObjectProvider(new StringBuffer("a"), new int[] {1}),
+            createObjectProvider(new StringBuffer("b"), new int[] {1}, new int[] {1, 2}),
+            createObjectProvider(new StringBuffer("c"), new int[] {1, 2})};
+
+        List<NucleusOptimisticException> failures = FlushHelper.flushUpdatesOrdered(createExecutionContext(handler), ops, null, null);
+        assertNull(failures);
+        assertEquals(Arrays.asList(new String[] {
+            "prepare a", "prepare b", "updateObjects [a] [1]", "complete a true",
+            "prepare c", "updateObjects [b, c] [1, 2]", "complete b true", "complete c true"}), calls);
+    }
+
+    /**
+     * Test that only the classes of the objects updated successfully are recorded as flushed.
+     */
+    public void testFlushUpdatesOrderedFlushedClasses()
+    {
+        RecordingPersistenceHandler handler = new RecordingPersistenceHandler();
+        Object failedObject = new StringBuilder("b");
+        handler.failedObject = failedObject;
+        ObjectProvider[] ops = new ObjectProvider[] {
+            createObjectProvider(new StringBuffer("a"), new int[] {1}),
+            createObjectProvider(failedObject, new int[] {1})};
+
+        Set<Class> flushedClasses = new HashSet<Class>();
+        List<NucleusOptimisticException> failures =
+            FlushHelper.flushUpdatesOrdered(createExecutionContext(handler), ops, null, flushedClasses);
+        assertEquals(1, failures.size());
+        assertEquals(Collections.singleton(StringBuffer.class), flushedClasses);
+    }
+
+    private ObjectProvider createObjectProvider(Object obj, int[] dirtyFieldNumbers)
+    {
+        return createObjectProvider(obj, dirtyFieldNumbers, dirtyFieldNumbers);
+    }
+
+    /**
+     * Create an ObjectProvider with the specified dirty fields, and dirty fields after its callbacks.
+     */
+    private ObjectProvider createObjectProvider(final Object obj, final int[] dirtyFieldNumbers,
+        final int[] preparedFieldNumbers)
+    {
+        return (ObjectProvider)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ObjectProvider.class},
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("getObject"))
+                    {
+                        return obj;
+                    }
+                    else if (name.equals("getDirtyFieldNumbers"))
+                    {
+                        return dirtyFieldNumbers;
+                    }
+                    else if (name.equals("prepareFlushUpdate"))
+                    {
+                        calls.add("prepare " + obj);
+                        return preparedFieldNumbers;
+                    }
+                    else if (name.equals("completeFlushUpdate"))
+                    {
+                        calls.add("complete " + obj + " " + args[0]);
+                    }
+                    else if (name.equals("flush"))
+                    {
+                        calls.add("flush " + obj);
+                    }
+                    else if (name.equals("toString"))
+                    {
+                        return obj.toString();
+                    }
+                    else if (name.equals("hashCode"))
+                    {
+                        return Integer.valueOf(System.identityHashCode(proxy));
+                    }
+                    else if (name.equals("equals"))
+                    {
+                        return Boolean.valueOf(proxy == args[0]);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private ExecutionContext createExecutionContext(final RecordingPersistenceHandler handler)
+    {
+        final StoreManager storeMgr = (StoreManager)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {StoreManager.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getPersistenceHandler"))
+                    {
+                        return handler;
+                    }
+                    else if (method.getName().equals("getSupportedOptions"))
+                    {
+                        return Collections.singleton(FlushHelper.OPTION_BULK_UPDATE);
+                    }
+                    return null;
+                }
+            });
+        return (ExecutionContext)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {ExecutionContext.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getStatistics"))
+                    {
+                        return statistics;
+                    }
+                    return method.getName().equals("getStoreManager") ? storeMgr : null;
+                }
+            });
+    }
+
+    /**
+     * Persistence handler that records the bulk updates, failing the optimistic check of one object.
+     */
+    private class RecordingPersistenceHandler extends AbstractPersistenceHandler
+    {
+        Object failedObject;
+
+        RecordingPersistenceHandler()
+        {
+            super(null);
+        }
+
+        public void updateObjects(ObjectProvider[] ops, int[] fieldNumbers)
+        {
+            calls.add("updateObjects " + Arrays.toString(ops) + " " + Arrays.toString(fieldNumbers));
+            super.updateObjects(ops, fieldNumbers);
+        }
+
+        public void updateObject(ObjectProvider op, int[] fieldNumbers)
+        {
+            if (op.getObject() == failedObject)
+            {
+                throw new NucleusOptimisticException("Optimistic failure", op.getObject());
+            }
+        }
+
+        public void close()
+        {
+        }
+
+        public void insertObject(ObjectProvider op)
+        {
+        }
+
+        public void deleteObject(ObjectProvider op)
+        {
+        }
+
+        public void fetchObject(ObjectProvider op, int[] fieldNumbers)
+        {
+        }
+
+        public void locateObject(ObjectProvider op)
+        {
+        }
+
+        public Object findObject(ExecutionContext ec, Object id)
+        {
+            return null;
+        }
+    }
+}
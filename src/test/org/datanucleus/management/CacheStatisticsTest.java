@@ -0,0 +1,140 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Tests for the statistics of caches.
+ */
+public class CacheStatisticsTest extends TestCase
+{
+    public CacheStatisticsTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test the counts, hit ratio and breakdown by key.
+     */
+    public void testCounts()
+    {
+        CacheStatistics stats = new CacheStatistics(null, CacheStatistics.LEVEL2);
+        assertEquals(0.0, stats.getHitRatio(), 0.0);
+        assertEquals(-1, stats.getSize());
+
+        stats.miss("mydomain.A");
+        stats.put("mydomain.A");
+        stats.hit("mydomain.A");
+        stats.hit("mydomain.A");
+        stats.hit("mydomain.B");
+        stats.evict("mydomain.A", 1);
+        stats.evict(null, 3);
+        stats.evictRequested("mydomain.B", 2);
+        stats.setSizeSource(new CacheStatistics.SizeSource()
+        {
+            public int getSize()
+            {
+                return 5;
+            }
+        });
+
+        assertEquals(3, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getPutCount());
+        assertEquals(4, stats.getEvictionCount());
+        assertEquals(2, stats.getEvictionRequestCount());
+        assertEquals(0.75, stats.getHitRatio(), 0.0001);
+        assertEquals(5, stats.getSize());
+        assertEquals(Long.valueOf(2), stats.getHitCountsByKey().get("mydomain.A"));
+        assertEquals(Long.valueOf(1), stats.getHitCountsByKey().get("mydomain.B"));
+        assertEquals(Long.valueOf(1), stats.getEvictionCountsByKey().get("mydomain.A"));
+        assertEquals(Long.valueOf(2), stats.getEvictionRequestCountsByKey().get("mydomain.B"));
+        assertEquals(Long.valueOf(0), stats.getEvictionCountsByKey().get("mydomain.B"));
+        assertEquals(2, stats.getStatisticsByKey().size());
+    }
+
+    /**
+     * Test that the (striped) counts of a key updated by many threads at once don't lose updates.
+     */
+    public void testConcurrentKeyCounts() throws Exception
+    {
+        final CacheStatistics stats = new CacheStatistics(null, CacheStatistics.LEVEL2);
+        Thread[] threads = new Thread[8];
+        for (int i=0;i<threads.length;i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for (int j=0;j<10000;j++)
+                    {
+                        stats.hit("mydomain.A");
+                        stats.evict("mydomain.A", 2);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i=0;i<threads.length;i++)
+        {
+            threads[i].join();
+        }
+
+        CacheStatistics.KeyStatistics keyStats = stats.getStatisticsByKey().get("mydomain.A");
+        assertEquals(80000, keyStats.getHitCount());
+        assertEquals(160000, keyStats.getEvictionCount());
+        assertEquals(0, keyStats.getMissCount());
+        assertEquals(80000, stats.getHitCount());
+    }
+
+    /**
+     * Test that the context only provides the statistics of caches when statistics are enabled.
+     */
+    public void testContextCacheStatistics()
+    {
+        assertNull(createContext(false).getCacheStatistics(CacheStatistics.LEVEL2));
+
+        PersistenceNucleusContextImpl nucCtx = createContext(true);
+        CacheStatistics l2Stats = nucCtx.getCacheStatistics(CacheStatistics.LEVEL2);
+        assertNotNull(l2Stats);
+        assertSame(l2Stats, nucCtx.getCacheStatistics(CacheStatistics.LEVEL2));
+        assertEquals(CacheStatistics.LEVEL2, l2Stats.getCacheName());
+        assertNotSame(l2Stats, nucCtx.getCacheStatistics(CacheStatistics.LEVEL1));
+    }
+
+    private PersistenceNucleusContextImpl createContext(boolean statistics)
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        Map<String, Object> ctxProps = new HashMap<String, Object>();
+        ctxProps.put(PropertyNames.PROPERTY_ENABLE_STATISTICS, String.valueOf(statistics));
+        return new PersistenceNucleusContextImpl(null, ctxProps, pluginMgr);
+    }
+}
@@ -0,0 +1,96 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.management;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the counters and histograms of the statistics.
+ */
+public class StatisticsTest extends TestCase
+{
+    public StatisticsTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test the percentiles of a histogram, reported as the upper bound of the bucket.
+     */
+    public void testHistogramPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        assertEquals(-1, histogram.getSnapshot().getPercentile(0.5));
+        for (int i=1;i<=100;i++)
+        {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getTotal());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50, snapshot.getMean());
+        assertEquals(63, snapshot.getPercentile(0.50));
+        assertEquals(100, snapshot.getPercentile(0.95));
+        assertEquals(0, LatencyHistogram.getBucket(0));
+        assertEquals(1, LatencyHistogram.getBucket(1));
+        assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    /**
+     * Test that updates of factory statistics from many threads, via the manager statistics, are not lost.
+     */
+    public void testConcurrentUpdates() throws Exception
+    {
+        final FactoryStatistics factoryStats = new FactoryStatistics(null);
+        Thread[] threads = new Thread[8];
+        for (int i=0;i<threads.length;i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    ManagerStatistics managerStats = new ManagerStatistics(null, factoryStats);
+                    for (int j=0;j<1000;j++)
+                    {
+                        managerStats.incrementNumReads();
+                        managerStats.queryBegin();
+                        managerStats.queryExecuted(j % 10);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i=0;i<threads.length;i++)
+        {
+            threads[i].join();
+        }
+
+        assertEquals(8000, factoryStats.getNumberOfDatastoreReads());
+        assertEquals(8000, factoryStats.getQueryExecutionTotalCount());
+        assertEquals(0, factoryStats.getQueryActiveTotalCount());
+        assertEquals(9, factoryStats.getQueryExecutionTimeHigh());
+        assertEquals(0, factoryStats.getQueryExecutionTimeLow());
+
+        StatisticsSnapshot snapshot = factoryStats.getSnapshot();
+        assertEquals(Long.valueOf(8000), snapshot.getCounter("NumberOfDatastoreReads"));
+        assertEquals(36000, snapshot.getLatency(StatisticsSnapshot.LATENCY_QUERY).getTotal());
+    }
+}
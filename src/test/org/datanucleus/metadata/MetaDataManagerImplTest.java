@@ -0,0 +1,547 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.metadata;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Component tests for the MetaDataManagerImpl class.
+ */
+public class MetaDataManagerImplTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public MetaDataManagerImplTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test that lookups of initialised metadata from many threads don't need the lock used for loading.
+     */
+    public void testLookupOfInitialisedMetaDataDoesntLock() throws Exception
+    {
+        final TestMetaDataManager mmgr = new TestMetaDataManager(nucCtx);
+        PackageMetaData pmd = new FileMetaData().newPackageMetadata(Person.class.getPackage().getName());
+        ClassMetaData cmd = pmd.newClassMetadata(Person.class.getName().substring(Person.class.getPackage().getName().length()+1));
+        cmd.setInitialised();
+        mmgr.registerMetaDataForClass(Person.class.getName(), cmd);
+
+        // First lookup completes the load, publishing the metadata for lookups without locking
+        assertSame(cmd, mmgr.getMetaDataForClass(Person.class, null));
+
+        final int numThreads = 32;
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        final AtomicInteger found = new AtomicInteger();
+        synchronized (mmgr)
+        {
+            // Hold the loading lock while the threads look up the metadata
+            for (int i=0;i<numThreads;i++)
+            {
+                Thread thread = new Thread()
+                {
+                    public void run()
+                    {
+                        for (int j=0;j<10000;j++)
+                        {
+                            if (mmgr.getMetaDataForClass(Person.class, null) != null &&
+                                mmgr.getMetaDataForClass(Person.class.getName(), null) != null)
+                            {
+                                found.incrementAndGet();
+                            }
+                        }
+                        done.countDown();
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        }
+        assertEquals(numThreads * 10000, found.get());
+        assertEquals(1, mmgr.numInternalLookups.get());
+    }
+
+    /**
+     * Test that metadata being loaded isn't returned to another thread until it is registered in the
+     * subclass and object-id lookups.
+     */
+    public void testLookupDuringLoadWaitsForRegistration() throws Exception
+    {
+        String packageName = Person.class.getPackage().getName();
+        PackageMetaData pmd = new FileMetaData().newPackageMetadata(packageName);
+        ClassMetaData personCmd = pmd.newClassMetadata(Person.class.getName().substring(packageName.length()+1));
+        final ClassMetaData employeeCmd = pmd.newClassMetadata(Employee.class.getName().substring(packageName.length()+1));
+        employeeCmd.setIdentityType(IdentityType.APPLICATION);
+        employeeCmd.setObjectIdClass("PersonId");
+
+        final AtomicReference<AbstractClassMetaData> lookedUp = new AtomicReference<AbstractClassMetaData>();
+        final Thread[] lookupThread = new Thread[1];
+        final TestMetaDataManager mmgr = new TestMetaDataManager(nucCtx)
+        {
+            protected void initialiseAbstractClassMetaData(AbstractClassMetaData cmd, ClassLoaderResolver clr)
+            {
+                if (cmd == employeeCmd && !cmd.isInitialised())
+                {
+                    // Look up the class from another thread once initialised, but before it is registered
+                    cmd.setInitialised();
+                    lookupThread[0] = new Thread()
+                    {
+                        public void run()
+                        {
+                            lookedUp.set(getMetaDataForClass(Employee.class, null));
+                        }
+                    };
+                    lookupThread[0].setDaemon(true);
+                    lookupThread[0].start();
+                    while (lookupThread[0].getState() != Thread.State.BLOCKED && lookupThread[0].isAlive())
+                    {
+                        Thread.yield();
+                    }
+                    assertNull(lookedUp.get());
+                    abstractClassMetaDataInitialised(cmd);
+                }
+                super.initialiseAbstractClassMetaData(cmd, clr);
+            }
+        };
+        mmgr.registerMetaDataForClass(Person.class.getName(), personCmd);
+        mmgr.registerMetaDataForClass(Employee.class.getName(), employeeCmd);
+
+        assertSame(employeeCmd, mmgr.getMetaDataForClass(Employee.class, nucCtx.getClassLoaderResolver(null)));
+        lookupThread[0].join(30000);
+        assertFalse(lookupThread[0].isAlive());
+        assertSame(employeeCmd, lookedUp.get());
+        assertEquals(Arrays.asList(Employee.class.getName()), Arrays.asList(mmgr.getSubclassesForClass(Person.class.getName(), false)));
+        assertEquals(Collections.singletonList(employeeCmd), new ArrayList(mmgr.getClassMetaDataWithApplicationId("PersonId")));
+    }
+
+    /**
+     * Test that metadata that isn't yet initialised is loaded via the manager.
+     */
+    public void testLookupOfUninitialisedMetaData()
+    {
+        TestMetaDataManager mmgr = new TestMetaDataManager(nucCtx);
+        assertNull(mmgr.getMetaDataForClass(Person.class, null));
+        assertEquals(1, mmgr.numInternalLookups.get());
+
+        // Class then known to have no metadata
+        assertNull(mmgr.getMetaDataForClass(Person.class, null));
+        assertEquals(1, mmgr.numInternalLookups.get());
+    }
+
+    /**
+     * Test that with lazy initialisation classes are only initialised on first use, and that subclass
+     * lookups initialise the subclasses of the class.
+     */
+    public void testLazyInitialisation()
+    {
+        TestMetaDataManager mmgr = new TestMetaDataManager(nucCtx);
+        String packageName = Person.class.getPackage().getName();
+        FileMetaData filemd = new FileMetaData();
+        PackageMetaData pmd = filemd.newPackageMetadata(packageName);
+        ClassMetaData personCmd = pmd.newClassMetadata(Person.class.getName().substring(packageName.length()+1));
+        ClassMetaData employeeCmd = pmd.newClassMetadata(Employee.class.getName().substring(packageName.length()+1));
+        ClassMetaData addressCmd = pmd.newClassMetadata(Address.class.getName().substring(packageName.length()+1));
+        mmgr.registerMetaDataForClass(Person.class.getName(), personCmd);
+        mmgr.registerMetaDataForClass(Employee.class.getName(), employeeCmd);
+        mmgr.registerMetaDataForClass(Address.class.getName(), addressCmd);
+
+        mmgr.registerUninitialisedFileMetaData(Collections.singletonList(filemd), nucCtx.getClassLoaderResolver(null));
+        assertFalse(personCmd.isInitialised());
+        assertFalse(employeeCmd.isInitialised());
+        assertFalse(addressCmd.isInitialised());
+
+        assertSame(addressCmd, mmgr.getMetaDataForClass(Address.class, nucCtx.getClassLoaderResolver(null)));
+        assertTrue(addressCmd.isInitialised());
+        assertFalse(personCmd.isInitialised());
+
+        // Looking up the subclasses initialises the class hierarchy, but nothing else
+        assertEquals(Arrays.asList(Employee.class.getName()), Arrays.asList(mmgr.getSubclassesForClass(Person.class.getName(), true)));
+        assertTrue(personCmd.isInitialised());
+        assertTrue(employeeCmd.isInitialised());
+        assertTrue(mmgr.uninitialisedClassNames.isEmpty());
+    }
+
+    /**
+     * Test that lookups needing lazily initialised classes only initialise those that could match.
+     */
+    public void testLazyInitialisationLookups()
+    {
+        TestMetaDataManager mmgr = new TestMetaDataManager(nucCtx);
+        String packageName = Person.class.getPackage().getName();
+        FileMetaData filemd = new FileMetaData();
+        PackageMetaData pmd = filemd.newPackageMetadata(packageName);
+        ClassMetaData personCmd = pmd.newClassMetadata(Person.class.getName().substring(packageName.length()+1));
+        ClassMetaData employeeCmd = pmd.newClassMetadata(Employee.class.getName().substring(packageName.length()+1));
+        ClassMetaData addressCmd = pmd.newClassMetadata(Address.class.getName().substring(packageName.length()+1));
+        personCmd.setObjectIdClass("PersonId");
+        employeeCmd.setObjectIdClass("PersonId");
+        addressCmd.setObjectIdClass("AddressId");
+        mmgr.registerMetaDataForClass(Person.class.getName(), personCmd);
+        mmgr.registerMetaDataForClass(Employee.class.getName(), employeeCmd);
+        mmgr.registerMetaDataForClass(Address.class.getName(), addressCmd);
+        mmgr.registerUninitialisedFileMetaData(Collections.singletonList(filemd), nucCtx.getClassLoaderResolver(null));
+
+        // Only classes using the object-id class are initialised
+        mmgr.getClassMetaDataWithApplicationId("AddressId");
+        assertTrue(addressCmd.isInitialised());
+        assertFalse(personCmd.isInitialised());
+        assertFalse(employeeCmd.isInitialised());
+
+        // Only the class and its subclasses are initialised, with the classes indexed by superclass on first use
+        assertNull(mmgr.getSubclassesForClass(Address.class.getName(), true));
+        assertFalse(personCmd.isInitialised());
+        assertFalse(employeeCmd.isInitialised());
+        assertTrue(mmgr.unindexedUninitialisedClassNames.isEmpty());
+        assertTrue(mmgr.uninitialisedClassNamesBySuperclass.get(Person.class.getName()).contains(Employee.class.getName()));
+        assertNull(mmgr.uninitialisedClassNamesBySuperclass.get(Address.class.getName()));
+
+        assertEquals(Arrays.asList(Employee.class.getName()), Arrays.asList(mmgr.getSubclassesForClass(Person.class.getName(), true)));
+        assertTrue(personCmd.isInitialised());
+        assertTrue(employeeCmd.isInitialised());
+        assertTrue(mmgr.uninitialisedClassNames.isEmpty());
+    }
+
+    /**
+     * Test that loading a persistence-unit with many mapping files in parallel gives the same metadata,
+     * in the same order, as loading it sequentially.
+     */
+    public void testParallelLoadMatchesSequential() throws Exception
+    {
+        checkParallelLoadMatchesSequential(false);
+    }
+
+    /**
+     * Test that loading a persistence-unit with many XML mapping files in parallel, using the MetaDataParser
+     * of the manager from many threads at once, gives the same metadata as loading it sequentially.
+     */
+    public void testParallelLoadOfXMLMatchesSequential() throws Exception
+    {
+        checkParallelLoadMatchesSequential(true);
+    }
+
+    private void checkParallelLoadMatchesSequential(boolean xml) throws Exception
+    {
+        File dir = File.createTempFile("mappings", "");
+        dir.delete();
+        dir.mkdir();
+        String[] classNames = new String[] {Person.class.getName(), Employee.class.getName(), Address.class.getName()};
+        PersistenceUnitMetaData pumd = new PersistenceUnitMetaData("test", "RESOURCE_LOCAL", null);
+        for (int i=0;i<12;i++)
+        {
+            File file = new File(dir, "mapping" + i + (xml ? ".xml" : ".txt"));
+            FileWriter writer = new FileWriter(file);
+            if (xml)
+            {
+                // Mapping file in the only XML format known to core, with the class as that of its unit
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<persistence xmlns=\"http://java.sun.com/xml/ns/persistence\"" +
+                    " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+                    " xsi:schemaLocation=\"http://java.sun.com/xml/ns/persistence" +
+                    " http://java.sun.com/xml/ns/persistence/persistence_1_0.xsd\" version=\"1.0\">\n" +
+                    "    <persistence-unit name=\"unit" + i + "\">\n" +
+                    "        <class>" + classNames[i % classNames.length] + "</class>\n" +
+                    "    </persistence-unit>\n" +
+                    "</persistence>\n");
+            }
+            else
+            {
+                writer.write(classNames[i % classNames.length]);
+            }
+            writer.close();
+            pumd.addMappingFile(file.getName());
+        }
+
+        // Context with a (nominal) API, since the mapping files found depend on it
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        NucleusContext apiCtx = new PersistenceNucleusContextImpl(null, null,
+            new PluginManager(null, new ClassLoaderResolverImpl(), props))
+        {
+            public String getApiName()
+            {
+                return "Test";
+            }
+        };
+
+        ClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader());
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(loader);
+        try
+        {
+            MappingFileMetaDataManager sequentialMgr =
+                (xml ? new XMLMappingFileMetaDataManager(apiCtx) : new MappingFileMetaDataManager(apiCtx));
+            List<String> sequential = describe(sequentialMgr.loadPersistenceUnit(pumd, loader));
+            assertEquals(12, sequential.size());
+            assertEquals(Collections.singleton(Thread.currentThread()), sequentialMgr.parseThreads);
+
+            MappingFileMetaDataManager parallelMgr =
+                (xml ? new XMLMappingFileMetaDataManager(apiCtx) : new MappingFileMetaDataManager(apiCtx));
+            parallelMgr.parallelLoad = true;
+            assertEquals(sequential, describe(parallelMgr.loadPersistenceUnit(pumd, loader)));
+            assertFalse(parallelMgr.parseThreads.contains(Thread.currentThread()));
+            assertTrue(parallelMgr.parseThreads.size() > 1);
+            for (Thread thread : parallelMgr.parseThreads)
+            {
+                assertTrue(thread.isDaemon());
+                assertTrue(thread.getName().startsWith("DataNucleus-MetaDataLoad-"));
+            }
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(contextLoader);
+            for (File file : dir.listFiles())
+            {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Test that the settings checked when using a metadata snapshot change with the settings of the manager
+     * and the persistence-unit properties, and when a default "META-INF/orm.xml" is added for JPA.
+     */
+    public void testMetaDataSnapshotSettings() throws Exception
+    {
+        File dir = File.createTempFile("mappings", "");
+        dir.delete();
+        File metaInfDir = new File(dir, "META-INF");
+        metaInfDir.mkdirs();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        NucleusContext jpaCtx = new PersistenceNucleusContextImpl(null, null,
+            new PluginManager(null, new ClassLoaderResolverImpl(), props))
+        {
+            public String getApiName()
+            {
+                return "JPA";
+            }
+        };
+        PersistenceUnitMetaData pumd = new PersistenceUnitMetaData("test", "RESOURCE_LOCAL", null);
+
+        ClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, getClass().getClassLoader());
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(loader);
+        File ormFile = new File(metaInfDir, "orm.xml");
+        try
+        {
+            TestMetaDataManager mmgr = new TestMetaDataManager(jpaCtx);
+            ClassLoaderResolver clr = jpaCtx.getClassLoaderResolver(loader);
+            List<String> settings = mmgr.getMetaDataSnapshotSettings(pumd, clr);
+            assertTrue(settings.contains("api:JPA"));
+            assertEquals(settings, mmgr.getMetaDataSnapshotSettings(pumd, clr));
+
+            FileWriter writer = new FileWriter(ormFile);
+            writer.write("<entity-mappings/>");
+            writer.close();
+            List<String> ormSettings = mmgr.getMetaDataSnapshotSettings(pumd, clr);
+            assertFalse(settings.equals(ormSettings));
+            assertTrue(ormSettings.contains("default-mapping-file:" + ormFile.toURI().toURL()));
+
+            mmgr.setAllowAnnotations(false);
+            assertFalse(ormSettings.equals(mmgr.getMetaDataSnapshotSettings(pumd, clr)));
+            mmgr.setAllowAnnotations(true);
+
+            pumd.addProperty("datanucleus.metadata.allowXML", "false");
+            assertFalse(ormSettings.equals(mmgr.getMetaDataSnapshotSettings(pumd, clr)));
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(contextLoader);
+            ormFile.delete();
+            metaInfDir.delete();
+            dir.delete();
+        }
+    }
+
+    private static List<String> describe(FileMetaData[] filemds)
+    {
+        List<String> descriptions = new ArrayList<String>();
+        for (int i=0;i<filemds.length;i++)
+        {
+            ClassMetaData cmd = filemds[i].getPackage(0).getClass(0);
+            descriptions.add(filemds[i].getFilename() + " " + cmd.getFullClassName() + " " + cmd.isInitialised());
+        }
+        return descriptions;
+    }
+
+    public static class Person
+    {
+    }
+
+    public static class Employee extends Person
+    {
+    }
+
+    public static class Address
+    {
+    }
+
+    /**
+     * MetaDataManager whose mapping files each contain the name of one class, recording the threads parsing them.
+     */
+    static class MappingFileMetaDataManager extends TestMetaDataManager
+    {
+        Set<Thread> parseThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+        public MappingFileMetaDataManager(NucleusContext ctx)
+        {
+            super(ctx);
+        }
+
+        protected int getNumberOfLoadThreads()
+        {
+            return 4;
+        }
+
+        protected FileMetaData parseFile(URL file_url)
+        {
+            parseThreads.add(Thread.currentThread());
+            String className = readClassName(file_url);
+
+            FileMetaData filemd = new FileMetaData();
+            filemd.setFilename(file_url.toString());
+            String packageName = className.substring(0, className.lastIndexOf('.'));
+            filemd.newPackageMetadata(packageName).newClassMetadata(className.substring(packageName.length()+1));
+            return filemd;
+        }
+
+        protected String readClassName(URL file_url)
+        {
+            try
+            {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(file_url.openStream()));
+                String className = reader.readLine();
+                reader.close();
+                return className;
+            }
+            catch (IOException ioe)
+            {
+                throw new NucleusException("Error reading " + file_url, ioe);
+            }
+        }
+    }
+
+    /**
+     * MetaDataManager whose mapping files are "persistence.xml" files, parsed with its MetaDataParser, each
+     * having a unit with the name of one class.
+     */
+    static class XMLMappingFileMetaDataManager extends MappingFileMetaDataManager
+    {
+        public XMLMappingFileMetaDataManager(NucleusContext ctx)
+        {
+            super(ctx);
+        }
+
+        protected String readClassName(URL file_url)
+        {
+            PersistenceFileMetaData permd = (PersistenceFileMetaData)getMetaDataParser().parseMetaDataURL(file_url, "persistence");
+            return permd.getPersistenceUnits()[0].getClassNames().iterator().next();
+        }
+    }
+
+    /**
+     * MetaDataManager that only has the metadata registered with it.
+     */
+    static class TestMetaDataManager extends MetaDataManagerImpl
+    {
+        AtomicInteger numInternalLookups = new AtomicInteger();
+
+        public TestMetaDataManager(NucleusContext ctx)
+        {
+            super(ctx);
+        }
+
+        public AbstractClassMetaData getMetaDataForClassInternal(Class c, ClassLoaderResolver clr)
+        {
+            numInternalLookups.incrementAndGet();
+            return classMetaDataByClass.get(c.getName());
+        }
+
+        protected FileMetaData parseFile(URL file_url)
+        {
+            return null;
+        }
+
+        public void registerFile(String fileURLString, FileMetaData filemd, ClassLoaderResolver clr)
+        {
+        }
+
+        protected void populateAbstractClassMetaData(AbstractClassMetaData cmd, ClassLoaderResolver clr, ClassLoader loader)
+        {
+            if (!cmd.isPopulated())
+            {
+                // Only set the persistable superclass, as this manager has no API to populate with
+                Class superclass = clr.classForName(cmd.getFullClassName()).getSuperclass();
+                AbstractClassMetaData superCmd = classMetaDataByClass.get(superclass.getName());
+                if (superCmd != null)
+                {
+                    populateAbstractClassMetaData(superCmd, clr, loader);
+                    cmd.persistableSuperclass = superclass.getName();
+                    cmd.pcSuperclassMetaData = superCmd;
+                }
+                cmd.setPopulated();
+            }
+        }
+
+        protected void initialiseAbstractClassMetaData(AbstractClassMetaData cmd, ClassLoaderResolver clr)
+        {
+            if (!cmd.isInitialised())
+            {
+                cmd.setInitialised();
+                abstractClassMetaDataInitialised(cmd);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+
+/**
+ * Component tests for the MetaDataSnapshot class.
+ */
+public class MetaDataSnapshotTest extends TestCase
+{
+    private static final List<String> SETTINGS = Arrays.asList("api:JDO", "allow-xml:true", "allow-annotations:true");
+
+    public MetaDataSnapshotTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that a snapshot is restored only for the same persistence-unit and while its sources are unchanged.
+     */
+    public void testWriteAndRead() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        File snapshotFile = File.createTempFile("snapshot", ".bin");
+        File xmlFile = File.createTempFile("package", ".jdo");
+        try
+        {
+            writeFile(xmlFile, "<jdo/>");
+            String packageName = Person.class.getPackage().getName();
+            FileMetaData filemd = new FileMetaData();
+            filemd.setFilename(xmlFile.toURI().toURL().toString());
+            PackageMetaData pmd = filemd.newPackageMetadata(packageName);
+            ClassMetaData cmd = pmd.newClassMetadata(Person.class.getName().substring(packageName.length()+1));
+            cmd.setInitialised();
+            Map<String, FileMetaData> filemds = new HashMap<String, FileMetaData>();
+            filemds.put(filemd.getFilename(), filemd);
+
+            PersistenceUnitMetaData pumd = createUnit("myUnit");
+            MetaDataSnapshot.write(snapshotFile, pumd, SETTINGS, filemds, clr);
+
+            Map<String, FileMetaData> restored = MetaDataSnapshot.read(snapshotFile, createUnit("myUnit"), SETTINGS, clr);
+            assertNotNull(restored);
+            FileMetaData restoredFilemd = restored.get(filemd.getFilename());
+            assertNotNull(restoredFilemd);
+            AbstractClassMetaData restoredCmd = restoredFilemd.getPackage(0).getClass(0);
+            assertEquals(Person.class.getName(), restoredCmd.getFullClassName());
+            assertTrue(restoredCmd.isInitialised());
+            assertSame(restoredFilemd, restoredCmd.getPackageMetaData().getFileMetaData());
+
+            assertNull(MetaDataSnapshot.read(snapshotFile, createUnit("otherUnit"), SETTINGS, clr));
+
+            // Changing a metadata file makes the snapshot out of date
+            writeFile(xmlFile, "<jdo></jdo>");
+            assertNull(MetaDataSnapshot.read(snapshotFile, createUnit("myUnit"), SETTINGS, clr));
+        }
+        finally
+        {
+            snapshotFile.delete();
+            xmlFile.delete();
+        }
+    }
+
+    /**
+     * Test that a snapshot is not used when the classes, mapping files or jar files of the persistence-unit change.
+     */
+    public void testUnitDefinitionChanged() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        File snapshotFile = File.createTempFile("snapshot", ".bin");
+        try
+        {
+            Map<String, FileMetaData> filemds = new HashMap<String, FileMetaData>();
+            MetaDataSnapshot.write(snapshotFile, createUnit("myUnit"), SETTINGS, filemds, clr);
+            assertNotNull(MetaDataSnapshot.read(snapshotFile, createUnit("myUnit"), SETTINGS, clr));
+
+            PersistenceUnitMetaData pumd = createUnit("myUnit");
+            pumd.addClassName(Address.class.getName());
+            assertNull(MetaDataSnapshot.read(snapshotFile, pumd, SETTINGS, clr));
+
+            pumd = createUnit("myUnit");
+            pumd.addMappingFile("META-INF/other.xml");
+            assertNull(MetaDataSnapshot.read(snapshotFile, pumd, SETTINGS, clr));
+
+            pumd = createUnit("myUnit");
+            pumd.addJarFile("other.jar");
+            assertNull(MetaDataSnapshot.read(snapshotFile, pumd, SETTINGS, clr));
+
+            pumd = createUnit("myUnit");
+            pumd.setExcludeUnlistedClasses();
+            assertNull(MetaDataSnapshot.read(snapshotFile, pumd, SETTINGS, clr));
+        }
+        finally
+        {
+            snapshotFile.delete();
+        }
+    }
+
+    /**
+     * Test that a snapshot is not used when the metadata is to be loaded with different settings.
+     */
+    public void testSettingsChanged() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        File snapshotFile = File.createTempFile("snapshot", ".bin");
+        try
+        {
+            Map<String, FileMetaData> filemds = new HashMap<String, FileMetaData>();
+            MetaDataSnapshot.write(snapshotFile, createUnit("myUnit"), SETTINGS, filemds, clr);
+            assertNotNull(MetaDataSnapshot.read(snapshotFile, createUnit("myUnit"), new ArrayList<String>(SETTINGS), clr));
+
+            assertNull(MetaDataSnapshot.read(snapshotFile, createUnit("myUnit"),
+                Arrays.asList("api:JDO", "allow-xml:false", "allow-annotations:true"), clr));
+            assertNull(MetaDataSnapshot.read(snapshotFile, createUnit("myUnit"),
+                Arrays.asList("api:JDO", "allow-xml:true", "allow-annotations:true", "default-mapping-file:file:/orm.xml"), clr));
+        }
+        finally
+        {
+            snapshotFile.delete();
+        }
+    }
+
+    /**
+     * Test that the field or method represented by member metadata is restored.
+     */
+    public void testMemberRestored() throws Exception
+    {
+        String packageName = Person.class.getPackage().getName();
+        ClassMetaData cmd = new FileMetaData().newPackageMetadata(packageName).newClassMetadata(
+            Person.class.getName().substring(packageName.length()+1));
+        FieldMetaData fmd = new FieldMetaData(cmd, "name");
+        fmd.memberRepresented = Person.class.getDeclaredField("name");
+        fmd.setPopulated();
+        cmd.addMember(fmd);
+        FieldMetaData transientFmd = new FieldMetaData(cmd, "age");
+        transientFmd.memberRepresented = Person.class.getDeclaredField("age");
+        transientFmd.setPopulated();
+        cmd.addMember(transientFmd);
+        PropertyMetaData pmd = new PropertyMetaData(cmd, "nickname");
+        pmd.memberRepresented = Person.class.getDeclaredMethod("getNickname");
+        pmd.setPopulated();
+        cmd.addMember(pmd);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cmd);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ClassMetaData restoredCmd = (ClassMetaData)in.readObject();
+        in.close();
+
+        AbstractMemberMetaData restoredFmd = restoredCmd.getMetaDataForMember("name");
+        assertEquals(Person.class.getDeclaredField("name"), restoredFmd.memberRepresented);
+        assertFalse(restoredFmd.isTransient());
+        assertTrue(restoredFmd.isFinal());
+        assertTrue(restoredCmd.getMetaDataForMember("age").isTransient());
+        AbstractMemberMetaData restoredPmd = restoredCmd.getMetaDataForMember("nickname");
+        assertEquals(Person.class.getDeclaredMethod("getNickname"), restoredPmd.memberRepresented);
+        assertFalse(restoredPmd.isStatic());
+    }
+
+    private PersistenceUnitMetaData createUnit(String name)
+    {
+        PersistenceUnitMetaData pumd = new PersistenceUnitMetaData(name, "RESOURCE_LOCAL", null);
+        pumd.addClassName(Person.class.getName());
+        pumd.addMappingFile("META-INF/orm.xml");
+        return pumd;
+    }
+
+    private void writeFile(File file, String contents) throws IOException
+    {
+        FileWriter writer = new FileWriter(file);
+        try
+        {
+            writer.write(contents);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    public static class Person
+    {
+        final String name = "Fred";
+        transient int age;
+
+        public String getNickname()
+        {
+            return null;
+        }
+    }
+
+    public static class Address
+    {
+    }
+}
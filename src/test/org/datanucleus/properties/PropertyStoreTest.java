@@ -0,0 +1,75 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the lookup of properties in a PropertyStore using PropertyHandles.
+ */
+public class PropertyStoreTest extends TestCase
+{
+    public PropertyStoreTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that handles are shared for the same (case-insensitive) name.
+     */
+    public void testHandles()
+    {
+        PropertyHandle handle = PropertyHandle.forName("datanucleus.test.Handle");
+        assertSame(handle, PropertyHandle.forName("DataNucleus.Test.HANDLE"));
+        assertEquals("datanucleus.test.Handle", handle.getName());
+        assertNotSame(handle, PropertyHandle.forName("datanucleus.test.Other"));
+    }
+
+    /**
+     * Test the typed lookups using handles, including when the property changes after being resolved.
+     */
+    public void testLookups()
+    {
+        PropertyHandle intHandle = PropertyHandle.forName("datanucleus.test.Int");
+        PropertyHandle boolHandle = PropertyHandle.forName("datanucleus.test.Bool");
+        PropertyHandle strHandle = PropertyHandle.forName("datanucleus.test.Str");
+
+        BasePropertyStore store = new BasePropertyStore();
+        assertEquals(0, store.getIntProperty(intHandle));
+        assertNull(store.getBooleanObjectProperty(boolHandle));
+        assertTrue(store.getBooleanProperty(boolHandle, true));
+        assertNull(store.getStringProperty(strHandle));
+
+        store.setProperty("datanucleus.test.Int", "25");
+        store.setProperty("datanucleus.test.Bool", "false");
+        store.setProperty("datanucleus.test.Str", "value");
+        assertEquals(25, store.getIntProperty(intHandle));
+        assertEquals(Boolean.FALSE, store.getBooleanObjectProperty(boolHandle));
+        assertFalse(store.getBooleanProperty(boolHandle, true));
+        assertEquals("value", store.getStringProperty(strHandle));
+
+        // Resolved values are discarded when a property changes
+        store.setProperty("datanucleus.test.Int", Integer.valueOf(30));
+        store.setProperty("datanucleus.test.Bool", Boolean.TRUE);
+        store.setProperty("datanucleus.test.Str", null);
+        assertEquals(30, store.getIntProperty(intHandle));
+        assertTrue(store.getBooleanProperty(boolHandle));
+        assertNull(store.getStringProperty(strHandle));
+        assertEquals(store.getIntProperty("datanucleus.test.Int"), store.getIntProperty(intHandle));
+    }
+}
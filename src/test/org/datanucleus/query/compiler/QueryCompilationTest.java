@@ -0,0 +1,172 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.query.compiler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.ClassMetaData;
+import org.datanucleus.metadata.CollectionMetaData;
+import org.datanucleus.metadata.FieldMetaData;
+import org.datanucleus.metadata.FileMetaData;
+import org.datanucleus.metadata.MetaDataManager;
+import org.datanucleus.metadata.PackageMetaData;
+import org.datanucleus.metadata.RelationType;
+import org.datanucleus.query.expression.DyadicExpression;
+import org.datanucleus.query.expression.Expression;
+import org.datanucleus.query.expression.InvokeExpression;
+import org.datanucleus.query.expression.Literal;
+import org.datanucleus.query.expression.PrimaryExpression;
+import org.datanucleus.query.symbol.PropertySymbol;
+import org.datanucleus.query.symbol.SymbolTable;
+
+/**
+ * Tests for QueryCompilation.
+ */
+public class QueryCompilationTest extends TestCase
+{
+    public QueryCompilationTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that the dependent classes include the classes of relations navigated in the expressions.
+     */
+    public void testDependentClassesOfNavigatedRelations()
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        String packageName = Person.class.getPackage().getName();
+        PackageMetaData pmd = new FileMetaData().newPackageMetadata(packageName);
+        final ClassMetaData personCmd = pmd.newClassMetadata(Person.class.getName().substring(packageName.length()+1));
+        final ClassMetaData addressCmd = pmd.newClassMetadata(Address.class.getName().substring(packageName.length()+1));
+        final ClassMetaData phoneCmd = pmd.newClassMetadata(Phone.class.getName().substring(packageName.length()+1));
+        final ClassMetaData countryCmd = pmd.newClassMetadata(Country.class.getName().substring(packageName.length()+1));
+        personCmd.addMember(new RelationFieldMetaData(personCmd, "name", String.class, RelationType.NONE));
+        personCmd.addMember(new RelationFieldMetaData(personCmd, "address", Address.class, RelationType.ONE_TO_ONE_UNI));
+        RelationFieldMetaData phonesFmd = new RelationFieldMetaData(personCmd, "phones", List.class, RelationType.ONE_TO_MANY_UNI);
+        phonesFmd.setContainer(new CollectionMetaData()
+        {
+            public AbstractClassMetaData getElementClassMetaData(ClassLoaderResolver clr, MetaDataManager mmgr)
+            {
+                return phoneCmd;
+            }
+        });
+        personCmd.addMember(phonesFmd);
+        addressCmd.addMember(new RelationFieldMetaData(addressCmd, "city", String.class, RelationType.NONE));
+        addressCmd.addMember(new RelationFieldMetaData(addressCmd, "country", Country.class, RelationType.ONE_TO_ONE_UNI));
+
+        final Map<Class, AbstractClassMetaData> cmds = new HashMap<Class, AbstractClassMetaData>();
+        cmds.put(Person.class, personCmd);
+        cmds.put(Address.class, addressCmd);
+        cmds.put(Phone.class, phoneCmd);
+        cmds.put(Country.class, countryCmd);
+        MetaDataManager mmgr = (MetaDataManager)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {MetaDataManager.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getMetaDataForClass") && args[0] instanceof Class)
+                    {
+                        return cmds.get(args[0]);
+                    }
+                    return null;
+                }
+            });
+
+        SymbolTable symtbl = new SymbolTable();
+        symtbl.addSymbol(new PropertySymbol("this", Person.class));
+
+        // Filter "this.name == 'Fred'" navigates no relations
+        Expression nameExpr = new DyadicExpression(new PrimaryExpression(Arrays.asList(new String[] {"this", "name"})),
+            Expression.OP_EQ, new Literal("Fred"));
+        QueryCompilation compilation = new QueryCompilation(Person.class, "this", symtbl, null, null, nameExpr,
+            null, null, null, null);
+        assertEquals(Collections.singleton(Person.class), compilation.getDependentClasses(mmgr, clr));
+
+        // Result "address.city", filter "this.phones.isEmpty()", ordering "this.address.country.name"
+        Expression[] result = new Expression[] {new PrimaryExpression(Arrays.asList(new String[] {"address", "city"}))};
+        Expression filter = new InvokeExpression(new PrimaryExpression(Arrays.asList(new String[] {"this", "phones"})),
+            "isEmpty", null);
+        Expression[] ordering = new Expression[] {
+            new PrimaryExpression(Arrays.asList(new String[] {"this", "address", "country", "name"}))};
+        compilation = new QueryCompilation(Person.class, "this", symtbl, result, null, filter, null, null, ordering, null);
+        Set<Class> expected = new HashSet<Class>(Arrays.asList(new Class[] {Person.class, Address.class, Phone.class, Country.class}));
+        assertEquals(expected, compilation.getDependentClasses(mmgr, clr));
+    }
+
+    /**
+     * Field metadata with a fixed type and relation type, as if populated.
+     */
+    private static class RelationFieldMetaData extends FieldMetaData
+    {
+        final Class fieldType;
+        final RelationType relType;
+
+        RelationFieldMetaData(ClassMetaData cmd, String name, Class fieldType, RelationType relType)
+        {
+            super(cmd, name);
+            this.fieldType = fieldType;
+            this.relType = relType;
+        }
+
+        public Class getType()
+        {
+            return fieldType;
+        }
+
+        public RelationType getRelationType(ClassLoaderResolver clr)
+        {
+            return relType;
+        }
+    }
+
+    public static class Person
+    {
+        String name;
+        Address address;
+        List<Phone> phones;
+    }
+
+    public static class Address
+    {
+        String city;
+        Country country;
+    }
+
+    public static class Phone
+    {
+    }
+
+    public static class Country
+    {
+    }
+}
@@ -0,0 +1,429 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.query.evaluator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.api.ApiAdapter;
+import org.datanucleus.plugin.PluginManager;
+import org.datanucleus.query.compiler.QueryCompilation;
+import org.datanucleus.query.expression.DyadicExpression;
+import org.datanucleus.query.expression.Expression;
+import org.datanucleus.query.expression.InvokeExpression;
+import org.datanucleus.query.expression.Literal;
+import org.datanucleus.query.expression.OrderExpression;
+import org.datanucleus.query.expression.PrimaryExpression;
+import org.datanucleus.store.Extent;
+import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.QueryManager;
+
+/**
+ * Component tests for the in-memory evaluation of queries by JavaQueryEvaluator.
+ */
+public class JavaQueryEvaluatorTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    ClassLoaderResolver clr = null;
+
+    /** Number of times the executor for parallel evaluation was used. */
+    AtomicInteger executorUses = new AtomicInteger();
+
+    public JavaQueryEvaluatorTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test that the filter and ordering are evaluated in parallel when requested and the ExecutionContext is
+     * multithreaded, with the same results as when evaluated sequentially.
+     */
+    public void testParallelEvaluation()
+    {
+        List<Person> candidates = createPeople(5000);
+        Expression filter = new DyadicExpression(field("age"), Expression.OP_GTEQ, new Literal(Integer.valueOf(50)));
+        Expression[] ordering = new Expression[] {new OrderExpression(field("age"), "descending"), new OrderExpression(field("name"))};
+        QueryCompilation compilation = createCompilation(null, filter, null, null, ordering);
+
+        List expected = evaluate(createQuery(false, false), compilation, candidates);
+        assertEquals(0, executorUses.get());
+        assertEquals(2500, expected.size());
+        assertEquals("Person-1099", ((Person)expected.get(0)).name);
+        assertEquals("Person-1199", ((Person)expected.get(1)).name);
+        assertEquals("Person-950", ((Person)expected.get(2499)).name);
+
+        List parallelResult = evaluate(createQuery(true, true), compilation, candidates);
+        assertEquals(2, executorUses.get());
+        assertEquals(expected, parallelResult);
+    }
+
+    /**
+     * Test that parallel evaluation isn't used when the ExecutionContext isn't multithreaded, since the
+     * candidates may have their fields loaded through the ExecutionContext.
+     */
+    public void testParallelEvaluationNeedsMultithreadedExecutionContext()
+    {
+        List<Person> candidates = createPeople(5000);
+        Expression filter = new DyadicExpression(field("age"), Expression.OP_LT, new Literal(Integer.valueOf(10)));
+        QueryCompilation compilation = createCompilation(null, filter, null, null,
+            new Expression[] {new OrderExpression(field("name"))});
+
+        List expected = evaluate(createQuery(false, false), compilation, candidates);
+        List result = evaluate(createQuery(true, false), compilation, candidates);
+        assertEquals(0, executorUses.get());
+        assertEquals(500, result.size());
+        assertEquals(expected, result);
+    }
+
+    /**
+     * Test grouping by a value that is null for some candidates, with a having clause.
+     * The groups are returned ordered by their grouping values, with the null group first.
+     */
+    public void testGrouping()
+    {
+        List<Person> candidates = Arrays.asList(new Person[] {new Person("A", 1), new Person("B", 2),
+            new Person("C", 1), new Person("D", null), new Person("E", null), new Person("F", 2), new Person("G", 3)});
+        Expression count = new InvokeExpression(null, "count", Arrays.asList(new Expression[] {field("name")}));
+        Expression[] result = new Expression[] {field("age"), count};
+        Expression[] grouping = new Expression[] {field("age")};
+
+        List groups = evaluate(createQuery(false, false), createCompilation(result, null, grouping, null, null), candidates);
+        assertEquals(4, groups.size());
+        assertRow(groups.get(0), null, Long.valueOf(2));
+        assertRow(groups.get(1), Integer.valueOf(1), Long.valueOf(2));
+        assertRow(groups.get(2), Integer.valueOf(2), Long.valueOf(2));
+        assertRow(groups.get(3), Integer.valueOf(3), Long.valueOf(1));
+
+        Expression having = new DyadicExpression(new InvokeExpression(null, "count", Arrays.asList(new Expression[] {field("name")})),
+            Expression.OP_GT, new Literal(Long.valueOf(1)));
+        groups = evaluate(createQuery(false, false), createCompilation(result, null, grouping, having, null), candidates);
+        assertEquals(3, groups.size());
+        assertRow(groups.get(0), null, Long.valueOf(2));
+        assertRow(groups.get(2), Integer.valueOf(2), Long.valueOf(2));
+    }
+
+    /**
+     * Test aggregation of the distinct values of an expression in each group, and of the whole candidates.
+     */
+    public void testAggregateDistinct()
+    {
+        List<Person> candidates = Arrays.asList(new Person[] {new Person("A", 1), new Person("A", 1),
+            new Person("B", 1), new Person("A", 2), new Person(null, 2)});
+        Expression countDistinct = new InvokeExpression(null, "count", Arrays.asList(new Expression[] {
+            new DyadicExpression(Expression.OP_DISTINCT, field("name"))}));
+
+        List groups = evaluate(createQuery(false, false), createCompilation(new Expression[] {field("age"), countDistinct},
+            null, new Expression[] {field("age")}, null, null), candidates);
+        assertEquals(2, groups.size());
+        assertRow(groups.get(0), Integer.valueOf(1), Long.valueOf(2));
+        assertRow(groups.get(1), Integer.valueOf(2), Long.valueOf(1));
+
+        List total = evaluate(createQuery(false, false), createCompilation(new Expression[] {countDistinct},
+            null, null, null, null), candidates);
+        assertEquals(Arrays.asList(new Object[] {Long.valueOf(2)}), total);
+    }
+
+    /**
+     * Test that DISTINCT results omit duplicate values, including nulls and rows of several values, keeping
+     * the first occurrence of each.
+     */
+    public void testResultDistinct()
+    {
+        List<Person> candidates = Arrays.asList(new Person[] {new Person("A", 2), new Person("B", 1),
+            new Person("A", 2), new Person(null, null), new Person("A", 1), new Person(null, null)});
+
+        Query query = createQuery(false, false);
+        query.setResultDistinct(true);
+        List ages = evaluate(query, createCompilation(new Expression[] {field("age")}, null, null, null, null), candidates);
+        assertEquals(Arrays.asList(new Object[] {Integer.valueOf(2), Integer.valueOf(1), null}), ages);
+
+        List rows = evaluate(query, createCompilation(new Expression[] {field("name"), field("age")}, null, null, null, null),
+            candidates);
+        assertEquals(4, rows.size());
+        assertRow(rows.get(0), "A", Integer.valueOf(2));
+        assertRow(rows.get(1), "B", Integer.valueOf(1));
+        assertRow(rows.get(2), null, null);
+        assertRow(rows.get(3), "A", Integer.valueOf(1));
+    }
+
+    /**
+     * Test that a range with ordering, which keeps only the first "toExcl" candidates while ordering, gives
+     * the same results as applying the range to all the ordered candidates. This includes null ordering
+     * values, where two nulls are ordered by the next ordering expression.
+     */
+    public void testOrderingWithRange()
+    {
+        List<Person> candidates = new ArrayList<Person>();
+        for (int i=0;i<200;i++)
+        {
+            candidates.add(new Person(i % 7 == 0 ? null : "Person-" + (i % 13), Integer.valueOf(200 - i)));
+        }
+        Expression[] ordering = new Expression[] {new OrderExpression(field("name")), new OrderExpression(field("age"))};
+        QueryCompilation compilation = createCompilation(null, null, null, null, ordering);
+
+        List all = evaluate(createQuery(false, false), compilation, candidates);
+        assertEquals(200, all.size());
+
+        // Nulls are ordered first by default, and then by age
+        for (int i=0;i<29;i++)
+        {
+            Person person = (Person)all.get(i);
+            assertNull(person.name);
+            assertEquals(Integer.valueOf(4 + 7 * i), person.age);
+        }
+        assertNotNull(((Person)all.get(29)).name);
+
+        long[][] ranges = new long[][] {{0, 1}, {0, 10}, {5, 40}, {28, 31}, {190, 250}, {0, 200}};
+        for (int i=0;i<ranges.length;i++)
+        {
+            Query query = createQuery(false, false);
+            query.setRange(ranges[i][0], ranges[i][1]);
+            List expected = all.subList((int)ranges[i][0], (int)Math.min(all.size(), ranges[i][1]));
+            assertEquals("range " + ranges[i][0] + "," + ranges[i][1], expected, evaluate(query, compilation, candidates));
+        }
+    }
+
+    /**
+     * Test that a range with ordering evaluated in parallel gives the same results as without the range.
+     */
+    public void testParallelOrderingWithRange()
+    {
+        List<Person> candidates = createPeople(5000);
+        candidates.set(10, new Person(null, Integer.valueOf(5)));
+        candidates.set(4000, new Person(null, Integer.valueOf(2)));
+        Expression[] ordering = new Expression[] {new OrderExpression(field("name"), "descending"),
+            new OrderExpression(field("age"), "descending")};
+        QueryCompilation compilation = createCompilation(null, null, null, null, ordering);
+
+        List all = evaluate(createQuery(false, false), compilation, candidates);
+        Query query = createQuery(true, true);
+        query.setRange(0, 25);
+        assertEquals(all.subList(0, 25), evaluate(query, compilation, candidates));
+        assertEquals(1, executorUses.get());
+        assertNull(((Person)all.get(0)).name);
+        assertEquals(Integer.valueOf(5), ((Person)all.get(0)).age);
+        assertEquals(Integer.valueOf(2), ((Person)all.get(1)).age);
+    }
+
+    /**
+     * Test that a range without ordering stops filtering once enough candidates are found, keeping
+     * the candidates in their original order.
+     */
+    public void testFilterWithRange()
+    {
+        List<Person> candidates = createPeople(1000);
+        Expression filter = new DyadicExpression(field("age"), Expression.OP_LT, new Literal(Integer.valueOf(3)));
+        Query query = createQuery(false, false);
+        query.setRange(2, 5);
+        List result = evaluate(query, createCompilation(null, filter, null, null, null), candidates);
+        assertEquals(3, result.size());
+        assertEquals("Person-2", ((Person)result.get(0)).name);
+        assertEquals("Person-100", ((Person)result.get(1)).name);
+        assertEquals("Person-101", ((Person)result.get(2)).name);
+    }
+
+    static void assertRow(Object row, Object value1, Object value2)
+    {
+        assertEquals(Arrays.asList(new Object[] {value1, value2}), Arrays.asList((Object[])row));
+    }
+
+    /**
+     * Method to evaluate the query compilation in memory against the candidates.
+     */
+    List evaluate(Query query, QueryCompilation compilation, Collection candidates)
+    {
+        JDOQLEvaluator evaluator = new JDOQLEvaluator(query, candidates, compilation, new HashMap(), clr);
+        return new ArrayList(evaluator.execute(true, true, true, true, true));
+    }
+
+    static QueryCompilation createCompilation(Expression[] result, Expression filter, Expression[] grouping,
+            Expression having, Expression[] ordering)
+    {
+        return new QueryCompilation(Person.class, "this", null, result, null, filter, grouping, having, ordering, null);
+    }
+
+    static PrimaryExpression field(String name)
+    {
+        return new PrimaryExpression(Arrays.asList(new String[] {"this", name}));
+    }
+
+    static List<Person> createPeople(int number)
+    {
+        List<Person> people = new ArrayList<Person>(number);
+        for (int i=0;i<number;i++)
+        {
+            people.add(new Person("Person-" + i, i % 100));
+        }
+        return people;
+    }
+
+    /**
+     * Method to create a query of Person, for an ExecutionContext where all candidates are transient.
+     * @param parallel Whether to request parallel evaluation
+     * @param multithreaded Whether the ExecutionContext is multithreaded
+     * @return The query
+     */
+    Query createQuery(boolean parallel, final boolean multithreaded)
+    {
+        final QueryManager queryMgr = new QueryManager(nucCtx, null)
+        {
+            public ExecutorService getInMemoryEvaluationExecutor()
+            {
+                executorUses.incrementAndGet();
+                return super.getInMemoryEvaluationExecutor();
+            }
+
+            public int getInMemoryEvaluationParallelism()
+            {
+                return 4;
+            }
+        };
+        final StoreManager storeMgr = (StoreManager)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {StoreManager.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return method.getName().equals("getQueryManager") ? queryMgr : null;
+                }
+            });
+        final ApiAdapter api = (ApiAdapter)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {ApiAdapter.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return method.getName().equals("isPersistent") ? Boolean.FALSE : null;
+                }
+            });
+        ExecutionContext ec = (ExecutionContext)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {ExecutionContext.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("getStoreManager"))
+                    {
+                        return storeMgr;
+                    }
+                    else if (name.equals("getNucleusContext"))
+                    {
+                        return nucCtx;
+                    }
+                    else if (name.equals("getClassLoaderResolver"))
+                    {
+                        return clr;
+                    }
+                    else if (name.equals("getApiAdapter"))
+                    {
+                        return api;
+                    }
+                    else if (name.equals("getBooleanProperty"))
+                    {
+                        return Boolean.FALSE;
+                    }
+                    else if (name.equals("getMultithreaded"))
+                    {
+                        return Boolean.valueOf(multithreaded);
+                    }
+                    return null;
+                }
+            });
+
+        Query query = new TestQuery(storeMgr, ec);
+        query.setCandidateClass(Person.class);
+        query.addExtension(Query.EXTENSION_EVALUATE_IN_MEMORY_PARALLEL, Boolean.valueOf(parallel));
+        return query;
+    }
+
+    /**
+     * Query that is only used to hold the settings of the query for the evaluator.
+     */
+    static class TestQuery extends Query
+    {
+        TestQuery(StoreManager storeMgr, ExecutionContext ec)
+        {
+            super(storeMgr, ec);
+        }
+
+        public String getLanguage()
+        {
+            return "JDOQL";
+        }
+
+        public void setCandidates(Extent pcs)
+        {
+        }
+
+        public void setCandidates(Collection pcs)
+        {
+        }
+
+        protected void compileInternal(Map parameterValues)
+        {
+        }
+
+        protected Object performExecute(Map parameters)
+        {
+            return null;
+        }
+    }
+
+    public static class Person
+    {
+        String name;
+        Integer age;
+
+        Person(String name, Integer age)
+        {
+            this.name = name;
+            this.age = age;
+        }
+
+        public String toString()
+        {
+            return name + "(" + age + ")";
+        }
+    }
+}
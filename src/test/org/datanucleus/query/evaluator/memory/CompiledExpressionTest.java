@@ -0,0 +1,288 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.query.evaluator.memory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.ApiAdapter;
+import org.datanucleus.metadata.ClassMetaData;
+import org.datanucleus.metadata.FieldMetaData;
+import org.datanucleus.metadata.FileMetaData;
+import org.datanucleus.query.expression.DyadicExpression;
+import org.datanucleus.query.expression.Expression;
+import org.datanucleus.query.expression.Literal;
+import org.datanucleus.query.expression.PrimaryExpression;
+import org.datanucleus.state.ObjectProvider;
+import org.datanucleus.store.StoreManager;
+
+/**
+ * Tests for the compiled in-memory evaluation of expressions.
+ */
+public class CompiledExpressionTest extends TestCase
+{
+    /** ObjectProviders of the objects that are managed, keyed by the object. */
+    Map<Object, ObjectProvider> managed = new IdentityHashMap<Object, ObjectProvider>();
+
+    /** Record of the fields loaded through ObjectProviders. */
+    List<String> loaded = new ArrayList<String>();
+
+    ClassMetaData cmd;
+
+    public CompiledExpressionTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        String packageName = Person.class.getPackage().getName();
+        cmd = new FileMetaData().newPackageMetadata(packageName).newClassMetadata(
+            Person.class.getName().substring(packageName.length()+1));
+        cmd.addMember(new ManagedFieldMetaData(cmd, "name", 0));
+        cmd.addMember(new ManagedFieldMetaData(cmd, "age", 1));
+    }
+
+    /**
+     * Test a filter of comparisons, AND and OR against transient objects, read by reflection.
+     */
+    public void testFilterTransient()
+    {
+        CompiledExpression filter = CompiledExpression.compile(createFilter(), "this");
+        InMemoryExpressionEvaluator eval = createEvaluator();
+
+        assertEquals(Boolean.TRUE, filter.evaluate(new Person("Fred", 30), eval));
+        assertEquals(Boolean.FALSE, filter.evaluate(new Person("Fred", 10), eval));
+        assertEquals(Boolean.TRUE, filter.evaluate(new Person("Jim", 5), eval));
+        assertEquals(Boolean.FALSE, filter.evaluate(new Person(null, 15), eval));
+        assertTrue(loaded.isEmpty());
+    }
+
+    /**
+     * Test that managed objects are read through their ObjectProvider (loading the field) even when
+     * an object of the same class that isn't managed was evaluated first, and vice versa.
+     */
+    public void testFilterManagedAndTransient()
+    {
+        CompiledExpression filter = CompiledExpression.compile(createFilter(), "this");
+        InMemoryExpressionEvaluator eval = createEvaluator();
+
+        // Field values of the managed object aren't loaded, so would fail the filter if read by reflection
+        Person transientPerson = new Person("Fred", 30);
+        Person managedPerson = new Person(null, 0);
+        manage(managedPerson, new Object[] {"Fred", Integer.valueOf(40)});
+
+        assertEquals(Boolean.TRUE, filter.evaluate(transientPerson, eval));
+        assertTrue(loaded.isEmpty());
+        assertEquals(Boolean.TRUE, filter.evaluate(managedPerson, eval));
+        assertEquals(Arrays.asList(new String[] {"name", "age"}), loaded);
+
+        loaded.clear();
+        assertEquals(Boolean.FALSE, filter.evaluate(new Person("Fred", 10), eval));
+        assertTrue(loaded.isEmpty());
+    }
+
+    /**
+     * Test that a field with no member metadata in a managed object fails the comparison.
+     */
+    public void testUnknownMember()
+    {
+        Expression expr = new DyadicExpression(new PrimaryExpression(Arrays.asList(new String[] {"this", "nickname"})),
+            Expression.OP_EQ, new Literal("Freddie"));
+        CompiledExpression filter = CompiledExpression.compile(expr, "this");
+        InMemoryExpressionEvaluator eval = createEvaluator();
+
+        Person transientPerson = new Person("Fred", 40);
+        transientPerson.nickname = "Freddie";
+        Person managedPerson = new Person("Fred", 40);
+        managedPerson.nickname = "Freddie";
+        manage(managedPerson, new Object[] {"Fred", Integer.valueOf(40)});
+        assertEquals(Boolean.TRUE, filter.evaluate(transientPerson, eval));
+        assertEquals(Boolean.FALSE, filter.evaluate(managedPerson, eval));
+    }
+
+    /**
+     * Test that a field of candidates of different classes keeps an accessor for each class, rather than
+     * looking up the field whenever the class differs from that of the previous candidate.
+     */
+    public void testPolymorphicCandidates()
+    {
+        CompiledExpression.FieldNode node = new CompiledExpression.FieldNode(
+            new PrimaryExpression(Arrays.asList(new String[] {"this", "name"})), "this");
+        InMemoryExpressionEvaluator eval = createEvaluator();
+
+        for (int i=0;i<10;i++)
+        {
+            assertEquals("Fred", node.evaluate(new Person("Fred", 30), eval));
+            assertEquals("Jim", node.evaluate(new Employee("Jim", 40), eval));
+        }
+        assertEquals(2, node.accessors[0].length);
+        CompiledExpression.FieldAccessor personAccessor = node.getAccessor(0, Person.class);
+        CompiledExpression.FieldAccessor employeeAccessor = node.getAccessor(0, Employee.class);
+        assertNotSame(personAccessor, employeeAccessor);
+        assertSame(personAccessor, node.getAccessor(0, Person.class));
+        assertSame(employeeAccessor, node.getAccessor(0, Employee.class));
+
+        // Accessors are only kept for a limited number of classes
+        Class[] classes = new Class[] {Object.class, String.class, Integer.class, Long.class, Short.class,
+            Byte.class, Double.class, Float.class};
+        for (int i=0;i<classes.length;i++)
+        {
+            node.getAccessor(0, classes[i]);
+        }
+        assertEquals(CompiledExpression.FieldNode.MAX_ACCESSORS_PER_FIELD, node.accessors[0].length);
+        assertSame(classes[classes.length-1], node.accessors[0][0].cls);
+    }
+
+    /**
+     * Filter "this.name == 'Fred' && this.age &gt; 20 || this.age &lt; 8".
+     */
+    private Expression createFilter()
+    {
+        Expression nameExpr = new DyadicExpression(new PrimaryExpression(Arrays.asList(new String[] {"this", "name"})),
+            Expression.OP_EQ, new Literal("Fred"));
+        Expression ageGtExpr = new DyadicExpression(new PrimaryExpression(Arrays.asList(new String[] {"this", "age"})),
+            Expression.OP_GT, new Literal(Integer.valueOf(20)));
+        Expression ageLtExpr = new DyadicExpression(new PrimaryExpression(Arrays.asList(new String[] {"age"})),
+            Expression.OP_LT, new Literal(Integer.valueOf(8)));
+        return new DyadicExpression(new DyadicExpression(nameExpr, Expression.OP_AND, ageGtExpr), Expression.OP_OR, ageLtExpr);
+    }
+
+    private void manage(final Object obj, final Object[] fieldValues)
+    {
+        ObjectProvider op = (ObjectProvider)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {ObjectProvider.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("getClassMetaData"))
+                    {
+                        return cmd;
+                    }
+                    else if (name.equals("isLoaded"))
+                    {
+                        loaded.add(((Integer)args[0]).intValue() == 0 ? "name" : "age");
+                        return Boolean.TRUE;
+                    }
+                    else if (name.equals("provideField"))
+                    {
+                        return fieldValues[((Integer)args[0]).intValue()];
+                    }
+                    return null;
+                }
+            });
+        managed.put(obj, op);
+    }
+
+    private InMemoryExpressionEvaluator createEvaluator()
+    {
+        final ApiAdapter api = (ApiAdapter)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {ApiAdapter.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("isPersistent"))
+                    {
+                        return Boolean.valueOf(managed.containsKey(args[0]));
+                    }
+                    return null;
+                }
+            });
+        final StoreManager storeMgr = (StoreManager)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {StoreManager.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return null;
+                }
+            });
+        ExecutionContext ec = (ExecutionContext)Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {ExecutionContext.class}, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("getApiAdapter"))
+                    {
+                        return api;
+                    }
+                    else if (name.equals("getStoreManager"))
+                    {
+                        return storeMgr;
+                    }
+                    else if (name.equals("findObjectProvider"))
+                    {
+                        return managed.get(args[0]);
+                    }
+                    return null;
+                }
+            });
+        return new InMemoryExpressionEvaluator(ec, new HashMap(), new HashMap<String, Object>(), null, null, "this", "JDOQL");
+    }
+
+    /**
+     * Field metadata with a fixed absolute field number, as if the class metadata was populated.
+     */
+    private static class ManagedFieldMetaData extends FieldMetaData
+    {
+        final int fieldNumber;
+
+        ManagedFieldMetaData(ClassMetaData cmd, String name, int fieldNumber)
+        {
+            super(cmd, name);
+            this.fieldNumber = fieldNumber;
+        }
+
+        public int getAbsoluteFieldNumber()
+        {
+            return fieldNumber;
+        }
+    }
+
+    public static class Person
+    {
+        String name;
+        int age;
+        String nickname;
+
+        Person(String name, int age)
+        {
+            this.name = name;
+            this.age = age;
+        }
+    }
+
+    public static class Employee extends Person
+    {
+        Employee(String name, int age)
+        {
+            super(name, age);
+        }
+    }
+}
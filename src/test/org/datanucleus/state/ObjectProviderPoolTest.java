@@ -0,0 +1,301 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.state;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+
+/**
+ * Tests for ObjectProviderPool.
+ */
+public class ObjectProviderPoolTest extends TestCase
+{
+    public ObjectProviderPoolTest(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Test that checkOut reuses a checked in ObjectProvider, counting hits and misses.
+     */
+    public void testHitsAndMisses()
+    {
+        TestPool pool = new TestPool(10);
+        ObjectProvider op = pool.checkOut(null, null);
+        assertEquals(0, pool.getNumberOfHits());
+        assertEquals(1, pool.getNumberOfMisses());
+
+        pool.checkIn(op);
+        assertEquals(1, pool.getNumberOfIdle());
+        assertSame(op, pool.checkOut(null, null));
+        assertEquals(1, pool.getNumberOfHits());
+        assertEquals(0, pool.getNumberOfIdle());
+
+        assertNotSame(op, pool.checkOut(null, null));
+        assertEquals(2, pool.getNumberOfMisses());
+        pool.close();
+    }
+
+    /**
+     * Test that no pooling happens when maxIdle is 0.
+     */
+    public void testNoPooling()
+    {
+        TestPool pool = new TestPool(0);
+        ObjectProvider op = pool.checkOut(null, null);
+        pool.checkIn(op);
+        assertEquals(0, pool.getNumberOfIdle());
+        assertNotSame(op, pool.checkOut(null, null));
+        pool.close();
+    }
+
+    /**
+     * Test that maxIdle limits the ObjectProviders held across all threads, including those kept per thread.
+     */
+    public void testMaxIdle() throws Exception
+    {
+        final TestPool pool = new TestPool(20);
+        checkIn(pool, 30);
+        assertEquals(20, pool.getNumberOfIdle());
+        assertEquals(10, pool.numExpired.get());
+
+        // Another thread can't add to its own list beyond the total either
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                checkIn(pool, 5);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(20, pool.getNumberOfIdle());
+        assertEquals(15, pool.numExpired.get());
+
+        // Those kept by this thread and in the shared stack can be checked out
+        for (int i=0;i<20;i++)
+        {
+            pool.checkOut(null, null);
+        }
+        assertEquals(20, pool.getNumberOfHits());
+        assertEquals(0, pool.getNumberOfIdle());
+        pool.close();
+    }
+
+    /**
+     * Test that close releases the ObjectProviders kept by all threads, and nothing is pooled after close.
+     */
+    public void testClose() throws Exception
+    {
+        final TestPool pool = new TestPool(100);
+        final CountDownLatch checkedIn = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                checkIn(pool, 5);
+                checkedIn.countDown();
+                try
+                {
+                    closed.await();
+                }
+                catch (InterruptedException ie)
+                {
+                    return;
+                }
+                checkIn(pool, 5);
+            }
+        };
+        thread.start();
+        checkedIn.await();
+        checkIn(pool, 3);
+        assertEquals(8, pool.getNumberOfIdle());
+
+        pool.close();
+        assertEquals(0, pool.getNumberOfIdle());
+        assertEquals(8, pool.numExpired.get());
+
+        closed.countDown();
+        thread.join();
+        assertEquals(0, pool.getNumberOfIdle());
+    }
+
+    /**
+     * Test that an ObjectProvider can't be checked out of a closed pool.
+     */
+    public void testCheckOutAfterClose()
+    {
+        TestPool pool = new TestPool(100);
+        pool.checkIn(pool.checkOut(null, null));
+        pool.close();
+        try
+        {
+            pool.checkOut(null, null);
+            fail("Expected NucleusException checking out of a closed pool");
+        }
+        catch (NucleusException ne)
+        {
+            // Expected
+        }
+        assertEquals(0, pool.getNumberOfIdle());
+    }
+
+    /**
+     * Test that a closed pool isn't kept reachable by a thread that used it and is still running.
+     */
+    public void testClosedPoolNotReachableFromThread() throws Exception
+    {
+        TestPool pool = new TestPool(100);
+        final ObjectProviderPool[] threadPool = new ObjectProviderPool[] {pool};
+        final CountDownLatch checkedIn = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                checkIn(threadPool[0], 5);
+                threadPool[0] = null;
+                checkedIn.countDown();
+                try
+                {
+                    released.await();
+                }
+                catch (InterruptedException ie)
+                {
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        checkedIn.await();
+
+        pool.close();
+        WeakReference<ObjectProviderPool> poolRef = new WeakReference<ObjectProviderPool>(pool);
+        pool = null;
+        for (int i=0;i<50 && poolRef.get() != null;i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        try
+        {
+            assertNull(poolRef.get());
+        }
+        finally
+        {
+            released.countDown();
+            thread.join();
+        }
+    }
+
+    /**
+     * Test that cleanUp releases the ObjectProviders kept by threads that have ended.
+     */
+    public void testCleanUpEndedThreads() throws Exception
+    {
+        final TestPool pool = new TestPool(100);
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                checkIn(pool, 5);
+            }
+        };
+        thread.start();
+        thread.join();
+        checkIn(pool, 2);
+        assertEquals(7, pool.getNumberOfIdle());
+
+        pool.cleanUp();
+        assertEquals(2, pool.getNumberOfIdle());
+        assertEquals(5, pool.numExpired.get());
+        pool.close();
+    }
+
+    private static void checkIn(ObjectProviderPool pool, int num)
+    {
+        for (int i=0;i<num;i++)
+        {
+            pool.checkIn(TestPool.createProxy());
+        }
+    }
+
+    /**
+     * Pool creating ObjectProviders that do nothing, and counting those expired.
+     */
+    static class TestPool extends ObjectProviderPool
+    {
+        AtomicInteger numExpired = new AtomicInteger();
+
+        TestPool(int maxIdle)
+        {
+            super(maxIdle, false, TestObjectProvider.class);
+        }
+
+        protected ObjectProvider create(ExecutionContext ec, AbstractClassMetaData cmd)
+        {
+            return createProxy();
+        }
+
+        public void expire(ObjectProvider op)
+        {
+            numExpired.incrementAndGet();
+        }
+
+        static ObjectProvider createProxy()
+        {
+            return (ObjectProvider)Proxy.newProxyInstance(ObjectProviderPoolTest.class.getClassLoader(),
+                new Class[] {ObjectProvider.class}, new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if (method.getName().equals("equals"))
+                        {
+                            return Boolean.valueOf(proxy == args[0]);
+                        }
+                        else if (method.getName().equals("hashCode"))
+                        {
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        }
+                        return null;
+                    }
+                });
+        }
+    }
+
+    /**
+     * ObjectProvider class with the constructor the pool requires; never instantiated.
+     */
+    public abstract static class TestObjectProvider implements ObjectProvider
+    {
+        public TestObjectProvider(ExecutionContext ec, AbstractClassMetaData cmd)
+        {
+        }
+    }
+}
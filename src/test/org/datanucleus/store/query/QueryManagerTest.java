@@ -0,0 +1,170 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+   ...
+**********************************************************************/
+package org.datanucleus.store.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.management.CacheStatistics;
+import org.datanucleus.plugin.PluginManager;
+import org.datanucleus.query.compiler.QueryCompilation;
+import org.datanucleus.query.evaluator.memory.ArraySizeMethodEvaluator;
+import org.datanucleus.query.evaluator.memory.InvocationEvaluator;
+import org.datanucleus.query.evaluator.memory.StringLengthMethodEvaluator;
+
+/**
+ * Component tests for the QueryManager class.
+ */
+public class QueryManagerTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public QueryManagerTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+        nucCtx.getConfiguration().setProperty(PropertyNames.PROPERTY_CACHE_QUERYCOMPILE_TYPE, "strong");
+    }
+
+    /**
+     * Test that a thread wanting a query that is being compiled by another thread waits for, and uses,
+     * that compilation.
+     */
+    public void testSingleFlightCompilation() throws Exception
+    {
+        final QueryManager queryMgr = new QueryManager(nucCtx, null);
+        assertNull(queryMgr.startQueryCompilation("JDOQL", "SELECT FROM A"));
+
+        final QueryCompilation[] waiterCompilation = new QueryCompilation[1];
+        final CountDownLatch waiterDone = new CountDownLatch(1);
+        Thread waiter = new Thread()
+        {
+            public void run()
+            {
+                waiterCompilation[0] = queryMgr.startQueryCompilation("JDOQL", "SELECT FROM A");
+                waiterDone.countDown();
+            }
+        };
+        waiter.start();
+
+        // Waiter is blocked while we compile, but compilation of a different query isn't
+        assertFalse(waiterDone.await(200, TimeUnit.MILLISECONDS));
+        assertNull(queryMgr.startQueryCompilation("JDOQL", "SELECT FROM B"));
+        queryMgr.endQueryCompilation("JDOQL", "SELECT FROM B");
+
+        QueryCompilation compilation = new QueryCompilation(String.class, "this", null, null, null, null, null, null, null, null);
+        queryMgr.addQueryCompilation("JDOQL", "SELECT FROM A", compilation);
+        queryMgr.endQueryCompilation("JDOQL", "SELECT FROM A");
+
+        assertTrue(waiterDone.await(5, TimeUnit.SECONDS));
+        assertSame(compilation, waiterCompilation[0]);
+    }
+
+    /**
+     * Test that when a compilation fails, a waiting thread goes on to compile the query itself.
+     */
+    public void testFailedCompilationReleasesWaiter() throws Exception
+    {
+        final QueryManager queryMgr = new QueryManager(nucCtx, null);
+        assertNull(queryMgr.startQueryCompilation("JDOQL", "SELECT FROM A"));
+
+        final boolean[] waiterCompiles = new boolean[1];
+        Thread waiter = new Thread()
+        {
+            public void run()
+            {
+                waiterCompiles[0] = (queryMgr.startQueryCompilation("JDOQL", "SELECT FROM A") == null);
+                queryMgr.endQueryCompilation("JDOQL", "SELECT FROM A");
+            }
+        };
+        waiter.start();
+
+        // End without adding a compilation
+        queryMgr.endQueryCompilation("JDOQL", "SELECT FROM A");
+        waiter.join(5000);
+        assertTrue(waiterCompiles[0]);
+        assertTrue(queryMgr.queryCompilationsInProgress.isEmpty());
+    }
+
+    /**
+     * Test that evicting the query results for a type is counted as an eviction request, since the number of
+     * results evicted isn't known.
+     */
+    public void testEvictQueryResultsForTypeStatistics()
+    {
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        Map<String, Object> ctxProps = new HashMap<String, Object>();
+        ctxProps.put(PropertyNames.PROPERTY_ENABLE_STATISTICS, "true");
+        PersistenceNucleusContextImpl statsCtx = new PersistenceNucleusContextImpl(null, ctxProps,
+            new PluginManager(null, new ClassLoaderResolverImpl(), props));
+        QueryManager queryMgr = new QueryManager(statsCtx, null);
+        assertNotNull(queryMgr.getQueryResultsCache());
+
+        queryMgr.evictQueryResultsForType(String.class);
+        queryMgr.evictQueryResultsForType(Integer.class);
+        CacheStatistics stats = statsCtx.getCacheStatistics(CacheStatistics.QUERY_RESULTS);
+        assertEquals(2, stats.getEvictionRequestCount());
+        assertEquals(0, stats.getEvictionCount());
+    }
+
+    /**
+     * Test that the evaluator for a type and method is resolved once and then reused, including where
+     * there is no evaluator.
+     */
+    public void testInMemoryEvaluatorCaching()
+    {
+        QueryManager queryMgr = new QueryManager(nucCtx, null);
+        InvocationEvaluator eval = queryMgr.getInMemoryEvaluatorForMethod(String.class, "length");
+        assertTrue(eval instanceof StringLengthMethodEvaluator);
+        assertSame(eval, queryMgr.getInMemoryEvaluatorForMethod(String.class, "length"));
+
+        assertNull(queryMgr.getInMemoryEvaluatorForMethod(Integer.class, "length"));
+        assertNull(queryMgr.getInMemoryEvaluatorForMethod(Integer.class, "length"));
+        assertNull(queryMgr.getInMemoryEvaluatorForMethod(String.class, "noSuchMethod"));
+
+        InvocationEvaluator arrayEval = queryMgr.getInMemoryEvaluatorForMethod(int[].class, "size");
+        assertTrue(arrayEval instanceof ArraySizeMethodEvaluator);
+        assertSame(arrayEval, queryMgr.getInMemoryEvaluatorForMethod(long[].class, "length"));
+
+        // Cached by the name of the type, so the cache doesn't keep classes (and their class loaders) reachable
+        for (Object typeKey : queryMgr.resolvedMethodEvaluatorMap.keySet())
+        {
+            assertFalse(typeKey instanceof Class);
+        }
+        assertTrue(queryMgr.resolvedMethodEvaluatorMap.containsKey(String.class.getName()));
+    }
+}
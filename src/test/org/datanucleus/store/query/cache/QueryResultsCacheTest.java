@@ -0,0 +1,85 @@
+/**********************************************************************
+Copyright (c) 2013 Andy Jefferson and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.query.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.ClassLoaderResolverImpl;
+import org.datanucleus.NucleusContext;
+import org.datanucleus.PersistenceNucleusContextImpl;
+import org.datanucleus.plugin.PluginManager;
+
+/**
+ * Component tests for the eviction of query results by class.
+ */
+public class QueryResultsCacheTest extends TestCase
+{
+    NucleusContext nucCtx = null;
+
+    public QueryResultsCacheTest(String name)
+    {
+        super(name);
+    }
+
+    protected void setUp() throws Exception
+    {
+        ClassLoaderResolver clr = new ClassLoaderResolverImpl();
+        Properties props = new Properties();
+        props.setProperty("bundle-check-action", "EXCEPTION");
+        PluginManager pluginMgr = new PluginManager(null, clr, props);
+        nucCtx = new PersistenceNucleusContextImpl(null, null, pluginMgr);
+    }
+
+    /**
+     * Test that results are evicted when a class they depend on (or a subclass of it) is changed,
+     * and not otherwise.
+     */
+    public void testEvictByDependentClass()
+    {
+        QueryResultsCache cache = new StrongQueryResultsCache(nucCtx);
+        List<Object> results = new ArrayList<Object>();
+        results.add("id1");
+
+        cache.put("JDOQL:SELECT FROM java.lang.Number:", results, Collections.<Class>singleton(Number.class));
+        cache.put("JDOQL:SELECT FROM java.lang.String:", results, Collections.<Class>singleton(String.class));
+        cache.put("JDOQL:SELECT FROM java.lang.Integer WHERE this > 5:", results);
+        assertEquals(3, cache.size());
+
+        // Integer extends Number, so results of queries of Number are evicted
+        cache.evict(Integer.class);
+        assertFalse(cache.contains("JDOQL:SELECT FROM java.lang.Number:"));
+        assertFalse(cache.contains("JDOQL:SELECT FROM java.lang.Integer WHERE this > 5:"));
+        assertTrue(cache.contains("JDOQL:SELECT FROM java.lang.String:"));
+
+        cache.evict(Long.class);
+        assertTrue(cache.contains("JDOQL:SELECT FROM java.lang.String:"));
+        cache.evict(String.class);
+        assertTrue(cache.isEmpty());
+
+        // Results put again after an eviction are indexed again
+        cache.put("JDOQL:SELECT FROM java.lang.Number:", results, Collections.<Class>singleton(Number.class));
+        cache.evict(Number.class);
+        assertTrue(cache.isEmpty());
+    }
+}
@@ -23,6 +23,8 @@ import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.util.AbstractCollection;
 import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.RandomAccess;
@@ -113,6 +115,36 @@ public class ClassUtilsTest extends TestCase
 
     }
 
+    /**
+     * Test for the "getFlagsSetTo" methods taking BitSets.
+     */
+    public void testFlagsSetToForBitSet()
+    {
+        BitSet flags = new BitSet();
+        assertNull(ClassUtils.getFlagsSetTo(flags));
+        flags.set(1);
+        flags.set(3);
+        flags.set(70);
+        assertTrue(Arrays.equals(new int[] {1, 3, 70}, ClassUtils.getFlagsSetTo(flags)));
+
+        int[] indices = new int[] {0, 1, 2, 3, 70, 71};
+        assertTrue(Arrays.equals(new int[] {1, 3, 70}, ClassUtils.getFlagsSetTo(flags, indices, true)));
+        assertTrue(Arrays.equals(new int[] {0, 2, 71}, ClassUtils.getFlagsSetTo(flags, indices, false)));
+        assertNull(ClassUtils.getFlagsSetTo(flags, new int[] {1, 3}, false));
+
+        BitSet indexBits = new BitSet();
+        indexBits.set(2, 5);
+        indexBits.set(70);
+        assertTrue(Arrays.equals(new int[] {3, 70}, ClassUtils.getFlagsSetTo(flags, indexBits, true)));
+        assertTrue(Arrays.equals(new int[] {2, 4}, ClassUtils.getFlagsSetTo(flags, indexBits, false)));
+
+        boolean[] flagArray = ClassUtils.getFlagsForBitSet(flags, 72);
+        assertEquals(72, flagArray.length);
+        assertTrue(flagArray[70]);
+        assertFalse(flagArray[71]);
+        assertEquals(flags, ClassUtils.getBitSetForFlags(flagArray));
+    }
+
     /**
      * Test of whether a class is an inner class
      */